@@ -4,20 +4,28 @@ import android.util.Log;
 
 import com.aiassistant.ml.ActionPrioritization;
 import com.aiassistant.ml.AnomalyDetector;
+import com.aiassistant.ml.FeatureSchema;
 import com.aiassistant.ml.GameRuleUnderstanding;
+import com.aiassistant.ml.PerformanceProfiler;
 import com.aiassistant.ml.PredictiveActionSystem;
 import com.aiassistant.ml.RuleExtractionSystem;
+import com.aiassistant.ml.StateRecord;
 import com.aiassistant.rl.AlgorithmSelector;
 import com.aiassistant.rl.RLAgent;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * Unified Decision Engine — aggregates signals from all AI subsystems and
@@ -29,26 +37,59 @@ import java.util.concurrent.atomic.AtomicLong;
  *      2. PredictiveActionSystem (Thompson-Sampling contextual bandit)
  *      3. RuleExtractionSystem (IF-THEN matched rules)
  *      4. GameRuleUnderstanding (causal rule confidence)
+ *  • Parallel evaluation: each source runs on its own worker against a
+ *    snapshot of the state, and {@code decide} waits only until the decision
+ *    deadline (or until sources holding the quorum weight have answered). A
+ *    source that misses the deadline keeps running; its vote is applied to
+ *    the next decision, or dropped once it is more than
+ *    {@value #MAX_STALE_DECISIONS} decisions old. A busy source is not
+ *    re-queued, so a slow source never builds a backlog.
  *  • Weighted-voting fusion: each source votes for its preferred action
  *    with a weight equal to its configured weight × its internal confidence.
+ *    Votes are fused on primitive per-thread arrays.
  *  • Emergency override: if the AnomalyDetector reports an active anomaly
  *    in any critical feature, a pre-configured safety action is injected.
  *  • Outcome feedback loop: the caller reports the actual reward after each
  *    action via {@link #recordOutcome}; this updates source weights through
  *    an exponential moving average of per-source correctness.
- *  • Decision logging: last N decisions are kept for introspection.
+ *  • Typed state: {@link #decide(float[], StateRecord)} takes a flat
+ *    schema-slotted record that every source reads directly; the map overload
+ *    adapts into a per-thread record once per call.
+ *  • Decision logging: the last {@value #MAX_LOG} decisions live in a
+ *    preallocated primitive ring (action, per-source votes and weights,
+ *    confidence, timestamp, reward) appended without allocation. Each slot
+ *    has its own lock, taken briefly by the writer filling it; readers read
+ *    optimistically and only lock when a write overlaps them.
+ *    Each decision gets a sequence number; {@link #recordOutcomeForSequence}
+ *    joins a reward back to its decision by that number, and
+ *    {@link DecisionRecord}s are only materialised when the log is read.
+ *  • Latency: each decision and each source query is timed into the shared
+ *    {@link PerformanceProfiler} ("decision.decide", "decision.rl",
+ *    "decision.pred", "decision.rule", "decision.game"); late and dropped
+ *    votes are counted per source in {@link #getStats()}.
  *  • Thread-safe; can be called from any thread.
  */
 public class DecisionEngine {
     private static final String TAG           = "DecisionEngine";
-    private static final int    MAX_LOG       = 100;
+    private static final int    MAX_LOG       = 128;    // power of two
     private static final float  EMA_ALPHA     = 0.1f;   // weight-update learning rate
     private static final float  MIN_WEIGHT    = 0.05f;
+    private static final long   DEFAULT_DEADLINE_MS = 15;
+    private static final int    MAX_STALE_DECISIONS = 2;
+
+    // Source slots in the primitive vote arrays
+    private static final int    SRC_RL     = 0;
+    private static final int    SRC_PRED   = 1;
+    private static final int    SRC_RULE   = 2;
+    private static final int    SRC_GAME   = 3;
+    private static final int    NUM_SOURCES = 4;
+    private static final long   NO_VOTE    = Long.MIN_VALUE;
 
     // -----------------------------------------------------------------------
     // Decision record
     // -----------------------------------------------------------------------
     public static class DecisionRecord {
+        public final long             sequence;
         public final int              chosenAction;
         public final Map<String, Integer> sourceVotes;    // source → voted action
         public final Map<String, Float>   sourceWeights;  // source → effective weight
@@ -57,28 +98,210 @@ public class DecisionEngine {
         public final boolean          emergencyOverride;
         public       float            actualReward = Float.NaN;
 
-        DecisionRecord(int action, Map<String, Integer> votes,
-                       Map<String, Float> weights, float conf, boolean emergency) {
+        DecisionRecord(long sequence, int action, Map<String, Integer> votes,
+                       Map<String, Float> weights, float conf, long timestamp,
+                       boolean emergency, float reward) {
+            this.sequence        = sequence;
             this.chosenAction    = action;
-            this.sourceVotes     = new HashMap<>(votes);
-            this.sourceWeights   = new HashMap<>(weights);
+            this.sourceVotes     = votes;
+            this.sourceWeights   = weights;
             this.confidence      = conf;
-            this.timestamp       = System.currentTimeMillis();
+            this.timestamp       = timestamp;
             this.emergencyOverride = emergency;
+            this.actualReward    = reward;
         }
     }
 
+    // -----------------------------------------------------------------------
+    // Decision ring log
+    // -----------------------------------------------------------------------
+
+    /**
+     * Fixed-capacity ring of primitive decision columns. Writers claim a
+     * sequence number with one atomic increment and fill the slot under that
+     * slot's write lock. Readers try an optimistic read of the slot and fall
+     * back to its read lock if a writer got in, so they never see a torn
+     * record; a slot that no longer holds the wanted sequence reads as missing.
+     */
+    private static final class DecisionLog {
+        final int             mask;
+        final AtomicLong      next      = new AtomicLong(0);
+        final StampedLock[]   locks;
+        final long[]          seqs;                  // seq stored in slot, -1 = empty
+        final int[]           actions;
+        final int[]           votes;                 // capacity × NUM_SOURCES, -1 = no vote
+        final float[]         weights;               // capacity × NUM_SOURCES
+        final float[]         confidence;
+        final long[]          timestamps;
+        final boolean[]       emergency;
+        final float[]         rewards;               // NaN until the outcome is reported
+
+        DecisionLog(int capacity) {
+            mask       = capacity - 1;
+            locks      = new StampedLock[capacity];
+            seqs       = new long[capacity];
+            for (int i = 0; i < capacity; i++) locks[i] = new StampedLock();
+            Arrays.fill(seqs, -1L);
+            actions    = new int[capacity];
+            votes      = new int[capacity * NUM_SOURCES];
+            weights    = new float[capacity * NUM_SOURCES];
+            confidence = new float[capacity];
+            timestamps = new long[capacity];
+            emergency  = new boolean[capacity];
+            rewards    = new float[capacity];
+        }
+
+        long append(int action, int[] srcVotes, float[] srcWeights,
+                    float conf, long timestamp, boolean emerg) {
+            long seq = next.getAndIncrement();
+            int  i   = (int) (seq & mask);
+            long stamp = locks[i].writeLock();
+            try {
+                actions[i]    = action;
+                int base = i * NUM_SOURCES;
+                for (int s = 0; s < NUM_SOURCES; s++) {
+                    votes[base + s]   = srcVotes != null ? srcVotes[s] : -1;
+                    weights[base + s] = srcWeights != null ? srcWeights[s] : 0f;
+                }
+                confidence[i] = conf;
+                timestamps[i] = timestamp;
+                emergency[i]  = emerg;
+                rewards[i]    = Float.NaN;
+                seqs[i]       = seq;
+            } finally {
+                locks[i].unlockWrite(stamp);
+            }
+            return seq;
+        }
+
+        int size() { return (int) Math.min(next.get(), mask + 1L); }
+    }
+
     // -----------------------------------------------------------------------
     // Signal source descriptor
     // -----------------------------------------------------------------------
-    private static class Source {
+
+    /** One source evaluation, published as a unit so a vote is never paired with another run's seq. */
+    private static final class SourceResult {
+        final long  seq;
+        final int   action;
+        final float scale;
+
+        SourceResult(long seq, int action, float scale) {
+            this.seq    = seq;
+            this.action = action;
+            this.scale  = scale;
+        }
+    }
+
+    private static final SourceResult NO_RESULT = new SourceResult(-1L, -1, 0f);
+
+    private class Source implements Runnable {
         final String name;
+        final int    slot;
+        final String section;
         volatile float weight;
         volatile float emaCorrectness = 0.5f; // starts neutral
 
-        Source(String name, float initialWeight) {
-            this.name   = name;
-            this.weight = initialWeight;
+        // Input snapshot, owned by whoever holds busy
+        final AtomicBoolean busy = new AtomicBoolean(false);
+        float[]     stateBuf = new float[0];
+        boolean     hasState;
+        StateRecord recordBuf;
+        boolean     hasRecord;
+        long        launchSeq;
+        long        deadlineNs;
+
+        // Latest result
+        volatile SourceResult result = NO_RESULT;
+        final AtomicLong usedSeq = new AtomicLong(-1);
+
+        final AtomicLong lateVotes    = new AtomicLong();
+        final AtomicLong droppedVotes = new AtomicLong();
+
+        Source(String name, int slot, float initialWeight) {
+            this.name    = name;
+            this.slot    = slot;
+            this.section = "decision." + name.toLowerCase();
+            this.weight  = initialWeight;
+        }
+
+        /** Snapshots the inputs and queues an evaluation unless one is already running. */
+        boolean launch(long seq, long deadline, float[] state, StateRecord record) {
+            if (!busy.compareAndSet(false, true)) return false;
+            hasState = state != null;
+            if (hasState) {
+                if (stateBuf.length != state.length) stateBuf = new float[state.length];
+                System.arraycopy(state, 0, stateBuf, 0, state.length);
+            }
+            hasRecord = record != null;
+            if (hasRecord) {
+                if (recordBuf == null || recordBuf.getSchema() != record.getSchema()) {
+                    recordBuf = record.getSchema().newRecord();
+                }
+                recordBuf.copyFrom(record);
+            }
+            launchSeq  = seq;
+            deadlineNs = deadline;
+            try {
+                sourceExecutor.execute(this);
+                return true;
+            } catch (Exception e) {
+                busy.set(false);
+                Log.e(TAG, "Failed to queue source " + name + ": " + e.getMessage());
+                return false;
+            }
+        }
+
+        @Override
+        public void run() {
+            long  t0     = System.nanoTime();
+            int   action = -1;
+            float scale  = 1f;
+            try {
+                switch (slot) {
+                    case SRC_RL:
+                        if (hasState) action = clamp(rlAgent.selectAction(stateBuf));
+                        break;
+                    case SRC_PRED:
+                        if (hasRecord) action = clamp(predictive.selectAction(recordBuf));
+                        break;
+                    case SRC_RULE:
+                        if (hasRecord) action = ruleActionFromSystem(recordBuf);
+                        break;
+                    case SRC_GAME:
+                        List<GameRuleUnderstanding.GameRule> rules = ruleUnderstanding.getAllRules();
+                        if (!rules.isEmpty()) { action = 0; scale = rules.get(0).getConfidence(); }
+                        break;
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Source " + name + " failed: " + e.getMessage());
+                action = -1;
+            }
+            long end = System.nanoTime();
+            profiler.recordNanos(section, end - t0);
+            if (end > deadlineNs) lateVotes.incrementAndGet();
+
+            result = new SourceResult(launchSeq, action, scale);
+            busy.set(false);
+            synchronized (completion) { completion.notifyAll(); }
+        }
+
+        /**
+         * Claims the latest unconsumed vote for decision {@code seq}, packed as
+         * (action &lt;&lt; 32 | scale bits), or {@link #NO_VOTE}.
+         */
+        long claim(long seq) {
+            SourceResult res = result;
+            long  rs     = res.seq;
+            if (rs < 0) return NO_VOTE;
+            int   action = res.action;
+            float scale  = res.scale;
+            long used = usedSeq.get();
+            if (rs <= used || !usedSeq.compareAndSet(used, rs)) return NO_VOTE;  // already applied
+            if (seq - rs > MAX_STALE_DECISIONS) { droppedVotes.incrementAndGet(); return NO_VOTE; }
+            if (action < 0) return NO_VOTE;
+            return ((long) action << 32) | (Float.floatToRawIntBits(scale) & 0xFFFFFFFFL);
         }
     }
 
@@ -90,23 +313,50 @@ public class DecisionEngine {
     private final RuleExtractionSystem      ruleSystem;
     private final GameRuleUnderstanding     ruleUnderstanding;
     private final AnomalyDetector           anomalyDetector;
-
-    private final Source srcRL    = new Source("RL",   0.40f);
-    private final Source srcPred  = new Source("PRED", 0.30f);
-    private final Source srcRule  = new Source("RULE", 0.20f);
-    private final Source srcGame  = new Source("GAME", 0.10f);
+    private final PerformanceProfiler       profiler = PerformanceProfiler.getInstance();
+
+    private final Source srcRL    = new Source("RL",   SRC_RL,   0.40f);
+    private final Source srcPred  = new Source("PRED", SRC_PRED, 0.30f);
+    private final Source srcRule  = new Source("RULE", SRC_RULE, 0.20f);
+    private final Source srcGame  = new Source("GAME", SRC_GAME, 0.10f);
+    private final Source[] sources = {srcRL, srcPred, srcRule, srcGame};
+
+    private final ExecutorService           sourceExecutor;
+    private final Object                    completion      = new Object();
+    private final AtomicLong                decisionSeq     = new AtomicLong(0);
+    private volatile long                   deadlineNs      = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DEADLINE_MS);
+    private volatile float                  quorumWeight    = 1f;
+
+    /** Per-thread fusion buffers: votes per action, vote per source, weight per source. */
+    private static final class FusionScratch {
+        float[] votes = new float[0];
+        final int[]     sourceVotes   = new int[NUM_SOURCES];
+        final float[]   sourceWeights = new float[NUM_SOURCES];
+        final boolean[] launched      = new boolean[NUM_SOURCES];
+        final int[]     outcomeVotes  = new int[NUM_SOURCES];
+    }
+    private final ThreadLocal<FusionScratch> fusionScratch = new ThreadLocal<FusionScratch>() {
+        @Override
+        protected FusionScratch initialValue() { return new FusionScratch(); }
+    };
 
     private final int                       actionSize;
     private       int                       safetyAction = 0;  // fallback action on anomaly
     private final List<String>              criticalFeatures   = new ArrayList<>();
+    private volatile int[]                  criticalSlots      = new int[0];
+    private volatile int                    criticalVersion    = -1;
+    private final ThreadLocal<StateRecord>  scratchRecords     = new ThreadLocal<StateRecord>() {
+        @Override
+        protected StateRecord initialValue() {
+            return FeatureSchema.getInstance().newRecord();
+        }
+    };
 
-    private final List<DecisionRecord>      log            = Collections.synchronizedList(new ArrayList<>());
+    private final DecisionLog               log            = new DecisionLog(MAX_LOG);
+    private final Object                    feedbackLock   = new Object();
     private final AtomicInteger             decisionCount  = new AtomicInteger(0);
     private final AtomicLong                lastDecisionMs = new AtomicLong(0);
 
-    // Map decision index → source that recommended it (for feedback)
-    private final ConcurrentHashMap<Integer, String> pendingFeedback = new ConcurrentHashMap<>();
-
     // -----------------------------------------------------------------------
     // Constructor
     // -----------------------------------------------------------------------
@@ -121,6 +371,11 @@ public class DecisionEngine {
         this.ruleUnderstanding = ruleUnderstanding;
         this.anomalyDetector  = AnomalyDetector.getInstance();
         this.actionSize       = Math.max(1, actionSize);
+        this.sourceExecutor   = Executors.newFixedThreadPool(NUM_SOURCES, r -> {
+            Thread t = new Thread(r, "DecisionSource");
+            t.setDaemon(true);
+            return t;
+        });
         Log.i(TAG, "DecisionEngine created actionSize=" + actionSize);
     }
 
@@ -136,78 +391,85 @@ public class DecisionEngine {
      * @return             Best action index in [0, actionSize)
      */
     public int decide(float[] state, Map<String, Object> stateMap) {
+        StateRecord record = stateMap != null ? scratchRecords.get().readFrom(stateMap) : null;
+        return decide(state, record);
+    }
+
+    /**
+     * Returns the recommended action index for the given state.
+     *
+     * @param state        Numeric state features for the RL agent
+     * @param record       Slotted state for the anomaly, rule and predictive sources
+     * @return             Best action index in [0, actionSize)
+     */
+    public int decide(float[] state, StateRecord record) {
+        long t0 = System.nanoTime();
         lastDecisionMs.set(System.currentTimeMillis());
 
         // 1. Anomaly check — safety override
         boolean emergency = false;
-        if (!criticalFeatures.isEmpty()) {
-            Map<String, Boolean> anomalies = anomalyDetector.observeAll(stateMap);
-            for (String cf : criticalFeatures) {
-                if (Boolean.TRUE.equals(anomalies.get(cf))) { emergency = true; break; }
-            }
+        if (!criticalFeatures.isEmpty() && record != null) {
+            emergency = anomalyDetector.observeAll(record, criticalSlots(record.getSchema()));
         }
         if (emergency) {
             Log.w(TAG, "Anomaly detected — emergency action=" + safetyAction);
-            recordDecision(safetyAction, Collections.emptyMap(), Collections.emptyMap(),
-                           0f, true);
+            log.append(safetyAction, null, null, 0f, lastDecisionMs.get(), true);
+            profiler.recordNanos("decision.decide", System.nanoTime() - t0);
             return safetyAction;
         }
 
-        // 2. Gather votes from each source
-        float[] votes = new float[actionSize]; // accumulated weighted score per action
-        Map<String, Integer> sourceVotes   = new HashMap<>();
-        Map<String, Float>   sourceWeights = new HashMap<>();
-
-        // RL agent
-        if (rlAgent != null && state != null) {
-            int a = clamp(rlAgent.selectAction(state));
-            float w = srcRL.weight;
-            votes[a] += w; sourceVotes.put("RL", a); sourceWeights.put("RL", w);
-        }
-
-        // PredictiveActionSystem
-        if (predictive != null && stateMap != null) {
-            int a = clamp(predictive.selectAction(stateMap));
-            float w = srcPred.weight;
-            votes[a] += w; sourceVotes.put("PRED", a); sourceWeights.put("PRED", w);
-        }
-
-        // RuleExtractionSystem
-        if (ruleSystem != null && stateMap != null) {
-            int a = ruleActionFromSystem(stateMap);
-            if (a >= 0) {
-                float w = srcRule.weight;
-                votes[a] += w; sourceVotes.put("RULE", a); sourceWeights.put("RULE", w);
-            }
+        // 2. Launch every idle source on a snapshot of this state, then wait
+        //    for the quorum or the deadline, whichever comes first
+        long seq = decisionSeq.incrementAndGet();
+        long deadline = t0 + deadlineNs;
+        FusionScratch fs = fusionScratch.get();
+        fs.launched[SRC_RL]   = rlAgent != null && state != null
+                && srcRL.launch(seq, deadline, state, record);
+        fs.launched[SRC_PRED] = predictive != null && record != null
+                && srcPred.launch(seq, deadline, state, record);
+        fs.launched[SRC_RULE] = ruleSystem != null && record != null
+                && srcRule.launch(seq, deadline, state, record);
+        fs.launched[SRC_GAME] = ruleUnderstanding != null
+                && srcGame.launch(seq, deadline, state, record);
+        awaitSources(seq, deadline, fs.launched);
+
+        // 3. Fuse whatever has arrived (fresh or carried over from a late source)
+        if (fs.votes.length != actionSize) fs.votes = new float[actionSize];
+        float[] votes = fs.votes;               // accumulated weighted score per action
+        Arrays.fill(votes, 0f);
+        int[]   sourceVotes   = fs.sourceVotes;
+        float[] sourceWeights = fs.sourceWeights;
+        Arrays.fill(sourceVotes, -1);
+        Arrays.fill(sourceWeights, 0f);
+
+        for (int i = 0; i < SRC_GAME; i++) {
+            long vote = sources[i].claim(seq);
+            if (vote == NO_VOTE) continue;
+            int a = (int) (vote >> 32);
+            float w = sources[i].weight;
+            votes[a] += w; sourceVotes[i] = a; sourceWeights[i] = w;
         }
 
         // GameRuleUnderstanding — boost RL choice if it matches a confident rule
-        if (ruleUnderstanding != null) {
-            int a = sourceVotes.getOrDefault("RL", 0);
-            List<GameRuleUnderstanding.GameRule> rules =
-                    ruleUnderstanding.getAllRules();
-            if (!rules.isEmpty()) {
-                float conf = rules.get(0).getConfidence();
-                votes[clamp(a)] += srcGame.weight * conf;
-                sourceVotes.put("GAME", a); sourceWeights.put("GAME", srcGame.weight * conf);
-            }
+        long game = srcGame.claim(seq);
+        if (game != NO_VOTE) {
+            int a = clamp(sourceVotes[SRC_RL] >= 0 ? sourceVotes[SRC_RL] : 0);
+            float w = srcGame.weight * Float.intBitsToFloat((int) game);
+            votes[a] += w; sourceVotes[SRC_GAME] = a; sourceWeights[SRC_GAME] = w;
         }
 
-        // 3. Pick highest-scored action
+        // 4. Pick highest-scored action
         int   best = 0;
         float bv   = votes[0];
         for (int i = 1; i < votes.length; i++) if (votes[i] > bv) { bv = votes[i]; best = i; }
 
-        // 4. Confidence = winning score / total score
+        // 5. Confidence = winning score / total score
         float total = 0; for (float v : votes) total += v;
         float conf  = total > 0 ? bv / total : 0f;
 
         decisionCount.incrementAndGet();
-        recordDecision(best, sourceVotes, sourceWeights, conf, false);
-
-        Log.d(TAG, "Decision #" + decisionCount.get() + " action=" + best
-                + " conf=" + String.format("%.2f", conf)
-                + " votes=" + formatVotes(votes));
+        log.append(best, sourceVotes, sourceWeights, conf, lastDecisionMs.get(), false);
+        profiler.recordNanos("decision.decide", System.nanoTime() - t0);
         return best;
     }
 
@@ -223,18 +485,45 @@ public class DecisionEngine {
      * @param reward        Actual reward received in [0, 1]
      */
     public void recordOutcome(int decisionIndex, float reward) {
-        synchronized (log) {
-            int idx = log.size() - 1 - decisionIndex;
-            if (idx < 0 || idx >= log.size()) return;
-            DecisionRecord rec = log.get(idx);
-            rec.actualReward = reward;
+        applyOutcome(log.next.get() - 1 - decisionIndex, reward, decisionIndex % actionSize);
+    }
+
+    /**
+     * Reports the actual reward for the decision with the given sequence
+     * number (see {@link #getLastDecisionSequence()}). Ignored if that
+     * decision has already rotated out of the log.
+     *
+     * @return true if the reward was joined to its decision
+     */
+    public boolean recordOutcomeForSequence(long sequence, float reward) {
+        long decisionIndex = log.next.get() - 1 - sequence;
+        return applyOutcome(sequence, reward, (int) (decisionIndex % actionSize));
+    }
+
+    /** Joins {@code reward} to decision {@code sequence} and reports {@code predictiveAction} to the predictive system. */
+    private boolean applyOutcome(long sequence, float reward, int predictiveAction) {
+        if (sequence < 0) return false;
+        int   i     = (int) (sequence & log.mask);
+        int[] voted = fusionScratch.get().outcomeVotes;
+        int   chosen;
+        long  stamp = log.locks[i].writeLock();
+        try {
+            if (log.seqs[i] != sequence) return false;
+            chosen = log.actions[i];
+            System.arraycopy(log.votes, i * NUM_SOURCES, voted, 0, NUM_SOURCES);
+            log.rewards[i] = reward;
+        } finally {
+            log.locks[i].unlockWrite(stamp);
+        }
+
+        synchronized (feedbackLock) {
 
             // Update per-source correctness based on whether source voted for the chosen action
-            for (Source src : new Source[]{srcRL, srcPred, srcRule, srcGame}) {
-                Integer voted = rec.sourceVotes.get(src.name);
-                if (voted == null) continue;
+            for (int s = 0; s < NUM_SOURCES; s++) {
+                if (voted[s] < 0) continue;
+                Source src = sources[s];
                 // Correctness: was this source's vote the same as the chosen action that got reward?
-                float correct = (voted == rec.chosenAction) ? reward : 1f - reward;
+                float correct = (voted[s] == chosen) ? reward : 1f - reward;
                 src.emaCorrectness = (1 - EMA_ALPHA) * src.emaCorrectness + EMA_ALPHA * correct;
             }
             rebalanceWeights();
@@ -243,15 +532,15 @@ public class DecisionEngine {
         // Also notify predictive system
         if (predictive != null) {
             Map<String, Object> emptyCtx = Collections.emptyMap();
-            predictive.recordOutcome(emptyCtx, decisionIndex % actionSize, reward);
+            predictive.recordOutcome(emptyCtx, predictiveAction, reward);
         }
+        return true;
     }
 
     // -----------------------------------------------------------------------
     // Weight rebalancing
     // -----------------------------------------------------------------------
     private void rebalanceWeights() {
-        Source[] sources = {srcRL, srcPred, srcRule, srcGame};
         float total = 0;
         float[] raw = new float[sources.length];
         for (int i = 0; i < sources.length; i++) {
@@ -265,43 +554,114 @@ public class DecisionEngine {
     // Internal helpers
     // -----------------------------------------------------------------------
 
-    private int ruleActionFromSystem(Map<String, Object> stateMap) {
+    private int ruleActionFromSystem(StateRecord record) {
         if (ruleSystem == null) return -1;
-        List<RuleExtractionSystem.GameRule> matched = ruleSystem.findRelevantRules(stateMap, null);
-        if (matched.isEmpty()) return -1;
-        String actionStr = matched.get(0).getAction();
+        RuleExtractionSystem.GameRule best = ruleSystem.getBestRule(record);
+        if (best == null) return -1;
+        String actionStr = best.getAction();
         // Simple heuristic: hash the action name to an index
         return Math.abs(actionStr.hashCode()) % actionSize;
     }
 
+    /** Critical feature names resolved to slots, refreshed when the schema grows. */
+    private int[] criticalSlots(FeatureSchema schema) {
+        int version = schema.getVersion();
+        if (version != criticalVersion) {
+            synchronized (criticalFeatures) {
+                int[] slots = new int[criticalFeatures.size()];
+                for (int i = 0; i < slots.length; i++) slots[i] = schema.slotOf(criticalFeatures.get(i));
+                criticalSlots   = slots;
+                criticalVersion = version;
+            }
+        }
+        return criticalSlots;
+    }
+
+    /**
+     * Blocks until every source launched for {@code seq} has answered, the
+     * answered sources hold at least the quorum weight, or the deadline passes.
+     */
+    private void awaitSources(long seq, long deadline, boolean[] launched) {
+        synchronized (completion) {
+            while (true) {
+                boolean pending = false;
+                float   answered = 0f;
+                for (int i = 0; i < NUM_SOURCES; i++) {
+                    if (!launched[i]) continue;
+                    if (sources[i].result.seq >= seq) answered += sources[i].weight;
+                    else pending = true;
+                }
+                if (!pending || answered >= quorumWeight) return;
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return;
+                try {
+                    completion.wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
     private int clamp(int a) { return Math.max(0, Math.min(actionSize - 1, a)); }
 
-    private void recordDecision(int action,
-                                Map<String, Integer> votes,
-                                Map<String, Float> weights,
-                                float conf, boolean emergency) {
-        DecisionRecord rec = new DecisionRecord(action, votes, weights, conf, emergency);
-        synchronized (log) {
-            log.add(rec);
-            if (log.size() > MAX_LOG) log.remove(0);
+    /** Materialises the ring slot holding {@code seq}, or null if it has been overwritten. */
+    private DecisionRecord readDecision(long seq) {
+        if (seq < 0) return null;
+        int         i     = (int) (seq & log.mask);
+        StampedLock lock  = log.locks[i];
+        long        stamp = lock.tryOptimisticRead();
+        DecisionRecord rec = materialise(seq, i);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                rec = materialise(seq, i);
+            } finally {
+                lock.unlockRead(stamp);
+            }
         }
+        return rec;
     }
 
-    private String formatVotes(float[] v) {
-        StringBuilder sb = new StringBuilder("[");
-        for (int i = 0; i < v.length; i++) {
-            if (i > 0) sb.append(',');
-            sb.append(String.format("%.2f", v[i]));
+    /** Reads slot {@code i}; the caller validates it against concurrent writes. */
+    private DecisionRecord materialise(long seq, int i) {
+        if (log.seqs[i] != seq) return null;
+        int base = i * NUM_SOURCES;
+        Map<String, Integer> votes   = new HashMap<>();
+        Map<String, Float>   weights = new HashMap<>();
+        for (int s = 0; s < NUM_SOURCES; s++) {
+            if (log.votes[base + s] < 0) continue;
+            votes.put(sources[s].name, log.votes[base + s]);
+            weights.put(sources[s].name, log.weights[base + s]);
         }
-        return sb.append(']').toString();
+        return new DecisionRecord(seq, log.actions[i], votes, weights,
+                log.confidence[i], log.timestamps[i], log.emergency[i], log.rewards[i]);
     }
 
     // -----------------------------------------------------------------------
     // Configuration
     // -----------------------------------------------------------------------
     public void setSafetyAction(int action) { safetyAction = clamp(action); }
-    public void addCriticalFeature(String f) { criticalFeatures.add(f); }
-    public void clearCriticalFeatures()      { criticalFeatures.clear(); }
+
+    /** Maximum time {@code decide} waits for sources; late votes roll over to the next decision. */
+    public void setDecisionDeadlineMs(long ms) { deadlineNs = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ms)); }
+
+    /**
+     * Combined source weight (sources are normalised to sum to 1) after which
+     * {@code decide} stops waiting for the rest. 1 waits for every source.
+     */
+    public void setQuorumWeight(float w) { quorumWeight = Math.max(0f, Math.min(1f, w)); }
+
+    /** Stops the source workers; further decisions use only carried-over votes. */
+    public void shutdown() { sourceExecutor.shutdownNow(); }
+    public void addCriticalFeature(String f) {
+        synchronized (criticalFeatures) { criticalFeatures.add(f); criticalVersion = -1; }
+    }
+
+    public void clearCriticalFeatures() {
+        synchronized (criticalFeatures) { criticalFeatures.clear(); criticalVersion = -1; }
+    }
 
     public void setSourceWeights(float wRL, float wPred, float wRule, float wGame) {
         float s = wRL + wPred + wRule + wGame;
@@ -329,20 +689,36 @@ public class DecisionEngine {
             "PRED", srcPred.emaCorrectness,
             "RULE", srcRule.emaCorrectness,
             "GAME", srcGame.emaCorrectness));
+        Map<String, Long> late = new HashMap<>();
+        Map<String, Long> dropped = new HashMap<>();
+        for (Source src : sources) {
+            late.put(src.name, src.lateVotes.get());
+            dropped.put(src.name, src.droppedVotes.get());
+        }
+        m.put("lateVotes",    late);
+        m.put("droppedVotes", dropped);
+        m.put("deadlineMs",   deadlineNs / 1_000_000L);
         m.put("logSize", log.size());
+        m.put("lastSequence", log.next.get() - 1);
         return m;
     }
 
+    /** Sequence number of the most recent decision, or -1 before the first. */
+    public long getLastDecisionSequence() { return log.next.get() - 1; }
+
     public DecisionRecord getLastDecision() {
-        synchronized (log) {
-            return log.isEmpty() ? null : log.get(log.size() - 1);
-        }
+        return readDecision(log.next.get() - 1);
     }
 
+    /** Up to the last {@code n} decisions, oldest first. */
     public List<DecisionRecord> getDecisionLog(int n) {
-        synchronized (log) {
-            int from = Math.max(0, log.size() - n);
-            return new ArrayList<>(log.subList(from, log.size()));
+        long last = log.next.get() - 1;
+        long from = Math.max(0, last - Math.min(n, log.size()) + 1);
+        List<DecisionRecord> out = new ArrayList<>();
+        for (long seq = from; seq <= last; seq++) {
+            DecisionRecord rec = readDecision(seq);
+            if (rec != null) out.add(rec);
         }
+        return out;
     }
 }
@@ -6,6 +6,7 @@ import android.util.Log;
 
 import com.aiassistant.detection.EnemyDetector;
 import com.aiassistant.ml.GamePatternRecognizer;
+import com.aiassistant.ml.PerformanceProfiler;
 import com.aiassistant.utils.ElementDetector;
 
 import java.util.ArrayList;
@@ -119,6 +120,7 @@ public class PerceptionEngine {
             Executors.newFixedThreadPool(3); // one thread per channel
 
     private final List<PerceptionListener> listeners = new CopyOnWriteArrayList<>();
+    private final PerformanceProfiler      profiler  = PerformanceProfiler.getInstance();
 
     private final AtomicLong frameCount    = new AtomicLong(0);
     private final AtomicLong droppedFrames = new AtomicLong(0);
@@ -152,6 +154,7 @@ public class PerceptionEngine {
 
             elementDetector   = new ElementDetector(context);
             patternRecognizer = GamePatternRecognizer.getInstance(context);
+            patternRecognizer.setObjectTracker(enemyDetector.getObjectTracker());
             patternRecognizer.start();
 
             initialized = true;
@@ -185,12 +188,13 @@ public class PerceptionEngine {
         frameCount.incrementAndGet();
 
         long t0 = System.currentTimeMillis();
+        long t0Ns = System.nanoTime();
 
         // ---- Channel 1: Enemy detection ----
         Future<List<Map<String, Object>>> enemyFuture = null;
         if (enemyChannel) {
             enemyFuture = pool.submit(() -> {
-                try {
+                try (PerformanceProfiler.Scope ignored = profiler.time("perception.enemy")) {
                     return enemyDetector.detectEnemies(screen);
                 } catch (Exception e) {
                     Log.w(TAG, "Enemy channel error: " + e.getMessage());
@@ -203,7 +207,7 @@ public class PerceptionEngine {
         Future<Map<String, Object>> elementFuture = null;
         if (elementChannel) {
             elementFuture = pool.submit(() -> {
-                try {
+                try (PerformanceProfiler.Scope ignored = profiler.time("perception.element")) {
                     return elementDetector.detectElements(screen);
                 } catch (Exception e) {
                     Log.w(TAG, "Element channel error: " + e.getMessage());
@@ -235,6 +239,7 @@ public class PerceptionEngine {
         } catch (Exception e) { Log.w(TAG, "Element future error: " + e.getMessage()); }
 
         long processingMs = System.currentTimeMillis() - t0;
+        profiler.recordNanos("perception.frame", System.nanoTime() - t0Ns);
         totalMs.addAndGet(processingMs);
 
         // ---- Compute composite confidence ----
@@ -277,6 +282,11 @@ public class PerceptionEngine {
         s.put("frameCount",    fc);
         s.put("droppedFrames", droppedFrames.get());
         s.put("avgProcessingMs", fc > 0 ? (double) totalMs.get() / fc : 0.0);
+        PerformanceProfiler.Snapshot frames = profiler.getSnapshot("perception.frame");
+        if (frames != null) {
+            s.put("p99ProcessingMs",  frames.percentileNs(99)   / 1e6);
+            s.put("p999ProcessingMs", frames.percentileNs(99.9) / 1e6);
+        }
         s.put("enemyChannel",   enemyChannel);
         s.put("elementChannel", elementChannel);
         s.put("patternChannel", patternChannel);
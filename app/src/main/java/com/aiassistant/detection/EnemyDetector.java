@@ -11,10 +11,11 @@ import com.aiassistant.ml.TensorflowLiteObjectDetector;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Advanced enemy detection system specifically optimized for games
@@ -108,6 +109,22 @@ public class EnemyDetector {
             this.lastSeen = now;
         }
         
+        /**
+         * Update enemy attributes from its tracker state. The Kalman estimate
+         * replaces the raw centre difference, so velocity stays smooth and is
+         * available on frames where the detector did not run.
+         */
+        void applyTrack(MultiObjectTracker.Track track, long timestamp, boolean detected) {
+            this.bounds = track.getBounds();
+            this.center = new Point(bounds.centerX(), bounds.centerY());
+            this.velocity_x = track.getVelocityX();
+            this.velocity_y = track.getVelocityY();
+            if (detected) {
+                this.confidence = 0.3 * this.confidence + 0.7 * (0.8 + Math.random() * 0.2); // Simulate confidence
+                this.lastSeen = timestamp;
+            }
+        }
+        
         /**
          * Check if enemy is still valid (not too old)
          */
@@ -164,9 +181,11 @@ public class EnemyDetector {
     private boolean lowPowerMode = false;
     private Bitmap previousFrame = null;  // For motion detection
     
-    // Enemy tracking
+    // Enemy tracking; enemy ids are tracker track ids
     private final Map<String, EnemyAttributes> detectedEnemies = new ConcurrentHashMap<>();
-    private final AtomicInteger enemyIdCounter = new AtomicInteger(0);
+    private final MultiObjectTracker tracker = new MultiObjectTracker();
+    private int detectionInterval = 3; // Run the detector at least every Nth frame
+    private int framesSinceDetection = Integer.MAX_VALUE;
     
     // Performance metrics
     private long lastDetectionTimeMs = 0;
@@ -174,6 +193,7 @@ public class EnemyDetector {
     private int totalEnemiesDetected = 0;
     private double averageEnemiesPerFrame = 0;
     private double averageDetectionTime = 0;
+    private int trackedOnlyFrames = 0;
     
     /**
      * Create a new enemy detector
@@ -308,6 +328,24 @@ public class EnemyDetector {
         this.screenHeight = height;
     }
     
+    /**
+     * Set how often the full detector runs. On the frames in between, enemy
+     * positions are predicted by the tracker unless its uncertainty grows
+     * too large. 1 runs detection on every frame.
+     */
+    public void setDetectionInterval(int interval) {
+        this.detectionInterval = Math.max(1, interval);
+    }
+    
+    /**
+     * Tracker that owns enemy ids. Share it with consumers such as
+     * {@link com.aiassistant.ml.GamePatternRecognizer} so they refer to
+     * enemies by the same ids.
+     */
+    public MultiObjectTracker getObjectTracker() {
+        return tracker;
+    }
+    
     /**
      * Set low power mode
      */
@@ -318,6 +356,7 @@ public class EnemyDetector {
         if (enabled) {
             detectionThreshold = 0.7; // Higher threshold to reduce false positives
             maxEnemyAgeMs = 3000; // Keep tracking enemies longer to reduce processing
+            tracker.setMaxAgeMs(maxEnemyAgeMs);
             
             // Use simpler detection methods in low power mode
             if (primaryMethod == METHOD_HYBRID) {
@@ -326,6 +365,7 @@ public class EnemyDetector {
         } else {
             // Reset to default values
             maxEnemyAgeMs = 2000;
+            tracker.setMaxAgeMs(maxEnemyAgeMs);
             // Detection threshold depends on game type, so we'll reset it
             setGameType(gameType);
         }
@@ -344,6 +384,24 @@ public class EnemyDetector {
                 return results;
             }
             
+            // Between detections, let the tracker carry enemies forward
+            long now = System.currentTimeMillis();
+            if (framesSinceDetection < detectionInterval - 1 && !tracker.needsDetection()) {
+                framesSinceDetection++;
+                trackedOnlyFrames++;
+                tracker.predict(now);
+                syncEnemiesWithTracker(now, null);
+                
+                for (EnemyAttributes enemy : detectedEnemies.values()) {
+                    results.add(enemy.toMap());
+                }
+                lastDetectionTimeMs = System.currentTimeMillis() - startTime;
+                averageEnemiesPerFrame = ((averageEnemiesPerFrame * (frameCount - 1)) + results.size()) / frameCount;
+                averageDetectionTime = ((averageDetectionTime * (frameCount - 1)) + lastDetectionTimeMs) / frameCount;
+                return results;
+            }
+            framesSinceDetection = 0;
+            
             // Clean up old enemy data
             cleanupDetectedEnemies();
             
@@ -405,45 +463,43 @@ public class EnemyDetector {
     private void processDetections(List<Rect> detectedBounds) {
         long currentTime = System.currentTimeMillis();
         
-        // Track which enemies were updated
-        Set<String> updatedEnemies = new HashSet<>();
+        // Associate detections with predicted tracks (IoU + Hungarian assignment)
+        String[] trackIds = tracker.update(detectedBounds, currentTime);
         
-        // Process each detection
-        for (Rect bounds : detectedBounds) {
-            // Try to match to existing enemy
-            String matchedId = null;
-            double bestOverlap = 0.3; // Minimum overlap threshold
+        Set<String> detectedIds = new HashSet<>();
+        for (String trackId : trackIds) {
+            detectedIds.add(trackId);
+        }
+        syncEnemiesWithTracker(currentTime, detectedIds);
+    }
+    
+    /**
+     * Mirror tracker state into {@link #detectedEnemies}: create attributes
+     * for new tracks, refresh bounds and velocity for live ones and drop
+     * enemies whose track has expired
+     *
+     * @param detectedIds Tracks matched to a detection this frame, or null on predict-only frames
+     */
+    private void syncEnemiesWithTracker(long currentTime, Set<String> detectedIds) {
+        Set<String> liveIds = new HashSet<>();
+        for (MultiObjectTracker.Track track : tracker.getTracks()) {
+            String id = track.getId();
+            liveIds.add(id);
+            boolean detected = detectedIds != null && detectedIds.contains(id);
             
-            for (Map.Entry<String, EnemyAttributes> entry : detectedEnemies.entrySet()) {
-                EnemyAttributes enemy = entry.getValue();
-                double overlap = calculateRectOverlap(bounds, enemy.bounds);
-                
-                if (overlap > bestOverlap) {
-                    bestOverlap = overlap;
-                    matchedId = entry.getKey();
+            EnemyAttributes enemy = detectedEnemies.get(id);
+            if (enemy == null) {
+                if (!detected) {
+                    continue;
                 }
-            }
-            
-            if (matchedId != null) {
-                // Update existing enemy
-                EnemyAttributes enemy = detectedEnemies.get(matchedId);
-                enemy.update(bounds, 0.8 + Math.random() * 0.2); // Simulate confidence
-                updatedEnemies.add(matchedId);
-            } else {
-                // Create new enemy
-                String newId = "enemy_" + enemyIdCounter.incrementAndGet();
                 double confidence = 0.6 + Math.random() * 0.3; // Simulate confidence
-                EnemyAttributes newEnemy = new EnemyAttributes(newId, bounds, confidence);
-                detectedEnemies.put(newId, newEnemy);
-                updatedEnemies.add(newId);
+                detectedEnemies.put(id, new EnemyAttributes(id, track.getBounds(), confidence));
+            } else {
+                enemy.applyTrack(track, currentTime, detected);
             }
         }
         
-        // Remove enemies that weren't updated and are too old
-        detectedEnemies.entrySet().removeIf(entry -> 
-            !updatedEnemies.contains(entry.getKey()) && 
-            !entry.getValue().isValid(currentTime, maxEnemyAgeMs)
-        );
+        detectedEnemies.keySet().retainAll(liveIds);
     }
     
     /**
@@ -992,6 +1048,9 @@ public class EnemyDetector {
         metrics.put("low_power_mode", lowPowerMode);
         metrics.put("game_type", gameType);
         metrics.put("detection_method", primaryMethod);
+        metrics.put("detection_interval", detectionInterval);
+        metrics.put("tracked_only_frames", trackedOnlyFrames);
+        metrics.put("track_count", tracker.getTrackCount());
         
         return metrics;
     }
@@ -1004,5 +1063,6 @@ public class EnemyDetector {
         totalEnemiesDetected = 0;
         averageEnemiesPerFrame = 0;
         averageDetectionTime = 0;
+        trackedOnlyFrames = 0;
     }
 }
\ No newline at end of file
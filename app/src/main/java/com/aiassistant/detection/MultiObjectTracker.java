@@ -0,0 +1,484 @@
+package com.aiassistant.detection;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Lightweight multi-object tracker for on-screen game objects.
+ * <p>
+ * Each track runs a constant-velocity Kalman filter on its centre (one
+ * independent [position, velocity] filter per axis) and smooths its size.
+ * Between detections {@link #predict(long)} advances every track, so callers
+ * can skip the expensive detector on intermediate frames; when detections
+ * arrive, {@link #update(List, long)} associates them to predicted boxes by
+ * IoU using an optimal (Hungarian) assignment.
+ * <p>
+ * Track ids are stable strings ({@code "track_<n>"}) so that several
+ * consumers can refer to the same object. All methods are synchronized; the
+ * tracker is cheap enough that contention is not a concern.
+ */
+public class MultiObjectTracker {
+    public static final String TRACK_ID_PREFIX = "track_";
+
+    // Association and lifecycle defaults
+    private static final double DEFAULT_MIN_IOU = 0.2;
+    private static final long DEFAULT_MAX_AGE_MS = 2000;
+    private static final int DEFAULT_MIN_HITS = 2;
+
+    // Filter noise: measurement std in pixels, process (acceleration) std in px/s^2
+    private static final double MEASUREMENT_STD_PX = 8.0;
+    private static final double ACCELERATION_STD = 600.0;
+    private static final double INITIAL_VELOCITY_STD = 500.0;
+    private static final double SIZE_SMOOTHING = 0.3;
+
+    // Re-detect when a track's position std exceeds this fraction of its smaller side
+    private static final double DEFAULT_UNCERTAINTY_RATIO = 0.5;
+
+    /**
+     * One tracked object. Fields are only written under the tracker lock;
+     * callers get copies via {@link #getTracks()}.
+     */
+    public static class Track {
+        private final String id;
+        // Per-axis state [position, velocity] and covariance [p00, p01, p11]
+        private double x, vx, y, vy;
+        private final double[] covX = new double[3];
+        private final double[] covY = new double[3];
+        private double width, height;
+        private long lastPredictMs;
+        private long lastUpdateMs;
+        private int hits;
+        private int missedDetections;
+
+        Track(String id, Rect bounds, long timeMs) {
+            this.id = id;
+            this.x = bounds.exactCenterX();
+            this.y = bounds.exactCenterY();
+            this.width = bounds.width();
+            this.height = bounds.height();
+            double r = MEASUREMENT_STD_PX * MEASUREMENT_STD_PX;
+            double v = INITIAL_VELOCITY_STD * INITIAL_VELOCITY_STD;
+            covX[0] = r; covX[1] = 0; covX[2] = v;
+            covY[0] = r; covY[1] = 0; covY[2] = v;
+            this.lastPredictMs = timeMs;
+            this.lastUpdateMs = timeMs;
+            this.hits = 1;
+        }
+
+        Track(Track other) {
+            this.id = other.id;
+            this.x = other.x; this.vx = other.vx;
+            this.y = other.y; this.vy = other.vy;
+            System.arraycopy(other.covX, 0, covX, 0, 3);
+            System.arraycopy(other.covY, 0, covY, 0, 3);
+            this.width = other.width;
+            this.height = other.height;
+            this.lastPredictMs = other.lastPredictMs;
+            this.lastUpdateMs = other.lastUpdateMs;
+            this.hits = other.hits;
+            this.missedDetections = other.missedDetections;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Current (predicted or corrected) bounding box
+         */
+        public Rect getBounds() {
+            int halfW = (int) Math.round(width / 2);
+            int halfH = (int) Math.round(height / 2);
+            int cx = (int) Math.round(x);
+            int cy = (int) Math.round(y);
+            return new Rect(cx - halfW, cy - halfH, cx + halfW, cy + halfH);
+        }
+
+        public double getCenterX() {
+            return x;
+        }
+
+        public double getCenterY() {
+            return y;
+        }
+
+        /** Velocity in pixels per second */
+        public double getVelocityX() {
+            return vx;
+        }
+
+        /** Velocity in pixels per second */
+        public double getVelocityY() {
+            return vy;
+        }
+
+        /**
+         * Standard deviation of the centre estimate, in pixels
+         */
+        public double getPositionStd() {
+            return Math.sqrt(Math.max(covX[0], covY[0]));
+        }
+
+        public long getLastUpdateMs() {
+            return lastUpdateMs;
+        }
+
+        public int getHits() {
+            return hits;
+        }
+
+        public int getMissedDetections() {
+            return missedDetections;
+        }
+
+        void predictTo(long timeMs) {
+            double dt = (timeMs - lastPredictMs) / 1000.0;
+            if (dt <= 0) {
+                return;
+            }
+            x += vx * dt;
+            y += vy * dt;
+            predictCovariance(covX, dt);
+            predictCovariance(covY, dt);
+            lastPredictMs = timeMs;
+        }
+
+        void correct(Rect bounds, long timeMs) {
+            double r = MEASUREMENT_STD_PX * MEASUREMENT_STD_PX;
+            double[] gx = correctAxis(covX, bounds.exactCenterX() - x, r);
+            x += gx[0]; vx += gx[1];
+            double[] gy = correctAxis(covY, bounds.exactCenterY() - y, r);
+            y += gy[0]; vy += gy[1];
+            width += SIZE_SMOOTHING * (bounds.width() - width);
+            height += SIZE_SMOOTHING * (bounds.height() - height);
+            lastUpdateMs = timeMs;
+            hits++;
+            missedDetections = 0;
+        }
+
+        /**
+         * P = F P F' + Q for F = [1 dt; 0 1] and white-acceleration Q
+         */
+        private static void predictCovariance(double[] p, double dt) {
+            double q = ACCELERATION_STD * ACCELERATION_STD;
+            double dt2 = dt * dt;
+            double p00 = p[0] + 2 * dt * p[1] + dt2 * p[2] + q * dt2 * dt2 / 4;
+            double p01 = p[1] + dt * p[2] + q * dt2 * dt / 2;
+            double p11 = p[2] + q * dt2;
+            p[0] = p00; p[1] = p01; p[2] = p11;
+        }
+
+        /**
+         * Measurement update with H = [1 0]; returns the state correction
+         */
+        private static double[] correctAxis(double[] p, double innovation, double r) {
+            double s = p[0] + r;
+            double k0 = p[0] / s;
+            double k1 = p[1] / s;
+            double p00 = (1 - k0) * p[0];
+            double p01 = (1 - k0) * p[1];
+            double p11 = p[2] - k1 * p[1];
+            p[0] = p00; p[1] = p01; p[2] = p11;
+            return new double[] { k0 * innovation, k1 * innovation };
+        }
+    }
+
+    private final List<Track> tracks = new ArrayList<>();
+    private int nextTrackId = 1;
+    private double minIou = DEFAULT_MIN_IOU;
+    private long maxAgeMs = DEFAULT_MAX_AGE_MS;
+    private int minHits = DEFAULT_MIN_HITS;
+    private double uncertaintyRatio = DEFAULT_UNCERTAINTY_RATIO;
+
+    /**
+     * Set minimum IoU for a detection to be associated with a track
+     */
+    public synchronized void setMinIou(double minIou) {
+        this.minIou = Math.max(0.0, Math.min(1.0, minIou));
+    }
+
+    /**
+     * Set how long a track survives without a matching detection
+     */
+    public synchronized void setMaxAgeMs(long maxAgeMs) {
+        this.maxAgeMs = Math.max(0, maxAgeMs);
+    }
+
+    /**
+     * Set how many detections a track needs before it is reported as confirmed
+     */
+    public synchronized void setMinHits(int minHits) {
+        this.minHits = Math.max(1, minHits);
+    }
+
+    /**
+     * Advance every track to {@code timeMs} without new detections and drop
+     * tracks that have gone unmatched for too long
+     */
+    public synchronized void predict(long timeMs) {
+        for (Track track : tracks) {
+            track.predictTo(timeMs);
+        }
+        removeExpired(timeMs);
+    }
+
+    /**
+     * Predict to {@code timeMs}, then associate detections with tracks.
+     * Unmatched detections start new tracks.
+     *
+     * @return Track id for each detection, in input order
+     */
+    public synchronized String[] update(List<Rect> detections, long timeMs) {
+        for (Track track : tracks) {
+            track.predictTo(timeMs);
+        }
+
+        int numTracks = tracks.size();
+        int numDetections = detections.size();
+        String[] assignedIds = new String[numDetections];
+        int[] trackForDetection = new int[numDetections];
+        Arrays.fill(trackForDetection, -1);
+
+        if (numTracks > 0 && numDetections > 0) {
+            Rect[] predicted = new Rect[numTracks];
+            for (int t = 0; t < numTracks; t++) {
+                predicted[t] = tracks.get(t).getBounds();
+            }
+            double[][] cost = new double[numDetections][numTracks];
+            for (int d = 0; d < numDetections; d++) {
+                for (int t = 0; t < numTracks; t++) {
+                    cost[d][t] = 1.0 - iou(detections.get(d), predicted[t]);
+                }
+            }
+            int[] assignment = solveAssignment(cost);
+            for (int d = 0; d < numDetections; d++) {
+                int t = assignment[d];
+                if (t >= 0 && 1.0 - cost[d][t] >= minIou) {
+                    trackForDetection[d] = t;
+                }
+            }
+        }
+
+        boolean[] matched = new boolean[numTracks];
+        for (int d = 0; d < numDetections; d++) {
+            int t = trackForDetection[d];
+            if (t >= 0) {
+                Track track = tracks.get(t);
+                track.correct(detections.get(d), timeMs);
+                matched[t] = true;
+                assignedIds[d] = track.id;
+            }
+        }
+        for (int t = 0; t < numTracks; t++) {
+            if (!matched[t]) {
+                tracks.get(t).missedDetections++;
+            }
+        }
+        for (int d = 0; d < numDetections; d++) {
+            if (assignedIds[d] == null) {
+                Track track = new Track(TRACK_ID_PREFIX + nextTrackId++, detections.get(d), timeMs);
+                tracks.add(track);
+                assignedIds[d] = track.id;
+            }
+        }
+
+        removeExpired(timeMs);
+        return assignedIds;
+    }
+
+    /**
+     * Whether the detector should run on this frame: when there is nothing
+     * to track, or when any confirmed track's position has become too
+     * uncertain to trust the prediction
+     */
+    public synchronized boolean needsDetection() {
+        if (tracks.isEmpty()) {
+            return true;
+        }
+        for (Track track : tracks) {
+            if (track.hits < minHits) {
+                continue;
+            }
+            double side = Math.max(1.0, Math.min(track.width, track.height));
+            if (track.getPositionStd() > uncertaintyRatio * side) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Id of the track that best overlaps {@code bounds}, or null if none
+     * reaches the association threshold. Does not modify any track.
+     */
+    public synchronized String findTrackId(Rect bounds) {
+        String bestId = null;
+        double bestIou = minIou;
+        for (Track track : tracks) {
+            double overlap = iou(bounds, track.getBounds());
+            if (overlap >= bestIou) {
+                bestIou = overlap;
+                bestId = track.id;
+            }
+        }
+        return bestId;
+    }
+
+    /**
+     * Whether a track with this id is still alive
+     */
+    public synchronized boolean isTracking(String trackId) {
+        for (Track track : tracks) {
+            if (track.id.equals(trackId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Snapshot of all live tracks
+     */
+    public synchronized List<Track> getTracks() {
+        List<Track> copy = new ArrayList<>(tracks.size());
+        for (Track track : tracks) {
+            copy.add(new Track(track));
+        }
+        return copy;
+    }
+
+    /**
+     * Snapshot of tracks with at least the minimum number of detections
+     */
+    public synchronized List<Track> getConfirmedTracks() {
+        List<Track> copy = new ArrayList<>();
+        for (Track track : tracks) {
+            if (track.hits >= minHits) {
+                copy.add(new Track(track));
+            }
+        }
+        return copy;
+    }
+
+    public synchronized int getTrackCount() {
+        return tracks.size();
+    }
+
+    /**
+     * Drop all tracks
+     */
+    public synchronized void reset() {
+        tracks.clear();
+    }
+
+    private void removeExpired(long timeMs) {
+        Iterator<Track> it = tracks.iterator();
+        while (it.hasNext()) {
+            if (timeMs - it.next().lastUpdateMs > maxAgeMs) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Intersection over union of two rectangles
+     */
+    static double iou(Rect a, Rect b) {
+        int left = Math.max(a.left, b.left);
+        int top = Math.max(a.top, b.top);
+        int right = Math.min(a.right, b.right);
+        int bottom = Math.min(a.bottom, b.bottom);
+        if (left >= right || top >= bottom) {
+            return 0.0;
+        }
+        double intersection = (double) (right - left) * (bottom - top);
+        double union = (double) a.width() * a.height() + (double) b.width() * b.height() - intersection;
+        return union > 0 ? intersection / union : 0.0;
+    }
+
+    /**
+     * Minimum-cost assignment of rows to columns (Hungarian algorithm with
+     * potentials, O(n^2 m)). Works for any rectangular matrix.
+     *
+     * @return Column assigned to each row, or -1 if the row is unassigned
+     */
+    static int[] solveAssignment(double[][] cost) {
+        int rows = cost.length;
+        int cols = rows > 0 ? cost[0].length : 0;
+        int[] result = new int[rows];
+        Arrays.fill(result, -1);
+        if (rows == 0 || cols == 0) {
+            return result;
+        }
+
+        // The algorithm needs rows <= cols; solve the transpose otherwise
+        boolean transposed = rows > cols;
+        int n = transposed ? cols : rows;
+        int m = transposed ? rows : cols;
+
+        double[] u = new double[n + 1];
+        double[] v = new double[m + 1];
+        int[] p = new int[m + 1];   // p[j] = row matched to column j (1-based), 0 if none
+        int[] way = new int[m + 1];
+        double[] minv = new double[m + 1];
+        boolean[] used = new boolean[m + 1];
+
+        for (int i = 1; i <= n; i++) {
+            p[0] = i;
+            int j0 = 0;
+            Arrays.fill(minv, Double.POSITIVE_INFINITY);
+            Arrays.fill(used, false);
+            do {
+                used[j0] = true;
+                int i0 = p[j0];
+                double delta = Double.POSITIVE_INFINITY;
+                int j1 = 0;
+                for (int j = 1; j <= m; j++) {
+                    if (used[j]) {
+                        continue;
+                    }
+                    double c = transposed ? cost[j - 1][i0 - 1] : cost[i0 - 1][j - 1];
+                    double cur = c - u[i0] - v[j];
+                    if (cur < minv[j]) {
+                        minv[j] = cur;
+                        way[j] = j0;
+                    }
+                    if (minv[j] < delta) {
+                        delta = minv[j];
+                        j1 = j;
+                    }
+                }
+                for (int j = 0; j <= m; j++) {
+                    if (used[j]) {
+                        u[p[j]] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minv[j] -= delta;
+                    }
+                }
+                j0 = j1;
+            } while (p[j0] != 0);
+            do {
+                int j1 = way[j0];
+                p[j0] = p[j1];
+                j0 = j1;
+            } while (j0 != 0);
+        }
+
+        for (int j = 1; j <= m; j++) {
+            if (p[j] == 0) {
+                continue;
+            }
+            if (transposed) {
+                result[j - 1] = p[j] - 1;
+            } else {
+                result[p[j] - 1] = j - 1;
+            }
+        }
+        return result;
+    }
+}
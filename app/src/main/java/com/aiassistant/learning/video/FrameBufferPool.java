@@ -0,0 +1,95 @@
+package com.aiassistant.learning.video;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-size pool of reusable frame bitmaps.
+ * At most {@code capacity} buffers are ever alive; when all of them are in
+ * flight through the pipeline, {@link #acquire} blocks, which is what applies
+ * back-pressure to the decoder.
+ */
+public class FrameBufferPool {
+    private final int capacity;
+    private final BlockingQueue<Bitmap> freeBuffers;
+    private int createdCount;
+    
+    /**
+     * Create a pool holding at most {@code capacity} buffers
+     */
+    public FrameBufferPool(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.freeBuffers = new ArrayBlockingQueue<>(this.capacity);
+    }
+    
+    /**
+     * Take a buffer of the given size, creating one if the pool has not yet
+     * reached capacity. Waits up to {@code timeoutMs} for a buffer to be
+     * released otherwise.
+     *
+     * @return A mutable bitmap, or null if none became free in time
+     */
+    public Bitmap acquire(int width, int height, Bitmap.Config config, long timeoutMs)
+            throws InterruptedException {
+        Bitmap buffer = freeBuffers.poll();
+        if (buffer == null) {
+            synchronized (this) {
+                if (createdCount < capacity) {
+                    createdCount++;
+                    return Bitmap.createBitmap(width, height, config);
+                }
+            }
+            buffer = freeBuffers.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            if (buffer == null) {
+                return null;
+            }
+        }
+        
+        // Frame size is constant within a video, so this only happens across videos
+        if (buffer.isRecycled() || buffer.getWidth() != width || buffer.getHeight() != height
+                || buffer.getConfig() != config) {
+            if (!buffer.isRecycled()) {
+                buffer.recycle();
+            }
+            buffer = Bitmap.createBitmap(width, height, config);
+        }
+        return buffer;
+    }
+    
+    /**
+     * Return a buffer to the pool
+     */
+    public void release(Bitmap buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (!freeBuffers.offer(buffer)) {
+            // Not one of ours; never exceed the pool size
+            buffer.recycle();
+        }
+    }
+    
+    /**
+     * Recycle all idle buffers and reset the pool
+     */
+    public synchronized void clear() {
+        Bitmap buffer;
+        while ((buffer = freeBuffers.poll()) != null) {
+            if (!buffer.isRecycled()) {
+                buffer.recycle();
+            }
+        }
+        createdCount = 0;
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    public int getFreeCount() {
+        return freeBuffers.size();
+    }
+}
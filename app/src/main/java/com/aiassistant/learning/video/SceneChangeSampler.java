@@ -0,0 +1,149 @@
+package com.aiassistant.learning.video;
+
+import android.graphics.Bitmap;
+
+import com.aiassistant.ml.OptimizedImageProcessor;
+
+/**
+ * Decides which sampled frames are worth full analysis.
+ * <p>
+ * Each frame is reduced to a {@value #GRID_SIZE}x{@value #GRID_SIZE} grid of
+ * mean luma values; a frame is a keyframe when any cell differs from the last
+ * keyframe's grid by at least the cell threshold. Comparing against the last
+ * keyframe rather than the previous frame means slow fades still trigger
+ * once they accumulate. A keyframe is also forced after
+ * {@code maxKeyframeIntervalMs} so long still stretches are re-checked.
+ * <p>
+ * Not thread-safe; use one sampler per pipeline stage. The keyframe and
+ * skipped counters are volatile so other threads may read them.
+ */
+public class SceneChangeSampler {
+    public static final int GRID_SIZE = 16;
+    
+    // Default cell change: ~5% of the luma range, above video compression noise
+    public static final int DEFAULT_CELL_THRESHOLD = 12;
+    public static final long DEFAULT_MAX_KEYFRAME_INTERVAL_MS = 10000;
+    
+    // Pixel stride inside each grid cell row
+    private static final int SAMPLE_STRIDE = 4;
+    
+    private final int cellThreshold;
+    private final long maxKeyframeIntervalMs;
+    private final int[] keyframeGrid = new int[GRID_SIZE * GRID_SIZE];
+    private final int[] currentGrid = new int[GRID_SIZE * GRID_SIZE];
+    private final int[] cellCounts = new int[GRID_SIZE];
+    private int[] rowBuffer = new int[0];
+    private boolean hasKeyframe;
+    private long lastKeyframeTimeMs;
+    private volatile int keyframeCount;
+    private volatile int skippedCount;
+    
+    public SceneChangeSampler() {
+        this(DEFAULT_CELL_THRESHOLD, DEFAULT_MAX_KEYFRAME_INTERVAL_MS);
+    }
+    
+    /**
+     * @param cellThreshold         Mean luma change (0-255) in any grid cell that counts as a scene change
+     * @param maxKeyframeIntervalMs Force a keyframe after this long without one; 0 disables
+     */
+    public SceneChangeSampler(int cellThreshold, long maxKeyframeIntervalMs) {
+        this.cellThreshold = Math.max(1, cellThreshold);
+        this.maxKeyframeIntervalMs = Math.max(0, maxKeyframeIntervalMs);
+    }
+    
+    /**
+     * Check a frame against the last keyframe, adopting it as the new
+     * keyframe if its content changed enough
+     *
+     * @return true if the frame should go through full analysis
+     */
+    public boolean isSceneChange(Bitmap frame, long timeMs) {
+        if (frame == null || frame.isRecycled()) {
+            return false;
+        }
+        computeLumaGrid(frame, currentGrid);
+        
+        boolean changed = !hasKeyframe
+                || (maxKeyframeIntervalMs > 0 && timeMs - lastKeyframeTimeMs >= maxKeyframeIntervalMs)
+                || maxCellDifference(keyframeGrid, currentGrid) >= cellThreshold;
+        
+        if (changed) {
+            System.arraycopy(currentGrid, 0, keyframeGrid, 0, currentGrid.length);
+            hasKeyframe = true;
+            lastKeyframeTimeMs = timeMs;
+            keyframeCount++;
+        } else {
+            skippedCount++;
+        }
+        return changed;
+    }
+    
+    /**
+     * Fill {@code grid} with the mean luma of each cell, reading one sampled
+     * row of the bitmap at a time
+     */
+    private void computeLumaGrid(Bitmap frame, int[] grid) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (rowBuffer.length < width) {
+            rowBuffer = new int[width];
+        }
+        
+        java.util.Arrays.fill(grid, 0);
+        int[] counts = cellCounts;
+        for (int gy = 0; gy < GRID_SIZE; gy++) {
+            int y0 = gy * height / GRID_SIZE;
+            int y1 = Math.max(y0 + 1, (gy + 1) * height / GRID_SIZE);
+            java.util.Arrays.fill(counts, 0);
+            for (int y = y0; y < y1 && y < height; y += SAMPLE_STRIDE) {
+                frame.getPixels(rowBuffer, 0, width, 0, y, width, 1);
+                for (int gx = 0; gx < GRID_SIZE; gx++) {
+                    int x0 = gx * width / GRID_SIZE;
+                    int x1 = Math.max(x0 + 1, (gx + 1) * width / GRID_SIZE);
+                    int sum = 0;
+                    int n = 0;
+                    for (int x = x0; x < x1 && x < width; x += SAMPLE_STRIDE) {
+                        sum += OptimizedImageProcessor.luma(rowBuffer[x]);
+                        n++;
+                    }
+                    grid[gy * GRID_SIZE + gx] += sum;
+                    counts[gx] += n;
+                }
+            }
+            for (int gx = 0; gx < GRID_SIZE; gx++) {
+                if (counts[gx] > 0) {
+                    grid[gy * GRID_SIZE + gx] /= counts[gx];
+                }
+            }
+        }
+    }
+    
+    private static int maxCellDifference(int[] a, int[] b) {
+        int max = 0;
+        for (int i = 0; i < a.length; i++) {
+            int diff = Math.abs(a[i] - b[i]);
+            if (diff > max) {
+                max = diff;
+            }
+        }
+        return max;
+    }
+    
+    public int getKeyframeCount() {
+        return keyframeCount;
+    }
+    
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+    
+    /**
+     * Forget the last keyframe so the next frame is always analysed
+     */
+    public void reset() {
+        hasKeyframe = false;
+        lastKeyframeTimeMs = 0;
+        keyframeCount = 0;
+        skippedCount = 0;
+    }
+}
@@ -0,0 +1,145 @@
+package com.aiassistant.learning.video;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decodes frames from a video lazily at a fixed sample interval.
+ * Each call to {@link #nextFrame} decodes exactly one frame into a buffer
+ * taken from a {@link FrameBufferPool}, so memory use is bounded by the pool
+ * size rather than the video length.
+ */
+public class StreamingFrameDecoder {
+    private static final long POOL_WAIT_MS = 50;
+    
+    private final Context context;
+    private final FrameBufferPool pool;
+    private final long sampleIntervalMs;
+    private MediaMetadataRetriever retriever;
+    private long durationMs;
+    private long nextTimeMs;
+    private int decodedCount;
+    
+    /**
+     * Create a decoder sampling one frame every {@code sampleIntervalMs}
+     */
+    public StreamingFrameDecoder(Context context, FrameBufferPool pool, long sampleIntervalMs) {
+        this.context = context;
+        this.pool = pool;
+        this.sampleIntervalMs = Math.max(1, sampleIntervalMs);
+    }
+    
+    /**
+     * Open a video for decoding, starting at {@code startTimeMs}
+     */
+    public void open(Uri videoUri, long startTimeMs) throws Exception {
+        close();
+        retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, videoUri);
+            String durationStr = retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_DURATION);
+            durationMs = durationStr != null ? Long.parseLong(durationStr) : 0;
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+        nextTimeMs = Math.max(0, startTimeMs);
+        decodedCount = 0;
+    }
+    
+    /**
+     * Open a video for decoding from the beginning
+     */
+    public void open(Uri videoUri) throws Exception {
+        open(videoUri, 0);
+    }
+    
+    /**
+     * Number of sample times in the whole video
+     */
+    public int getExpectedFrameCount() {
+        return (int) ((durationMs + sampleIntervalMs - 1) / sampleIntervalMs);
+    }
+    
+    public long getDurationMs() {
+        return durationMs;
+    }
+    
+    public long getSampleIntervalMs() {
+        return sampleIntervalMs;
+    }
+    
+    public int getDecodedCount() {
+        return decodedCount;
+    }
+    
+    /**
+     * Whether there are sample times left to decode
+     */
+    public boolean hasNext() {
+        return retriever != null && nextTimeMs < durationMs;
+    }
+    
+    /**
+     * Decode the next available frame. Blocks while every pool buffer is in
+     * use further down the pipeline.
+     *
+     * @param cancelled Checked while waiting for a buffer
+     * @return The next frame, or null at end of stream or on cancellation
+     */
+    VideoProcessor.VideoFrame nextFrame(AtomicBoolean cancelled) throws InterruptedException {
+        while (hasNext() && !cancelled.get()) {
+            long timeMs = nextTimeMs;
+            nextTimeMs += sampleIntervalMs;
+            
+            Bitmap decoded = retriever.getFrameAtTime(
+                    TimeUnit.MILLISECONDS.toMicros(timeMs),
+                    MediaMetadataRetriever.OPTION_CLOSEST
+            );
+            if (decoded == null) {
+                continue;
+            }
+            
+            Bitmap.Config config = decoded.getConfig() != null
+                    ? decoded.getConfig() : Bitmap.Config.ARGB_8888;
+            Bitmap buffer = null;
+            while (buffer == null && !cancelled.get()) {
+                buffer = pool.acquire(decoded.getWidth(), decoded.getHeight(), config, POOL_WAIT_MS);
+            }
+            if (buffer == null) {
+                decoded.recycle();
+                return null;
+            }
+            
+            // Copy out of the retriever bitmap (not guaranteed to stay valid)
+            Canvas canvas = new Canvas(buffer);
+            canvas.drawBitmap(decoded, 0, 0, null);
+            decoded.recycle();
+            
+            decodedCount++;
+            return new VideoProcessor.VideoFrame(buffer, timeMs, pool);
+        }
+        return null;
+    }
+    
+    /**
+     * Release the underlying retriever
+     */
+    public void close() {
+        if (retriever != null) {
+            try {
+                retriever.release();
+            } catch (Exception ignored) {
+                // Already released
+            }
+            retriever = null;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.aiassistant.learning.video;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists per-job video processing progress so interrupted jobs can resume
+ * after a restart. One small JSON file per job holds the last processed
+ * frame time and the partial {@link VideoProcessingResult} counters; the file
+ * is written to a temp file and renamed so a crash mid-write leaves the
+ * previous checkpoint intact.
+ */
+public class VideoJobCheckpointStore {
+    private static final String TAG = "VideoJobCheckpointStore";
+    private static final String CHECKPOINT_DIR = "video_jobs";
+    private static final String SUFFIX = ".json";
+    
+    private final File checkpointDir;
+    
+    public VideoJobCheckpointStore(Context context) {
+        this.checkpointDir = new File(context.getFilesDir(), CHECKPOINT_DIR);
+        if (!checkpointDir.exists()) {
+            checkpointDir.mkdirs();
+        }
+    }
+    
+    /**
+     * Write the current progress of a job
+     */
+    public synchronized boolean save(VideoProcessingResult result) {
+        try {
+            JSONObject obj = new JSONObject();
+            obj.put("processId",          result.getProcessId());
+            obj.put("videoUri",           result.getVideoUri());
+            obj.put("title",              result.getTitle());
+            obj.put("description",        result.getDescription());
+            obj.put("status",             result.getStatus().name());
+            obj.put("progress",           result.getProgress());
+            obj.put("frameCount",         result.getFrameCount());
+            obj.put("framesAnalyzed",     result.getFramesAnalyzed());
+            obj.put("keyframeCount",      result.getKeyframeCount());
+            obj.put("lastProcessedTimeMs", result.getLastProcessedTimeMs());
+            obj.put("appDetectionCounts", new JSONObject(result.getAppDetectionCounts()));
+            obj.put("appNames",           new JSONObject(result.getDetectedAppNames()));
+            
+            File tmp = new File(checkpointDir, result.getProcessId() + SUFFIX + ".tmp");
+            try (FileWriter fw = new FileWriter(tmp)) { fw.write(obj.toString()); }
+            if (!tmp.renameTo(fileFor(result.getProcessId()))) {
+                Log.w(TAG, "Could not publish checkpoint for " + result.getProcessId());
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error saving checkpoint for " + result.getProcessId(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Load every job that was pending or in progress when last saved
+     */
+    public synchronized List<VideoProcessingResult> loadUnfinished() {
+        List<VideoProcessingResult> jobs = new ArrayList<>();
+        File[] files = checkpointDir.listFiles();
+        if (files == null) {
+            return jobs;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            try {
+                VideoProcessingResult result = read(file);
+                if (result.getStatus() == VideoProcessingStatus.PENDING
+                        || result.getStatus() == VideoProcessingStatus.PROCESSING) {
+                    jobs.add(result);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Discarding unreadable checkpoint " + file.getName(), e);
+                file.delete();
+            }
+        }
+        return jobs;
+    }
+    
+    /**
+     * Remove the checkpoint of a finished job
+     */
+    public synchronized void delete(String processId) {
+        File file = fileFor(processId);
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+    
+    private VideoProcessingResult read(File file) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) sb.append(line);
+        }
+        JSONObject obj = new JSONObject(sb.toString());
+        
+        VideoProcessingResult result = new VideoProcessingResult(
+                obj.getString("processId"),
+                obj.getString("videoUri"),
+                obj.optString("title", ""),
+                obj.optString("description", ""));
+        result.setStatus(VideoProcessingStatus.valueOf(
+                obj.optString("status", VideoProcessingStatus.PENDING.name())));
+        result.setProgress(obj.optInt("progress", 0));
+        result.setFrameCount(obj.optInt("frameCount", 0));
+        result.setFramesAnalyzed(obj.optInt("framesAnalyzed", 0));
+        result.setKeyframeCount(obj.optInt("keyframeCount", 0));
+        result.setLastProcessedTimeMs(obj.optLong("lastProcessedTimeMs", -1));
+        
+        Map<String, Integer> counts = new HashMap<>();
+        JSONObject countsObj = obj.optJSONObject("appDetectionCounts");
+        if (countsObj != null) {
+            Iterator<String> keys = countsObj.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                counts.put(key, countsObj.optInt(key, 0));
+            }
+        }
+        result.setAppDetectionCounts(counts);
+        
+        JSONObject namesObj = obj.optJSONObject("appNames");
+        if (namesObj != null) {
+            Iterator<String> keys = namesObj.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                result.getDetectedAppNames().put(key, namesObj.optString(key));
+            }
+        }
+        return result;
+    }
+    
+    private File fileFor(String processId) {
+        return new File(checkpointDir, processId + SUFFIX);
+    }
+}
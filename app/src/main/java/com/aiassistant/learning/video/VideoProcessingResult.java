@@ -19,10 +19,16 @@ public class VideoProcessingResult implements Serializable {
     private VideoProcessingStatus status;
     private int progress;
     private int frameCount;
+    private int framesDecoded;
+    private int framesAnalyzed;
+    private int keyframeCount;
+    private float throughputFps;
     private String dominantAppPackage;
     private String dominantAppName;
     private float dominantAppPercentage;
     private Map<String, Integer> appDetectionCounts;
+    private Map<String, String> detectedAppNames;
+    private long lastProcessedTimeMs;
     private String errorMessage;
     private Map<String, Object> additionalData; // For storing advanced processing results
     
@@ -40,6 +46,8 @@ public class VideoProcessingResult implements Serializable {
         this.frameCount = 0;
         this.dominantAppPercentage = 0;
         this.appDetectionCounts = new HashMap<>();
+        this.detectedAppNames = new HashMap<>();
+        this.lastProcessedTimeMs = -1;
         this.additionalData = new HashMap<>();
     }
     
@@ -102,6 +110,44 @@ public class VideoProcessingResult implements Serializable {
         this.frameCount = frameCount;
     }
     
+    public int getFramesDecoded() {
+        return framesDecoded;
+    }
+    
+    public void setFramesDecoded(int framesDecoded) {
+        this.framesDecoded = framesDecoded;
+    }
+    
+    public int getFramesAnalyzed() {
+        return framesAnalyzed;
+    }
+    
+    public void setFramesAnalyzed(int framesAnalyzed) {
+        this.framesAnalyzed = framesAnalyzed;
+    }
+    
+    /**
+     * Frames that differed enough from the previous keyframe to get full analysis
+     */
+    public int getKeyframeCount() {
+        return keyframeCount;
+    }
+    
+    public void setKeyframeCount(int keyframeCount) {
+        this.keyframeCount = keyframeCount;
+    }
+    
+    /**
+     * Analysed frames per second of wall-clock processing time
+     */
+    public float getThroughputFps() {
+        return throughputFps;
+    }
+    
+    public void setThroughputFps(float throughputFps) {
+        this.throughputFps = throughputFps;
+    }
+    
     public String getDominantAppPackage() {
         return dominantAppPackage;
     }
@@ -134,6 +180,28 @@ public class VideoProcessingResult implements Serializable {
         this.appDetectionCounts = appDetectionCounts;
     }
     
+    /**
+     * Display names of detected apps, keyed by package
+     */
+    public Map<String, String> getDetectedAppNames() {
+        if (detectedAppNames == null) {
+            detectedAppNames = new HashMap<>();
+        }
+        return detectedAppNames;
+    }
+    
+    /**
+     * Video time of the last fully analysed frame, or -1 if none yet.
+     * Processing resumes after this point.
+     */
+    public long getLastProcessedTimeMs() {
+        return lastProcessedTimeMs;
+    }
+    
+    public void setLastProcessedTimeMs(long lastProcessedTimeMs) {
+        this.lastProcessedTimeMs = lastProcessedTimeMs;
+    }
+    
     public String getErrorMessage() {
         return errorMessage;
     }
@@ -194,6 +262,9 @@ public class VideoProcessingResult implements Serializable {
                 ", title='" + title + '\'' +
                 ", status=" + status +
                 ", progress=" + progress +
+                ", framesAnalyzed=" + framesAnalyzed +
+                ", keyframeCount=" + keyframeCount +
+                ", throughputFps=" + throughputFps +
                 ", dominantApp='" + dominantAppName + '\'' +
                 ", additionalDataKeys=" + (additionalData != null ? additionalData.keySet() : "none") +
                 '}';
@@ -2,24 +2,34 @@ package com.aiassistant.learning.video;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.media.MediaMetadataRetriever;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
 
 import com.aiassistant.learning.LearningManager;
+import com.aiassistant.monitoring.PerformanceMonitor;
 import models.AppInfo;
 import utils.AppDetector;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Processes videos to learn app usage patterns
@@ -29,6 +39,22 @@ public class VideoProcessor {
     private static final String TAG = "VideoProcessor";
     private static final int FRAME_CAPTURE_INTERVAL_MS = 1000; // 1 second between frames
     
+    // Streaming pipeline sizing: buffers in flight bound memory, queues bound stage skew
+    private static final int FRAME_POOL_SIZE = 4;
+    private static final int STAGE_QUEUE_CAPACITY = 2;
+    private static final long STAGE_POLL_MS = 50;
+    
+    // Bounded window of downscaled frames kept for dynamic element analysis
+    private static final int DYNAMIC_WINDOW_FRAMES = 30;
+    private static final int DYNAMIC_THUMBNAIL_WIDTH = 160;
+    
+    // Job scheduling: concurrent jobs are capped by cores and by available memory
+    private static final int MAX_CONCURRENT_JOBS =
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final long JOB_MEMORY_BUDGET_MB = 150;
+    private static final long BUDGET_RETRY_MS = 2000;
+    private static final int CHECKPOINT_INTERVAL_FRAMES = 10;
+    
     private Context context;
     private LearningManager learningManager;
     private AppDetector appDetector;
@@ -37,6 +63,16 @@ public class VideoProcessor {
     private File videoCacheDir;
     private List<VideoProcessingListener> listeners;
     private Map<String, VideoProcessingResult> processingResults;
+    private final ExecutorService pipelineExecutor;
+    private final ExecutorService jobExecutor;
+    private final VideoJobCheckpointStore checkpointStore;
+    private final ArrayDeque<VideoProcessingResult> pendingJobs = new ArrayDeque<>(); // backgroundHandler thread only
+    private final AtomicInteger runningJobs = new AtomicInteger(0);
+    private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
+    private final Runnable dispatchRunnable = this::dispatchJobs;
+    private PerformanceMonitor performanceMonitor;
+    private long frameSampleIntervalMs = FRAME_CAPTURE_INTERVAL_MS;
+    private int sceneChangeThreshold = SceneChangeSampler.DEFAULT_CELL_THRESHOLD;
     
     /**
      * Initialize the video processor
@@ -45,8 +81,11 @@ public class VideoProcessor {
         this.context = context;
         this.learningManager = LearningManager.getInstance(context);
         this.appDetector = new AppDetector(context);
-        this.listeners = new ArrayList<>();
-        this.processingResults = new HashMap<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.processingResults = new ConcurrentHashMap<>();
+        this.pipelineExecutor = Executors.newCachedThreadPool();
+        this.jobExecutor = Executors.newCachedThreadPool();
+        this.checkpointStore = new VideoJobCheckpointStore(context);
         
         // Create video cache directory
         this.videoCacheDir = new File(context.getCacheDir(), "video_frames");
@@ -56,6 +95,9 @@ public class VideoProcessor {
         
         // Start background thread
         startBackgroundThread();
+        
+        // Pick up jobs interrupted by a previous shutdown or crash
+        resumeUnfinishedJobs();
     }
     
     /**
@@ -83,6 +125,29 @@ public class VideoProcessor {
         }
     }
     
+    /**
+     * Set how often frames are sampled from the video
+     */
+    public void setFrameSampleIntervalMs(long intervalMs) {
+        this.frameSampleIntervalMs = Math.max(1, intervalMs);
+    }
+    
+    /**
+     * Set the per-cell luma change (0-255) that marks a frame as a new scene.
+     * Frames below it skip app and UI element detection.
+     */
+    public void setSceneChangeThreshold(int threshold) {
+        this.sceneChangeThreshold = Math.max(1, threshold);
+    }
+    
+    /**
+     * Use live CPU/memory readings to decide how many videos run at once.
+     * Without a monitor, up to {@link #MAX_CONCURRENT_JOBS} run regardless of load.
+     */
+    public void setPerformanceMonitor(PerformanceMonitor performanceMonitor) {
+        this.performanceMonitor = performanceMonitor;
+    }
+    
     /**
      * Process a video to learn from it
      */
@@ -100,48 +165,201 @@ public class VideoProcessor {
             listener.onProcessingStarted(processId, videoUri.toString(), title);
         }
         
-        // Start processing in background
+        // Persist before queueing so the job survives a restart even if it never started
+        checkpointStore.save(result);
+        enqueueJob(result);
+    }
+    
+    /**
+     * Re-queue jobs whose checkpoints show they were pending or in progress
+     */
+    private void resumeUnfinishedJobs() {
+        for (VideoProcessingResult result : checkpointStore.loadUnfinished()) {
+            Log.i(TAG, "Resuming video job " + result.getProcessId() + " after "
+                    + result.getLastProcessedTimeMs() + " ms");
+            result.setStatus(VideoProcessingStatus.PENDING);
+            processingResults.put(result.getProcessId(), result);
+            enqueueJob(result);
+        }
+    }
+    
+    private void enqueueJob(VideoProcessingResult result) {
         backgroundHandler.post(() -> {
-            try {
-                doProcessVideo(result);
-            } catch (Exception e) {
-                Log.e(TAG, "Error processing video", e);
-                result.setStatus(VideoProcessingStatus.FAILED);
-                result.setErrorMessage("Error: " + e.getMessage());
-                
-                // Notify error
-                for (VideoProcessingListener listener : listeners) {
-                    listener.onProcessingError(processId, e.getMessage());
-                }
-            }
+            pendingJobs.addLast(result);
+            dispatchJobs();
         });
     }
     
     /**
-     * Actually process the video
+     * Start as many queued jobs as the current budget allows. Runs on the
+     * background handler thread; re-runs when a job finishes, and polls while
+     * jobs are waiting on the budget.
+     */
+    private void dispatchJobs() {
+        if (shuttingDown.get()) {
+            return;
+        }
+        backgroundHandler.removeCallbacks(dispatchRunnable);
+        while (!pendingJobs.isEmpty() && runningJobs.get() < getJobBudget()) {
+            VideoProcessingResult result = pendingJobs.pollFirst();
+            runningJobs.incrementAndGet();
+            jobExecutor.execute(() -> runJob(result));
+        }
+        if (!pendingJobs.isEmpty()) {
+            backgroundHandler.postDelayed(dispatchRunnable, BUDGET_RETRY_MS);
+        }
+    }
+    
+    /**
+     * Number of jobs allowed to run concurrently under current load
+     */
+    private int getJobBudget() {
+        PerformanceMonitor monitor = performanceMonitor;
+        if (monitor == null) {
+            return MAX_CONCURRENT_JOBS;
+        }
+        if (monitor.shouldThrottle()) {
+            return 1;
+        }
+        long memoryBudget = monitor.getAvailableMemMB() / JOB_MEMORY_BUDGET_MB;
+        return (int) Math.max(1, Math.min(MAX_CONCURRENT_JOBS, memoryBudget));
+    }
+    
+    private void runJob(VideoProcessingResult result) {
+        try {
+            doProcessVideo(result);
+        } catch (Exception e) {
+            Log.e(TAG, "Error processing video", e);
+            result.setStatus(VideoProcessingStatus.FAILED);
+            result.setErrorMessage("Error: " + e.getMessage());
+            checkpointStore.delete(result.getProcessId());
+            
+            // Notify error
+            for (VideoProcessingListener listener : listeners) {
+                listener.onProcessingError(result.getProcessId(), e.getMessage());
+            }
+        } finally {
+            runningJobs.decrementAndGet();
+            Handler handler = backgroundHandler;
+            if (handler != null) {
+                handler.post(dispatchRunnable);
+            }
+        }
+    }
+    
+    /**
+     * Actually process the video.
+     * <p>
+     * Frames are streamed through a three-stage pipeline instead of being
+     * decoded up front: a decoder thread pulls frames lazily into a fixed
+     * {@link FrameBufferPool}, an app-detection thread tags them, and this
+     * thread runs UI element detection and motion tracking in frame order.
+     * Stages are joined by small bounded queues, so a slow stage stalls the
+     * ones before it rather than letting decoded frames pile up.
+     * <p>
+     * A {@link SceneChangeSampler} in the app-detection stage drops frames
+     * whose content matches the last keyframe before either expensive stage
+     * sees them; they inherit the keyframe's app for dominance counting.
+     * Because every sampled frame is still checked, a keyframe's timestamp is
+     * the first sample at which the screen changed, so user actions keep
+     * sample-interval timing precision.
+     * <p>
+     * Progress is checkpointed every {@link #CHECKPOINT_INTERVAL_FRAMES}
+     * frames; a resumed job seeks past its last processed frame and keeps
+     * its app detection counts. UI element sequences from before the
+     * interruption are not persisted, so action models are learned from the
+     * resumed part only.
      */
     private void doProcessVideo(VideoProcessingResult result) {
         Log.i(TAG, "Starting video processing: " + result.getTitle());
         
         result.setStatus(VideoProcessingStatus.PROCESSING);
         
+        // Per-job pool: buffers lost to a failing stage are dropped with it
+        FrameBufferPool framePool = new FrameBufferPool(FRAME_POOL_SIZE);
+        SceneChangeSampler sceneSampler = new SceneChangeSampler(
+                sceneChangeThreshold, SceneChangeSampler.DEFAULT_MAX_KEYFRAME_INTERVAL_MS);
+        StreamingFrameDecoder decoder =
+                new StreamingFrameDecoder(context, framePool, frameSampleIntervalMs);
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        AtomicReference<Exception> stageError = new AtomicReference<>();
+        BlockingQueue<VideoFrame> decodedFrames = new ArrayBlockingQueue<>(STAGE_QUEUE_CAPACITY);
+        BlockingQueue<VideoFrame> detectedFrames = new ArrayBlockingQueue<>(STAGE_QUEUE_CAPACITY);
+        ArrayDeque<Bitmap> dynamicWindow = new ArrayDeque<>();
+        Future<?> decodeStage = null;
+        Future<?> detectStage = null;
+        
         try {
-            // Extract frames from video
-            List<VideoFrame> frames = extractFrames(Uri.parse(result.getVideoUri()));
+            long resumeAfterMs = result.getLastProcessedTimeMs();
+            decoder.open(Uri.parse(result.getVideoUri()),
+                    resumeAfterMs >= 0 ? resumeAfterMs + frameSampleIntervalMs : 0);
+            int expectedFrames = decoder.getExpectedFrameCount();
             
-            // No frames extracted
-            if (frames.isEmpty()) {
+            // No frames to extract
+            if (expectedFrames == 0) {
                 result.setStatus(VideoProcessingStatus.FAILED);
                 result.setErrorMessage("No frames could be extracted from video");
                 return;
             }
             
-            result.setFrameCount(frames.size());
+            result.setFrameCount(expectedFrames);
+            long pipelineStartMs = System.currentTimeMillis();
+            
+            // Stage 1: lazy decode into pooled buffers
+            decodeStage = pipelineExecutor.submit(() -> {
+                try {
+                    VideoFrame frame;
+                    while ((frame = decoder.nextFrame(cancelled)) != null) {
+                        if (!offerUntilCancelled(decodedFrames, frame, cancelled)) {
+                            frame.recycleBitmap();
+                            break;
+                        }
+                    }
+                } catch (Exception e) {
+                    stageError.compareAndSet(null, e);
+                } finally {
+                    offerUntilCancelled(decodedFrames, VideoFrame.END_OF_STREAM, cancelled);
+                }
+            });
+            
+            // Stage 2: scene-change gate, then app detection on keyframes only
+            detectStage = pipelineExecutor.submit(() -> {
+                try {
+                    VideoFrame frame;
+                    String keyframePackage = null;
+                    String keyframeAppName = null;
+                    while ((frame = pollUntilCancelled(decodedFrames, cancelled)) != null
+                            && frame != VideoFrame.END_OF_STREAM) {
+                        if (sceneSampler.isSceneChange(frame.getBitmap(), frame.getTimeMs())) {
+                            frame.setKeyframe(true);
+                            AppInfo appInfo = appDetector.detectApp(frame.getBitmap());
+                            keyframePackage = appInfo != null ? appInfo.getPackageName() : null;
+                            keyframeAppName = appInfo != null ? appInfo.getAppName() : null;
+                        }
+                        frame.setAppPackage(keyframePackage);
+                        frame.setAppName(keyframeAppName);
+                        if (!frame.isKeyframe()) {
+                            // Stage 3 only needs the app tag of a still frame, not its pixels
+                            frame.recycleBitmap();
+                        }
+                        if (!offerUntilCancelled(detectedFrames, frame, cancelled)) {
+                            frame.recycleBitmap();
+                            break;
+                        }
+                    }
+                } catch (Exception e) {
+                    stageError.compareAndSet(null, e);
+                } finally {
+                    offerUntilCancelled(detectedFrames, VideoFrame.END_OF_STREAM, cancelled);
+                }
+            });
             
-            // Detect apps in frames
-            Map<String, Integer> appDetectionCounts = new HashMap<>();
-            Map<String, String> detectedApps = new HashMap<>();
-            int processedFrames = 0;
+            // Detect apps in frames, seeded from the checkpoint when resuming
+            Map<String, Integer> appDetectionCounts = new HashMap<>(result.getAppDetectionCounts());
+            Map<String, String> detectedApps = new HashMap<>(result.getDetectedAppNames());
+            int processedFrames = result.getFramesAnalyzed();
+            int sessionFrames = 0;
+            int resumedKeyframes = result.getKeyframeCount();
             
             // Lists to store enhanced video analysis data
             List<utils.VideoProcessorHelper.ProcessedFrameData> processedFrameData = new ArrayList<>();
@@ -150,31 +368,28 @@ public class VideoProcessor {
             Map<String, utils.VideoProcessorHelper.DynamicElementInfo> dynamicElements = new HashMap<>();
             List<utils.VideoProcessorHelper.CustomUIComponent> customUIComponents = new ArrayList<>();
             
-            // Process each frame
-            for (VideoFrame frame : frames) {
-                // Create processed frame data object
-                utils.VideoProcessorHelper.ProcessedFrameData frameData = 
-                    new utils.VideoProcessorHelper.ProcessedFrameData(
-                        frame.getBitmap(), frame.getTimeMs());
-                
-                // Detect app in frame
-                AppInfo appInfo = appDetector.detectApp(frame.getBitmap());
+            // Stage 3: UI element detection and motion tracking, in frame order
+            VideoFrame frame;
+            while ((frame = pollUntilCancelled(detectedFrames, cancelled)) != null
+                    && frame != VideoFrame.END_OF_STREAM) {
                 processedFrames++;
+                sessionFrames++;
                 
-                if (appInfo != null) {
-                    String packageName = appInfo.getPackageName();
-                    String appName = appInfo.getAppName();
-                    
-                    // Increment app detection count
+                String packageName = frame.getAppPackage();
+                if (packageName != null) {
+                    // Still frames count toward the app they are showing
                     int count = appDetectionCounts.getOrDefault(packageName, 0);
                     appDetectionCounts.put(packageName, count + 1);
                     
                     // Record app name
-                    detectedApps.put(packageName, appName);
-                    
-                    // Record app in frame
-                    frame.setAppPackage(packageName);
-                    frame.setAppName(appName);
+                    detectedApps.put(packageName, frame.getAppName());
+                }
+                
+                if (packageName != null && frame.isKeyframe()) {
+                    // Frame data keeps detections and timestamps only; pixel buffers go back to the pool
+                    utils.VideoProcessorHelper.ProcessedFrameData frameData = 
+                        new utils.VideoProcessorHelper.ProcessedFrameData(
+                            null, frame.getTimeMs());
                     
                     // Enhanced processing when we know which app we're looking at
                     // Detect UI elements including overlapping elements
@@ -211,16 +426,27 @@ public class VideoProcessor {
                             frame.getBitmap(), knownPatterns);
                     customUIComponents.addAll(frameCustomComponents);
                     
+                    // Keep a small copy for dynamic element analysis
+                    addToDynamicWindow(dynamicWindow, frame.getBitmap());
+                    
                     // Add processed frame to sequence
                     processedFrameData.add(frameData);
                 }
                 
-                // Clean up bitmap to save memory
+                // Return the buffer to the pool so the decoder can reuse it
                 frame.recycleBitmap();
                 
-                // Update progress
-                int progress = (int) ((processedFrames / (float) frames.size()) * 100);
+                // Update progress and throughput
+                int progress = Math.min(99, (int) ((processedFrames / (float) expectedFrames) * 100));
                 result.setProgress(progress);
+                updateThroughput(result, decoder.getDecodedCount(), processedFrames, sessionFrames,
+                        pipelineStartMs);
+                
+                result.setLastProcessedTimeMs(frame.getTimeMs());
+                if (sessionFrames % CHECKPOINT_INTERVAL_FRAMES == 0) {
+                    saveCheckpoint(result, appDetectionCounts, detectedApps,
+                            resumedKeyframes + sceneSampler.getKeyframeCount());
+                }
                 
                 // Notify progress
                 for (VideoProcessingListener listener : listeners) {
@@ -228,12 +454,34 @@ public class VideoProcessor {
                 }
             }
             
-            // Process dynamic elements across all frames
-            if (frames.size() > 5) { // Need enough frames for meaningful analysis
-                List<Bitmap> bitmapSequence = new ArrayList<>();
-                for (utils.VideoProcessorHelper.ProcessedFrameData frameData : processedFrameData) {
-                    bitmapSequence.add(frameData.getFrame());
-                }
+            // Interrupted by cleanup(): leave the job resumable rather than completing it
+            if (shuttingDown.get()) {
+                saveCheckpoint(result, appDetectionCounts, detectedApps,
+                        resumedKeyframes + sceneSampler.getKeyframeCount());
+                return;
+            }
+            
+            if (stageError.get() != null) {
+                throw stageError.get();
+            }
+            
+            if (processedFrames == 0) {
+                result.setStatus(VideoProcessingStatus.FAILED);
+                result.setErrorMessage("No frames could be extracted from video");
+                return;
+            }
+            
+            result.setFrameCount(processedFrames);
+            result.setKeyframeCount(resumedKeyframes + sceneSampler.getKeyframeCount());
+            result.setAppDetectionCounts(appDetectionCounts);
+            result.getDetectedAppNames().putAll(detectedApps);
+            result.setProgress(100);
+            updateThroughput(result, decoder.getDecodedCount(), processedFrames, sessionFrames,
+                    pipelineStartMs);
+            
+            // Process dynamic elements across the retained frame window
+            if (dynamicWindow.size() > 5) { // Need enough frames for meaningful analysis
+                List<Bitmap> bitmapSequence = new ArrayList<>(dynamicWindow);
                 
                 // Detect and analyze dynamic/animated UI elements
                 dynamicElements = utils.VideoProcessorHelper.handleDynamicElements(bitmapSequence);
@@ -261,7 +509,7 @@ public class VideoProcessor {
                 result.setDominantAppPackage(dominantApp);
                 result.setDominantAppName(detectedApps.get(dominantApp));
                 
-                float dominantAppPercentage = (maxCount / (float) frames.size()) * 100;
+                float dominantAppPercentage = (maxCount / (float) processedFrames) * 100;
                 result.setDominantAppPercentage(dominantAppPercentage);
                 
                 // Store app detection counts
@@ -321,9 +569,130 @@ public class VideoProcessor {
             for (VideoProcessingListener listener : listeners) {
                 listener.onProcessingError(result.getProcessId(), e.getMessage());
             }
+        } finally {
+            shutdownPipeline(cancelled, decodeStage, detectStage, decodedFrames, detectedFrames);
+            decoder.close();
+            framePool.clear();
+            for (Bitmap thumbnail : dynamicWindow) {
+                thumbnail.recycle();
+            }
+            dynamicWindow.clear();
+            if (result.getStatus() == VideoProcessingStatus.COMPLETED
+                    || result.getStatus() == VideoProcessingStatus.FAILED) {
+                checkpointStore.delete(result.getProcessId());
+            }
+        }
+    }
+    
+    /**
+     * Copy in-progress counters onto the result and persist it
+     */
+    private void saveCheckpoint(VideoProcessingResult result, Map<String, Integer> appDetectionCounts,
+                                Map<String, String> detectedApps, int keyframeCount) {
+        result.setAppDetectionCounts(new HashMap<>(appDetectionCounts));
+        result.getDetectedAppNames().putAll(detectedApps);
+        result.setKeyframeCount(keyframeCount);
+        checkpointStore.save(result);
+    }
+    
+    /**
+     * Put a frame on a stage queue, waiting while the next stage is busy
+     *
+     * @return false if the pipeline was cancelled before the frame was accepted
+     */
+    private static boolean offerUntilCancelled(BlockingQueue<VideoFrame> queue, VideoFrame frame,
+                                               AtomicBoolean cancelled) {
+        try {
+            while (!cancelled.get()) {
+                if (queue.offer(frame, STAGE_POLL_MS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+    
+    /**
+     * Take the next frame from a stage queue, waiting while the previous stage is busy
+     *
+     * @return The frame, or null if the pipeline was cancelled
+     */
+    private static VideoFrame pollUntilCancelled(BlockingQueue<VideoFrame> queue,
+                                                 AtomicBoolean cancelled) {
+        try {
+            while (!cancelled.get()) {
+                VideoFrame frame = queue.poll(STAGE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (frame != null) {
+                    return frame;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+    
+    /**
+     * Stop pipeline stages and return any frames still queued to the pool
+     */
+    private void shutdownPipeline(AtomicBoolean cancelled, Future<?> decodeStage, Future<?> detectStage,
+                                  BlockingQueue<VideoFrame> decodedFrames,
+                                  BlockingQueue<VideoFrame> detectedFrames) {
+        cancelled.set(true);
+        awaitStage(decodeStage);
+        awaitStage(detectStage);
+        drainToPool(decodedFrames);
+        drainToPool(detectedFrames);
+    }
+    
+    private static void awaitStage(Future<?> stage) {
+        if (stage == null) {
+            return;
+        }
+        try {
+            stage.get(1, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            stage.cancel(true);
+        }
+    }
+    
+    private static void drainToPool(BlockingQueue<VideoFrame> queue) {
+        VideoFrame frame;
+        while ((frame = queue.poll()) != null) {
+            frame.recycleBitmap();
+        }
+    }
+    
+    /**
+     * Keep a downscaled copy of a frame, evicting the oldest beyond the window size
+     */
+    private static void addToDynamicWindow(ArrayDeque<Bitmap> window, Bitmap frame) {
+        if (frame == null || frame.isRecycled() || frame.getWidth() == 0) {
+            return;
+        }
+        int width = Math.min(DYNAMIC_THUMBNAIL_WIDTH, frame.getWidth());
+        int height = Math.max(1, frame.getHeight() * width / frame.getWidth());
+        window.addLast(Bitmap.createScaledBitmap(frame, width, height, true));
+        if (window.size() > DYNAMIC_WINDOW_FRAMES) {
+            window.removeFirst().recycle();
         }
     }
     
+    /**
+     * Publish decode/analysis counters and analysed frames per second.
+     * Throughput only counts frames analysed since this run started, so a
+     * resumed job is not credited with work done before the restart.
+     */
+    private static void updateThroughput(VideoProcessingResult result, int decoded, int analyzed,
+                                         int sessionAnalyzed, long startMs) {
+        long elapsedMs = Math.max(1, System.currentTimeMillis() - startMs);
+        result.setFramesDecoded(decoded);
+        result.setFramesAnalyzed(analyzed);
+        result.setThroughputFps(sessionAnalyzed * 1000f / elapsedMs);
+    }
+    
     /**
      * Detect user action from motion vectors
      */
@@ -378,54 +747,6 @@ public class VideoProcessor {
         }
     }
     
-    /**
-     * Extract frames from a video
-     */
-    private List<VideoFrame> extractFrames(Uri videoUri) throws Exception {
-        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-        List<VideoFrame> frames = new ArrayList<>();
-        
-        try {
-            retriever.setDataSource(context, videoUri);
-            
-            // Get video duration
-            String durationStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
-            long durationMs = Long.parseLong(durationStr);
-            
-            // Calculate frame extraction times
-            List<Long> frameTimesMs = new ArrayList<>();
-            for (long time = 0; time < durationMs; time += FRAME_CAPTURE_INTERVAL_MS) {
-                frameTimesMs.add(time);
-            }
-            
-            // Extract frames
-            for (long timeMs : frameTimesMs) {
-                Bitmap bitmap = retriever.getFrameAtTime(
-                        TimeUnit.MILLISECONDS.toMicros(timeMs),
-                        MediaMetadataRetriever.OPTION_CLOSEST
-                );
-                
-                if (bitmap != null) {
-                    // Create a copy of the bitmap (retriever bitmaps are not guaranteed to be valid)
-                    Bitmap frameBitmap = Bitmap.createBitmap(
-                            bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
-                    Canvas canvas = new Canvas(frameBitmap);
-                    canvas.drawBitmap(bitmap, 0, 0, null);
-                    
-                    // Add frame
-                    frames.add(new VideoFrame(frameBitmap, timeMs));
-                    
-                    // Recycle original bitmap to save memory
-                    bitmap.recycle();
-                }
-            }
-        } finally {
-            retriever.release();
-        }
-        
-        return frames;
-    }
-    
     /**
      * Add a processing listener
      */
@@ -449,6 +770,21 @@ public class VideoProcessor {
         return processingResults.get(processId);
     }
     
+    /**
+     * Analysed frames per second of a job, or 0 if unknown
+     */
+    public float getJobThroughputFps(String processId) {
+        VideoProcessingResult result = processingResults.get(processId);
+        return result != null ? result.getThroughputFps() : 0f;
+    }
+    
+    /**
+     * Number of videos currently being processed
+     */
+    public int getActiveJobCount() {
+        return runningJobs.get();
+    }
+    
     /**
      * Get all processing results
      */
@@ -460,7 +796,11 @@ public class VideoProcessor {
      * Clean up resources
      */
     public void cleanup() {
+        // Running jobs checkpoint and exit; they resume on next start
+        shuttingDown.set(true);
         stopBackgroundThread();
+        jobExecutor.shutdownNow();
+        pipelineExecutor.shutdownNow();
         
         // Clean up frame cache
         if (videoCacheDir.exists()) {
@@ -474,17 +814,23 @@ public class VideoProcessor {
     }
     
     /**
-     * A frame extracted from a video
+     * A frame extracted from a video, backed by a pooled buffer
      */
-    private static class VideoFrame {
+    static class VideoFrame {
+        /** Marks the end of a stage queue */
+        static final VideoFrame END_OF_STREAM = new VideoFrame(null, -1, null);
+        
         private Bitmap bitmap;
         private long timeMs;
         private String appPackage;
         private String appName;
+        private boolean keyframe;
+        private final FrameBufferPool pool;
         
-        public VideoFrame(Bitmap bitmap, long timeMs) {
+        public VideoFrame(Bitmap bitmap, long timeMs, FrameBufferPool pool) {
             this.bitmap = bitmap;
             this.timeMs = timeMs;
+            this.pool = pool;
         }
         
         public Bitmap getBitmap() {
@@ -511,11 +857,26 @@ public class VideoProcessor {
             this.appName = appName;
         }
         
+        public boolean isKeyframe() {
+            return keyframe;
+        }
+        
+        public void setKeyframe(boolean keyframe) {
+            this.keyframe = keyframe;
+        }
+        
+        /**
+         * Return the buffer to its pool, or recycle it if it is not pooled
+         */
         public void recycleBitmap() {
             if (bitmap != null && !bitmap.isRecycled()) {
-                bitmap.recycle();
-                bitmap = null;
+                if (pool != null) {
+                    pool.release(bitmap);
+                } else {
+                    bitmap.recycle();
+                }
             }
+            bitmap = null;
         }
     }
     
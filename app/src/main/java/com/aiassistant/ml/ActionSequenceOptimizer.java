@@ -2,13 +2,11 @@ package com.aiassistant.ml;
 
 import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -30,7 +28,17 @@ import java.util.concurrent.atomic.AtomicLong;
  *   - Discount factor γ for multi-step returns.
  *   - Optional lookahead diversity bonus: penalise sequences that share the same first action
  *     (encourages diverse beam hypothesis exploration).
- *   - Caches partial sequences to avoid redundant Q-function calls.
+ *   - Transposition table: Q-rows are cached per state content, so states reached
+ *     along different paths are evaluated once. Rows carry over to later plans
+ *     only while {@link QOracle#modelVersion} is unchanged.
+ *   - Batched oracle: all distinct uncached beam states of a depth are
+ *     evaluated for every action in one {@link QOracle#qBatch} call; next
+ *     states are predicted only for the survivors, in one
+ *     {@link QOracle#predictNextStates} call.
+ *   - Allocation-free search: nodes live in preallocated primitive arrays as
+ *     (parent, action) pairs instead of copied action lists.
+ *   - Optional parallel expansion of large batches on the common fork-join pool
+ *     (only for thread-safe oracles).
  *   - Statistics: tracks calls, avg planning time, best sequence score history.
  *
  * Usage:
@@ -60,21 +68,38 @@ public class ActionSequenceOptimizer {
          * Return null to use the current state as a proxy (greedy approximation).
          */
         default float[] predictNextState(float[] state, int action) { return state; }
-    }
 
-    // -------------------------------------------------------------------------
-    // Beam node
-    // -------------------------------------------------------------------------
-    private static class BeamNode {
-        final float[] state;
-        final List<Integer> actions;   // sequence of actions taken so far
-        final float   cumulativeScore; // discounted cumulative Q-value
-
-        BeamNode(float[] state, List<Integer> actions, float score) {
-            this.state           = state;
-            this.actions         = actions;
-            this.cumulativeScore = score;
+        /**
+         * (Optional) Batched Q: for rows {@code from..to-1}, write Q(states[i], a)
+         * for every action to {@code out[i * actionDim + a]}. Override to share
+         * work across actions; the default calls {@link #q} per pair.
+         */
+        default void qBatch(float[][] states, int from, int to, int actionDim, float[] out) {
+            for (int i = from; i < to; i++) {
+                for (int a = 0; a < actionDim; a++) out[i * actionDim + a] = q(states[i], a);
+            }
+        }
+
+        /**
+         * (Optional) Batched transitions: for rows {@code from..to-1}, store the
+         * state reached from (states[i], actions[i]) in {@code out[i]}. Returned
+         * arrays are treated as read-only and may be shared.
+         */
+        default void predictNextStates(float[][] states, int[] actions, int from, int to,
+                                       float[][] out) {
+            for (int i = from; i < to; i++) {
+                float[] next = predictNextState(states[i], actions[i]);
+                out[i] = next != null ? next : states[i];
+            }
         }
+
+        /**
+         * (Optional) Version of the model behind {@link #q}; must change
+         * whenever its Q-values may change. Cached Q-rows are reused across
+         * plans only while this stays the same. The default (-1) means
+         * unversioned, and the cache is then cleared at the start of each plan.
+         */
+        default long modelVersion() { return -1L; }
     }
 
     // -------------------------------------------------------------------------
@@ -87,15 +112,53 @@ public class ActionSequenceOptimizer {
     private final float diversityPenalty; // penalty for beam nodes with duplicate first action
 
     private QOracle oracle;
+    private volatile boolean parallelExpansion = false;
 
     // Stats
     private final AtomicInteger planCalls     = new AtomicInteger(0);
     private final AtomicLong    totalPlanMs   = new AtomicLong(0);
     private float               avgBestScore  = 0f;
-
-    // Cache: (stateHash + action) → q-value
-    private final Map<String, Float> qCache   = new HashMap<>();
-    private static final int         CACHE_MAX = 2000;
+    private long                cacheHits     = 0;
+    private long                cacheMisses   = 0;
+    private long                oracleBatches = 0;
+
+    // Search tree: node n was reached from nodeParent[n] (-1 = root) by nodeAction[n]
+    private final int[]   nodeParent;
+    private final int[]   nodeAction;
+    private int           nodeCount;
+    private int           bestNode = -1;
+
+    // Current / next beam, by slot
+    private float[][] beamStates;
+    private float[][] nextStates;
+    private float[]   beamScore, nextScore;
+    private int[]     beamFirst, nextFirst; // first action of the slot's sequence
+    private int[]     beamNode,  nextNode;
+
+    // Expansion scratch
+    private final float[]   candQ;      // [beamWidth * actionDim]
+    private final float[][] batchStates;
+    private final int[]     batchSlots;
+    private final long[]    slotKeys;   // state hash per current slot
+    private final int[]     rowOfSlot;  // batch row that evaluates each missed slot
+    private final int[]     batchActions;
+    private final float[]   batchQ;     // [beamWidth * actionDim]
+    private final int[]     selected;   // candidate indices chosen for the next beam
+    private final float[]   selectedScore;
+    private final int[]     firstCount; // survivors per first action (diversity)
+
+    // Transposition table: state content hash → Q-row for every action. The
+    // state itself is kept beside its row so a hash collision reads as a miss.
+    private static final int  CACHE_CAPACITY = 2048;  // power of two
+    private static final long EMPTY_KEY      = 0L;
+    private final long[]    cacheKeys   = new long[CACHE_CAPACITY];
+    private final float[][] cacheStates = new float[CACHE_CAPACITY][];
+    private final float[]   cacheRows;
+    private int           cacheSize  = 0;
+    private long          cacheVersion = -1L; // oracle model version the rows belong to
+
+    // Minimum rows per fork-join leaf for parallel expansion
+    private static final int PARALLEL_GRAIN = 4;
 
     // -------------------------------------------------------------------------
     // Construction
@@ -115,6 +178,29 @@ public class ActionSequenceOptimizer {
         this.horizon         = Math.max(1, horizon);
         this.gamma           = Math.min(1.0f, Math.max(0f, gamma));
         this.diversityPenalty = diversityPenalty;
+
+        int k = this.beamWidth;
+        nodeParent    = new int[this.horizon * k];
+        nodeAction    = new int[this.horizon * k];
+        beamStates    = new float[k][];
+        nextStates    = new float[k][];
+        beamScore     = new float[k];
+        nextScore     = new float[k];
+        beamFirst     = new int[k];
+        nextFirst     = new int[k];
+        beamNode      = new int[k];
+        nextNode      = new int[k];
+        candQ         = new float[k * actionDim];
+        batchStates   = new float[k][];
+        batchSlots    = new int[k];
+        slotKeys      = new long[k];
+        rowOfSlot     = new int[k];
+        batchActions  = new int[k];
+        batchQ        = new float[k * actionDim];
+        selected      = new int[k];
+        selectedScore = new float[k];
+        firstCount    = new int[actionDim];
+        cacheRows     = new float[CACHE_CAPACITY * actionDim];
     }
 
     /** Convenience constructor with sensible defaults. */
@@ -122,7 +208,18 @@ public class ActionSequenceOptimizer {
         this(actionDim, 5, 4, 0.99f, 0.1f);
     }
 
-    public void setOracle(QOracle oracle) { this.oracle = oracle; }
+    public synchronized void setOracle(QOracle oracle) {
+        this.oracle  = oracle;
+        cacheVersion = -1L;
+        clearCache();
+    }
+
+    /**
+     * Split large oracle batches across the common fork-join pool. Only enable
+     * for oracles whose {@code qBatch} / {@code predictNextStates} are
+     * thread-safe and not serialised by a lock.
+     */
+    public void setParallelExpansion(boolean enabled) { this.parallelExpansion = enabled; }
 
     // -------------------------------------------------------------------------
     // Planning
@@ -142,23 +239,42 @@ public class ActionSequenceOptimizer {
         long t0 = System.currentTimeMillis();
         planCalls.incrementAndGet();
 
-        // Initialize beam with empty sequence
-        List<BeamNode> beam = new ArrayList<>();
-        beam.add(new BeamNode(state, new ArrayList<>(), 0f));
-
+        // Q-rows cached under another model version are stale
+        long version = oracle.modelVersion();
+        if (version < 0 || version != cacheVersion) clearCache();
+        cacheVersion = version;
+
+        // Initialize beam with the root
+        int beamCount = 1;
+        beamStates[0] = state;
+        beamScore[0]  = 0f;
+        beamFirst[0]  = -1;
+        beamNode[0]   = -1;
+        nodeCount     = 0;
+        bestNode      = -1;
+
+        float discount = 1f;
         for (int step = 0; step < horizon; step++) {
-            beam = expandBeam(beam, actionMask, step);
-            if (beam.isEmpty()) break;
+            int next = expandBeam(beamCount, actionMask, discount, step < horizon - 1);
+            if (next == 0) break;
+            swapBeams();
+            beamCount = next;
+            discount *= gamma;
         }
 
         // Select the best sequence
-        BeamNode best = selectBest(beam);
         int bestFirstAction = 0;
-        if (best != null && !best.actions.isEmpty()) {
-            bestFirstAction = best.actions.get(0);
-            float score = best.cumulativeScore;
+        if (nodeCount > 0) {
+            int best = 0;
+            for (int i = 1; i < beamCount; i++) if (beamScore[i] > beamScore[best]) best = i;
+            bestNode        = beamNode[best];
+            bestFirstAction = beamFirst[best];
+            float score = beamScore[best];
             avgBestScore = 0.95f * avgBestScore + 0.05f * score;
         }
+        Arrays.fill(beamStates, null);
+        Arrays.fill(nextStates, null);
+        Arrays.fill(batchStates, null);
 
         long elapsed = System.currentTimeMillis() - t0;
         totalPlanMs.addAndGet(elapsed);
@@ -178,91 +294,304 @@ public class ActionSequenceOptimizer {
         return plan(state, null);
     }
 
+    /** Full action sequence of the last plan's best hypothesis (empty if none). */
+    public synchronized int[] getBestSequence() {
+        int len = 0;
+        for (int n = bestNode; n >= 0; n = nodeParent[n]) len++;
+        int[] seq = new int[len];
+        for (int n = bestNode; n >= 0; n = nodeParent[n]) seq[--len] = nodeAction[n];
+        return seq;
+    }
+
     // -------------------------------------------------------------------------
     // Beam expansion
     // -------------------------------------------------------------------------
 
-    private List<BeamNode> expandBeam(List<BeamNode> beam, boolean[] mask, int step) {
-        float discount = (float) Math.pow(gamma, step);
-        PriorityQueue<BeamNode> candidates = new PriorityQueue<>(
-                beamWidth * actionDim + 1,
-                Comparator.comparingDouble(n -> -n.cumulativeScore)); // max-heap by negating
+    /**
+     * Expands the {@code beamCount} current slots by every allowed action into
+     * the next beam. Returns the next beam's size.
+     */
+    private int expandBeam(int beamCount, boolean[] mask, float discount, boolean needStates) {
+        evaluateQ(beamCount);
+
+        // Pick the top-K candidates (slot * actionDim + action)
+        int k = diversityPenalty > 0
+                ? selectDiverse(beamCount, mask, discount)
+                : selectTopK(beamCount, mask, discount);
+
+        for (int j = 0; j < k; j++) {
+            int c    = selected[j];
+            int slot = c / actionDim;
+            int a    = c - slot * actionDim;
+            int node = nodeCount++;
+            nodeParent[node] = beamNode[slot];
+            nodeAction[node] = a;
+            nextNode[j]      = node;
+            nextFirst[j]     = beamFirst[slot] < 0 ? a : beamFirst[slot];
+            nextScore[j]     = selectedScore[j];
+            batchStates[j]   = beamStates[slot];
+            batchActions[j]  = a;
+        }
 
-        Map<Integer, Integer> firstActionCount = new HashMap<>();
+        // Next states only for survivors, and not after the last depth
+        if (k > 0 && needStates) {
+            runBatch(false, k);
+        }
+        return k;
+    }
 
-        for (BeamNode node : beam) {
-            for (int a = 0; a < actionDim; a++) {
-                if (mask != null && a < mask.length && !mask[a]) continue;
+    private float candidateScore(int slot, int a, float discount) {
+        return beamScore[slot] + discount * candQ[slot * actionDim + a];
+    }
 
-                float q = cachedQ(node.state, a);
-                float diversity = 0f;
+    private static boolean allowed(boolean[] mask, int a) {
+        return mask == null || a >= mask.length || mask[a];
+    }
 
-                // Diversity penalty: count beam nodes with same first action
-                int firstAction = node.actions.isEmpty() ? a : node.actions.get(0);
-                if (step == 0 && diversityPenalty > 0) {
-                    int cnt = firstActionCount.getOrDefault(firstAction, 0);
-                    diversity = -diversityPenalty * cnt;
-                    firstActionCount.put(firstAction, cnt + 1);
+    /** Bounded min-heap over candidate scores: O(N log K). Ties keep the earlier candidate. */
+    private int selectTopK(int beamCount, boolean[] mask, float discount) {
+        int size = 0;
+        for (int slot = 0; slot < beamCount; slot++) {
+            for (int a = 0; a < actionDim; a++) {
+                if (!allowed(mask, a)) continue;
+                float score = candidateScore(slot, a, discount);
+                int c = slot * actionDim + a;
+                if (size < beamWidth) {
+                    selected[size] = c;
+                    selectedScore[size] = score;
+                    siftUp(size++);
+                } else if (score > selectedScore[0]) { // candidates arrive in index order
+                    selected[0] = c;
+                    selectedScore[0] = score;
+                    siftDown(0, size);
                 }
+            }
+        }
+        // Heap-sort into descending score order
+        for (int end = size - 1; end > 0; end--) {
+            swapSelected(0, end);
+            siftDown(0, end);
+        }
+        return size;
+    }
 
-                float newScore = node.cumulativeScore + discount * q + diversity;
-                float[] nextState = oracle.predictNextState(node.state, a);
-                if (nextState == null) nextState = node.state;
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(i, parent)) break;
+            swapSelected(parent, i);
+            i = parent;
+        }
+    }
 
-                List<Integer> newActions = new ArrayList<>(node.actions);
-                newActions.add(a);
+    private void siftDown(int i, int size) {
+        while (true) {
+            int l = 2 * i + 1, r = l + 1, min = i;
+            if (l < size && worse(l, min)) min = l;
+            if (r < size && worse(r, min)) min = r;
+            if (min == i) return;
+            swapSelected(i, min);
+            i = min;
+        }
+    }
+
+    /** Lower score, or equal score from a later candidate. */
+    private boolean worse(int i, int j) {
+        float si = selectedScore[i], sj = selectedScore[j];
+        return si < sj || (si == sj && selected[i] > selected[j]);
+    }
+
+    private void swapSelected(int i, int j) {
+        int   c = selected[i];      selected[i] = selected[j];           selected[j] = c;
+        float s = selectedScore[i]; selectedScore[i] = selectedScore[j]; selectedScore[j] = s;
+    }
 
-                candidates.offer(new BeamNode(nextState, newActions, newScore));
+    /**
+     * Greedy selection where each survivor sharing a first action with already
+     * chosen survivors is penalised by {@code diversityPenalty} per duplicate.
+     */
+    private int selectDiverse(int beamCount, boolean[] mask, float discount) {
+        Arrays.fill(firstCount, 0);
+        int total = beamCount * actionDim;
+        int size = 0;
+        while (size < beamWidth) {
+            int bestC = -1;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            for (int c = 0; c < total; c++) {
+                int slot = c / actionDim;
+                int a    = c - slot * actionDim;
+                if (!allowed(mask, a) || isSelected(c, size)) continue;
+                int first = beamFirst[slot] < 0 ? a : beamFirst[slot];
+                float score = candidateScore(slot, a, discount) - diversityPenalty * firstCount[first];
+                if (bestC < 0 || score > bestScore) { bestC = c; bestScore = score; }
+            }
+            if (bestC < 0) break;
+            int slot = bestC / actionDim;
+            firstCount[beamFirst[slot] < 0 ? bestC - slot * actionDim : beamFirst[slot]]++;
+            selected[size]      = bestC;
+            selectedScore[size] = bestScore;
+            size++;
+        }
+        return size;
+    }
+
+    private boolean isSelected(int c, int size) {
+        for (int i = 0; i < size; i++) if (selected[i] == c) return true;
+        return false;
+    }
+
+    private void swapBeams() {
+        float[][] st = beamStates; beamStates = nextStates; nextStates = st;
+        float[]   sc = beamScore;  beamScore  = nextScore;  nextScore  = sc;
+        int[]     fi = beamFirst;  beamFirst  = nextFirst;  nextFirst  = fi;
+        int[]     no = beamNode;   beamNode   = nextNode;   nextNode   = no;
+    }
+
+    // -------------------------------------------------------------------------
+    // Batched oracle calls
+    // -------------------------------------------------------------------------
+
+    /**
+     * Fills candQ for every current slot from the table or one oracle batch.
+     * Slots holding the same uncached state share one batch row.
+     */
+    private void evaluateQ(int beamCount) {
+        int misses = 0;
+        for (int slot = 0; slot < beamCount; slot++) {
+            float[] state = beamStates[slot];
+            long    key   = hashState(state);
+            slotKeys[slot]  = key;
+            rowOfSlot[slot] = -1;
+            int idx = cacheFind(key, state);
+            if (idx >= 0) {
+                System.arraycopy(cacheRows, idx * actionDim, candQ, slot * actionDim, actionDim);
+                cacheHits++;
+                continue;
+            }
+            int row = -1;
+            for (int i = 0; i < misses && row < 0; i++) {
+                int other = batchSlots[i];
+                if (slotKeys[other] == key && Arrays.equals(beamStates[other], state)) row = i;
+            }
+            if (row >= 0) {
+                cacheHits++;
+            } else {
+                row = misses++;
+                batchStates[row] = state;
+                batchSlots[row]  = slot;
             }
+            rowOfSlot[slot] = row;
         }
+        if (misses == 0) return;
 
-        // Trim to beam width
-        List<BeamNode> newBeam = new ArrayList<>(beamWidth);
-        while (!candidates.isEmpty() && newBeam.size() < beamWidth) {
-            newBeam.add(candidates.poll());
+        cacheMisses += misses;
+        runBatch(true, misses);
+        for (int i = 0; i < misses; i++) {
+            int slot = batchSlots[i];
+            cachePut(slotKeys[slot], beamStates[slot], batchQ, i * actionDim);
+        }
+        for (int slot = 0; slot < beamCount; slot++) {
+            int row = rowOfSlot[slot];
+            if (row >= 0) System.arraycopy(batchQ, row * actionDim, candQ, slot * actionDim, actionDim);
         }
-        return newBeam;
     }
 
-    private BeamNode selectBest(List<BeamNode> beam) {
-        if (beam.isEmpty()) return null;
-        BeamNode best = beam.get(0);
-        for (BeamNode n : beam) if (n.cumulativeScore > best.cumulativeScore) best = n;
-        return best;
+    /** Runs the Q or transition batch over rows 0..count-1, in parallel if enabled. */
+    private void runBatch(boolean q, int count) {
+        oracleBatches++;
+        if (parallelExpansion && count >= 2 * PARALLEL_GRAIN) {
+            ForkJoinPool.commonPool().invoke(new OracleTask(oracle, q, 0, count));
+        } else if (q) {
+            oracle.qBatch(batchStates, 0, count, actionDim, batchQ);
+        } else {
+            oracle.predictNextStates(batchStates, batchActions, 0, count, nextStates);
+        }
+    }
+
+    private final class OracleTask extends RecursiveAction {
+        private final QOracle oracle;
+        private final boolean q;
+        private final int     from, to;
+
+        OracleTask(QOracle oracle, boolean q, int from, int to) {
+            this.oracle = oracle; this.q = q; this.from = from; this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_GRAIN) {
+                if (q) oracle.qBatch(batchStates, from, to, actionDim, batchQ);
+                else   oracle.predictNextStates(batchStates, batchActions, from, to, nextStates);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new OracleTask(oracle, q, from, mid), new OracleTask(oracle, q, mid, to));
+        }
     }
 
     // -------------------------------------------------------------------------
-    // Q-value cache
+    // Transposition table
     // -------------------------------------------------------------------------
 
-    private float cachedQ(float[] state, int action) {
-        if (oracle == null) return 0f;
-        // Light cache key: use reference identity + action (fast, approximate)
-        String key = System.identityHashCode(state) + ":" + action;
-        Float cached = qCache.get(key);
-        if (cached != null) return cached;
-        float q = oracle.q(state, action);
-        if (qCache.size() >= CACHE_MAX) qCache.clear(); // simple eviction
-        qCache.put(key, q);
-        return q;
+    /** 64-bit content hash of a state; never EMPTY_KEY. */
+    private static long hashState(float[] state) {
+        long h = 0x9E3779B97F4A7C15L ^ state.length;
+        for (float v : state) {
+            h ^= Float.floatToIntBits(v);
+            h *= 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 31;
+        }
+        return h == EMPTY_KEY ? 1L : h;
     }
 
-    public void clearCache() { qCache.clear(); }
+    /** Table index holding {@code state}, or -1; a hash match with another state is a miss. */
+    private int cacheFind(long key, float[] state) {
+        int mask = CACHE_CAPACITY - 1;
+        for (int i = (int) (key ^ (key >>> 32)) & mask; ; i = (i + 1) & mask) {
+            long k = cacheKeys[i];
+            if (k == key) return Arrays.equals(cacheStates[i], state) ? i : -1;
+            if (k == EMPTY_KEY) return -1;
+        }
+    }
+
+    /** Stores a Q-row; a colliding state with the same hash is replaced. */
+    private void cachePut(long key, float[] state, float[] row, int offset) {
+        // Simple eviction: clear when three quarters full
+        if (cacheSize >= CACHE_CAPACITY * 3 / 4) clearCache();
+        int mask = CACHE_CAPACITY - 1;
+        int i = (int) (key ^ (key >>> 32)) & mask;
+        while (cacheKeys[i] != EMPTY_KEY && cacheKeys[i] != key) i = (i + 1) & mask;
+        if (cacheKeys[i] == EMPTY_KEY) cacheSize++;
+        cacheKeys[i] = key;
+        float[] copy = cacheStates[i];
+        if (copy == null || copy.length != state.length) cacheStates[i] = copy = new float[state.length];
+        System.arraycopy(state, 0, copy, 0, state.length);
+        System.arraycopy(row, offset, cacheRows, i * actionDim, actionDim);
+    }
+
+    public synchronized void clearCache() {
+        Arrays.fill(cacheKeys, EMPTY_KEY);
+        cacheSize = 0;
+    }
 
     // -------------------------------------------------------------------------
     // Monitoring
     // -------------------------------------------------------------------------
 
-    public Map<String, Object> getStats() {
+    public synchronized Map<String, Object> getStats() {
         Map<String, Object> s = new HashMap<>();
         int calls = planCalls.get();
-        s.put("planCalls",    calls);
-        s.put("avgPlanMs",    calls > 0 ? totalPlanMs.get() / calls : 0L);
-        s.put("avgBestScore", avgBestScore);
-        s.put("beamWidth",    beamWidth);
-        s.put("horizon",      horizon);
-        s.put("gamma",        gamma);
-        s.put("cacheSize",    qCache.size());
+        s.put("planCalls",     calls);
+        s.put("avgPlanMs",     calls > 0 ? totalPlanMs.get() / calls : 0L);
+        s.put("avgBestScore",  avgBestScore);
+        s.put("beamWidth",     beamWidth);
+        s.put("horizon",       horizon);
+        s.put("gamma",         gamma);
+        s.put("cacheSize",     cacheSize);
+        s.put("cacheHitRate",  cacheHits + cacheMisses > 0
+                ? (float) cacheHits / (cacheHits + cacheMisses) : 0f);
+        s.put("oracleBatches", oracleBatches);
+        s.put("parallel",      parallelExpansion);
         return s;
     }
 }
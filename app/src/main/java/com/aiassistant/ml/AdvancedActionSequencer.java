@@ -4,27 +4,42 @@ import android.content.Context;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Advanced Action Sequencer for complex gaming strategies
  * 
  * This class provides sophisticated action prioritization and sequencing to
  * execute optimized action chains for fast-paced gaming.
+ * 
+ * Actions are dispatched by a single thread that parks until the head of the
+ * queue is due (nanoTime deadlines), is woken early when an insertion becomes
+ * the new head, and runs callbacks itself, so callbacks should hand heavy work
+ * off rather than block. Dispatch lag is recorded in the
+ * {@link PerformanceProfiler} section {@value #LAG_SECTION}.
  */
 public class AdvancedActionSequencer {
     private static final String TAG = "AdvancedActionSequencer";
     
+    // Profiler section for (dispatch time - due time)
+    private static final String LAG_SECTION = "sequencer.dispatchLag";
+    
+    // Final stretch before a deadline that is spun (yielding) instead of parked,
+    // since timed waits tend to overshoot by a scheduler tick
+    private static final long SPIN_THRESHOLD_NS = 200_000L;
+    
     // Singleton instance
     private static AdvancedActionSequencer instance;
     
@@ -38,16 +53,20 @@ public class AdvancedActionSequencer {
     private final Map<String, ActionSequence> sequences;
     
     // Active sequence
-    private ActionSequence activeSequence;
+    private volatile ActionSequence activeSequence;
     
-    // Executors
-    private final ScheduledExecutorService scheduler;
-    private final Executor actionExecutor;
+    // Dispatcher thread; guarded by actionQueue, null while stopped
+    private Thread dispatcher;
+    
+    // Profiler for dispatch lag
+    private final PerformanceProfiler profiler = PerformanceProfiler.getInstance();
     
     // State
     private final AtomicBoolean running = new AtomicBoolean(false);
     private final AtomicInteger sequenceCounter = new AtomicInteger(0);
     private final AtomicInteger actionCounter = new AtomicInteger(0);
+    private final AtomicLong dispatchedCount = new AtomicLong(0);
+    private final AtomicLong maxLagNs = new AtomicLong(0);
     
     // Action callback
     public interface ActionCallback {
@@ -59,35 +78,88 @@ public class AdvancedActionSequencer {
     // Callback list
     private final List<ActionCallback> callbacks = new CopyOnWriteArrayList<>();
     
+    /**
+     * Executes a window of due actions as one batch of gestures
+     */
+    public interface GestureSink {
+        /**
+         * Take over execution of the leading gesture actions in {@code actions},
+         * each starting {@code offsetsMs[i]} after now. Returns a handle for
+         * the taken actions, or null if the first action is not a gesture.
+         * {@code listener} is called exactly once when the taken strokes have
+         * finished, been cancelled or failed, possibly before this returns.
+         */
+        GestureHandle dispatchActions(List<PredictiveActionSystem.GameAction> actions,
+                                      long[] offsetsMs, GestureListener listener);
+    }
+    
+    /**
+     * Handle for actions taken over by a {@link GestureSink}
+     */
+    public interface GestureHandle {
+        /** Number of leading actions the sink took */
+        int getActionCount();
+        
+        /** Drop strokes that have not been dispatched yet */
+        void cancel();
+    }
+    
+    /**
+     * Completion of a {@link GestureHandle}; the first {@code completedActions}
+     * taken actions ran, the rest were cancelled or failed
+     */
+    public interface GestureListener {
+        void onGesturesFinished(GestureHandle handle, int completedActions, boolean cancelled);
+    }
+    
+    // Gesture batching; window is 0 while no sink is set
+    private volatile GestureSink gestureSink;
+    private volatile long gestureWindowNs;
+    private final List<ActionItem> batchItems = new ArrayList<>(); // Dispatcher thread only
+    private final List<PredictiveActionSystem.GameAction> batchActions = new ArrayList<>();
+    private final AtomicLong batchedCount = new AtomicLong(0);
+    
+    // Batches handed to the sink whose strokes have not finished yet
+    private final Set<GestureHandoff> handoffs =
+            Collections.newSetFromMap(new ConcurrentHashMap<GestureHandoff, Boolean>());
+    
     /**
      * Action item in the queue
      */
     private static class ActionItem implements Comparable<ActionItem> {
-        final long executionTime; // Absolute time in milliseconds
+        final long executionTime; // Absolute System.nanoTime() deadline
         final PredictiveActionSystem.GameAction action;
         final float priority;
         final String sequenceId;
         final int sequencePosition;
+        final int order; // Insertion order, breaks remaining ties FIFO
         
         ActionItem(PredictiveActionSystem.GameAction action, long executionTime, 
-                   float priority, String sequenceId, int sequencePosition) {
+                   float priority, String sequenceId, int sequencePosition, int order) {
             this.action = action;
             this.executionTime = executionTime;
             this.priority = priority;
             this.sequenceId = sequenceId;
             this.sequencePosition = sequencePosition;
+            this.order = order;
         }
         
         @Override
         public int compareTo(ActionItem other) {
-            // First order by execution time
-            int timeCompare = Long.compare(executionTime, other.executionTime);
-            if (timeCompare != 0) {
-                return timeCompare;
+            // First order by execution time (nanoTime may wrap, so compare the difference)
+            long diff = executionTime - other.executionTime;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
             }
             
             // Then by priority (higher priority first)
-            return Float.compare(other.priority, priority);
+            int priorityCompare = Float.compare(other.priority, priority);
+            if (priorityCompare != 0) {
+                return priorityCompare;
+            }
+            
+            // Then in insertion order
+            return Integer.compare(order, other.order);
         }
     }
     
@@ -110,6 +182,7 @@ public class AdvancedActionSequencer {
         private long startTime;
         private boolean completed;
         private boolean aborted;
+        private final BitSet finishedAhead = new BitSet(); // Positions done before their predecessors
         
         /**
          * Create a new sequence
@@ -197,17 +270,18 @@ public class AdvancedActionSequencer {
         /**
          * Start the sequence
          */
-        public void start() {
+        public synchronized void start() {
             startTime = System.currentTimeMillis();
             currentPosition = 0;
             completed = false;
             aborted = false;
+            finishedAhead.clear();
         }
         
         /**
          * Mark sequence as completed
          */
-        public void complete() {
+        public synchronized void complete() {
             currentPosition = actions.size();
             completed = true;
         }
@@ -215,7 +289,7 @@ public class AdvancedActionSequencer {
         /**
          * Abort the sequence
          */
-        public void abort() {
+        public synchronized void abort() {
             aborted = true;
         }
         
@@ -306,6 +380,24 @@ public class AdvancedActionSequencer {
             }
         }
         
+        /**
+         * Record that the action at {@code position} has run. Gesture batches
+         * finish on their own thread, so positions may arrive out of order; the
+         * sequence advances over every contiguous finished position. Returns
+         * true if this call completed the sequence.
+         */
+        synchronized boolean finishPosition(int position) {
+            if (!isActive() || position < currentPosition) {
+                return false;
+            }
+            finishedAhead.set(position);
+            while (!completed && finishedAhead.get(currentPosition)) {
+                finishedAhead.clear(currentPosition);
+                advancePosition();
+            }
+            return completed;
+        }
+        
         /**
          * Check if completed
          */
@@ -341,11 +433,7 @@ public class AdvancedActionSequencer {
         actionQueue = new PriorityQueue<>();
         
         // Create map for sequences
-        sequences = new HashMap<>();
-        
-        // Create executors
-        scheduler = Executors.newSingleThreadScheduledExecutor();
-        actionExecutor = Executors.newSingleThreadExecutor();
+        sequences = new ConcurrentHashMap<>();
         
         Log.i(TAG, "Advanced action sequencer created");
     }
@@ -354,19 +442,21 @@ public class AdvancedActionSequencer {
      * Start the sequencer
      */
     public void start() {
-        if (running.get()) {
-            return;
+        synchronized (actionQueue) {
+            if (running.get()) {
+                return;
+            }
+            
+            running.set(true);
+            
+            // Start action dispatcher
+            Thread thread = new Thread(this::dispatchLoop, "ActionDispatcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            dispatcher = thread;
+            thread.start();
         }
         
-        running.set(true);
-        
-        // Start action processor
-        scheduler.scheduleAtFixedRate(
-                this::processActions,
-                0,
-                10, // 10ms intervals for high precision
-                TimeUnit.MILLISECONDS);
-        
         Log.i(TAG, "Action sequencer started");
     }
     
@@ -374,11 +464,17 @@ public class AdvancedActionSequencer {
      * Stop the sequencer
      */
     public void stop() {
-        running.set(false);
-        
-        // Clear queue
+        // Clear queue and wake the dispatcher so it exits
         synchronized (actionQueue) {
+            running.set(false);
+            dispatcher = null;
             actionQueue.clear();
+            actionQueue.notifyAll();
+        }
+        
+        // Drop strokes still waiting in the gesture sink
+        for (GestureHandoff handoff : handoffs) {
+            handoff.cancel();
         }
         
         // Reset active sequence
@@ -404,34 +500,239 @@ public class AdvancedActionSequencer {
     }
     
     /**
-     * Process due actions
+     * Set the sink that executes gesture actions
+     * 
+     * When the head of the queue is due, every action due within the
+     * following {@code windowMs} is handed to the sink with its start offset,
+     * so a combo goes out as one multi-stroke gesture instead of one gesture
+     * per action. Callbacks for the merged actions, and sequence progress,
+     * follow the sink's completion of their strokes. Pass null to execute
+     * actions one by one again.
      */
-    private void processActions() {
-        if (!running.get()) {
-            return;
-        }
+    public void setGestureSink(GestureSink sink, long windowMs) {
+        gestureWindowNs = sink != null ? TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMs)) : 0;
+        gestureSink = sink;
+    }
+    
+    /**
+     * Dispatcher loop: park until the head of the queue is due, then run it
+     */
+    private void dispatchLoop() {
+        Thread self = Thread.currentThread();
         
-        try {
-            long currentTime = System.currentTimeMillis();
+        while (true) {
+            ActionItem actionItem;
+            GestureSink sink = gestureSink;
             
-            // Process all due actions
-            while (true) {
-                ActionItem actionItem;
-                
+            try {
                 synchronized (actionQueue) {
-                    // Get the next due action
-                    if (actionQueue.isEmpty() || actionQueue.peek().executionTime > currentTime) {
-                        break;
+                    if (dispatcher != self) {
+                        return;
                     }
                     
-                    actionItem = actionQueue.poll();
+                    ActionItem head = actionQueue.peek();
+                    if (head == null) {
+                        // Nothing queued: sleep until an insertion or stop
+                        actionQueue.wait();
+                        continue;
+                    }
+                    
+                    long delay = head.executionTime - System.nanoTime();
+                    if (delay > SPIN_THRESHOLD_NS) {
+                        // Woken early if an earlier action becomes the head
+                        TimeUnit.NANOSECONDS.timedWait(actionQueue, delay - SPIN_THRESHOLD_NS);
+                        continue;
+                    }
+                    
+                    if (delay > 0) {
+                        actionItem = null;
+                    } else {
+                        actionItem = actionQueue.poll();
+                        
+                        // Collect the rest of the batching window
+                        if (sink != null) {
+                            batchItems.clear();
+                            batchItems.add(actionItem);
+                            long windowEnd = actionItem.executionTime + gestureWindowNs;
+                            ActionItem next;
+                            while ((next = actionQueue.peek()) != null
+                                    && next.executionTime - windowEnd <= 0) {
+                                batchItems.add(actionQueue.poll());
+                            }
+                        }
+                    }
                 }
-                
-                // Execute the action
+            } catch (InterruptedException e) {
+                // Only release() interrupts; re-check ownership
+                continue;
+            }
+            
+            if (actionItem == null) {
+                Thread.yield();
+                continue;
+            }
+            
+            // Record how late the action is, then run it on this thread
+            long lag = System.nanoTime() - actionItem.executionTime;
+            profiler.recordNanos(LAG_SECTION, lag);
+            long max;
+            while (lag > (max = maxLagNs.get()) && !maxLagNs.compareAndSet(max, lag)) {
+                // Retry
+            }
+            dispatchedCount.incrementAndGet();
+            
+            if (sink == null) {
                 executeAction(actionItem);
+                continue;
+            }
+            
+            int taken = dispatchBatch(sink);
+            if (taken <= 0) {
+                executeAction(actionItem);
+                taken = 1;
+            }
+            
+            // Return window items the sink did not take
+            if (taken < batchItems.size()) {
+                enqueue(batchItems.subList(taken, batchItems.size()).toArray(new ActionItem[0]));
             }
+        }
+    }
+    
+    /**
+     * Hand the collected window to the gesture sink; returns how many it took
+     */
+    private int dispatchBatch(GestureSink sink) {
+        int n = batchItems.size();
+        long now = System.nanoTime();
+        long[] offsets = new long[n];
+        batchActions.clear();
+        for (int i = 0; i < n; i++) {
+            ActionItem item = batchItems.get(i);
+            batchActions.add(item.action);
+            offsets[i] = Math.max(0, TimeUnit.NANOSECONDS.toMillis(item.executionTime - now));
+        }
+        
+        // Registered before the hand-off: the sink may finish before it returns
+        GestureHandoff handoff = new GestureHandoff(batchItems.toArray(new ActionItem[0]));
+        handoffs.add(handoff);
+        GestureHandle handle;
+        try {
+            handle = sink.dispatchActions(batchActions, offsets, handoff);
         } catch (Exception e) {
-            Log.e(TAG, "Error processing actions: " + e.getMessage());
+            Log.e(TAG, "Error in gesture sink: " + e.getMessage());
+            handle = null;
+        }
+        if (handle == null) {
+            handoffs.remove(handoff);
+            return 0;
+        }
+        handoff.attach(handle);
+        
+        int taken = Math.min(handle.getActionCount(), n);
+        if (taken > 0) {
+            batchedCount.addAndGet(taken);
+            dispatchedCount.addAndGet(taken - 1);
+        }
+        return taken;
+    }
+    
+    /**
+     * Actions handed to the gesture sink; their callbacks and sequence
+     * progress run when the sink reports the strokes finished
+     */
+    private final class GestureHandoff implements GestureListener {
+        final ActionItem[] items;
+        private GestureHandle handle;
+        private boolean cancelRequested;
+        
+        GestureHandoff(ActionItem[] items) {
+            this.items = items;
+        }
+        
+        synchronized void attach(GestureHandle handle) {
+            this.handle = handle;
+            if (cancelRequested) {
+                handle.cancel();
+            }
+        }
+        
+        synchronized void cancel() {
+            cancelRequested = true;
+            if (handle != null) {
+                handle.cancel();
+            }
+        }
+        
+        boolean carries(String sequenceId) {
+            for (ActionItem item : items) {
+                if (item.sequenceId.equals(sequenceId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        @Override
+        public void onGesturesFinished(GestureHandle handle, int completedActions, boolean cancelled) {
+            handoffs.remove(this);
+            int taken = Math.min(handle.getActionCount(), items.length);
+            int done = Math.min(completedActions, taken);
+            for (int i = 0; i < done; i++) {
+                executeAction(items[i]);
+            }
+            if (done < taken && !cancelled) {
+                notifyError("Gesture batch failed after " + done + " of " + taken + " actions");
+                for (int i = done; i < taken; i++) {
+                    abortSequence(items[i].sequenceId);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Abort a sequence whose actions can no longer run
+     */
+    private void abortSequence(String sequenceId) {
+        if (sequenceId.isEmpty()) {
+            return;
+        }
+        ActionSequence sequence = sequences.get(sequenceId);
+        if (sequence == null || !sequence.isActive()) {
+            return;
+        }
+        sequence.abort();
+        synchronized (actionQueue) {
+            actionQueue.removeIf(item -> item.sequenceId.equals(sequenceId));
+            actionQueue.notifyAll();
+        }
+        if (activeSequence == sequence) {
+            activeSequence = null;
+        }
+    }
+    
+    private void notifyError(String error) {
+        for (ActionCallback callback : callbacks) {
+            try {
+                callback.onError(error);
+            } catch (Exception e) {
+                Log.e(TAG, "Error in error callback: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Offer items to the queue, waking the dispatcher if the head changed
+     */
+    private void enqueue(ActionItem... items) {
+        synchronized (actionQueue) {
+            ActionItem head = actionQueue.peek();
+            for (ActionItem item : items) {
+                actionQueue.offer(item);
+            }
+            if (actionQueue.peek() != head) {
+                actionQueue.notifyAll();
+            }
         }
     }
     
@@ -439,44 +740,40 @@ public class AdvancedActionSequencer {
      * Execute an action
      */
     private void executeAction(ActionItem actionItem) {
-        actionExecutor.execute(() -> {
-            try {
-                // Notify callbacks
-                for (ActionCallback callback : callbacks) {
-                    try {
-                        callback.onAction(actionItem.action);
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error in action callback: " + e.getMessage());
-                    }
+        try {
+            // Notify callbacks
+            for (ActionCallback callback : callbacks) {
+                try {
+                    callback.onAction(actionItem.action);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error in action callback: " + e.getMessage());
                 }
-                
-                // Check if part of a sequence
-                if (actionItem.sequenceId != null && !actionItem.sequenceId.isEmpty()) {
-                    // Get the sequence
-                    ActionSequence sequence = sequences.get(actionItem.sequenceId);
-                    if (sequence != null && sequence.isActive() && 
-                            sequence.getCurrentPosition() == actionItem.sequencePosition) {
-                        // Advance sequence position
-                        sequence.advancePosition();
-                        
-                        // If sequence completed, notify callbacks
-                        if (sequence.isCompleted()) {
+            }
+            
+            // Check if part of a sequence
+            if (actionItem.sequenceId != null && !actionItem.sequenceId.isEmpty()) {
+                // Get the sequence
+                ActionSequence sequence = sequences.get(actionItem.sequenceId);
+                if (sequence != null) {
+                    // Advance sequence position; notify callbacks if this completed it
+                    if (sequence.finishPosition(actionItem.sequencePosition)) {
+                        if (activeSequence == sequence) {
                             activeSequence = null;
-                            
-                            for (ActionCallback callback : callbacks) {
-                                try {
-                                    callback.onSequenceComplete(sequence.getId());
-                                } catch (Exception e) {
-                                    Log.e(TAG, "Error in sequence completion callback: " + e.getMessage());
-                                }
+                        }
+                        
+                        for (ActionCallback callback : callbacks) {
+                            try {
+                                callback.onSequenceComplete(sequence.getId());
+                            } catch (Exception e) {
+                                Log.e(TAG, "Error in sequence completion callback: " + e.getMessage());
                             }
                         }
                     }
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Error executing action: " + e.getMessage());
             }
-        });
+        } catch (Exception e) {
+            Log.e(TAG, "Error executing action: " + e.getMessage());
+        }
     }
     
     /**
@@ -494,13 +791,12 @@ public class AdvancedActionSequencer {
         }
         
         // Create action item
-        long executionTime = System.currentTimeMillis() + delayMs;
-        ActionItem item = new ActionItem(action, executionTime, priority, "", -1);
+        long executionTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        ActionItem item = new ActionItem(action, executionTime, priority, "", -1,
+                actionCounter.incrementAndGet());
         
         // Add to queue
-        synchronized (actionQueue) {
-            actionQueue.offer(item);
-        }
+        enqueue(item);
     }
     
     /**
@@ -552,28 +848,28 @@ public class AdvancedActionSequencer {
         sequence.start();
         
         // Queue all actions in the sequence
-        long baseTime = System.currentTimeMillis();
+        long baseTime = System.nanoTime();
         List<PredictiveActionSystem.GameAction> actions = sequence.getActions();
         long[] timingOffsets = sequence.getTimingOffsets();
+        ActionItem[] items = new ActionItem[actions.size()];
         
         for (int i = 0; i < actions.size(); i++) {
             PredictiveActionSystem.GameAction action = actions.get(i);
-            long executionTime = baseTime + timingOffsets[i];
+            long executionTime = baseTime + TimeUnit.MILLISECONDS.toNanos(timingOffsets[i]);
             
             // Create action item with sequence information
-            ActionItem item = new ActionItem(
+            items[i] = new ActionItem(
                     action, 
                     executionTime, 
                     sequence.getPriority(), 
                     sequence.getId(), 
-                    i);
-            
-            // Add to queue
-            synchronized (actionQueue) {
-                actionQueue.offer(item);
-            }
+                    i,
+                    actionCounter.incrementAndGet());
         }
         
+        // Add to queue in one step so the dispatcher is re-armed once
+        enqueue(items);
+        
         Log.i(TAG, "Executing sequence: " + sequence.getId() + " with " + actions.size() + " actions");
         return true;
     }
@@ -582,17 +878,26 @@ public class AdvancedActionSequencer {
      * Cancel an active sequence
      */
     public boolean cancelActiveSequence() {
-        if (activeSequence == null) {
+        ActionSequence sequence = activeSequence;
+        if (sequence == null) {
             return false;
         }
         
         // Abort sequence
-        activeSequence.abort();
+        sequence.abort();
         
-        // Remove actions from queue
+        // Remove actions from queue; the dispatcher re-reads the head on wake
         synchronized (actionQueue) {
             actionQueue.removeIf(item -> 
-                    item.sequenceId.equals(activeSequence.getId()));
+                    item.sequenceId.equals(sequence.getId()));
+            actionQueue.notifyAll();
+        }
+        
+        // Drop its strokes still waiting in the gesture sink
+        for (GestureHandoff handoff : handoffs) {
+            if (handoff.carries(sequence.getId())) {
+                handoff.cancel();
+            }
         }
         
         // Clear active sequence
@@ -643,12 +948,14 @@ public class AdvancedActionSequencer {
         Map<String, Object> params1 = new HashMap<>();
         params1.put("x", 0.80f);
         params1.put("y", 0.70f);
+        params1.put("normalized", true);
         params1.put("label", "attack_1");
         sequence.addAction(new PredictiveActionSystem.GameAction("TAP", params1, 0.9f));
 
         Map<String, Object> params2 = new HashMap<>();
         params2.put("x", 0.85f);
         params2.put("y", 0.68f);
+        params2.put("normalized", true);
         params2.put("label", "attack_2");
         sequence.addAction(new PredictiveActionSystem.GameAction("TAP", params2, 0.9f));
 
@@ -656,6 +963,7 @@ public class AdvancedActionSequencer {
         Map<String, Object> params3 = new HashMap<>();
         params3.put("x", 0.90f);
         params3.put("y", 0.65f);
+        params3.put("normalized", true);
         params3.put("label", "attack_3_finisher");
         sequence.addAction(new PredictiveActionSystem.GameAction("TAP", params3, 0.95f));
 
@@ -674,6 +982,7 @@ public class AdvancedActionSequencer {
         Map<String, Object> params1 = new HashMap<>();
         params1.put("x", 0.20f);
         params1.put("y", 0.80f);
+        params1.put("normalized", true);
         params1.put("label", "block");
         sequence.addAction(new PredictiveActionSystem.GameAction("TAP", params1, 1.0f));
 
@@ -684,6 +993,7 @@ public class AdvancedActionSequencer {
         params2.put("endX",   0.72f);
         params2.put("endY",   0.50f);
         params2.put("duration", 100L);
+        params2.put("normalized", true);
         params2.put("label", "dodge_right");
         sequence.addAction(new PredictiveActionSystem.GameAction("SWIPE", params2, 0.95f));
 
@@ -691,6 +1001,7 @@ public class AdvancedActionSequencer {
         Map<String, Object> params3 = new HashMap<>();
         params3.put("x", 0.80f);
         params3.put("y", 0.70f);
+        params3.put("normalized", true);
         params3.put("label", "counter_attack");
         sequence.addAction(new PredictiveActionSystem.GameAction("TAP", params3, 0.95f));
 
@@ -710,6 +1021,7 @@ public class AdvancedActionSequencer {
         params1.put("endX",   0.28f);
         params1.put("endY",   0.50f);
         params1.put("duration", 110L);
+        params1.put("normalized", true);
         params1.put("label", "dodge_left");
         sequence.addAction(new PredictiveActionSystem.GameAction("SWIPE", params1, 0.8f));
 
@@ -720,6 +1032,7 @@ public class AdvancedActionSequencer {
         params2.put("endX",   0.50f);
         params2.put("endY",   0.38f);
         params2.put("duration", 90L);
+        params2.put("normalized", true);
         params2.put("label", "jump");
         sequence.addAction(new PredictiveActionSystem.GameAction("SWIPE", params2, 0.8f));
 
@@ -730,6 +1043,7 @@ public class AdvancedActionSequencer {
         params3.put("endX",   0.72f);
         params3.put("endY",   0.50f);
         params3.put("duration", 110L);
+        params3.put("normalized", true);
         params3.put("label", "dodge_right");
         sequence.addAction(new PredictiveActionSystem.GameAction("SWIPE", params3, 0.8f));
 
@@ -747,6 +1061,7 @@ public class AdvancedActionSequencer {
         params1.put("x", 0.90f);
         params1.put("y", 0.88f);
         params1.put("duration", 520L);
+        params1.put("normalized", true);
         params1.put("label", "charge_special");
         sequence.addAction(new PredictiveActionSystem.GameAction("LONG_PRESS", params1, 1.0f));
 
@@ -757,6 +1072,7 @@ public class AdvancedActionSequencer {
         params2.put("endX",   0.72f);
         params2.put("endY",   0.50f);
         params2.put("duration", 150L);
+        params2.put("normalized", true);
         params2.put("label", "release_swipe");
         sequence.addAction(new PredictiveActionSystem.GameAction("SWIPE", params2, 1.0f));
 
@@ -764,6 +1080,7 @@ public class AdvancedActionSequencer {
         Map<String, Object> params3 = new HashMap<>();
         params3.put("x", 0.50f);
         params3.put("y", 0.50f);
+        params3.put("normalized", true);
         params3.put("label", "aoe_confirm");
         sequence.addAction(new PredictiveActionSystem.GameAction("TAP", params3, 1.0f));
 
@@ -821,11 +1138,22 @@ public class AdvancedActionSequencer {
      */
     public Map<String, Object> getStats() {
         Map<String, Object> stats = new HashMap<>();
+        ActionSequence activeSequence = this.activeSequence;
         
         stats.put("running", running.get());
         stats.put("queueSize", getQueueSize());
         stats.put("sequenceCount", sequences.size());
         stats.put("hasActiveSequence", activeSequence != null);
+        stats.put("dispatchedActions", dispatchedCount.get());
+        stats.put("batchedActions", batchedCount.get());
+        stats.put("maxDispatchLagMs", maxLagNs.get() / 1e6);
+        
+        PerformanceProfiler.Snapshot lag = profiler.getSnapshot(LAG_SECTION);
+        if (lag != null) {
+            stats.put("p50DispatchLagMs", lag.percentileNs(50) / 1e6);
+            stats.put("p99DispatchLagMs", lag.percentileNs(99) / 1e6);
+            stats.put("p999DispatchLagMs", lag.percentileNs(99.9) / 1e6);
+        }
         
         if (activeSequence != null) {
             Map<String, Object> activeSequenceInfo = new HashMap<>();
@@ -846,18 +1174,25 @@ public class AdvancedActionSequencer {
      * Release resources
      */
     public void release() {
+        Thread thread;
+        synchronized (actionQueue) {
+            thread = dispatcher;
+        }
+        
         // Stop sequencer
         stop();
         
-        // Shut down executors
-        scheduler.shutdown();
-        try {
-            if (!scheduler.awaitTermination(1, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
+        // Wait for the dispatcher to finish its current action
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(1000);
+                if (thread.isAlive()) {
+                    thread.interrupt();
+                }
+            } catch (InterruptedException e) {
+                thread.interrupt();
+                Thread.currentThread().interrupt();
             }
-        } catch (InterruptedException e) {
-            scheduler.shutdownNow();
-            Thread.currentThread().interrupt();
         }
         
         // Clear data
@@ -3,6 +3,7 @@ package com.aiassistant.ml;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -17,10 +18,14 @@ import java.util.concurrent.ConcurrentHashMap;
  *
  *  1. Z-score detection — value is flagged if |z| > Z_THRESHOLD where
  *     z = (x − μ) / σ, with μ and σ maintained via Welford's online
- *     algorithm (numerically stable, single-pass).
+ *     algorithm (numerically stable, single-pass), or — after
+ *     {@link #setDecayHalfLife(int)} — by an exponentially decayed mean and
+ *     variance that forget old samples.
  *
  *  2. IQR detection — value is flagged if it falls below Q1 − 1.5·IQR or
- *     above Q3 + 1.5·IQR, computed from the sliding window buffer.
+ *     above Q3 + 1.5·IQR over the sliding window. The window is a primitive
+ *     ring plus a sorted mirror updated by binary search on each sample, so
+ *     quartiles are read in O(1) without copying or sorting.
  *
  *  3. Consecutive deviation counter — an anomaly is only reported after
  *     MIN_CONSECUTIVE consecutive unusual values to suppress one-off noise.
@@ -33,6 +38,10 @@ import java.util.concurrent.ConcurrentHashMap;
  *
  *  6. Anomaly history — keeps the last MAX_HISTORY events per feature.
  *
+ *  7. Long-horizon quantiles — every stream also feeds a mergeable KLL
+ *     sketch, queryable per feature or merged across features via
+ *     {@link #getQuantile(String, double)} / {@link #getMergedQuantile}.
+ *
  * Thread-safe via per-feature synchronisation.
  */
 public class AnomalyDetector {
@@ -82,24 +91,176 @@ public class AnomalyDetector {
     // -----------------------------------------------------------------------
     // Per-feature stream state
     // -----------------------------------------------------------------------
+    /**
+     * KLL quantile sketch: a stack of compactors where level h holds items of
+     * weight 2^h. A full level is sorted and every other item (random offset)
+     * is promoted, so memory stays O(k log n) and sketches merge by
+     * concatenating levels and recompacting. Queries read a sorted
+     * value/cumulative-weight view that is rebuilt only after the sketch
+     * changes.
+     */
+    static final class KllSketch {
+        private static final int    K     = 128;
+        private static final double DECAY = 2.0 / 3.0;
+
+        private double[][] levels = new double[][]{new double[K]};
+        private int[]      sizes  = new int[1];
+        private long       count;
+        private long       rng    = 0x9E3779B97F4A7C15L;
+
+        // Sorted query view; stale after any push
+        private double[] viewVals  = new double[0];
+        private long[]   viewCum   = new long[0];
+        private int[]    cursors   = new int[0];
+        private int      viewSize;
+        private boolean  viewStale = true;
+
+        void add(double v) {
+            push(0, v);
+            count++;
+        }
+
+        long count() { return count; }
+
+        private int capacity(int level) {
+            int depth = levels.length - 1 - level;
+            return Math.max(2, (int) Math.ceil(K * Math.pow(DECAY, depth)));
+        }
+
+        private void push(int level, double v) {
+            if (sizes[level] == levels[level].length) {
+                levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+            }
+            levels[level][sizes[level]++] = v;
+            viewStale = true;
+            if (sizes[level] >= capacity(level)) compact(level);
+        }
+
+        private void compact(int level) {
+            if (level + 1 == levels.length) {
+                levels = Arrays.copyOf(levels, levels.length + 1);
+                sizes  = Arrays.copyOf(sizes, sizes.length + 1);
+                levels[level + 1] = new double[Math.max(2, capacity(level + 1))];
+            }
+            double[] buf = levels[level];
+            int n = sizes[level];
+            Arrays.sort(buf, 0, n);
+            rng ^= rng << 13; rng ^= rng >>> 7; rng ^= rng << 17;
+            int offset = (int) (rng & 1);
+            int keep = n & 1;                       // odd item stays at this level
+            double leftover = keep == 1 ? buf[n - 1] : 0;
+            sizes[level] = 0;
+            for (int i = offset; i < n - keep; i += 2) push(level + 1, buf[i]);
+            if (keep == 1) buf[sizes[level]++] = leftover;
+        }
+
+        void merge(KllSketch other) {
+            for (int h = 0; h < other.levels.length; h++) {
+                while (levels.length <= h) {
+                    levels = Arrays.copyOf(levels, levels.length + 1);
+                    sizes  = Arrays.copyOf(sizes, sizes.length + 1);
+                    levels[levels.length - 1] = new double[2];
+                }
+                for (int i = 0; i < other.sizes[h]; i++) push(h, other.levels[h][i]);
+            }
+            count += other.count;
+        }
+
+        KllSketch copy() {
+            KllSketch c = new KllSketch();
+            c.levels = new double[levels.length][];
+            for (int h = 0; h < levels.length; h++) c.levels[h] = levels[h].clone();
+            c.sizes = sizes.clone();
+            c.count = count;
+            c.rng   = rng;
+            return c;
+        }
+
+        double quantile(double q) {
+            if (viewStale) buildView();
+            if (viewSize == 0) return Double.NaN;
+            double target = q * viewCum[viewSize - 1];
+            int lo = 0, hi = viewSize - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (viewCum[mid] >= target) hi = mid; else lo = mid + 1;
+            }
+            return viewVals[lo];
+        }
+
+        /**
+         * Sorts each level in place (order within a level carries no meaning)
+         * and merges the levels into the value and cumulative-weight arrays.
+         */
+        private void buildView() {
+            int total = 0;
+            for (int h = 0; h < levels.length; h++) {
+                Arrays.sort(levels[h], 0, sizes[h]);
+                total += sizes[h];
+            }
+            if (viewVals.length < total) {
+                viewVals = new double[total];
+                viewCum  = new long[total];
+            }
+            if (cursors.length < levels.length) cursors = new int[levels.length];
+            Arrays.fill(cursors, 0);
+            long seen = 0;
+            for (int idx = 0; idx < total; idx++) {
+                int best = -1;
+                for (int h = 0; h < levels.length; h++) {
+                    if (cursors[h] < sizes[h] && (best < 0
+                            || levels[h][cursors[h]] < levels[best][cursors[best]])) best = h;
+                }
+                viewVals[idx] = levels[best][cursors[best]++];
+                seen += 1L << best;
+                viewCum[idx] = seen;
+            }
+            viewSize  = total;
+            viewStale = false;
+        }
+    }
+
     private static class FeatureStream {
         final String     name;
-        final List<Double> window = new ArrayList<>();
+
+        // Sliding window: ring in arrival order + the same values kept sorted
+        final double[] ring   = new double[WINDOW_SIZE];
+        final double[] sorted = new double[WINDOW_SIZE];
+        int  ringHead = 0;
+        int  ringSize = 0;
 
         // Welford's online statistics
         long   count  = 0;
         double mean   = 0;
         double M2     = 0;          // sum of squared deviations
 
+        // Exponentially decayed statistics (used for z-scores when alpha > 0)
+        double ewMean = 0;
+        double ewVar  = 0;
+
+        final KllSketch sketch = new KllSketch();
+
         int  consecutiveAnomalies = 0;
         final List<AnomalyEvent> history = new ArrayList<>();
 
         FeatureStream(String name) { this.name = name; }
 
-        synchronized void add(double value) {
-            // Update window
-            window.add(value);
-            if (window.size() > WINDOW_SIZE) window.remove(0);
+        synchronized void add(double value, double alpha) {
+            // Update window: drop the evicted value from the sorted mirror,
+            // then insert the new one at its binary-search position
+            if (ringSize == WINDOW_SIZE) {
+                double old = ring[ringHead];
+                int at = Arrays.binarySearch(sorted, 0, ringSize, old);
+                System.arraycopy(sorted, at + 1, sorted, at, ringSize - at - 1);
+                ringSize--;
+            }
+            ring[ringHead] = value;
+            ringHead = (ringHead + 1) % WINDOW_SIZE;
+            int pos = Arrays.binarySearch(sorted, 0, ringSize, value);
+            if (pos < 0) pos = -pos - 1;
+            System.arraycopy(sorted, pos, sorted, pos + 1, ringSize - pos);
+            sorted[pos] = value;
+            ringSize++;
 
             // Welford update
             count++;
@@ -107,23 +268,41 @@ public class AnomalyDetector {
             mean  += delta / count;
             double delta2 = value - mean;
             M2    += delta * delta2;
+
+            // Exponentially decayed update (West 1979)
+            if (count == 1) {
+                ewMean = value;
+                ewVar  = 0;
+            } else {
+                double diff = value - ewMean;
+                double incr = alpha * diff;
+                ewMean += incr;
+                ewVar   = (1 - alpha) * (ewVar + diff * incr);
+            }
+
+            sketch.add(value);
         }
 
         synchronized double stdDev() {
             return count < 2 ? 0 : Math.sqrt(M2 / (count - 1));
         }
 
-        synchronized double[] iqrBounds() {
-            if (window.size() < MIN_SAMPLES) return null;
-            List<Double> sorted = new ArrayList<>(window);
-            Collections.sort(sorted);
-            int n = sorted.size();
-            double q1 = sorted.get(n / 4);
-            double q3 = sorted.get(3 * n / 4);
+        /** Fills {@code out} with {lower, upper} IQR fences; false if too few samples. */
+        synchronized boolean iqrBounds(double[] out) {
+            if (ringSize < MIN_SAMPLES) return false;
+            int n = ringSize;
+            double q1 = sorted[n / 4];
+            double q3 = sorted[3 * n / 4];
             double iqr = q3 - q1;
-            return new double[]{q1 - 1.5 * iqr, q3 + 1.5 * iqr};
+            out[0] = q1 - 1.5 * iqr;
+            out[1] = q3 + 1.5 * iqr;
+            return true;
         }
 
+        synchronized double quantile(double q) { return sketch.quantile(q); }
+
+        synchronized KllSketch sketchCopy() { return sketch.copy(); }
+
         synchronized void recordAnomaly(AnomalyEvent e) {
             history.add(e);
             if (history.size() > MAX_HISTORY) history.remove(0);
@@ -138,6 +317,15 @@ public class AnomalyDetector {
     private final Map<String, FeatureStream>   streams   = new ConcurrentHashMap<>();
     private final List<AnomalyListener>        listeners = new ArrayList<>();
     private final Object                       listenerLock = new Object();
+    private volatile double                    decayAlpha   = 0;   // 0 = lifetime Welford z-scores
+    private volatile FeatureStream[]           slotStreams  = new FeatureStream[0];
+    private volatile FeatureSchema             slotSchema;
+    private final ThreadLocal<double[]>        boundsScratch = new ThreadLocal<double[]>() {
+        @Override
+        protected double[] initialValue() {
+            return new double[2];
+        }
+    };
 
     // -----------------------------------------------------------------------
     // Singleton
@@ -164,22 +352,34 @@ public class AnomalyDetector {
      * @return true if an anomaly was detected and confirmed
      */
     public boolean observe(String feature, double value) {
-        FeatureStream stream = streams.computeIfAbsent(feature, FeatureStream::new);
-        stream.add(value);
+        FeatureStream stream = streams.get(feature);
+        if (stream == null) stream = streams.computeIfAbsent(feature, FeatureStream::new);
+        return observe(stream, value);
+    }
+
+    private boolean observe(FeatureStream stream, double value) {
+        String feature = stream.name;
+        double alpha = decayAlpha;
+        stream.add(value, alpha);
 
         if (stream.count < MIN_SAMPLES) return false;
 
-        double std = stream.stdDev();
+        double mu;
+        double std;
+        synchronized (stream) {
+            mu  = alpha > 0 ? stream.ewMean : stream.mean;
+            std = alpha > 0 ? Math.sqrt(stream.ewVar) : stream.stdDev();
+        }
         boolean anomaly = false;
         AnomalyEvent event = null;
 
         // Z-score check
         if (std > 1e-9) {
-            double z = (value - stream.mean) / std;
+            double z = (value - mu) / std;
             if (Math.abs(z) > Z_THRESHOLD) {
                 stream.consecutiveAnomalies++;
                 if (stream.consecutiveAnomalies >= MIN_CONSECUTIVE) {
-                    event = new AnomalyEvent(feature, value, z, stream.mean, std, "ZSCORE");
+                    event = new AnomalyEvent(feature, value, z, mu, std, "ZSCORE");
                 }
             } else {
                 stream.consecutiveAnomalies = 0;
@@ -188,14 +388,15 @@ public class AnomalyDetector {
 
         // IQR check (only if Z-score didn't already fire)
         if (event == null) {
-            double[] bounds = stream.iqrBounds();
-            if (bounds != null && (value < bounds[0] || value > bounds[1])) {
-                double z = std > 1e-9 ? (value - stream.mean) / std : 0;
+            double[] bounds = boundsScratch.get();
+            boolean ready = stream.iqrBounds(bounds);
+            if (ready && (value < bounds[0] || value > bounds[1])) {
+                double z = std > 1e-9 ? (value - mu) / std : 0;
                 stream.consecutiveAnomalies++;
                 if (stream.consecutiveAnomalies >= MIN_CONSECUTIVE) {
-                    event = new AnomalyEvent(feature, value, z, stream.mean, std, "IQR");
+                    event = new AnomalyEvent(feature, value, z, mu, std, "IQR");
                 }
-            } else if (bounds != null) {
+            } else if (ready) {
                 stream.consecutiveAnomalies = 0;
             }
         }
@@ -225,6 +426,39 @@ public class AnomalyDetector {
         return result;
     }
 
+    /**
+     * Observes every numeric slot of a state record, resolving slots to
+     * streams through a cached slot table instead of hashing feature names.
+     *
+     * @param record     Current state
+     * @param watchSlots Slots whose anomalies the caller cares about (may be null)
+     * @return true if any watched slot reported a confirmed anomaly
+     */
+    public boolean observeAll(StateRecord record, int[] watchSlots) {
+        FeatureSchema schema = record.getSchema();
+        FeatureStream[] table = slotStreams;
+        if (slotSchema != schema || table.length < schema.size()) {
+            table = new FeatureStream[schema.size()];
+            slotStreams = table;
+            slotSchema  = schema;
+        }
+        boolean hit = false;
+        int n = Math.min(record.length(), table.length);
+        for (int slot = 0; slot < n; slot++) {
+            float v = record.get(slot);
+            if (v != v || schema.type(slot) != FeatureSchema.Type.NUMERIC) continue;
+            FeatureStream stream = table[slot];
+            if (stream == null) {
+                stream = streams.computeIfAbsent(schema.name(slot), FeatureStream::new);
+                table[slot] = stream;
+            }
+            if (observe(stream, v) && watchSlots != null) {
+                for (int w : watchSlots) if (w == slot) { hit = true; break; }
+            }
+        }
+        return hit;
+    }
+
     // -----------------------------------------------------------------------
     // Listeners
     // -----------------------------------------------------------------------
@@ -264,9 +498,39 @@ public class AnomalyDetector {
         return s != null ? s.stdDev() : 0;
     }
 
+    /**
+     * Long-horizon quantile of a feature from its KLL sketch (all samples
+     * since the feature was created or reset), or NaN if unknown.
+     */
+    public double getQuantile(String feature, double q) {
+        FeatureStream s = streams.get(feature);
+        return s != null ? s.quantile(q) : Double.NaN;
+    }
+
+    /** Quantile over the union of several features' sketches. */
+    public double getMergedQuantile(Iterable<String> features, double q) {
+        KllSketch merged = null;
+        for (String f : features) {
+            FeatureStream s = streams.get(f);
+            if (s == null) continue;
+            KllSketch copy = s.sketchCopy();
+            if (merged == null) merged = copy; else merged.merge(copy);
+        }
+        return merged != null ? merged.quantile(q) : Double.NaN;
+    }
+
+    /**
+     * Switches z-score statistics to an exponentially decayed mean/variance
+     * whose weight halves every {@code samples} observations; 0 restores the
+     * lifetime Welford estimate.
+     */
+    public void setDecayHalfLife(int samples) {
+        decayAlpha = samples > 0 ? 1 - Math.pow(0.5, 1.0 / samples) : 0;
+    }
+
     public int getFeatureCount()      { return streams.size(); }
-    public void resetFeature(String f) { streams.remove(f); }
-    public void resetAll()             { streams.clear(); }
+    public void resetFeature(String f) { streams.remove(f); slotStreams = new FeatureStream[0]; }
+    public void resetAll()             { streams.clear(); slotStreams = new FeatureStream[0]; }
 
     public Map<String, Object> getStats() {
         Map<String, Object> m = new HashMap<>();
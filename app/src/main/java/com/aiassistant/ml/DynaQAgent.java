@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * DynaQAgent — model-based RL combining Q-learning with simulated experience.
@@ -16,8 +17,18 @@ import java.util.concurrent.atomic.AtomicInteger;
  *   Each real step:
  *     1. Update Q via real transition (s, a, r, s')  [Q-learning rule]
  *     2. Update EnvironmentSimulator with (s, a, r, s')
- *     3. Generate K synthetic transitions via EnvironmentSimulator
- *     4. Update Q using each synthetic transition
+ *     3. Grant the planner a budget of K synthetic updates
+ *   Planner (background thread "DynaPlanner"):
+ *     4. Generate synthetic transitions via EnvironmentSimulator
+ *     5. Apply Q-learning to a shadow copy of the touched rows
+ *     6. Merge the shadow back into the Q-table in one locked step
+ *
+ * observe() therefore pays only for the real update. The planner works in
+ * cycles of at most PLAN_BATCH updates, generated by one batched ensemble
+ * pass, so a shadow is published within one short cycle of being copied.
+ * Unused budget is capped at {@code maxStalenessSteps} steps' worth; the
+ * excess is dropped and counted.
+ * setBackgroundPlanning(false) restores synchronous planning inside observe().
  *
  * Components:
  *   QTableManager        — LRU Q-table with adaptive learning rate + Q(λ)
@@ -49,10 +60,20 @@ public class DynaQAgent {
     private final float discountFactor;
     private float       epsilon;
 
-    // ── seed state buffer for Dyna planning ──────────────────────────────────
+    // ── seed state buffer for Dyna planning (guarded by itself) ──────────────
     private final List<float[]> seenStates   = new ArrayList<>();
     private static final int    MAX_SEEDS    = 500;
 
+    // ── background planner ───────────────────────────────────────────────────
+    private static final int    PLAN_BATCH   = 32;
+    private final Object        planLock     = new Object();
+    private volatile Thread     planner;
+    private volatile boolean    backgroundPlanning = true;
+    private volatile float      planningBudget;     // synthetic updates per real step
+    private volatile int        maxStalenessSteps  = 32;
+    private float               planDebt     = 0f;  // guarded by planLock
+    private final Random        planRng      = new Random(41L);
+
     // ── stats ──────────────────────────────────────────────────────────────────
     private final AtomicInteger realSteps      = new AtomicInteger(0);
     private final AtomicInteger syntheticSteps = new AtomicInteger(0);
@@ -61,6 +82,14 @@ public class DynaQAgent {
     private float avgReturn    = 0f;
     private float episodeReturn= 0f;
 
+    // ── planner stats ────────────────────────────────────────────────────────
+    private final AtomicLong    droppedUpdates   = new AtomicLong(0);
+    private final AtomicInteger shadowsPublished = new AtomicInteger(0);
+    private volatile float      avgStalenessSteps = 0f;
+    private volatile int        maxStalenessSeen  = 0;
+    private volatile float      avgPublishMs      = 0f;
+    private volatile float      avgShadowRows     = 0f;
+
     private final Random rng = new Random(37L);
 
     // ─────────────────────────────────────────────────────────────────────────
@@ -71,6 +100,7 @@ public class DynaQAgent {
         this.kPlanningSteps = kPlanningSteps;
         this.discountFactor = discountFactor;
         this.epsilon        = epsilon;
+        this.planningBudget = kPlanningSteps;
 
         qTable     = new QTableManager(stateDim, actionDim, 10,
                                         alphaBase, 0.01f, discountFactor);
@@ -121,14 +151,21 @@ public class DynaQAgent {
         envSim.learn(state, action, shapedR, nextState, done);
 
         // ── Store seed for planning ────────────────────────────────────────
-        if (seenStates.size() < MAX_SEEDS) {
-            seenStates.add(state.clone());
-        } else {
-            seenStates.set(rng.nextInt(MAX_SEEDS), state.clone());
+        float[] seed = state.clone();
+        synchronized (seenStates) {
+            if (seenStates.size() < MAX_SEEDS) {
+                seenStates.add(seed);
+            } else {
+                seenStates.set(rng.nextInt(MAX_SEEDS), seed);
+            }
         }
 
         // ── Dyna-Q planning: K synthetic updates ─────────────────────────
-        dynaPlanning();
+        if (backgroundPlanning) {
+            grantPlanningBudget();
+        } else {
+            dynaPlanning();
+        }
 
         if (realSteps.get() % 500 == 0) {
             Log.d(TAG, "RealSteps=" + realSteps.get()
@@ -144,12 +181,12 @@ public class DynaQAgent {
     // Dyna planning
     // ─────────────────────────────────────────────────────────────────────────
 
+    /** Synchronous planning inside observe(), used when background planning is off. */
     private void dynaPlanning() {
-        if (seenStates.isEmpty()) return;
         for (int k = 0; k < kPlanningSteps; k++) {
             // Random seed state from buffer
-            float[] seedState = seenStates.get(rng.nextInt(seenStates.size()));
-            int     seedAction = rng.nextInt(actionDim);
+            float[] seedState = sampleSeed(rng);
+            if (seedState == null) return;
 
             // Generate one synthetic transition
             List<float[]> rollout = envSim.generateRollout(seedState, 1);
@@ -169,6 +206,153 @@ public class DynaQAgent {
         }
     }
 
+    private float[] sampleSeed(Random random) {
+        synchronized (seenStates) {
+            int n = seenStates.size();
+            return n > 0 ? seenStates.get(random.nextInt(n)) : null;
+        }
+    }
+
+    private void grantPlanningBudget() {
+        if (planner == null) startPlanner();
+        synchronized (planLock) {
+            float cap = Math.max(PLAN_BATCH, planningBudget * maxStalenessSteps);
+            planDebt += planningBudget;
+            if (planDebt > cap) {
+                droppedUpdates.addAndGet((long) (planDebt - cap));
+                planDebt = cap;
+            }
+            planLock.notifyAll();
+        }
+    }
+
+    private synchronized void startPlanner() {
+        if (planner != null) return;
+        Thread t = new Thread(this::planLoop, "DynaPlanner");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        planner = t;
+        t.start();
+    }
+
+    private void planLoop() {
+        Thread self = Thread.currentThread();
+        QTableManager.Shadow shadow = new QTableManager.Shadow();
+        List<String>  keys    = new ArrayList<>();
+        List<float[]> records = new ArrayList<>();
+        while (planner == self) {
+            int batch;
+            synchronized (planLock) {
+                while (planner == self && planDebt < 1f) {
+                    try {
+                        planLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = (int) Math.min(planDebt, PLAN_BATCH);
+                planDebt -= batch;
+            }
+            if (planner != self) return;
+            try {
+                planBatch(shadow, keys, records, batch);
+            } catch (Exception e) {
+                Log.e(TAG, "Background planning failed", e);
+            }
+        }
+    }
+
+    /**
+     * One shadow cycle: sample up to {@code batch} synthetic transitions, copy
+     * the rows they touch, update the copies lock-free and merge them back.
+     */
+    private void planBatch(QTableManager.Shadow shadow, List<String> keys,
+                           List<float[]> records, int batch) {
+        long startNs   = System.nanoTime();
+        int  baseSteps = realSteps.get();
+        float[][] seeds = new float[batch][];
+        for (int k = 0; k < batch; k++) {
+            seeds[k] = sampleSeed(planRng);
+            if (seeds[k] == null) return;
+        }
+        // One batched ensemble pass for the whole cycle
+        records.clear();
+        envSim.generateBatch(seeds, batch, records);
+        if (records.isEmpty()) return;
+
+        // Keys of s and s' for every record, in order
+        float[] s  = new float[stateDim];
+        float[] ns = new float[stateDim];
+        keys.clear();
+        for (float[] rec : records) {
+            System.arraycopy(rec, 0,            s,  0, stateDim);
+            System.arraycopy(rec, stateDim + 3, ns, 0, stateDim);
+            keys.add(qTable.stateKey(s));
+            keys.add(qTable.stateKey(ns));
+        }
+
+        shadow.reset();
+        qTable.fillShadow(shadow, keys);
+        for (int i = 0; i < records.size(); i++) {
+            float[] rec = records.get(i);
+            qTable.updateShadow(shadow, keys.get(2 * i), (int) rec[stateDim],
+                    rec[stateDim + 1], keys.get(2 * i + 1), rec[stateDim + 2] > 0.5f);
+        }
+        int rows = qTable.mergeShadow(shadow);
+        syntheticSteps.addAndGet(records.size());
+
+        int   stale = realSteps.get() - baseSteps;
+        float ms    = (System.nanoTime() - startNs) / 1e6f;
+        shadowsPublished.incrementAndGet();
+        avgStalenessSteps = 0.95f * avgStalenessSteps + 0.05f * stale;
+        if (stale > maxStalenessSeen) maxStalenessSeen = stale;
+        avgPublishMs  = 0.95f * avgPublishMs  + 0.05f * ms;
+        avgShadowRows = 0.95f * avgShadowRows + 0.05f * rows;
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // Planner configuration
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /** Synthetic updates granted to the planner per real step (default K). */
+    public void setPlanningBudget(float updatesPerStep) {
+        planningBudget = Math.max(0f, updatesPerStep);
+    }
+
+    /** Real steps of planning budget the planner may fall behind by. */
+    public void setMaxStalenessSteps(int steps) {
+        maxStalenessSteps = Math.max(1, steps);
+    }
+
+    /** Runs planning on the background thread (default) or inside observe(). */
+    public void setBackgroundPlanning(boolean enabled) {
+        backgroundPlanning = enabled;
+        if (!enabled) stopPlanner();
+    }
+
+    /** Stops the planner thread; it restarts on the next observe() if enabled. */
+    public void release() {
+        stopPlanner();
+        envSim.release();
+    }
+
+    private void stopPlanner() {
+        Thread t;
+        synchronized (planLock) {
+            t = planner;
+            planner = null;
+            planDebt = 0f;
+            planLock.notifyAll();
+        }
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     // ─────────────────────────────────────────────────────────────────────────
     // Stats
     // ─────────────────────────────────────────────────────────────────────────
@@ -178,6 +362,18 @@ public class DynaQAgent {
         s.put("realSteps",       realSteps.get());
         s.put("syntheticSteps",  syntheticSteps.get());
         s.put("episodeCount",    episodeCount.get());
+        s.put("backgroundPlanning", backgroundPlanning);
+        s.put("planningBudget",  planningBudget);
+        synchronized (planLock) {
+            s.put("planningBacklog", planDebt);
+        }
+        s.put("droppedUpdates",  droppedUpdates.get());
+        s.put("shadowsPublished", shadowsPublished.get());
+        s.put("avgStalenessSteps", avgStalenessSteps);
+        s.put("maxStalenessSeen",  maxStalenessSeen);
+        s.put("maxStalenessSteps", maxStalenessSteps);
+        s.put("avgPublishMs",    avgPublishMs);
+        s.put("avgShadowRows",   avgShadowRows);
         s.put("avgTdError",      avgTdError);
         s.put("avgReturn",       avgReturn);
         s.put("epsilon",         exploration.getCurrentEpsilon());
@@ -3,10 +3,14 @@ package com.aiassistant.ml;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -23,7 +27,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  *      observed (s, a, r) triples.
  *   3. Terminal predictor — binary classifier estimating P(done | s, a).
  *   4. Dyna-Q loop — after each real step, generate K synthetic steps and
- *      inject them into a provided MemoryReplayBuffer.
+ *      inject them into a provided MemoryReplayBuffer, either inline or on a
+ *      low-priority background thread ({@link #dynaQUpdateAsync}).
  *   5. Model uncertainty gate — only inject synthetic steps when ensemble
  *      uncertainty is below a threshold (prevents garbage data).
  *   6. Statistics: synthetic step count, avg reward error, uncertainty histogram.
@@ -54,6 +59,12 @@ public class EnvironmentSimulator {
     // Uncertainty gate
     private final float maxUncertainty;
 
+    // Batched generation buffers, grown on demand (guarded by this)
+    private int[]     batchActions = new int[0];
+    private float[][] batchMean    = new float[0][];
+    private float[][] batchVar     = new float[0][];
+    private float[]   batchScratch = new float[0];
+
     // ─────────────────────────────────────────────────────────────────────────
     // Stats
     // ─────────────────────────────────────────────────────────────────────────
@@ -62,6 +73,13 @@ public class EnvironmentSimulator {
     private final AtomicInteger rewardUpdates   = new AtomicInteger(0);
     private float avgRewardError = 0f;
 
+    // Background Dyna-Q injection: at most one request in flight
+    private ExecutorService dynaExecutor;
+    private final AtomicBoolean dynaPending   = new AtomicBoolean(false);
+    private final AtomicInteger dynaSkipped   = new AtomicInteger(0);
+    private final AtomicInteger dynaCompleted = new AtomicInteger(0);
+    private volatile float      avgDynaLagMs  = 0f;
+
     private final Random rng = new Random(61L);
 
     // ─────────────────────────────────────────────────────────────────────────
@@ -142,40 +160,73 @@ public class EnvironmentSimulator {
      */
     public synchronized List<float[]> generateRollout(float[] seedState, int steps) {
         List<float[]> rollout = new ArrayList<>();
-        float[] state = seedState.clone();
+        float[][] state = { seedState.clone() };
 
         for (int t = 0; t < steps; t++) {
-            int action = rng.nextInt(actionDim);
+            if (generateBatch(state, 1, rollout) == 0) break;
+            float[] record = rollout.get(rollout.size() - 1);
+            if (record[stateDim + 2] > 0.5f) break;
+            state[0] = Arrays.copyOfRange(record, stateDim + 3, stateDim + 3 + stateDim);
+        }
+        return rollout;
+    }
 
-            // Uncertainty gate
-            float[][] pu     = transitionModel.predictWithUncertainty(state, action);
-            float     varSum = 0f;
-            for (float v : pu[1]) varSum += v;
-            float uncertainty = varSum / Math.max(1, pu[1].length);
+    /**
+     * One synthetic step from each of {@code states[0..count-1]}, with a
+     * uniformly sampled action per row. All rows go through a single batched
+     * ensemble pass; rows whose mean epistemic variance exceeds the gate are
+     * dropped. Accepted (s, a, r, s', done) records are appended to
+     * {@code out} in row order.
+     *
+     * @return number of records appended.
+     */
+    public synchronized int generateBatch(float[][] states, int count, List<float[]> out) {
+        if (count <= 0) return 0;
+        ensureBatchBuffers(count);
+        for (int i = 0; i < count; i++) batchActions[i] = rng.nextInt(actionDim);
+
+        TransitionModel.Forward model = transitionModel.snapshot();
+        if (batchScratch.length < model.getScratchSize()) {
+            batchScratch = new float[model.getScratchSize()];
+        }
+        model.predictEnsemble(states, batchActions, 0, count, batchMean, batchVar, batchScratch);
 
-            if (uncertainty > maxUncertainty) {
+        int accepted = 0;
+        for (int i = 0; i < count; i++) {
+            float[] state  = states[i];
+            int     action = batchActions[i];
+
+            // Uncertainty gate
+            float varSum = 0f;
+            for (float v : batchVar[i]) varSum += v;
+            if (varSum / stateDim > maxUncertainty) {
                 rejectedByGate.incrementAndGet();
-                break;
+                continue;
             }
 
-            float[]  nextState = pu[0]; // ensemble mean
-            float    reward    = predictReward(state, action);
-            boolean  done      = predictDone(state, action);
+            float   reward = predictReward(state, action);
+            boolean done   = predictDone(state, action);
 
             float[] record = new float[stateDim + 3 + stateDim];
             System.arraycopy(state, 0, record, 0, Math.min(stateDim, state.length));
             record[stateDim]     = action;
             record[stateDim + 1] = reward;
             record[stateDim + 2] = done ? 1f : 0f;
-            System.arraycopy(nextState, 0, record, stateDim + 3, Math.min(stateDim, nextState.length));
+            System.arraycopy(batchMean[i], 0, record, stateDim + 3, stateDim); // ensemble mean
 
-            rollout.add(record);
-            syntheticSteps.incrementAndGet();
-
-            if (done) break;
-            state = nextState;
+            out.add(record);
+            accepted++;
         }
-        return rollout;
+        syntheticSteps.addAndGet(accepted);
+        return accepted;
+    }
+
+    private void ensureBatchBuffers(int count) {
+        if (batchActions.length >= count) return;
+        int n = Math.max(count, 2 * batchActions.length);
+        batchActions = new int[n];
+        batchMean    = new float[n][stateDim];
+        batchVar     = new float[n][stateDim];
     }
 
     /**
@@ -185,12 +236,22 @@ public class EnvironmentSimulator {
      * @param buffer  The replay buffer to inject into.
      * @param seeds   Real states to use as rollout seeds.
      * @param kSteps  Number of synthetic steps per seed.
+     *
+     * All live rollouts advance one step together through
+     * {@link #generateBatch}; a rollout ends when it is gated or predicts a
+     * terminal. The simulator lock is held per step, not across the whole
+     * update, so {@link #learn} can interleave with a long injection.
      */
-    public synchronized void dynaQUpdate(MemoryReplayBuffer buffer,
-                                          List<float[]> seeds, int kSteps) {
-        for (float[] seed : seeds) {
-            List<float[]> rollout = generateRollout(seed, kSteps);
-            for (float[] rec : rollout) {
+    public void dynaQUpdate(MemoryReplayBuffer buffer,
+                            List<float[]> seeds, int kSteps) {
+        float[][] live = seeds.toArray(new float[0][]);
+        int n = live.length;
+        List<float[]> step = new ArrayList<>(n);
+        for (int t = 0; t < kSteps && n > 0; t++) {
+            step.clear();
+            generateBatch(live, n, step);
+            n = 0;
+            for (float[] rec : step) {
                 float[] s  = new float[stateDim];
                 float[] ns = new float[stateDim];
                 System.arraycopy(rec, 0,                  s,  0, stateDim);
@@ -199,10 +260,69 @@ public class EnvironmentSimulator {
                 float r    = rec[stateDim + 1];
                 boolean d  = rec[stateDim + 2] > 0.5f;
                 buffer.add(s, a, r, ns, d);
+                if (!d) live[n++] = ns;
             }
         }
     }
 
+    /**
+     * {@link #dynaQUpdate} on a background thread so the caller only pays for
+     * copying the seeds. While a previous request is still running, new ones
+     * are skipped (and counted) rather than queued, which bounds how far the
+     * injected data can lag behind the model.
+     *
+     * @return false if the request was skipped.
+     */
+    public boolean dynaQUpdateAsync(MemoryReplayBuffer buffer,
+                                    List<float[]> seeds, int kSteps) {
+        if (!dynaPending.compareAndSet(false, true)) {
+            dynaSkipped.incrementAndGet();
+            return false;
+        }
+        List<float[]> copy = new ArrayList<>(seeds.size());
+        for (float[] seed : seeds) copy.add(seed.clone());
+        long queuedNs = System.nanoTime();
+        try {
+            dynaExecutor().execute(() -> {
+                avgDynaLagMs = 0.95f * avgDynaLagMs
+                        + 0.05f * (System.nanoTime() - queuedNs) / 1e6f;
+                try {
+                    dynaQUpdate(buffer, copy, kSteps);
+                    dynaCompleted.incrementAndGet();
+                } catch (Exception e) {
+                    Log.e(TAG, "Background Dyna-Q update failed", e);
+                } finally {
+                    dynaPending.set(false);
+                }
+            });
+        } catch (Exception e) {
+            dynaPending.set(false);
+            Log.w(TAG, "Dyna-Q executor unavailable, running inline", e);
+            dynaQUpdate(buffer, copy, kSteps);
+        }
+        return true;
+    }
+
+    private synchronized ExecutorService dynaExecutor() {
+        if (dynaExecutor == null) {
+            dynaExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "DynaInjector");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+        }
+        return dynaExecutor;
+    }
+
+    /** Stops the background injection thread, if one was started. */
+    public synchronized void release() {
+        if (dynaExecutor != null) {
+            dynaExecutor.shutdownNow();
+            dynaExecutor = null;
+        }
+    }
+
     // ─────────────────────────────────────────────────────────────────────────
     // Monitoring
     // ─────────────────────────────────────────────────────────────────────────
@@ -214,6 +334,9 @@ public class EnvironmentSimulator {
         s.put("rewardUpdates",    rewardUpdates.get());
         s.put("avgRewardError",   avgRewardError);
         s.put("maxUncertainty",   maxUncertainty);
+        s.put("dynaCompleted",    dynaCompleted.get());
+        s.put("dynaSkipped",      dynaSkipped.get());
+        s.put("avgDynaLagMs",     avgDynaLagMs);
         s.put("transitionModel",  transitionModel.getStats());
         return s;
     }
@@ -1,14 +1,17 @@
 package com.aiassistant.ml;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
 import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * FeatureExtractor — extracts domain-specific numeric feature vectors from
@@ -29,14 +32,22 @@ import java.util.Map;
  *   4. TEMPORAL    — appends delta features (change since last frame) for the
  *                    numeric state-map group.
  *
- * A "feature plan" is configured at construction time; subsequent calls to
- * {@link #extract(Map, Bitmap, List)} return the same-length vector on every call.
+ * The enabled groups are compiled into an extraction plan that fixes each
+ * group's offset in the output vector. {@link #extractInto} writes every group
+ * straight into a caller-supplied array; the previous frame's state features
+ * live in a double buffer for the temporal deltas, so steady-state extraction
+ * allocates nothing. A group whose input is missing is written as zeros, so
+ * every call returns {@link #getOutputDim()} values. {@link #extractBatch}
+ * re-encodes a whole sequence (e.g. a replay) in parallel.
  * Thread-safe.
  */
 public class FeatureExtractor {
 
     private static final String TAG = "FeatureExtractor";
 
+    /** Frames per fork-join leaf when extracting a batch. */
+    private static final int BATCH_GRAIN = 8;
+
     // -------------------------------------------------------------------------
     // Feature group enum
     // -------------------------------------------------------------------------
@@ -65,12 +76,55 @@ public class FeatureExtractor {
         int size() { return categories != null ? categories.length : 1; }
     }
 
+    // -------------------------------------------------------------------------
+    // Compiled extraction plan
+    // -------------------------------------------------------------------------
+
+    /** Immutable layout of the output vector for the current configuration. */
+    private static final class Plan {
+        final MapFeatureSpec[]     specs;
+        final int                  mapOffset, mapDim;
+        final int                  deltaOffset;     // -1 if temporal deltas disabled
+        final int                  gridOffset, gridCols, gridRows;   // offset -1 if disabled
+        final int                  eventOffset, eventWindow;          // offset -1 if disabled
+        final String[]             eventTypes;
+        final Map<String, Integer> eventIndex = new HashMap<>();
+        final int                  dim;
+
+        Plan(List<MapFeatureSpec> specList, Set<Group> groups,
+             int gridCols, int gridRows, int eventWindow, String[] eventTypes) {
+            int off = 0;
+            boolean map = groups.contains(Group.STATE_MAP);
+            specs = map ? specList.toArray(new MapFeatureSpec[0]) : new MapFeatureSpec[0];
+            int md = 0;
+            for (MapFeatureSpec s : specs) md += s.size();
+            mapOffset = off;
+            mapDim    = md;
+            off += md;
+            if (map && groups.contains(Group.TEMPORAL)) { deltaOffset = off; off += md; }
+            else deltaOffset = -1;
+
+            this.gridCols = gridCols;
+            this.gridRows = gridRows;
+            if (groups.contains(Group.SCREEN_GRID)) { gridOffset = off; off += gridCols * gridRows * 3; }
+            else gridOffset = -1;
+
+            this.eventWindow = eventWindow;
+            this.eventTypes  = eventTypes.clone();
+            for (int e = 0; e < this.eventTypes.length; e++) eventIndex.put(this.eventTypes[e], e);
+            if (groups.contains(Group.EVENT_HIST)) { eventOffset = off; off += eventTypes.length * eventWindow; }
+            else eventOffset = -1;
+
+            dim = off;
+        }
+    }
+
     // -------------------------------------------------------------------------
     // Fields
     // -------------------------------------------------------------------------
 
     private final List<MapFeatureSpec>  mapSpecs       = new ArrayList<>();
-    private final Set<Group>            enabledGroups  = new java.util.HashSet<>();
+    private final Set<Group>            enabledGroups  = new HashSet<>();
 
     // Screen grid settings
     private int gridCols = 8;
@@ -82,10 +136,27 @@ public class FeatureExtractor {
 
     // Temporal delta settings
     private boolean temporalEnabled = false;
-    private float[] lastMapFeatures = null;
-
-    // Computed output dimension
-    private int outputDim = 0;
+    private float[][] mapFrames   = new float[2][0];  // double buffer: current / previous
+    private int       currentFrame = 0;
+    private boolean   hasPrevious  = false;
+
+    private volatile Plan plan = new Plan(mapSpecs, enabledGroups,
+            gridCols, gridRows, eventWindowSize, eventTypes);
+
+    // Map specs resolved to StateRecord slots, per schema version
+    private int[]         specSlots   = new int[0];
+    private FeatureSchema slotSchema;
+    private int           slotVersion = -1;
+
+    // Per-thread screen sampling buffers (row pixels + per-cell sums)
+    private final ThreadLocal<int[]>  rowScratch  = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() { return new int[0]; }
+    };
+    private final ThreadLocal<long[]> cellScratch = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() { return new long[0]; }
+    };
 
     private final Object lock = new Object();
 
@@ -101,40 +172,48 @@ public class FeatureExtractor {
 
     /** Enable the game-state map feature group. */
     public FeatureExtractor withMapFeatures(MapFeatureSpec... specs) {
-        mapSpecs.clear();
-        mapSpecs.addAll(Arrays.asList(specs));
-        enabledGroups.add(Group.STATE_MAP);
-        recomputeDim();
+        synchronized (lock) {
+            mapSpecs.clear();
+            mapSpecs.addAll(Arrays.asList(specs));
+            enabledGroups.add(Group.STATE_MAP);
+            recompilePlan();
+        }
         return this;
     }
 
     /** Enable the screen-grid visual feature group. */
     public FeatureExtractor withScreenGrid(int cols, int rows) {
-        this.gridCols = cols;
-        this.gridRows = rows;
-        enabledGroups.add(Group.SCREEN_GRID);
-        recomputeDim();
+        synchronized (lock) {
+            this.gridCols = cols;
+            this.gridRows = rows;
+            enabledGroups.add(Group.SCREEN_GRID);
+            recompilePlan();
+        }
         return this;
     }
 
     /** Enable the event-history feature group. */
     public FeatureExtractor withEventHistory(int windowSize, String... eventTypes) {
-        this.eventWindowSize = windowSize;
-        this.eventTypes      = eventTypes;
-        enabledGroups.add(Group.EVENT_HIST);
-        recomputeDim();
+        synchronized (lock) {
+            this.eventWindowSize = windowSize;
+            this.eventTypes      = eventTypes;
+            enabledGroups.add(Group.EVENT_HIST);
+            recompilePlan();
+        }
         return this;
     }
 
     /** Enable temporal delta features for the state-map group. */
     public FeatureExtractor withTemporalDeltas() {
-        temporalEnabled = true;
-        enabledGroups.add(Group.TEMPORAL);
-        recomputeDim();
+        synchronized (lock) {
+            temporalEnabled = true;
+            enabledGroups.add(Group.TEMPORAL);
+            recompilePlan();
+        }
         return this;
     }
 
-    public int getOutputDim() { return outputDim; }
+    public int getOutputDim() { return plan.dim; }
 
     // -------------------------------------------------------------------------
     // Extraction API
@@ -152,31 +231,89 @@ public class FeatureExtractor {
                             Bitmap screen,
                             List<String> recentEvents) {
         synchronized (lock) {
-            List<float[]> parts = new ArrayList<>();
+            float[] out = new float[plan.dim];   // plan only changes under lock
+            extractInto(stateMap, screen, recentEvents, out, 0);
+            return out;
+        }
+    }
 
-            if (enabledGroups.contains(Group.STATE_MAP) && stateMap != null) {
-                float[] mapF = extractMapFeatures(stateMap);
-                parts.add(mapF);
+    /**
+     * Record-based variant of {@link #extract(Map, Bitmap, List)}: map specs
+     * are resolved to schema slots once per schema version and read directly.
+     */
+    public float[] extract(StateRecord state,
+                            Bitmap screen,
+                            List<String> recentEvents) {
+        synchronized (lock) {
+            float[] out = new float[plan.dim];   // plan only changes under lock
+            extractInto(state, screen, recentEvents, out, 0);
+            return out;
+        }
+    }
 
-                if (enabledGroups.contains(Group.TEMPORAL)) {
-                    float[] delta = new float[mapF.length];
-                    if (lastMapFeatures != null && lastMapFeatures.length == mapF.length) {
-                        for (int i = 0; i < mapF.length; i++) delta[i] = mapF[i] - lastMapFeatures[i];
-                    }
-                    lastMapFeatures = mapF.clone();
-                    parts.add(delta);
-                }
-            }
+    /**
+     * Writes the feature vector into {@code out[offset .. offset + getOutputDim())}
+     * without allocating, and advances the temporal-delta frame.
+     */
+    public void extractInto(Map<String, Object> stateMap,
+                            Bitmap screen,
+                            List<String> recentEvents,
+                            float[] out, int offset) {
+        synchronized (lock) {
+            Plan p = plan;
+            boolean hasState = stateMap != null && p.mapDim > 0;
+            if (hasState) writeMapFeatures(p, stateMap, out, offset + p.mapOffset);
+            finishFrame(p, hasState, screen, recentEvents, out, offset);
+        }
+    }
 
-            if (enabledGroups.contains(Group.SCREEN_GRID) && screen != null) {
-                parts.add(extractScreenGrid(screen));
-            }
+    /** Record-based variant of {@link #extractInto(Map, Bitmap, List, float[], int)}. */
+    public void extractInto(StateRecord state,
+                            Bitmap screen,
+                            List<String> recentEvents,
+                            float[] out, int offset) {
+        synchronized (lock) {
+            Plan p = plan;
+            boolean hasState = state != null && p.mapDim > 0;
+            if (hasState) writeMapFeatures(p, state, resolveSlots(p, state.getSchema()), out, offset + p.mapOffset);
+            finishFrame(p, hasState, screen, recentEvents, out, offset);
+        }
+    }
 
-            if (enabledGroups.contains(Group.EVENT_HIST)) {
-                parts.add(extractEventHistory(recentEvents));
+    /**
+     * Extracts a sequence of frames in parallel into {@code out}, one row of
+     * {@link #getOutputDim()} floats per frame. Temporal deltas are taken
+     * between consecutive frames of the batch (the first frame's are zero);
+     * the extractor's own previous-frame state is left untouched, so this is
+     * safe to use for replay re-encoding alongside live extraction.
+     *
+     * @param states  Per-frame state maps (required; entries may be null)
+     * @param screens Per-frame bitmaps, or null
+     * @param events  Per-frame recent event lists, or null
+     * @param out     Destination of length ≥ states.size() × getOutputDim()
+     */
+    public void extractBatch(List<Map<String, Object>> states,
+                             List<Bitmap> screens,
+                             List<List<String>> events,
+                             float[] out) {
+        Plan p = plan;
+        int n = states.size();
+        if (out.length < n * p.dim) {
+            throw new IllegalArgumentException("Output too small: " + out.length + " < " + (n * p.dim));
+        }
+        ForkJoinPool.commonPool().invoke(new BatchTask(p, states, screens, events, out, 0, n));
+
+        // Deltas need the neighbouring frame, so they run after all rows exist
+        if (p.deltaOffset >= 0) {
+            for (int i = n - 1; i >= 0; i--) {
+                int row = i * p.dim;
+                int prevRow = (i - 1) * p.dim;
+                boolean hasPair = i > 0 && states.get(i) != null && states.get(i - 1) != null;
+                for (int k = 0; k < p.mapDim; k++) {
+                    out[row + p.deltaOffset + k] = hasPair
+                            ? out[row + p.mapOffset + k] - out[prevRow + p.mapOffset + k] : 0f;
+                }
             }
-
-            return concat(parts);
         }
     }
 
@@ -187,19 +324,102 @@ public class FeatureExtractor {
 
     /** Convenience: extract from bitmap only. */
     public float[] extractFromScreen(Bitmap screen) {
-        return extract(null, screen, null);
+        return extract((Map<String, Object>) null, screen, null);
+    }
+
+    // -------------------------------------------------------------------------
+    // Plan execution
+    // -------------------------------------------------------------------------
+
+    /** Temporal deltas (against the double-buffered previous frame) plus screen and event groups. */
+    private void finishFrame(Plan p, boolean hasState, Bitmap screen, List<String> recentEvents,
+                             float[] out, int offset) {
+        if (!hasState && p.mapDim > 0) Arrays.fill(out, offset + p.mapOffset, offset + p.mapOffset + p.mapDim, 0f);
+
+        if (p.deltaOffset >= 0) {
+            int d = offset + p.deltaOffset;
+            if (hasState) {
+                float[] cur  = mapFrames[currentFrame];
+                float[] prev = mapFrames[currentFrame ^ 1];
+                System.arraycopy(out, offset + p.mapOffset, cur, 0, p.mapDim);
+                for (int i = 0; i < p.mapDim; i++) out[d + i] = hasPrevious ? cur[i] - prev[i] : 0f;
+                currentFrame ^= 1;
+                hasPrevious = true;
+            } else {
+                Arrays.fill(out, d, d + p.mapDim, 0f);
+            }
+        }
+
+        writeOtherGroups(p, screen, recentEvents, out, offset);
+    }
+
+    private void writeOtherGroups(Plan p, Bitmap screen, List<String> recentEvents,
+                                  float[] out, int offset) {
+        if (p.gridOffset >= 0) {
+            int gridDim = p.gridCols * p.gridRows * 3;
+            if (screen != null) writeScreenGrid(p, screen, out, offset + p.gridOffset);
+            else Arrays.fill(out, offset + p.gridOffset, offset + p.gridOffset + gridDim, 0f);
+        }
+        if (p.eventOffset >= 0) {
+            writeEventHistory(p, recentEvents, out, offset + p.eventOffset);
+        }
+    }
+
+    private int[] resolveSlots(Plan p, FeatureSchema schema) {
+        if (schema != slotSchema || schema.getVersion() != slotVersion || specSlots.length != p.specs.length) {
+            int[] slots = new int[p.specs.length];
+            for (int i = 0; i < slots.length; i++) slots[i] = schema.slotOf(p.specs[i].key);
+            specSlots   = slots;
+            slotSchema  = schema;
+            slotVersion = schema.getVersion();
+        }
+        return specSlots;
+    }
+
+    /** Fork-join leaf/split over a range of batch frames. */
+    private final class BatchTask extends RecursiveAction {
+        private final Plan                      p;
+        private final List<Map<String, Object>> states;
+        private final List<Bitmap>              screens;
+        private final List<List<String>>        events;
+        private final float[]                   out;
+        private final int                       from, to;
+
+        BatchTask(Plan p, List<Map<String, Object>> states, List<Bitmap> screens,
+                  List<List<String>> events, float[] out, int from, int to) {
+            this.p = p; this.states = states; this.screens = screens;
+            this.events = events; this.out = out; this.from = from; this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_GRAIN) {
+                for (int i = from; i < to; i++) {
+                    int offset = i * p.dim;
+                    Map<String, Object> state = states.get(i);
+                    if (p.mapDim > 0) {
+                        if (state != null) writeMapFeatures(p, state, out, offset + p.mapOffset);
+                        else Arrays.fill(out, offset + p.mapOffset, offset + p.mapOffset + p.mapDim, 0f);
+                    }
+                    writeOtherGroups(p,
+                            screens != null ? screens.get(i) : null,
+                            events  != null ? events.get(i)  : null,
+                            out, offset);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask(p, states, screens, events, out, from, mid),
+                      new BatchTask(p, states, screens, events, out, mid, to));
+        }
     }
 
     // -------------------------------------------------------------------------
     // Group implementations
     // -------------------------------------------------------------------------
 
-    private float[] extractMapFeatures(Map<String, Object> state) {
-        int dim = 0;
-        for (MapFeatureSpec s : mapSpecs) dim += s.size();
-        float[] vec = new float[dim];
-        int idx = 0;
-        for (MapFeatureSpec spec : mapSpecs) {
+    private static void writeMapFeatures(Plan p, Map<String, Object> state, float[] vec, int idx) {
+        for (MapFeatureSpec spec : p.specs) {
             Object val = state.get(spec.key);
             if (spec.categories != null) {
                 // One-hot
@@ -209,79 +429,101 @@ public class FeatureExtractor {
                 vec[idx++] = ((Boolean) val) ? 1f : 0f;
             } else {
                 float v = toFloat(val, (spec.min + spec.max) / 2f);
-                float range = spec.max - spec.min;
-                vec[idx++] = range > 1e-6f ? Math.max(0f, Math.min(1f, (v - spec.min) / range)) : 0.5f;
+                vec[idx++] = normalize(spec, v);
             }
         }
-        return vec;
     }
 
-    private float[] extractScreenGrid(Bitmap bmp) {
+    private static void writeMapFeatures(Plan p, StateRecord state, int[] slots, float[] vec, int idx) {
+        FeatureSchema schema = state.getSchema();
+        for (int i = 0; i < p.specs.length; i++) {
+            MapFeatureSpec spec = p.specs[i];
+            int   slot = slots[i];
+            float val  = state.get(slot);
+            if (spec.categories != null) {
+                String cat = slot >= 0 ? schema.token(slot, val) : null;
+                if (cat == null) cat = "";
+                for (String c : spec.categories) vec[idx++] = c.equals(cat) ? 1f : 0f;
+            } else if (slot >= 0 && val == val && schema.type(slot) == FeatureSchema.Type.BOOLEAN) {
+                vec[idx++] = val > 0 ? 1f : 0f;
+            } else {
+                float v = val == val ? val : (spec.min + spec.max) / 2f;
+                vec[idx++] = normalize(spec, v);
+            }
+        }
+    }
+
+    private static float normalize(MapFeatureSpec spec, float v) {
+        float range = spec.max - spec.min;
+        return range > 1e-6f ? Math.max(0f, Math.min(1f, (v - spec.min) / range)) : 0.5f;
+    }
+
+    /** Mean RGB per grid cell, sampling every other pixel of every other row. */
+    private void writeScreenGrid(Plan p, Bitmap bmp, float[] vec, int idx) {
         int w = bmp.getWidth(), h = bmp.getHeight();
-        int cW = Math.max(1, w / gridCols), cH = Math.max(1, h / gridRows);
-        float[] vec = new float[gridCols * gridRows * 3];
-        int idx = 0;
-        for (int gy = 0; gy < gridRows; gy++) {
-            for (int gx = 0; gx < gridCols; gx++) {
-                long sr = 0, sg = 0, sb = 0;
-                int count = 0;
-                int x0 = gx * cW, y0 = gy * cH;
-                for (int y = y0; y < Math.min(y0 + cH, h); y += 2) {
-                    for (int x = x0; x < Math.min(x0 + cW, w); x += 2) {
-                        int px = bmp.getPixel(x, y);
-                        sr += Color.red(px); sg += Color.green(px); sb += Color.blue(px);
+        int cols = p.gridCols, rows = p.gridRows;
+        int cW = Math.max(1, w / cols), cH = Math.max(1, h / rows);
+
+        int[] row = rowScratch.get();
+        if (row.length < w) { row = new int[w]; rowScratch.set(row); }
+        long[] sums = cellScratch.get();
+        if (sums.length < cols * 4) { sums = new long[cols * 4]; cellScratch.set(sums); }
+
+        for (int gy = 0; gy < rows; gy++) {
+            Arrays.fill(sums, 0, cols * 4, 0L);
+            int y0 = gy * cH, yEnd = Math.min(y0 + cH, h);
+            for (int y = y0; y < yEnd; y += 2) {
+                bmp.getPixels(row, 0, w, 0, y, w, 1);
+                for (int gx = 0; gx < cols; gx++) {
+                    int x0 = gx * cW, xEnd = Math.min(x0 + cW, w);
+                    long sr = 0, sg = 0, sb = 0;
+                    int count = 0;
+                    for (int x = x0; x < xEnd; x += 2) {
+                        int px = row[x];
+                        sr += (px >> 16) & 0xFF; sg += (px >> 8) & 0xFF; sb += px & 0xFF;
                         count++;
                     }
+                    int c = gx * 4;
+                    sums[c] += sr; sums[c + 1] += sg; sums[c + 2] += sb; sums[c + 3] += count;
                 }
+            }
+            for (int gx = 0; gx < cols; gx++) {
+                int c = gx * 4;
+                long count = sums[c + 3];
                 if (count > 0) {
-                    vec[idx++] = sr / (255f * count);
-                    vec[idx++] = sg / (255f * count);
-                    vec[idx++] = sb / (255f * count);
-                } else idx += 3;
+                    vec[idx++] = sums[c]     / (255f * count);
+                    vec[idx++] = sums[c + 1] / (255f * count);
+                    vec[idx++] = sums[c + 2] / (255f * count);
+                } else {
+                    vec[idx++] = 0f; vec[idx++] = 0f; vec[idx++] = 0f;
+                }
             }
         }
-        return vec;
     }
 
-    private float[] extractEventHistory(List<String> events) {
-        float[] vec = new float[eventTypes.length * eventWindowSize];
-        if (events == null || eventTypes.length == 0) return vec;
+    private static void writeEventHistory(Plan p, List<String> events, float[] vec, int idx) {
+        int types = p.eventTypes.length;
+        Arrays.fill(vec, idx, idx + types * p.eventWindow, 0f);
+        if (events == null || types == 0) return;
 
         // Fill from most-recent end of events
-        int start = Math.max(0, events.size() - eventWindowSize);
-        for (int t = 0; t < eventWindowSize && start + t < events.size(); t++) {
-            String evt = events.get(start + t);
-            for (int e = 0; e < eventTypes.length; e++) {
-                if (eventTypes[e].equals(evt)) {
-                    vec[t * eventTypes.length + e] = 1f;
-                }
-            }
+        int start = Math.max(0, events.size() - p.eventWindow);
+        for (int t = 0; t < p.eventWindow && start + t < events.size(); t++) {
+            Integer e = p.eventIndex.get(events.get(start + t));
+            if (e != null) vec[idx + t * types + e] = 1f;
         }
-        return vec;
     }
 
     // -------------------------------------------------------------------------
     // Helpers
     // -------------------------------------------------------------------------
 
-    private void recomputeDim() {
-        int dim = 0;
-        if (enabledGroups.contains(Group.STATE_MAP)) {
-            for (MapFeatureSpec s : mapSpecs) dim += s.size();
-            if (enabledGroups.contains(Group.TEMPORAL)) dim += mapSpecs.stream().mapToInt(MapFeatureSpec::size).sum();
-        }
-        if (enabledGroups.contains(Group.SCREEN_GRID)) dim += gridCols * gridRows * 3;
-        if (enabledGroups.contains(Group.EVENT_HIST))  dim += eventTypes.length * eventWindowSize;
-        outputDim = dim;
-    }
-
-    private static float[] concat(List<float[]> parts) {
-        int total = 0;
-        for (float[] p : parts) total += p.length;
-        float[] out = new float[total];
-        int off = 0;
-        for (float[] p : parts) { System.arraycopy(p, 0, out, off, p.length); off += p.length; }
-        return out;
+    private void recompilePlan() {
+        Plan p = new Plan(mapSpecs, enabledGroups, gridCols, gridRows, eventWindowSize, eventTypes);
+        mapFrames    = new float[2][p.mapDim];
+        currentFrame = 0;
+        hasPrevious  = false;
+        plan = p;
     }
 
     private static float toFloat(Object v, float def) {
@@ -292,9 +534,10 @@ public class FeatureExtractor {
     }
 
     public Map<String, Object> getInfo() {
+        Plan p = plan;
         Map<String, Object> m = new HashMap<>();
-        m.put("outputDim",    outputDim);
-        m.put("mapSpecs",     mapSpecs.size());
+        m.put("outputDim",    p.dim);
+        m.put("mapSpecs",     p.specs.length);
         m.put("gridCols",     gridCols);
         m.put("gridRows",     gridRows);
         m.put("eventWindow",  eventWindowSize);
@@ -0,0 +1,207 @@
+package com.aiassistant.ml;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * FeatureSchema — registry that assigns every named game-state feature a
+ * fixed slot in a flat {@code float[]}, so per-frame state can travel as a
+ * {@link StateRecord} instead of a {@code Map<String, Object>}.
+ *
+ * Slot encoding:
+ *   NUMERIC     — the raw value.
+ *   BOOLEAN     — 1 for true, 0 for false.
+ *   CATEGORICAL — index into the feature's category list (grown on demand up
+ *                 to {@link #MAX_CATEGORIES}; later values share one
+ *                 {@link #OTHER_TOKEN} bucket).
+ *   Absent values are NaN in every type.
+ *
+ * Slots are append-only: once assigned, a name keeps its slot for the life of
+ * the schema. Consumers that cache slot indices re-resolve when
+ * {@link #getVersion()} changes. Lookups are lock-free; registration is
+ * synchronized.
+ */
+public final class FeatureSchema {
+
+    public enum Type { NUMERIC, BOOLEAN, CATEGORICAL }
+
+    static final String TRUE_TOKEN  = "true";
+    static final String FALSE_TOKEN = "false";
+
+    /** Distinct values a categorical feature keeps before overflowing. */
+    public static final int    MAX_CATEGORIES = 64;
+    /** Category that collects every value past {@link #MAX_CATEGORIES}. */
+    public static final String OTHER_TOKEN    = "__other__";
+
+    // -------------------------------------------------------------------------
+    // Singleton
+    // -------------------------------------------------------------------------
+    private static volatile FeatureSchema instance;
+
+    /** Process-wide schema shared by the decision pipeline. */
+    public static FeatureSchema getInstance() {
+        if (instance == null) {
+            synchronized (FeatureSchema.class) {
+                if (instance == null) instance = new FeatureSchema();
+            }
+        }
+        return instance;
+    }
+
+    // -------------------------------------------------------------------------
+    // Fields
+    // -------------------------------------------------------------------------
+    private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+    private volatile String[]          names = new String[0];
+    private volatile Type[]            types = new Type[0];
+    private final List<Categories>     categories = new CopyOnWriteArrayList<>();
+    private volatile int[]             sortedSlots = new int[0];
+    private volatile int               version;
+
+    public FeatureSchema() {}
+
+    // -------------------------------------------------------------------------
+    // Registration
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the slot for {@code name}, registering it with {@code type} if it
+     * is new. An existing slot keeps its original type.
+     */
+    public int register(String name, Type type) {
+        Integer s = slots.get(name);
+        if (s != null) return s;
+        synchronized (this) {
+            s = slots.get(name);
+            if (s != null) return s;
+            int slot = names.length;
+            String[] n = Arrays.copyOf(names, slot + 1);
+            Type[]   t = Arrays.copyOf(types, slot + 1);
+            n[slot] = name;
+            t[slot] = type;
+            categories.add(type == Type.CATEGORICAL ? new Categories() : null);
+
+            Integer[] order = new Integer[n.length];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> n[a].compareTo(n[b]));
+            int[] sorted = new int[order.length];
+            for (int i = 0; i < sorted.length; i++) sorted[i] = order[i];
+
+            types = t;
+            names = n;
+            sortedSlots = sorted;
+            slots.put(name, slot);
+            version++;
+            return slot;
+        }
+    }
+
+    public int registerNumeric(String name) { return register(name, Type.NUMERIC); }
+
+    public int registerBoolean(String name) { return register(name, Type.BOOLEAN); }
+
+    public int registerCategorical(String name, String... values) {
+        int slot = register(name, Type.CATEGORICAL);
+        for (String v : values) categoryIndex(slot, v, true);
+        return slot;
+    }
+
+    // -------------------------------------------------------------------------
+    // Lookup
+    // -------------------------------------------------------------------------
+
+    /** Slot of a registered feature, or -1. */
+    public int slotOf(String name) {
+        Integer s = slots.get(name);
+        return s != null ? s : -1;
+    }
+
+    public int size()              { return names.length; }
+    public int getVersion()        { return version; }
+    public String name(int slot)   { return names[slot]; }
+    public Type type(int slot)     { return types[slot]; }
+
+    /** Slots ordered by feature name. */
+    int[] sortedSlots() { return sortedSlots; }
+
+    /**
+     * Index of {@code value} in a categorical slot's category list, optionally
+     * appending it; -1 if unknown and not added. Once the feature holds
+     * {@link #MAX_CATEGORIES} values, new ones map to the {@link #OTHER_TOKEN}
+     * bucket.
+     */
+    public int categoryIndex(int slot, String value, boolean add) {
+        Categories cats = categories.get(slot);
+        return cats != null ? cats.indexOf(value, add) : -1;
+    }
+
+    /** Category name for an encoded index, or null. */
+    public String category(int slot, float encoded) {
+        Categories cats = categories.get(slot);
+        if (cats == null || encoded != encoded) return null;
+        String[] v = cats.values;
+        int idx = (int) encoded;
+        return idx >= 0 && idx < v.length ? v[idx] : null;
+    }
+
+    /**
+     * String form of a slot value as a {@code Map}-based consumer would have
+     * seen it via {@code toString()}: "true"/"false" for booleans, the category
+     * name for categoricals, and null for numerics and absent values.
+     */
+    String token(int slot, float value) {
+        if (value != value) return null;
+        switch (types[slot]) {
+            case BOOLEAN:     return value > 0 ? TRUE_TOKEN : FALSE_TOKEN;
+            case CATEGORICAL: return category(slot, value);
+            default:          return null;
+        }
+    }
+
+    public StateRecord newRecord() { return new StateRecord(this); }
+
+    // -------------------------------------------------------------------------
+    // Categories
+    // -------------------------------------------------------------------------
+
+    /**
+     * Value → index map for one categorical feature, bounded by
+     * {@link #MAX_CATEGORIES} plus the overflow bucket. Both directions read
+     * published copy-on-write snapshots without locking; only inserts lock
+     * this feature.
+     */
+    private static final class Categories {
+        private volatile Map<String, Integer> index = new HashMap<>();
+        volatile String[]                     values = new String[0];
+        private int                           otherIndex = -1;
+
+        int indexOf(String value, boolean add) {
+            Integer idx = index.get(value);
+            if (idx != null) return idx;
+            return add ? insert(value) : -1;
+        }
+
+        private synchronized int insert(String value) {
+            Integer idx = index.get(value);
+            if (idx != null) return idx;
+            if (index.size() < MAX_CATEGORIES) return append(value);
+            if (otherIndex < 0) otherIndex = append(OTHER_TOKEN);
+            return otherIndex;
+        }
+
+        private int append(String value) {
+            int idx = values.length;
+            String[] v = Arrays.copyOf(values, idx + 1);
+            v[idx] = value;
+            Map<String, Integer> m = new HashMap<>(index);
+            m.put(value, idx);
+            values = v;
+            index = m;
+            return idx;
+        }
+    }
+}
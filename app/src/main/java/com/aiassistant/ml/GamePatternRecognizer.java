@@ -8,19 +8,22 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.aiassistant.detection.GameAppElementDetector;
+import com.aiassistant.detection.MultiObjectTracker;
+import com.aiassistant.monitoring.SmartBatteryOptimizer;
 import utils.RectHelper;
 
 /**
@@ -28,6 +31,19 @@ import utils.RectHelper;
  * 
  * This system analyzes gameplay to identify recurring patterns in enemy behavior,
  * level design, and gameplay mechanics, enabling sophisticated counter-strategies.
+ * 
+ * Frames are stored as compact primitive records in a fixed ring. Known enemy
+ * movement patterns (per enemy type) and strategy action sequences are
+ * compiled into Aho–Corasick automata over discretised step symbols (movement
+ * direction; action name), so each new observation advances every match in
+ * O(1) instead of rescanning history. Step durations are only compared, with
+ * the usual 30% tolerance, for patterns the automaton reports as complete.
+ * 
+ * The ring also keeps per-enemy-type motion totals and per-action / per-level
+ * outcome counters up to date as records enter and leave the window. A
+ * low-priority worker periodically analyses an immutable copy of those totals,
+ * so frame processing never waits on analysis; its cadence is the base
+ * interval times {@link SmartBatteryOptimizer#getThrottleMultiplier()}.
  */
 public class GamePatternRecognizer {
     private static final String TAG = "GamePatternRecognizer";
@@ -43,16 +59,47 @@ public class GamePatternRecognizer {
     private final Map<String, GameStrategyPattern> strategyPatterns = new ConcurrentHashMap<>();
     private final Map<String, LevelPattern> levelPatterns = new ConcurrentHashMap<>();
     
-    // Observation history
-    private final List<GameObservation> recentObservations = new LinkedList<>();
-    private final int maxObservationHistory = 1000;
+    // Observation history: compact ring plus incremental per-enemy tracks
+    private static final int OBSERVATION_CAPACITY = 1024;  // power of two
+    private static final int SIGHTING_CAPACITY = 4096;     // power of two
+    private final ObservationHistory history =
+            new ObservationHistory(OBSERVATION_CAPACITY, SIGHTING_CAPACITY);
+    private final SymbolTable actionSymbols = new SymbolTable();
+    private final SymbolTable levelSymbols = new SymbolTable();
+    private final SymbolTable enemyGroups = new SymbolTable();
+    private final Map<String, EnemyTrack> tracks = new HashMap<>();  // guarded by history
+    private int nextTrackId;                                        // guarded by history
+    private volatile String lastGameMode = "unknown";
+    private volatile String lastScreenType = "unknown";
+    
+    // Pattern matching automata (guarded by history)
+    static final int MAX_PATTERN_STEPS = 8;
+    private static final int MIN_NEW_PATTERN_STEPS = 3;
+    private static final int DIR_RIGHT = 0;
+    private static final int DIR_LEFT = 1;
+    private static final int DIR_DOWN = 2;
+    private static final int DIR_UP = 3;
+    private static final String[] DIRECTIONS = {"right", "left", "down", "up"};
+    private final Map<String, PatternAutomaton> enemyAutomata = new HashMap<>();
+    private PatternAutomaton strategyAutomaton = PatternAutomaton.EMPTY;
+    private int strategyState;
     
     // Enemy tracking
     private final Map<String, EnemyTrackingData> enemyTracking = new ConcurrentHashMap<>();
+    private volatile MultiObjectTracker objectTracker;
     
     // Pattern detection executors
     private final Executor processingExecutor;
-    private final ScheduledExecutorService scheduledExecutor;
+    private final ScheduledExecutorService scheduledExecutor;  // low-priority analysis worker
+    
+    // Analysis cadence: base interval × battery throttle multiplier
+    private static final long DEFAULT_ANALYSIS_INTERVAL_MS = 1000;
+    private volatile long analysisIntervalMs = DEFAULT_ANALYSIS_INTERVAL_MS;
+    private volatile SmartBatteryOptimizer batteryOptimizer;
+    private final AtomicBoolean analysisScheduled = new AtomicBoolean(false);
+    private final AtomicLong analysisRuns = new AtomicLong(0);
+    private volatile long lastAnalysisNanos;
+    private long lastAnalyzedVersion = -1;  // analysis worker only
     
     // Pattern detection state
     private final AtomicBoolean running = new AtomicBoolean(false);
@@ -63,43 +110,469 @@ public class GamePatternRecognizer {
     private final List<PatternRecognitionCallback> callbacks = new ArrayList<>();
     
     /**
-     * Game observation
+     * Interns strings (actions, levels, enemy types) to dense int symbols
      */
-    private static class GameObservation {
-        final long timestamp;
-        final List<GameAppElementDetector.UIElement> elements;
-        final Map<String, Object> gameState;
-        final Map<String, List<EnemyTrackingData>> enemies;
+    private static final class SymbolTable {
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private final List<String> names = new ArrayList<>();
+        
+        int intern(String name) {
+            Integer id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            synchronized (names) {
+                id = ids.get(name);
+                if (id == null) {
+                    id = names.size();
+                    names.add(name);
+                    ids.put(name, id);
+                }
+                return id;
+            }
+        }
         
-        public GameObservation(
-                List<GameAppElementDetector.UIElement> elements,
-                Map<String, Object> gameState,
-                Map<String, List<EnemyTrackingData>> enemies) {
-            this.timestamp = System.currentTimeMillis();
-            this.elements = new ArrayList<>(elements);
-            this.gameState = new HashMap<>(gameState);
-            this.enemies = new HashMap<>();
+        String name(int id) {
+            synchronized (names) {
+                return id >= 0 && id < names.size() ? names.get(id) : null;
+            }
+        }
+        
+        int size() {
+            synchronized (names) {
+                return names.size();
+            }
+        }
+    }
+    
+    /**
+     * Fixed-capacity ring of compact observation records. Each observation
+     * stores interned symbols and raw numbers (NaN / -1 when absent) instead
+     * of copies of the frame's maps; enemy sightings live in a second ring and
+     * are referenced by sequence range. Per-action and per-level window totals
+     * are kept up to date as records are appended and evicted, so checks never
+     * rescan the window. Guarded by its own monitor.
+     */
+    private static final class ObservationHistory {
+        final int obsMask;
+        final int sightMask;
+        long obsHead;
+        long sightHead;
+        
+        // Observation columns
+        final long[] timestamp;
+        final int[] action;
+        final float[] outcome;
+        final int[] level;
+        final float[] obstacles;
+        final float[] resources;
+        
+        // Sighting columns
+        final int[] sightTrack;
+        final int[] sightGroup;
+        final float[] sightX;
+        final float[] sightY;
+        final float[] sightVx;
+        final float[] sightVy;
+        final float[] sightAttackRate;
+        
+        // Window totals, indexed by symbol
+        long version;
+        int[] groupSightings = new int[16];
+        double[] groupVx = new double[16];
+        double[] groupVy = new double[16];
+        double[] groupAttack = new double[16];
+        int[] groupAttackSamples = new int[16];
+        int[] actionCount = new int[16];
+        int[] actionOutcomeCount = new int[16];
+        float[] actionOutcomeSum = new float[16];
+        long[] actionFirstSeen = new long[16];
+        int[] levelCount = new int[16];
+        int[] levelObstacles = new int[16];
+        int[] levelResources = new int[16];
+        
+        ObservationHistory(int observationCapacity, int sightingCapacity) {
+            obsMask = observationCapacity - 1;
+            sightMask = sightingCapacity - 1;
+            timestamp = new long[observationCapacity];
+            action = new int[observationCapacity];
+            outcome = new float[observationCapacity];
+            level = new int[observationCapacity];
+            obstacles = new float[observationCapacity];
+            resources = new float[observationCapacity];
+            sightTrack = new int[sightingCapacity];
+            sightGroup = new int[sightingCapacity];
+            sightX = new float[sightingCapacity];
+            sightY = new float[sightingCapacity];
+            sightVx = new float[sightingCapacity];
+            sightVy = new float[sightingCapacity];
+            sightAttackRate = new float[sightingCapacity];
+        }
+        
+        int size() {
+            return (int) Math.min(obsHead, obsMask + 1L);
+        }
+        
+        long oldestTimestamp() {
+            return obsHead == 0 ? 0 : timestamp[(int) ((obsHead - size()) & obsMask)];
+        }
+        
+        long append(long ts, int actionSym, float outcomeValue, int levelSym,
+                    float obstacleCount, float resourceCount) {
+            int i = (int) (obsHead & obsMask);
+            if (obsHead > obsMask) {
+                evict(i);
+            }
+            timestamp[i] = ts;
+            action[i] = actionSym;
+            outcome[i] = outcomeValue;
+            level[i] = levelSym;
+            obstacles[i] = obstacleCount;
+            resources[i] = resourceCount;
             
-            // Deep copy enemies data
-            for (Map.Entry<String, List<EnemyTrackingData>> entry : enemies.entrySet()) {
-                this.enemies.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            if (actionSym >= 0) {
+                ensureActionCapacity(actionSym);
+                if (actionCount[actionSym] == 0) {
+                    actionFirstSeen[actionSym] = ts;
+                }
+                actionCount[actionSym]++;
+                if (outcomeValue == outcomeValue) {
+                    actionOutcomeCount[actionSym]++;
+                    actionOutcomeSum[actionSym] += outcomeValue;
+                }
+            }
+            if (levelSym >= 0) {
+                ensureLevelCapacity(levelSym);
+                levelCount[levelSym]++;
+                if (obstacleCount == obstacleCount) levelObstacles[levelSym] += (int) obstacleCount;
+                if (resourceCount == resourceCount) levelResources[levelSym] += (int) resourceCount;
+            }
+            version++;
+            return obsHead++;
+        }
+        
+        private void evict(int i) {
+            int a = action[i];
+            if (a >= 0) {
+                actionCount[a]--;
+                float o = outcome[i];
+                if (o == o) {
+                    actionOutcomeCount[a]--;
+                    actionOutcomeSum[a] -= o;
+                }
+            }
+            int l = level[i];
+            if (l >= 0) {
+                levelCount[l]--;
+                float oc = obstacles[i];
+                float rc = resources[i];
+                if (oc == oc) levelObstacles[l] -= (int) oc;
+                if (rc == rc) levelResources[l] -= (int) rc;
             }
         }
         
-        public long getTimestamp() {
-            return timestamp;
+        void addSighting(int track, int group, float x, float y,
+                         float vx, float vy, float attackRate) {
+            int i = (int) (sightHead & sightMask);
+            if (sightHead > sightMask) {
+                int g = sightGroup[i];
+                groupSightings[g]--;
+                groupVx[g] -= sightVx[i];
+                groupVy[g] -= sightVy[i];
+                float ar = sightAttackRate[i];
+                if (ar == ar) {
+                    groupAttack[g] -= ar;
+                    groupAttackSamples[g]--;
+                }
+            }
+            sightHead++;
+            
+            if (group >= groupSightings.length) {
+                int n = Math.max(group + 1, groupSightings.length * 2);
+                groupSightings = Arrays.copyOf(groupSightings, n);
+                groupVx = Arrays.copyOf(groupVx, n);
+                groupVy = Arrays.copyOf(groupVy, n);
+                groupAttack = Arrays.copyOf(groupAttack, n);
+                groupAttackSamples = Arrays.copyOf(groupAttackSamples, n);
+            }
+            groupSightings[group]++;
+            groupVx[group] += vx;
+            groupVy[group] += vy;
+            if (attackRate == attackRate) {
+                groupAttack[group] += attackRate;
+                groupAttackSamples[group]++;
+            }
+            
+            sightTrack[i] = track;
+            sightGroup[i] = group;
+            sightX[i] = x;
+            sightY[i] = y;
+            sightVx[i] = vx;
+            sightVy[i] = vy;
+            sightAttackRate[i] = attackRate;
+        }
+        
+        private void ensureActionCapacity(int sym) {
+            if (sym < actionCount.length) return;
+            int n = Math.max(sym + 1, actionCount.length * 2);
+            actionCount = Arrays.copyOf(actionCount, n);
+            actionOutcomeCount = Arrays.copyOf(actionOutcomeCount, n);
+            actionOutcomeSum = Arrays.copyOf(actionOutcomeSum, n);
+            actionFirstSeen = Arrays.copyOf(actionFirstSeen, n);
+        }
+        
+        private void ensureLevelCapacity(int sym) {
+            if (sym < levelCount.length) return;
+            int n = Math.max(sym + 1, levelCount.length * 2);
+            levelCount = Arrays.copyOf(levelCount, n);
+            levelObstacles = Arrays.copyOf(levelObstacles, n);
+            levelResources = Arrays.copyOf(levelResources, n);
+        }
+        
+        /** Immutable copy of the window totals; O(number of symbols) */
+        AnalysisSnapshot snapshot(long now) {
+            return new AnalysisSnapshot(this, now);
+        }
+        
+        void clear() {
+            obsHead = 0;
+            sightHead = 0;
+            version++;
+            Arrays.fill(groupSightings, 0);
+            Arrays.fill(groupVx, 0);
+            Arrays.fill(groupVy, 0);
+            Arrays.fill(groupAttack, 0);
+            Arrays.fill(groupAttackSamples, 0);
+            Arrays.fill(actionCount, 0);
+            Arrays.fill(actionOutcomeCount, 0);
+            Arrays.fill(actionOutcomeSum, 0f);
+            Arrays.fill(levelCount, 0);
+            Arrays.fill(levelObstacles, 0);
+            Arrays.fill(levelResources, 0);
+        }
+    }
+    
+    /**
+     * Immutable copy of the history's window totals, handed to the analysis
+     * worker so analysis never holds the history lock or walks the rings
+     */
+    private static final class AnalysisSnapshot {
+        final long version;
+        final int observations;
+        final long windowSpan;
+        final int[] groupSightings;
+        final double[] groupVx;
+        final double[] groupVy;
+        final double[] groupAttack;
+        final int[] groupAttackSamples;
+        final float[] actionOutcomeSum;
+        final int[] actionOutcomeCount;
+        final int[] levelCount;
+        final int[] levelObstacles;
+        final int[] levelResources;
+        
+        AnalysisSnapshot(ObservationHistory h, long now) {
+            version = h.version;
+            observations = h.size();
+            windowSpan = observations > 0 ? now - h.oldestTimestamp() : 0;
+            groupSightings = h.groupSightings.clone();
+            groupVx = h.groupVx.clone();
+            groupVy = h.groupVy.clone();
+            groupAttack = h.groupAttack.clone();
+            groupAttackSamples = h.groupAttackSamples.clone();
+            actionOutcomeSum = h.actionOutcomeSum.clone();
+            actionOutcomeCount = h.actionOutcomeCount.clone();
+            levelCount = h.levelCount.clone();
+            levelObstacles = h.levelObstacles.clone();
+            levelResources = h.levelResources.clone();
+        }
+    }
+    
+    /**
+     * Incremental movement state of one tracked enemy: last position, the
+     * most recent discretised movement steps and its position in the
+     * pattern automaton of its enemy type
+     */
+    private static final class EnemyTrack {
+        final int id;
+        final String enemyType;
+        float lastX;
+        float lastY;
+        long lastTimestamp;
+        long lastSeen;
+        int lastDirection = -1;
+        int sightings;
+        float vx;
+        float vy;
+        
+        // Recent steps, ring of MAX_PATTERN_STEPS
+        final int[] stepDirection = new int[MAX_PATTERN_STEPS];
+        final long[] stepDuration = new long[MAX_PATTERN_STEPS];
+        final float[] stepSpeed = new float[MAX_PATTERN_STEPS];
+        int stepCount;
+        int stepsSinceLastPattern;
+        
+        PatternAutomaton automaton;
+        int matchState;
+        
+        EnemyTrack(int id, String enemyType) {
+            this.id = id;
+            this.enemyType = enemyType;
         }
         
-        public List<GameAppElementDetector.UIElement> getElements() {
-            return elements;
+        void pushStep(int direction, long duration, float speed) {
+            int i = stepCount++ % MAX_PATTERN_STEPS;
+            stepDirection[i] = direction;
+            stepDuration[i] = duration;
+            stepSpeed[i] = speed;
+            stepsSinceLastPattern++;
         }
         
-        public Map<String, Object> getGameState() {
-            return gameState;
+        /** k-th most recent step index (0 = newest) into the step ring */
+        int recent(int k) {
+            return (stepCount - 1 - k) % MAX_PATTERN_STEPS;
+        }
+        
+        /**
+         * Feed the newest step to {@code a}; if the automaton was rebuilt since
+         * the last step, replay the recent steps instead (no compiled pattern
+         * is longer than the step ring)
+         */
+        int advance(PatternAutomaton a) {
+            if (automaton == a) {
+                int i = recent(0);
+                matchState = a.step(matchState, stepDirection[i]);
+            } else {
+                int state = 0;
+                int n = Math.min(stepCount, MAX_PATTERN_STEPS);
+                for (int k = n - 1; k >= 0; k--) {
+                    int i = recent(k);
+                    state = a.step(state, stepDirection[i]);
+                }
+                automaton = a;
+                matchState = state;
+            }
+            return matchState;
+        }
+    }
+    
+    /**
+     * Aho–Corasick automaton over int symbols. Known patterns are compiled
+     * into a trie with failure links folded into a dense transition table, so
+     * feeding one symbol is a single array lookup and {@link #outputs} lists
+     * every known pattern ending at the current position, longest first.
+     * Symbols outside the compiled alphabet lead back to the root. Immutable.
+     */
+    private static final class PatternAutomaton {
+        private static final int[] NONE = new int[0];
+        
+        static final PatternAutomaton EMPTY =
+                build(new ArrayList<int[]>(), new ArrayList<String>(), 0);
+        
+        final int alphabet;
+        final int[][] next;
+        final int[][] outputs;
+        final String[] patternIds;
+        
+        private PatternAutomaton(int alphabet, int[][] next, int[][] outputs, String[] patternIds) {
+            this.alphabet = alphabet;
+            this.next = next;
+            this.outputs = outputs;
+            this.patternIds = patternIds;
+        }
+        
+        int step(int state, int symbol) {
+            return symbol >= 0 && symbol < alphabet ? next[state][symbol] : 0;
+        }
+        
+        /** Id of the longest pattern completed at {@code state}, or null */
+        String match(int state) {
+            int[] out = outputs[state];
+            return out.length > 0 ? patternIds[out[0]] : null;
+        }
+        
+        static PatternAutomaton build(List<int[]> patterns, List<String> ids, int alphabet) {
+            // Trie
+            List<int[]> trie = new ArrayList<>();
+            List<Integer> terminal = new ArrayList<>();
+            List<int[]> duplicates = new ArrayList<>();
+            trie.add(filled(alphabet));
+            terminal.add(-1);
+            for (int p = 0; p < patterns.size(); p++) {
+                int state = 0;
+                for (int symbol : patterns.get(p)) {
+                    int child = trie.get(state)[symbol];
+                    if (child < 0) {
+                        child = trie.size();
+                        trie.get(state)[symbol] = child;
+                        trie.add(filled(alphabet));
+                        terminal.add(-1);
+                    }
+                    state = child;
+                }
+                if (terminal.get(state) < 0) {
+                    terminal.set(state, p);
+                } else {
+                    duplicates.add(new int[] {state, p});
+                }
+            }
+            
+            // Breadth-first failure links, folded into the transition table
+            int states = trie.size();
+            int[][] next = new int[states][];
+            int[] fail = new int[states];
+            int[][] outputs = new int[states][];
+            for (int s = 0; s < states; s++) {
+                next[s] = trie.get(s).clone();
+            }
+            int[] queue = new int[states];
+            int head = 0;
+            int tail = 0;
+            outputs[0] = NONE;
+            for (int c = 0; c < alphabet; c++) {
+                if (next[0][c] < 0) {
+                    next[0][c] = 0;
+                } else {
+                    fail[next[0][c]] = 0;
+                    queue[tail++] = next[0][c];
+                }
+            }
+            while (head < tail) {
+                int s = queue[head++];
+                outputs[s] = ownOutputs(s, terminal.get(s), duplicates, outputs[fail[s]]);
+                for (int c = 0; c < alphabet; c++) {
+                    int child = next[s][c];
+                    if (child < 0) {
+                        next[s][c] = next[fail[s]][c];
+                    } else {
+                        fail[child] = next[fail[s]][c];
+                        queue[tail++] = child;
+                    }
+                }
+            }
+            return new PatternAutomaton(alphabet, next, outputs, ids.toArray(new String[0]));
+        }
+        
+        /** Patterns ending exactly at {@code state}, followed by the fail state's outputs */
+        private static int[] ownOutputs(int state, int own, List<int[]> duplicates, int[] inherited) {
+            if (own < 0) {
+                return inherited;
+            }
+            List<Integer> out = new ArrayList<>();
+            out.add(own);
+            for (int[] d : duplicates) {
+                if (d[0] == state) out.add(d[1]);
+            }
+            int[] merged = new int[out.size() + inherited.length];
+            for (int i = 0; i < out.size(); i++) merged[i] = out.get(i);
+            System.arraycopy(inherited, 0, merged, out.size(), inherited.length);
+            return merged;
         }
         
-        public Map<String, List<EnemyTrackingData>> getEnemies() {
-            return enemies;
+        private static int[] filled(int n) {
+            int[] a = new int[n];
+            Arrays.fill(a, -1);
+            return a;
         }
     }
     
@@ -546,7 +1019,12 @@ public class GamePatternRecognizer {
     private GamePatternRecognizer(Context context) {
         this.context = context;
         this.processingExecutor = Executors.newFixedThreadPool(2);
-        this.scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.scheduledExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "PatternAnalysis");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
         
         Log.i(TAG, "Game pattern recognizer created");
     }
@@ -577,12 +1055,10 @@ public class GamePatternRecognizer {
         
         running.set(true);
         
-        // Schedule pattern analysis
-        scheduledExecutor.scheduleAtFixedRate(
-                this::analyzePatterns,
-                500, // Initial delay
-                1000, // 1 second interval
-                TimeUnit.MILLISECONDS);
+        // Schedule pattern analysis (the worker re-arms itself while running)
+        if (analysisScheduled.compareAndSet(false, true)) {
+            scheduleAnalysis(500);
+        }
         
         Log.i(TAG, "Game pattern recognizer started");
     }
@@ -600,6 +1076,31 @@ public class GamePatternRecognizer {
         Log.i(TAG, "Game pattern recognizer stopped");
     }
     
+    /**
+     * Base interval between background analysis passes; the effective
+     * interval is multiplied by the battery throttle multiplier
+     */
+    public void setAnalysisInterval(long intervalMs) {
+        this.analysisIntervalMs = Math.max(100, intervalMs);
+    }
+    
+    /**
+     * Tie the analysis cadence to battery state
+     * ({@link SmartBatteryOptimizer#getThrottleMultiplier()})
+     */
+    public void setBatteryOptimizer(SmartBatteryOptimizer optimizer) {
+        this.batteryOptimizer = optimizer;
+    }
+    
+    /**
+     * Share a tracker (normally {@link com.aiassistant.detection.EnemyDetector#getObjectTracker()})
+     * so enemies get the same stable ids here as in the detector, instead of
+     * ids derived from their current screen position
+     */
+    public void setObjectTracker(MultiObjectTracker tracker) {
+        this.objectTracker = tracker;
+    }
+    
     /**
      * Set game type
      */
@@ -617,26 +1118,66 @@ public class GamePatternRecognizer {
         }
         
         // Update frame counter
-        frameCounter.incrementAndGet();
+        long frame = frameCounter.incrementAndGet();
         
         // Extract enemies from elements
         Map<String, List<EnemyTrackingData>> frameEnemies = extractEnemiesFromElements(elements, gameState);
         
-        // Create observation
-        GameObservation observation = new GameObservation(elements, gameState, frameEnemies);
+        Object mode = gameState.get("gameMode");
+        Object screen = gameState.get("screenType");
+        if (mode != null) {
+            lastGameMode = mode.toString();
+        }
+        if (screen != null) {
+            lastScreenType = screen.toString();
+        }
         
-        // Add to recent observations
-        synchronized (recentObservations) {
-            recentObservations.add(observation);
+        // Record a compact observation and advance every matcher by one step
+        long now = System.currentTimeMillis();
+        synchronized (history) {
+            int slot = recordObservation(now, gameState);
+            
+            for (Map.Entry<String, List<EnemyTrackingData>> entry : frameEnemies.entrySet()) {
+                int group = enemyGroups.intern(entry.getKey());
+                for (EnemyTrackingData enemy : entry.getValue()) {
+                    checkEnemyPatterns(enemy, group, now);
+                }
+            }
             
-            // Keep observations bounded
-            while (recentObservations.size() > maxObservationHistory) {
-                recentObservations.remove(0);
+            // Check game strategy patterns
+            checkStrategyPatterns(slot, now);
+            
+            // Check level patterns
+            checkLevelPatterns(slot);
+            
+            // Forget tracks that have left the observation window
+            if ((frame & 0xFF) == 0) {
+                long horizon = history.obsHead - OBSERVATION_CAPACITY;
+                tracks.values().removeIf(t -> t.lastSeen < horizon);
             }
         }
-        
-        // Process new observation
-        processingExecutor.execute(() -> processNewObservation(observation));
+    }
+    
+    /**
+     * Append the frame's scalar state to the observation ring; returns its slot
+     */
+    private int recordObservation(long now, Map<String, Object> gameState) {
+        Object pa = gameState.get("playerAction");
+        String action = pa != null ? pa.toString() : null;
+        int actionSym = action != null && !action.isEmpty() ? actionSymbols.intern(action) : -1;
+        
+        Object outcomeObj = gameState.get("outcome");
+        float outcome = outcomeObj instanceof Number ? ((Number) outcomeObj).floatValue() : Float.NaN;
+        
+        Object levelId = gameState.get("levelId");
+        int levelSym = levelId != null ? levelSymbols.intern(levelId.toString()) : -1;
+        Object oc = gameState.get("obstacleCount");
+        Object rc = gameState.get("resourceCount");
+        float obstacles = oc instanceof Number ? ((Number) oc).intValue() : Float.NaN;
+        float resources = rc instanceof Number ? ((Number) rc).intValue() : Float.NaN;
+        
+        long seq = history.append(now, actionSym, outcome, levelSym, obstacles, resources);
+        return (int) (seq & history.obsMask);
     }
     
     /**
@@ -653,8 +1194,12 @@ public class GamePatternRecognizer {
             if (type.contains("enemy") || type.contains("opponent") || 
                     type.contains("monster") || type.contains("boss")) {
                 
-                // Generate enemy ID if not available
-                String enemyId = element.getId();
+                // Prefer the shared tracker id, then the element id, then a positional id
+                MultiObjectTracker tracker = objectTracker;
+                String enemyId = tracker != null ? tracker.findTrackId(element.getBounds()) : null;
+                if (enemyId == null) {
+                    enemyId = element.getId();
+                }
                 if (enemyId == null || enemyId.isEmpty()) {
                     enemyId = "enemy_" + element.getBounds().centerX() + "_" + 
                             element.getBounds().centerY();
@@ -692,6 +1237,13 @@ public class GamePatternRecognizer {
             }
         }
         
+        // Forget enemies whose track has ended
+        MultiObjectTracker tracker = objectTracker;
+        if (tracker != null) {
+            enemyTracking.keySet().removeIf(id ->
+                    id.startsWith(MultiObjectTracker.TRACK_ID_PREFIX) && !tracker.isTracking(id));
+        }
+        
         return enemies;
     }
     
@@ -722,360 +1274,311 @@ public class GamePatternRecognizer {
     }
     
     /**
-     * Process new observation for pattern detection
+     * Advance an enemy's movement track by one sighting. A new movement step
+     * (direction change, or more than a second in one direction) moves the
+     * track one symbol through its enemy type's pattern automaton.
      */
-    private void processNewObservation(GameObservation observation) {
-        // Check enemy patterns
-        for (Map.Entry<String, List<EnemyTrackingData>> entry : observation.getEnemies().entrySet()) {
-            String enemyType = entry.getKey();
-            List<EnemyTrackingData> enemies = entry.getValue();
+    private void checkEnemyPatterns(EnemyTrackingData enemy, int group, long now) {
+        EnemyTrack track = tracks.get(enemy.getEnemyId());
+        if (track == null) {
+            track = new EnemyTrack(nextTrackId++, enemy.getEnemyType());
+            tracks.put(enemy.getEnemyId(), track);
+        }
+        
+        RectF position = enemy.getPosition();
+        float x = position.centerX();
+        float y = position.centerY();
+        
+        if (track.sightings > 0) {
+            // Calculate movement
+            float dx = x - track.lastX;
+            float dy = y - track.lastY;
+            long duration = now - track.lastTimestamp;
+            if (duration > 0) {
+                track.vx = dx * 1000f / duration;
+                track.vy = dy * 1000f / duration;
+            }
+            
+            // Determine direction
+            int direction;
+            if (Math.abs(dx) > Math.abs(dy)) {
+                direction = dx > 0 ? DIR_RIGHT : DIR_LEFT;
+            } else {
+                direction = dy > 0 ? DIR_DOWN : DIR_UP;
+            }
             
-            for (EnemyTrackingData enemy : enemies) {
-                checkEnemyPatterns(enemy, observation);
+            // If direction changed or significant time passed, record as step
+            if (track.lastDirection < 0 || track.lastDirection != direction || duration > 1000) {
+                float speed = duration > 0 ? (float) Math.sqrt(dx * dx + dy * dy) / duration : 0f;
+                track.pushStep(direction, duration, speed);
+                track.lastDirection = direction;
+                matchEnemyStep(track, enemy);
             }
         }
         
-        // Check game strategy patterns
-        checkStrategyPatterns(observation);
+        track.lastX = x;
+        track.lastY = y;
+        track.lastTimestamp = now;
+        track.lastSeen = history.obsHead - 1;
+        track.sightings++;
         
-        // Check level patterns
-        checkLevelPatterns(observation);
+        Object attackRate = enemy.getAttributes().get("attackRate");
+        history.addSighting(track.id, group, x, y, track.vx, track.vy,
+                attackRate instanceof Number ? ((Number) attackRate).floatValue() : Float.NaN);
     }
     
     /**
-     * Check for enemy patterns
+     * Feed a track's newest step to its automaton; report a known pattern or
+     * learn a new one from the unmatched recent steps
      */
-    private void checkEnemyPatterns(EnemyTrackingData enemy, GameObservation observation) {
-        // Get recent observations for this enemy
-        List<GameObservation> relevantObservations = new ArrayList<>();
-        String enemyId = enemy.getEnemyId();
-        
-        synchronized (recentObservations) {
-            for (GameObservation obs : recentObservations) {
-                for (List<EnemyTrackingData> enemyList : obs.getEnemies().values()) {
-                    for (EnemyTrackingData e : enemyList) {
-                        if (e.getEnemyId().equals(enemyId)) {
-                            relevantObservations.add(obs);
-                            break;
-                        }
-                    }
-                }
+    private void matchEnemyStep(EnemyTrack track, EnemyTrackingData enemy) {
+        PatternAutomaton automaton = enemyAutomata.get(track.enemyType);
+        if (automaton == null) {
+            automaton = PatternAutomaton.EMPTY;
+        }
+        
+        EnemyPattern matched = null;
+        int state = track.advance(automaton);
+        for (int p : automaton.outputs[state]) {
+            EnemyPattern candidate = enemyPatterns.get(automaton.patternIds[p]);
+            if (candidate != null && durationsMatch(track, candidate.getSteps())) {
+                matched = candidate;
+                break;
             }
         }
-        
-        // Need enough observations for pattern detection
-        if (relevantObservations.size() < 3) {
+        if (matched != null) {
+            EnemyPattern pattern = matched;
+            track.stepsSinceLastPattern = 0;
+            processingExecutor.execute(() -> notifyPatternRecognized(
+                    "enemy",
+                    pattern.getPatternId(),
+                    pattern.getDescription(),
+                    pattern.getConfidence(),
+                    createEnemyPatternDetails(pattern, enemy)));
             return;
         }
         
-        // Extract movement pattern
-        List<PatternStep> steps = extractEnemyMovementPattern(enemy, relevantObservations);
-        if (steps.size() >= 2) {
-            // Calculate pattern duration
-            long duration = relevantObservations.get(relevantObservations.size() - 1).getTimestamp() -
-                    relevantObservations.get(0).getTimestamp();
-            
-            // Check if pattern matches existing patterns
-            boolean foundMatch = false;
-            for (EnemyPattern pattern : enemyPatterns.values()) {
-                if (pattern.getEnemyType().equals(enemy.getEnemyType()) &&
-                        patternStepsMatch(steps, pattern.getSteps())) {
-                    foundMatch = true;
-                    
-                    // Notify pattern match
-                    notifyPatternRecognized(
-                            "enemy",
-                            pattern.getPatternId(),
-                            pattern.getDescription(),
-                            pattern.getConfidence(),
-                            createEnemyPatternDetails(pattern, enemy));
-                    
-                    break;
-                }
-            }
-            
-            // If no match, create new pattern
-            if (!foundMatch && steps.size() >= 3) {  // Require 3+ steps for new pattern
-                String patternId = "enemy_pattern_" + enemy.getEnemyType() + "_" + 
-                        System.currentTimeMillis();
-                
-                EnemyPattern newPattern = new EnemyPattern(
-                        patternId,
-                        enemy.getEnemyType(),
-                        steps,
-                        duration,
-                        0.6f);  // Initial confidence
-                
-                enemyPatterns.put(patternId, newPattern);
-                
-                // Notify new pattern
-                notifyPatternRecognized(
-                        "enemy",
-                        patternId,
-                        newPattern.getDescription(),
-                        newPattern.getConfidence(),
-                        createEnemyPatternDetails(newPattern, enemy));
-                
-                Log.d(TAG, "New enemy pattern detected: " + newPattern.getDescription());
-            }
+        // If no match, create new pattern from the steps seen since the last one
+        if (track.stepsSinceLastPattern < MIN_NEW_PATTERN_STEPS) {
+            return;
         }
+        int n = Math.min(track.stepsSinceLastPattern, MAX_PATTERN_STEPS);
+        List<PatternStep> steps = new ArrayList<>(n);
+        long duration = 0;
+        for (int k = n - 1; k >= 0; k--) {
+            int i = track.recent(k);
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("direction", DIRECTIONS[track.stepDirection[i]]);
+            parameters.put("speed", track.stepSpeed[i]);
+            steps.add(new PatternStep("move", parameters, track.stepDuration[i], new HashMap<>()));
+            duration += track.stepDuration[i];
+        }
+        
+        String patternId = "enemy_pattern_" + enemy.getEnemyType() + "_" + 
+                System.currentTimeMillis();
+        
+        EnemyPattern newPattern = new EnemyPattern(
+                patternId,
+                enemy.getEnemyType(),
+                steps,
+                duration,
+                0.6f);  // Initial confidence
+        
+        enemyPatterns.put(patternId, newPattern);
+        rebuildEnemyAutomaton(track.enemyType);
+        track.stepsSinceLastPattern = 0;
+        
+        // Notify new pattern
+        processingExecutor.execute(() -> notifyPatternRecognized(
+                "enemy",
+                patternId,
+                newPattern.getDescription(),
+                newPattern.getConfidence(),
+                createEnemyPatternDetails(newPattern, enemy)));
+        
+        Log.d(TAG, "New enemy pattern detected: " + newPattern.getDescription());
     }
     
     /**
-     * Extract enemy movement pattern
+     * Recompile the movement patterns of one enemy type
      */
-    private List<PatternStep> extractEnemyMovementPattern(
-            EnemyTrackingData enemy, List<GameObservation> observations) {
-        List<PatternStep> steps = new ArrayList<>();
-        
-        if (observations.size() < 2) {
-            return steps;
-        }
-        
-        // Track last position
-        RectF lastPosition = null;
-        long lastTimestamp = 0;
-        String lastDirection = null;
-        
-        for (GameObservation obs : observations) {
-            // Find this enemy in the observation
-            EnemyTrackingData currentEnemy = null;
-            for (List<EnemyTrackingData> enemies : obs.getEnemies().values()) {
-                for (EnemyTrackingData e : enemies) {
-                    if (e.getEnemyId().equals(enemy.getEnemyId())) {
-                        currentEnemy = e;
-                        break;
-                    }
-                }
-                if (currentEnemy != null) {
-                    break;
-                }
-            }
-            
-            // Skip if enemy not found
-            if (currentEnemy == null) {
-                continue;
-            }
-            
-            RectF currentPosition = currentEnemy.getPosition();
-            long currentTimestamp = obs.getTimestamp();
-            
-            // Skip first observation
-            if (lastPosition == null) {
-                lastPosition = currentPosition;
-                lastTimestamp = currentTimestamp;
+    private void rebuildEnemyAutomaton(String enemyType) {
+        List<int[]> compiled = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (EnemyPattern pattern : enemyPatterns.values()) {
+            if (!pattern.getEnemyType().equals(enemyType)) {
                 continue;
             }
-            
-            // Calculate movement
-            float dx = currentPosition.centerX() - lastPosition.centerX();
-            float dy = currentPosition.centerY() - lastPosition.centerY();
-            long duration = currentTimestamp - lastTimestamp;
-            
-            // Determine direction
-            String direction;
-            if (Math.abs(dx) > Math.abs(dy)) {
-                // Horizontal movement dominates
-                direction = dx > 0 ? "right" : "left";
-            } else {
-                // Vertical movement dominates
-                direction = dy > 0 ? "down" : "up";
+            int[] symbols = compileMovementSteps(pattern.getSteps());
+            if (symbols != null) {
+                compiled.add(symbols);
+                ids.add(pattern.getPatternId());
             }
-            
-            // If direction changed or significant time passed, record as step
-            if (lastDirection == null || !lastDirection.equals(direction) || duration > 1000) {
-                Map<String, Object> parameters = new HashMap<>();
-                parameters.put("direction", direction);
-                parameters.put("speed", Math.sqrt(dx * dx + dy * dy) / duration);
-                
-                Map<String, Object> conditions = new HashMap<>();
-                
-                PatternStep step = new PatternStep(
-                        "move",
-                        parameters,
-                        duration,
-                        conditions);
-                
-                steps.add(step);
-                lastDirection = direction;
+        }
+        enemyAutomata.put(enemyType, PatternAutomaton.build(compiled, ids, DIRECTIONS.length));
+    }
+    
+    /**
+     * Duration check for a direction match: the track's most recent steps may
+     * each differ from the pattern's by at most 30% of the longer duration
+     */
+    private static boolean durationsMatch(EnemyTrack track, List<PatternStep> steps) {
+        int n = steps.size();
+        for (int j = 0; j < n; j++) {
+            long duration1 = track.stepDuration[track.recent(n - 1 - j)];
+            long duration2 = steps.get(j).getDurationMs();
+            if (Math.abs(duration1 - duration2) > Math.max(duration1, duration2) * 0.3) {
+                return false;
             }
-            
-            // Update last position
-            lastPosition = currentPosition;
-            lastTimestamp = currentTimestamp;
         }
-        
-        return steps;
+        return true;
     }
     
     /**
-     * Check for strategy patterns
+     * Movement steps as direction symbols, or null if the steps are not a
+     * matchable movement sequence
      */
-    private void checkStrategyPatterns(GameObservation observation) {
-        Map<String, Object> state = observation.getGameState();
-
-        // Extract player action and outcome from this observation
-        String playerAction = state.containsKey("playerAction")
-                ? state.get("playerAction").toString() : null;
-        Object outcomeObj   = state.get("outcome");
-        float  outcome      = 0f;
-        if (outcomeObj instanceof Number) outcome = ((Number) outcomeObj).floatValue();
-
-        if (playerAction == null || playerAction.isEmpty()) return;
-
-        // Look for recent observations with the same action
-        List<GameObservation> matchingObs = new ArrayList<>();
-        synchronized (recentObservations) {
-            for (GameObservation obs : recentObservations) {
-                Object pa = obs.getGameState().get("playerAction");
-                if (pa != null && pa.toString().equals(playerAction)) {
-                    matchingObs.add(obs);
-                }
+    private static int[] compileMovementSteps(List<PatternStep> steps) {
+        if (steps.size() < 2 || steps.size() > MAX_PATTERN_STEPS) {
+            return null;
+        }
+        int[] symbols = new int[steps.size()];
+        for (int i = 0; i < symbols.length; i++) {
+            PatternStep step = steps.get(i);
+            int direction = Arrays.asList(DIRECTIONS).indexOf(step.getParameters().get("direction"));
+            if (!"move".equals(step.getActionType()) || direction < 0) {
+                return null;
             }
+            symbols[i] = direction;
         }
-        if (matchingObs.size() < 3) return;
-
-        // Compute average outcome for this action
-        float totalOutcome = 0f;
-        for (GameObservation obs : matchingObs) {
-            Object o = obs.getGameState().get("outcome");
-            if (o instanceof Number) totalOutcome += ((Number) o).floatValue();
+        return symbols;
+    }
+    
+    /**
+     * Check for strategy patterns: advance the action automaton and, for an
+     * action no strategy covers yet, consult its window outcome totals
+     */
+    private void checkStrategyPatterns(int slot, long now) {
+        int actionSym = history.action[slot];
+        if (actionSym < 0) return;
+        
+        strategyState = strategyAutomaton.step(strategyState, actionSym);
+        String knownId = strategyAutomaton.match(strategyState);
+        if (knownId != null) {
+            GameStrategyPattern known = strategyPatterns.get(knownId);
+            if (known != null) {
+                processingExecutor.execute(() -> notifyPatternRecognized("strategy",
+                        known.getPatternId(), known.getDescription(),
+                        known.getSuccessRate(), known.getOutcomes()));
+                return;
+            }
         }
-        float avgOutcome = totalOutcome / matchingObs.size();
-
+        
+        int count = history.actionCount[actionSym];
+        if (count < 3) return;
+        
+        // Average outcome for this action across the window
+        float avgOutcome = history.actionOutcomeSum[actionSym] / count;
+        String playerAction = actionSymbols.name(actionSym);
+        
         // Only register as a strategy pattern when average outcome is positive
         if (avgOutcome > 0.5f) {
             String patternId = "strategy_" + playerAction + "_"
                     + currentGameType + "_" + System.currentTimeMillis();
-
+            
             if (!strategyPatterns.containsKey(patternId)) {
                 List<PatternStep> steps = new ArrayList<>();
                 Map<String, Object> params = new HashMap<>();
                 params.put("action", playerAction);
                 params.put("avgOutcome", avgOutcome);
-                params.put("sampleCount", matchingObs.size());
+                params.put("sampleCount", count);
                 steps.add(new PatternStep(playerAction, params, 0L, new HashMap<>()));
-
-                long duration = matchingObs.get(matchingObs.size() - 1).getTimestamp()
-                        - matchingObs.get(0).getTimestamp();
+                
+                long duration = now - history.actionFirstSeen[actionSym];
                 float confidence = Math.min(0.95f, 0.5f + avgOutcome * 0.45f);
-
+                
                 GameStrategyPattern newPattern = new GameStrategyPattern(
                         patternId, playerAction, steps, duration, confidence);
                 strategyPatterns.put(patternId, newPattern);
-
-                notifyPatternRecognized("strategy", patternId,
+                rebuildStrategyAutomaton();
+                
+                processingExecutor.execute(() -> notifyPatternRecognized("strategy", patternId,
                         "Effective action: " + playerAction
                                 + " (avg outcome=" + String.format("%.2f", avgOutcome) + ")",
                         confidence,
-                        params);
-
+                        params));
+                
                 Log.d(TAG, "New strategy pattern: " + patternId + " confidence=" + confidence);
             }
         }
     }
     
     /**
-     * Check for level patterns
+     * Recompile strategy action sequences; caller holds the history lock
      */
-    private void checkLevelPatterns(GameObservation observation) {
-        Map<String, Object> state = observation.getGameState();
-
-        // Extract obstacle/resource counts if the game state carries them
-        Object obsCount = state.get("obstacleCount");
-        Object resCount = state.get("resourceCount");
-        Object levelId  = state.get("levelId");
-        if (obsCount == null && resCount == null) return;
-
-        int obstacles = obsCount instanceof Number ? ((Number) obsCount).intValue() : 0;
-        int resources = resCount instanceof Number ? ((Number) resCount).intValue() : 0;
-        String lvl    = levelId != null ? levelId.toString() : "unknown";
-
-        // Build a per-level feature fingerprint from accumulated observations
-        synchronized (recentObservations) {
-            // Scan last N observations for the same level
-            int sameLevel = 0;
-            int totalObs  = 0;
-            int totalRes  = 0;
-            for (GameObservation obs : recentObservations) {
-                Object li = obs.getGameState().get("levelId");
-                if (li != null && li.toString().equals(lvl)) {
-                    sameLevel++;
-                    Object oc = obs.getGameState().get("obstacleCount");
-                    Object rc = obs.getGameState().get("resourceCount");
-                    if (oc instanceof Number) totalObs += ((Number) oc).intValue();
-                    if (rc instanceof Number) totalRes += ((Number) rc).intValue();
-                }
+    private void rebuildStrategyAutomaton() {
+        List<int[]> compiled = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        int alphabet = 0;
+        for (GameStrategyPattern pattern : strategyPatterns.values()) {
+            List<PatternStep> steps = pattern.getSteps();
+            if (steps.isEmpty() || steps.size() > MAX_PATTERN_STEPS) {
+                continue;
             }
-            if (sameLevel < 5) return;
-
-            float avgObs = (float) totalObs / sameLevel;
-            float avgRes = (float) totalRes / sameLevel;
-
-            String patternId = "level_" + lvl + "_" + currentGameType;
-            if (!levelPatterns.containsKey(patternId)) {
-                List<PatternStep> steps = new ArrayList<>();
-                Map<String, Object> params = new HashMap<>();
-                params.put("levelId", lvl);
-                params.put("avgObstacles", avgObs);
-                params.put("avgResources", avgRes);
-                params.put("sampleCount", sameLevel);
-                steps.add(new PatternStep("level_scan", params, 0L, new HashMap<>()));
-
-                float density   = avgObs / Math.max(1f, avgObs + avgRes);
-                float confidence = Math.min(0.9f, 0.4f + 0.05f * sameLevel);
-
-                LevelPattern lp = new LevelPattern(
-                        patternId, lvl, steps, 0L, confidence);
-                levelPatterns.put(patternId, lp);
-
-                Map<String, Object> details = new HashMap<>(params);
-                details.put("obstacleDensity", density);
-                notifyPatternRecognized("level", patternId,
-                        "Level " + lvl + ": obstacles=" + String.format("%.1f", avgObs)
-                                + " resources=" + String.format("%.1f", avgRes),
-                        confidence, details);
-
-                Log.d(TAG, "New level pattern: " + patternId);
+            int[] symbols = new int[steps.size()];
+            for (int i = 0; i < symbols.length; i++) {
+                symbols[i] = actionSymbols.intern(steps.get(i).getActionType());
+                alphabet = Math.max(alphabet, symbols[i] + 1);
             }
+            compiled.add(symbols);
+            ids.add(pattern.getPatternId());
         }
+        strategyAutomaton = PatternAutomaton.build(compiled, ids, alphabet);
+        strategyState = 0;
     }
     
     /**
-     * Compare pattern steps for similarity
+     * Check for level patterns using the window totals of the frame's level
      */
-    private boolean patternStepsMatch(List<PatternStep> steps1, List<PatternStep> steps2) {
-        if (steps1.size() != steps2.size()) {
-            return false;
-        }
-        
-        for (int i = 0; i < steps1.size(); i++) {
-            PatternStep step1 = steps1.get(i);
-            PatternStep step2 = steps2.get(i);
+    private void checkLevelPatterns(int slot) {
+        int levelSym = history.level[slot];
+        float obstacles = history.obstacles[slot];
+        float resources = history.resources[slot];
+        if (levelSym < 0 || (obstacles != obstacles && resources != resources)) return;
+        
+        int sameLevel = history.levelCount[levelSym];
+        if (sameLevel < 5) return;
+        
+        String lvl = levelSymbols.name(levelSym);
+        float avgObs = (float) history.levelObstacles[levelSym] / sameLevel;
+        float avgRes = (float) history.levelResources[levelSym] / sameLevel;
+        
+        String patternId = "level_" + lvl + "_" + currentGameType;
+        if (!levelPatterns.containsKey(patternId)) {
+            List<PatternStep> steps = new ArrayList<>();
+            Map<String, Object> params = new HashMap<>();
+            params.put("levelId", lvl);
+            params.put("avgObstacles", avgObs);
+            params.put("avgResources", avgRes);
+            params.put("sampleCount", sameLevel);
+            steps.add(new PatternStep("level_scan", params, 0L, new HashMap<>()));
             
-            // Check action type
-            if (!step1.getActionType().equals(step2.getActionType())) {
-                return false;
-            }
+            float density   = avgObs / Math.max(1f, avgObs + avgRes);
+            float confidence = Math.min(0.9f, 0.4f + 0.05f * sameLevel);
             
-            // Check direction parameter
-            if (step1.getParameters().containsKey("direction") && 
-                    step2.getParameters().containsKey("direction")) {
-                if (!step1.getParameters().get("direction").equals(
-                        step2.getParameters().get("direction"))) {
-                    return false;
-                }
-            }
+            LevelPattern lp = new LevelPattern(
+                    patternId, lvl, steps, 0L, confidence);
+            levelPatterns.put(patternId, lp);
             
-            // Duration can vary somewhat
-            long duration1 = step1.getDurationMs();
-            long duration2 = step2.getDurationMs();
-            if (Math.abs(duration1 - duration2) > Math.max(duration1, duration2) * 0.3) {
-                return false;
-            }
+            Map<String, Object> details = new HashMap<>(params);
+            details.put("obstacleDensity", density);
+            processingExecutor.execute(() -> notifyPatternRecognized("level", patternId,
+                    "Level " + lvl + ": obstacles=" + String.format("%.1f", avgObs)
+                            + " resources=" + String.format("%.1f", avgRes),
+                    confidence, details));
+            
+            Log.d(TAG, "New level pattern: " + patternId);
         }
-        
-        return true;
     }
     
     /**
@@ -1156,104 +1659,109 @@ public class GamePatternRecognizer {
     }
     
     /**
-     * Analyze patterns periodically
+     * Current analysis interval: base interval scaled by battery throttling
      */
-    private void analyzePatterns() {
+    private long currentAnalysisInterval() {
+        SmartBatteryOptimizer optimizer = batteryOptimizer;
+        int multiplier = optimizer != null ? Math.max(1, optimizer.getThrottleMultiplier()) : 1;
+        return analysisIntervalMs * multiplier;
+    }
+    
+    private void scheduleAnalysis(long delayMs) {
+        try {
+            scheduledExecutor.schedule(this::runAnalysisCycle, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            analysisScheduled.set(false);
+        }
+    }
+    
+    /**
+     * One pass of the analysis worker; re-arms itself with the current cadence
+     */
+    private void runAnalysisCycle() {
         if (!running.get()) {
+            analysisScheduled.set(false);
             return;
         }
-        
-        // Get a snapshot of recent observations
-        List<GameObservation> observations;
-        synchronized (recentObservations) {
-            observations = new ArrayList<>(recentObservations);
+        long start = System.nanoTime();
+        try {
+            analyzePatterns();
+        } catch (Exception e) {
+            Log.e(TAG, "Error analyzing patterns: " + e.getMessage());
         }
-        
-        // Need enough observations for analysis
-        if (observations.size() < 10) {
+        lastAnalysisNanos = System.nanoTime() - start;
+        scheduleAnalysis(currentAnalysisInterval());
+    }
+    
+    /**
+     * Analyze patterns periodically, from an immutable snapshot of the
+     * window totals; skipped when nothing was observed since the last pass
+     */
+    private void analyzePatterns() {
+        if (!running.get()) {
             return;
         }
         
+        AnalysisSnapshot snapshot;
+        synchronized (history) {
+            // Need enough observations for analysis
+            if (history.size() < 10 || history.version == lastAnalyzedVersion) {
+                return;
+            }
+            snapshot = history.snapshot(System.currentTimeMillis());
+        }
+        lastAnalyzedVersion = snapshot.version;
+        analysisRuns.incrementAndGet();
+        
         // Extract game context
-        GameContext context = extractGameContext(observations);
+        GameContext context = extractGameContext();
         
         // Analyze enemy patterns
-        analyzeEnemyPatterns(observations, context);
+        analyzeEnemyPatterns(snapshot, context);
         
         // Analyze strategy patterns
-        analyzeStrategyPatterns(observations, context);
+        analyzeStrategyPatterns(snapshot, context);
         
         // Analyze level patterns
-        analyzeLevelPatterns(observations, context);
+        analyzeLevelPatterns(snapshot, context);
     }
     
     /**
-     * Extract game context from observations
+     * Extract game context from the most recent observation
      */
-    private GameContext extractGameContext(List<GameObservation> observations) {
-        // Use most recent observation for state
-        GameObservation latestObs = observations.get(observations.size() - 1);
-        Map<String, Object> gameState = latestObs.getGameState();
-        
-        // Extract game mode if available
-        String gameMode = "unknown";
-        if (gameState.containsKey("gameMode")) {
-            gameMode = gameState.get("gameMode").toString();
-        }
-        
-        // Extract screen type if available
-        String screenType = "unknown";
-        if (gameState.containsKey("screenType")) {
-            screenType = gameState.get("screenType").toString();
-        }
-        
+    private GameContext extractGameContext() {
         return new GameContext(
                 currentGameType,
-                gameMode,
-                screenType,
-                gameState);
+                lastGameMode,
+                lastScreenType,
+                new HashMap<String, Object>());
     }
     
     /**
      * Analyze enemy patterns deeply
      */
-    private void analyzeEnemyPatterns(List<GameObservation> observations, GameContext context) {
-        // Group observations by enemy type and look for recurring behavior sequences
-        Map<String, List<EnemyTrackingData>> byType = new HashMap<>();
-        for (GameObservation obs : observations) {
-            for (Map.Entry<String, List<EnemyTrackingData>> e : obs.getEnemies().entrySet()) {
-                byType.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).addAll(e.getValue());
-            }
-        }
-
-        for (Map.Entry<String, List<EnemyTrackingData>> entry : byType.entrySet()) {
-            String enemyType = entry.getKey();
-            List<EnemyTrackingData> allSightings = entry.getValue();
-            if (allSightings.size() < 6) continue;
+    private void analyzeEnemyPatterns(AnalysisSnapshot snapshot, GameContext context) {
+        // Per enemy type group: sightings, velocity and attack-rate totals over the window
+        int[] sightings = snapshot.groupSightings;
+        int groups = sightings.length;
 
+        for (int g = 0; g < groups; g++) {
+            if (sightings[g] < 6) continue;
+            String enemyType = enemyGroups.name(g);
+            
             // Measure average velocity and dominant direction over all sightings
-            float totalVx = 0f, totalVy = 0f;
-            for (EnemyTrackingData e : allSightings) {
-                totalVx += e.getVelocityX();
-                totalVy += e.getVelocityY();
-            }
-            float avgVx = totalVx / allSightings.size();
-            float avgVy = totalVy / allSightings.size();
+            float avgVx = (float) (snapshot.groupVx[g] / sightings[g]);
+            float avgVy = (float) (snapshot.groupVy[g] / sightings[g]);
             float speed = (float) Math.sqrt(avgVx * avgVx + avgVy * avgVy);
-
+            
             String dominant = Math.abs(avgVx) > Math.abs(avgVy)
                     ? (avgVx > 0 ? "right" : "left")
                     : (avgVy > 0 ? "down"  : "up");
-
-            // Look for an attack-rate marker in sighting attributes
-            float attackRate = 0f;
-            int attackCount = 0;
-            for (EnemyTrackingData e : allSightings) {
-                Object ar = e.getAttributes().get("attackRate");
-                if (ar instanceof Number) { attackRate += ((Number) ar).floatValue(); attackCount++; }
-            }
-            if (attackCount > 0) attackRate /= attackCount;
-
+            
+            // Attack-rate marker from sighting attributes
+            int attackSamples = snapshot.groupAttackSamples[g];
+            float attackRate = attackSamples > 0 ? (float) (snapshot.groupAttack[g] / attackSamples) : 0f;
+            
             // Update or create a deep enemy pattern entry
             String deepId = "deep_enemy_" + enemyType + "_" + context.getGameMode();
             EnemyPattern existing = enemyPatterns.get(deepId);
@@ -1263,10 +1771,10 @@ public class GamePatternRecognizer {
                 pm.put("dominantDirection", dominant);
                 pm.put("avgSpeed", speed);
                 pm.put("avgAttackRate", attackRate);
-                pm.put("sightings", allSightings.size());
+                pm.put("sightings", sightings[g]);
                 steps.add(new PatternStep("move", pm, 0L, new HashMap<>()));
 
-                float confidence = Math.min(0.92f, 0.55f + 0.01f * allSightings.size());
+                float confidence = Math.min(0.92f, 0.55f + 0.01f * sightings[g]);
                 EnemyPattern deepPattern = new EnemyPattern(deepId, enemyType, steps, 0L, confidence);
                 enemyPatterns.put(deepId, deepPattern);
 
@@ -1295,27 +1803,17 @@ public class GamePatternRecognizer {
     /**
      * Analyze strategy patterns deeply
      */
-    private void analyzeStrategyPatterns(List<GameObservation> observations, GameContext context) {
-        // Build action→outcome statistics across all observations
-        Map<String, float[]> actionStats = new HashMap<>(); // [totalOutcome, count]
-        for (GameObservation obs : observations) {
-            Map<String, Object> state = obs.getGameState();
-            Object pa = state.get("playerAction");
-            Object ov = state.get("outcome");
-            if (pa == null || ov == null) continue;
-            String action  = pa.toString();
-            float  outcome = ((Number) ov).floatValue();
-            float[] stats  = actionStats.getOrDefault(action, new float[]{0f, 0f});
-            stats[0] += outcome;
-            stats[1] += 1f;
-            actionStats.put(action, stats);
-        }
+    private void analyzeStrategyPatterns(AnalysisSnapshot snapshot, GameContext context) {
+        // Action→outcome totals over the window: [totalOutcome, count] per action symbol
+        float[] outcomeSums = snapshot.actionOutcomeSum;
+        int[] outcomeCounts = snapshot.actionOutcomeCount;
+        long windowSpan = snapshot.windowSpan;
 
         // For each action with enough data, update its strategy pattern confidence
-        for (Map.Entry<String, float[]> e : actionStats.entrySet()) {
-            String action = e.getKey();
-            float[] stats = e.getValue();
-            if (stats[1] < 4) continue;
+        for (int a = 0; a < outcomeCounts.length; a++) {
+            if (outcomeCounts[a] < 4) continue;
+            String action = actionSymbols.name(a);
+            float[] stats = {outcomeSums[a], outcomeCounts[a]};
             float avgOutcome = stats[0] / stats[1];
 
             // Search existing strategy patterns for this action and update confidence
@@ -1347,10 +1845,12 @@ public class GamePatternRecognizer {
                 float confidence = Math.min(0.93f, 0.5f + avgOutcome * 0.43f);
                 GameStrategyPattern gsp = new GameStrategyPattern(
                         deepId, action, steps,
-                        observations.get(observations.size()-1).getTimestamp()
-                                - observations.get(0).getTimestamp(),
+                        windowSpan,
                         confidence);
-                strategyPatterns.put(deepId, gsp);
+                synchronized (history) {
+                    strategyPatterns.put(deepId, gsp);
+                    rebuildStrategyAutomaton();
+                }
                 notifyPatternRecognized("strategy", deepId,
                         "Deep analysis: action '" + action + "' avg-outcome="
                                 + String.format("%.2f", avgOutcome), confidence, pm);
@@ -1362,27 +1862,16 @@ public class GamePatternRecognizer {
     /**
      * Analyze level patterns deeply
      */
-    private void analyzeLevelPatterns(List<GameObservation> observations, GameContext context) {
-        // Aggregate per-level statistics across all provided observations
-        Map<String, int[]> levelStats = new HashMap<>(); // levelId → [obsCount,totalObs,totalRes]
-        for (GameObservation obs : observations) {
-            Map<String, Object> state = obs.getGameState();
-            Object li = state.get("levelId");
-            if (li == null) continue;
-            String lvl = li.toString();
-            int[] s = levelStats.getOrDefault(lvl, new int[]{0, 0, 0});
-            s[0]++;
-            Object oc = state.get("obstacleCount");
-            Object rc = state.get("resourceCount");
-            if (oc instanceof Number) s[1] += ((Number) oc).intValue();
-            if (rc instanceof Number) s[2] += ((Number) rc).intValue();
-            levelStats.put(lvl, s);
-        }
+    private void analyzeLevelPatterns(AnalysisSnapshot snapshot, GameContext context) {
+        // Per-level window totals: [obsCount, totalObs, totalRes] per level symbol
+        int[] counts = snapshot.levelCount;
+        int[] obstacleTotals = snapshot.levelObstacles;
+        int[] resourceTotals = snapshot.levelResources;
 
-        for (Map.Entry<String, int[]> entry : levelStats.entrySet()) {
-            String lvl = entry.getKey();
-            int[]  s   = entry.getValue();
-            if (s[0] < 5) continue; // not enough data
+        for (int l = 0; l < counts.length; l++) {
+            if (counts[l] < 5) continue; // not enough data
+            String lvl = levelSymbols.name(l);
+            int[]  s   = {counts[l], obstacleTotals[l], resourceTotals[l]};
 
             float avgObs = (float) s[1] / s[0];
             float avgRes = (float) s[2] / s[0];
@@ -1484,7 +1973,13 @@ public class GamePatternRecognizer {
         
         stats.put("running", running.get());
         stats.put("frameCount", frameCounter.get());
-        stats.put("observationCount", recentObservations.size());
+        synchronized (history) {
+            stats.put("observationCount", history.size());
+            stats.put("enemyTrackCount", tracks.size());
+        }
+        stats.put("analysisRuns", analysisRuns.get());
+        stats.put("analysisIntervalMs", currentAnalysisInterval());
+        stats.put("lastAnalysisMs", lastAnalysisNanos / 1_000_000.0);
         stats.put("enemyPatternCount", enemyPatterns.size());
         stats.put("strategyPatternCount", strategyPatterns.size());
         stats.put("levelPatternCount", levelPatterns.size());
@@ -1519,8 +2014,12 @@ public class GamePatternRecognizer {
         }
         
         // Clear data
-        synchronized (recentObservations) {
-            recentObservations.clear();
+        synchronized (history) {
+            history.clear();
+            tracks.clear();
+            enemyAutomata.clear();
+            strategyAutomaton = PatternAutomaton.EMPTY;
+            strategyState = 0;
         }
         enemyPatterns.clear();
         strategyPatterns.clear();
@@ -113,6 +113,11 @@ public class GameStateEncoder {
     private final int                         stackSize;   // frame stacking depth
 
     private float[] lastEncoded;   // previous frame's raw encoded vector (for delta)
+
+    // Specs resolved to StateRecord slots, per schema version
+    private int[]         specSlots   = new int[0];
+    private FeatureSchema slotSchema;
+    private int           slotVersion = -1;
     private final List<float[]> frameStack = new ArrayList<>();
 
     private int baseVectorSize  = 0;
@@ -214,6 +219,58 @@ public class GameStateEncoder {
             }
         }
 
+        return finishEncode(vec);
+    }
+
+    /**
+     * Record-based variant of {@link #encode(Map)}: feature specs are resolved
+     * to schema slots once per schema version and read without boxing.
+     */
+    public synchronized float[] encode(StateRecord state) {
+        if (specs.isEmpty()) return new float[0];
+
+        FeatureSchema schema = state.getSchema();
+        if (schema != slotSchema || schema.getVersion() != slotVersion || specSlots.length != specs.size()) {
+            specSlots = new int[specs.size()];
+            for (int i = 0; i < specSlots.length; i++) specSlots[i] = schema.slotOf(specs.get(i).name);
+            slotSchema  = schema;
+            slotVersion = schema.getVersion();
+        }
+
+        float[] vec = new float[baseVectorSize / (deltaFeatures ? 2 : 1)];
+        int idx = 0;
+
+        for (int i = 0; i < specSlots.length; i++) {
+            FeatureSpec spec = specs.get(i);
+            int   slot = specSlots[i];
+            float raw  = state.get(slot);
+
+            switch (spec.type) {
+                case NUMERIC: {
+                    RunningStats rs = stats.get(spec.name);
+                    float v = raw == raw ? raw : rs.getMean();
+                    rs.update(v);
+                    vec[idx++] = rs.normalize(v);
+                    break;
+                }
+                case BOOLEAN: {
+                    vec[idx++] = raw > 0 ? 1f : 0f;
+                    break;
+                }
+                case CATEGORICAL: {
+                    String cat = slot >= 0 ? schema.token(slot, raw) : null;
+                    for (String c : spec.categories) {
+                        vec[idx++] = c.equals(cat) ? 1f : 0f;
+                    }
+                    break;
+                }
+            }
+        }
+        return finishEncode(vec);
+    }
+
+    /** Appends deltas and applies frame stacking to a freshly encoded frame. */
+    private float[] finishEncode(float[] vec) {
         // Append delta features
         float[] base;
         if (deltaFeatures) {
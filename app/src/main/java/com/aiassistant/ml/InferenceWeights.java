@@ -0,0 +1,133 @@
+package com.aiassistant.ml;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * InferenceWeights — double-buffered, read-only copy of a 3-layer ReLU MLP
+ * (in → hidden → hidden → out) used by {@link PolicyNetwork} and
+ * {@link ValueNetwork} to serve inference while training mutates the master
+ * weights.
+ *
+ * The trainer copies its weights into the back buffer and swaps it to the
+ * front with a volatile write. Readers pin the front buffer with a reader
+ * count and never take a lock; the trainer only reuses a buffer once its
+ * reader count has drained, so a reader never sees a half-written layer.
+ * Activations go into per-thread scratch buffers.
+ */
+final class InferenceWeights {
+
+    // ── buffers ───────────────────────────────────────────────────────────────
+    static final class Buffer {
+        final float[] w1, b1;   // [hidden][in],     [hidden]
+        final float[] w2, b2;   // [hidden][hidden], [hidden]
+        final float[] w3, b3;   // [out][hidden],    [out]
+        final AtomicInteger readers = new AtomicInteger(0);
+        long version;
+
+        Buffer(int in, int hidden, int out) {
+            w1 = new float[hidden * in];     b1 = new float[hidden];
+            w2 = new float[hidden * hidden]; b2 = new float[hidden];
+            w3 = new float[out * hidden];    b3 = new float[out];
+        }
+    }
+
+    /** Per-thread activations; {@code out} holds the result of {@link #forward}. */
+    static final class Scratch {
+        final float[] h1, h2, out;
+
+        Scratch(int hidden, int out) {
+            this.h1  = new float[hidden];
+            this.h2  = new float[hidden];
+            this.out = new float[out];
+        }
+    }
+
+    private final int in, hidden, out;
+    private final Buffer[] buffers = new Buffer[2];
+    private volatile Buffer front;
+    // Written only by the serialised publisher; volatile for stats readers
+    private volatile long version = 0L;
+    private volatile long drainWaits = 0L;
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override protected Scratch initialValue() { return new Scratch(hidden, out); }
+    };
+
+    InferenceWeights(int in, int hidden, int out) {
+        this.in     = in;
+        this.hidden = hidden;
+        this.out    = out;
+        buffers[0]  = new Buffer(in, hidden, out);
+        buffers[1]  = new Buffer(in, hidden, out);
+        front       = buffers[0];
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // Writer side — callers serialise publish() themselves
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /** Copy the master weights into the back buffer and make it current. */
+    void publish(float[][] W1, float[] B1, float[][] W2, float[] B2,
+                 float[][] W3, float[] B3) {
+        Buffer back = front == buffers[0] ? buffers[1] : buffers[0];
+        // Readers that pinned this buffer before the last swap finish within
+        // one forward pass; late pinners see it is no longer front and back off.
+        long waits = 0L;
+        while (back.readers.get() != 0) {
+            waits++;
+            Thread.yield();
+        }
+        if (waits != 0L) drainWaits += waits;
+        copyRows(W1, back.w1, in);     System.arraycopy(B1, 0, back.b1, 0, hidden);
+        copyRows(W2, back.w2, hidden); System.arraycopy(B2, 0, back.b2, 0, hidden);
+        copyRows(W3, back.w3, hidden); System.arraycopy(B3, 0, back.b3, 0, out);
+        back.version = ++version;
+        front = back;
+    }
+
+    long version()    { return version; }
+    long drainWaits() { return drainWaits; }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // Reader side
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /** Pin the current buffer; pair every call with {@link #release}. */
+    Buffer acquire() {
+        for (;;) {
+            Buffer b = front;
+            b.readers.incrementAndGet();
+            if (b == front) return b;
+            b.readers.decrementAndGet();
+        }
+    }
+
+    void release(Buffer b) { b.readers.decrementAndGet(); }
+
+    Scratch scratch() { return scratch.get(); }
+
+    /** Forward pass of {@code x} through {@code b}; the raw output lands in {@code s.out}. */
+    void forward(Buffer b, float[] x, Scratch s) {
+        layer(b.w1, b.b1, x,    Math.min(x.length, in), in, s.h1, hidden, true);
+        layer(b.w2, b.b2, s.h1, hidden, hidden, s.h2, hidden, true);
+        layer(b.w3, b.b3, s.h2, hidden, hidden, s.out, out, false);
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // Helpers
+    // ─────────────────────────────────────────────────────────────────────────
+
+    private static void layer(float[] w, float[] bias, float[] inp, int dim, int stride,
+                              float[] dst, int rows, boolean relu) {
+        for (int i = 0; i < rows; i++) {
+            float sum = bias[i];
+            int base = i * stride;
+            for (int j = 0; j < dim; j++) sum += w[base + j] * inp[j];
+            dst[i] = relu ? Math.max(0f, sum) : sum;
+        }
+    }
+
+    private static void copyRows(float[][] src, float[] dst, int cols) {
+        for (int r = 0; r < src.length; r++) System.arraycopy(src[r], 0, dst, r * cols, cols);
+    }
+}
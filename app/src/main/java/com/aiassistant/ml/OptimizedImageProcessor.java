@@ -15,6 +15,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -61,9 +62,37 @@ public class OptimizedImageProcessor {
     // Thread pool for parallel processing
     private final ExecutorService executorService;
     
+    // Per-thread pixel scratch, reused across calls instead of new int[w*h]
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+    
     // Processing state
     private final AtomicBoolean processing = new AtomicBoolean(false);
     
+    /**
+     * Reusable per-thread buffers. Grown on demand, never shrunk.
+     */
+    private static final class Scratch {
+        int[] pixels = new int[0];
+        int[] aux = new int[0];
+        final int[] histogram = new int[256];
+        final int[] rgbHistogram = new int[768];
+        
+        int[] pixels(int size) {
+            if (pixels.length < size) pixels = new int[size];
+            return pixels;
+        }
+        
+        int[] aux(int size) {
+            if (aux.length < size) aux = new int[size];
+            return aux;
+        }
+    }
+    
     /**
      * Region of interest for targeted processing
      */
@@ -262,14 +291,16 @@ public class OptimizedImageProcessor {
             result = applyBlur(result, blurRadius);
         }
         
-        // Convert to grayscale if needed
-        if (convertToGrayscale) {
-            result = convertToGrayscale(result);
-        }
+        // Intermediate bitmaps created above are ours and can be rewritten in place
+        boolean ownsResult = result != inputImage && result.isMutable();
         
-        // Apply histogram equalization if needed
-        if (enableHistogramEqualization) {
-            result = equalizeHistogram(result);
+        // Convert to grayscale and/or equalize in a single pixel pass
+        if (convertToGrayscale && enableHistogramEqualization) {
+            result = grayscaleAndEqualize(result, ownsResult);
+        } else if (convertToGrayscale) {
+            result = convertToGrayscale(result, ownsResult);
+        } else if (enableHistogramEqualization) {
+            result = equalizeHistogram(result, ownsResult);
         }
         
         // Process regions of interest if enabled
@@ -360,9 +391,10 @@ public class OptimizedImageProcessor {
     }
     
     /**
-     * Convert to grayscale
+     * Convert to grayscale. When {@code inPlace} is set the input bitmap is
+     * rewritten instead of allocating a new one.
      */
-    private Bitmap convertToGrayscale(Bitmap input) {
+    private Bitmap convertToGrayscale(Bitmap input, boolean inPlace) {
         if (input == null) {
             return null;
         }
@@ -370,28 +402,20 @@ public class OptimizedImageProcessor {
         try {
             int width = input.getWidth();
             int height = input.getHeight();
-            
-            // Create output bitmap
-            Bitmap outputBitmap = Bitmap.createBitmap(width, height, input.getConfig());
+            int count = width * height;
             
             // Create and execute grayscale conversion (manually since no intrinsic available)
-            int[] pixels = new int[width * height];
+            int[] pixels = scratch.get().pixels(count);
             input.getPixels(pixels, 0, width, 0, 0, width, height);
             
-            for (int i = 0; i < pixels.length; i++) {
+            for (int i = 0; i < count; i++) {
                 int pixel = pixels[i];
-                int alpha = (pixel >> 24) & 0xff;
-                int red = (pixel >> 16) & 0xff;
-                int green = (pixel >> 8) & 0xff;
-                int blue = pixel & 0xff;
-                
-                // Standard grayscale conversion
-                int gray = (int) (0.299 * red + 0.587 * green + 0.114 * blue);
-                
-                // Set the pixel
-                pixels[i] = (alpha << 24) | (gray << 16) | (gray << 8) | gray;
+                int gray = luma(pixel);
+                pixels[i] = (pixel & 0xff000000) | (gray << 16) | (gray << 8) | gray;
             }
             
+            Bitmap outputBitmap = inPlace ? input
+                    : Bitmap.createBitmap(width, height, input.getConfig());
             outputBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
             
             return outputBitmap;
@@ -402,9 +426,10 @@ public class OptimizedImageProcessor {
     }
     
     /**
-     * Equalize histogram
+     * Equalize histogram. When {@code inPlace} is set the input bitmap is
+     * rewritten instead of allocating a new one.
      */
-    private Bitmap equalizeHistogram(Bitmap input) {
+    private Bitmap equalizeHistogram(Bitmap input, boolean inPlace) {
         if (input == null) {
             return null;
         }
@@ -412,82 +437,108 @@ public class OptimizedImageProcessor {
         try {
             int width = input.getWidth();
             int height = input.getHeight();
-            
-            // Create output bitmap
-            Bitmap outputBitmap = Bitmap.createBitmap(width, height, input.getConfig());
+            int count = width * height;
             
             // Get pixels
-            int[] pixels = new int[width * height];
+            Scratch s = scratch.get();
+            int[] pixels = s.pixels(count);
             input.getPixels(pixels, 0, width, 0, 0, width, height);
             
-            // Calculate histogram
-            int[] histogramR = new int[256];
-            int[] histogramG = new int[256];
-            int[] histogramB = new int[256];
-            
-            for (int pixel : pixels) {
-                int red = (pixel >> 16) & 0xff;
-                int green = (pixel >> 8) & 0xff;
-                int blue = pixel & 0xff;
-                
-                histogramR[red]++;
-                histogramG[green]++;
-                histogramB[blue]++;
+            // Calculate histogram: bins 0-255 = R, 256-511 = G, 512-767 = B
+            int[] histogram = s.rgbHistogram;
+            Arrays.fill(histogram, 0);
+            for (int i = 0; i < count; i++) {
+                int pixel = pixels[i];
+                histogram[(pixel >> 16) & 0xff]++;
+                histogram[256 + ((pixel >> 8) & 0xff)]++;
+                histogram[512 + (pixel & 0xff)]++;
             }
             
-            // Calculate cumulative histogram
-            int[] cumulativeR = new int[256];
-            int[] cumulativeG = new int[256];
-            int[] cumulativeB = new int[256];
-            
-            cumulativeR[0] = histogramR[0];
-            cumulativeG[0] = histogramG[0];
-            cumulativeB[0] = histogramB[0];
+            // Turn each channel histogram into its equalization map in place
+            for (int c = 0; c < 768; c += 256) {
+                buildEqualizationMap(histogram, c, count);
+            }
             
-            for (int i = 1; i < 256; i++) {
-                cumulativeR[i] = cumulativeR[i - 1] + histogramR[i];
-                cumulativeG[i] = cumulativeG[i - 1] + histogramG[i];
-                cumulativeB[i] = cumulativeB[i - 1] + histogramB[i];
+            // Apply equalization
+            for (int i = 0; i < count; i++) {
+                int pixel = pixels[i];
+                int red = histogram[(pixel >> 16) & 0xff];
+                int green = histogram[256 + ((pixel >> 8) & 0xff)];
+                int blue = histogram[512 + (pixel & 0xff)];
+                pixels[i] = (pixel & 0xff000000) | (red << 16) | (green << 8) | blue;
             }
             
-            // Normalize cumulative histogram
-            float totalPixels = width * height;
-            int[] mapR = new int[256];
-            int[] mapG = new int[256];
-            int[] mapB = new int[256];
+            Bitmap outputBitmap = inPlace ? input
+                    : Bitmap.createBitmap(width, height, input.getConfig());
+            outputBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
             
-            for (int i = 0; i < 256; i++) {
-                mapR[i] = Math.round((cumulativeR[i] / totalPixels) * 255);
-                mapG[i] = Math.round((cumulativeG[i] / totalPixels) * 255);
-                mapB[i] = Math.round((cumulativeB[i] / totalPixels) * 255);
+            return outputBitmap;
+        } catch (Exception e) {
+            Log.e(TAG, "Error equalizing histogram: " + e.getMessage());
+            return input;
+        }
+    }
+    
+    /**
+     * Grayscale conversion followed by histogram equalization, fused into a
+     * single read and a single write of the pixel buffer.
+     */
+    private Bitmap grayscaleAndEqualize(Bitmap input, boolean inPlace) {
+        if (input == null) {
+            return null;
+        }
+        
+        try {
+            int width = input.getWidth();
+            int height = input.getHeight();
+            int count = width * height;
+            
+            Scratch s = scratch.get();
+            int[] pixels = s.pixels(count);
+            int[] histogram = s.histogram;
+            Arrays.fill(histogram, 0);
+            input.getPixels(pixels, 0, width, 0, 0, width, height);
+            
+            // Replace each pixel's RGB with its luma, keeping alpha in the high byte
+            for (int i = 0; i < count; i++) {
+                int pixel = pixels[i];
+                int gray = luma(pixel);
+                histogram[gray]++;
+                pixels[i] = (pixel & 0xff000000) | gray;
             }
             
-            // Apply equalization
-            for (int i = 0; i < pixels.length; i++) {
+            buildEqualizationMap(histogram, 0, count);
+            
+            for (int i = 0; i < count; i++) {
                 int pixel = pixels[i];
-                int alpha = (pixel >> 24) & 0xff;
-                int red = (pixel >> 16) & 0xff;
-                int green = (pixel >> 8) & 0xff;
-                int blue = pixel & 0xff;
-                
-                // Map to equalized values
-                red = mapR[red];
-                green = mapG[green];
-                blue = mapB[blue];
-                
-                // Set the pixel
-                pixels[i] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+                int gray = histogram[pixel & 0xff];
+                pixels[i] = (pixel & 0xff000000) | (gray << 16) | (gray << 8) | gray;
             }
             
+            Bitmap outputBitmap = inPlace ? input
+                    : Bitmap.createBitmap(width, height, input.getConfig());
             outputBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
             
             return outputBitmap;
         } catch (Exception e) {
-            Log.e(TAG, "Error equalizing histogram: " + e.getMessage());
+            Log.e(TAG, "Error equalizing grayscale: " + e.getMessage());
             return input;
         }
     }
     
+    /**
+     * Replace the 256 histogram bins starting at {@code offset} with the
+     * equalized output level for each input level.
+     */
+    private static void buildEqualizationMap(int[] histogram, int offset, int totalPixels) {
+        float scale = totalPixels > 0 ? 255f / totalPixels : 0f;
+        int cumulative = 0;
+        for (int i = offset; i < offset + 256; i++) {
+            cumulative += histogram[i];
+            histogram[i] = Math.round(cumulative * scale);
+        }
+    }
+    
     /**
      * Process regions of interest
      */
@@ -521,12 +572,13 @@ public class OptimizedImageProcessor {
                             }
                             
                             if (enableHistogramEqualization) {
-                                region = equalizeHistogram(region);
+                                region = equalizeHistogram(region,
+                                        region != input && region.isMutable());
                             }
                         }
                         
                         // Copy processed region back to output
-                        int[] pixels = new int[roi.getWidth() * roi.getHeight()];
+                        int[] pixels = scratch.get().pixels(roi.getWidth() * roi.getHeight());
                         region.getPixels(pixels, 0, roi.getWidth(), 0, 0, 
                                          roi.getWidth(), roi.getHeight());
                         
@@ -591,30 +643,38 @@ public class OptimizedImageProcessor {
         int cellW = Math.max(1, w / gridCols);
         int cellH = Math.max(1, h / gridRows);
         float[] features = new float[gridCols * gridRows * 3];
-        int idx = 0;
+        long[] sums = new long[gridCols * 4];
+        int[] row = scratch.get().pixels(w);
         for (int gy = 0; gy < gridRows; gy++) {
-            for (int gx = 0; gx < gridCols; gx++) {
-                long sumR = 0, sumG = 0, sumB = 0;
-                int count = 0;
-                int x0 = gx * cellW, y0 = gy * cellH;
-                int x1 = Math.min(x0 + cellW, w);
-                int y1 = Math.min(y0 + cellH, h);
-                for (int y = y0; y < y1; y += 2) {
+            Arrays.fill(sums, 0L);
+            int y0 = gy * cellH;
+            int y1 = Math.min(y0 + cellH, h);
+            // Walk sampled rows once, accumulating every cell in the band
+            for (int y = y0; y < y1; y += 2) {
+                input.getPixels(row, 0, w, 0, y, w, 1);
+                for (int gx = 0; gx < gridCols; gx++) {
+                    int x0 = gx * cellW;
+                    int x1 = Math.min(x0 + cellW, w);
+                    int base = gx * 4;
                     for (int x = x0; x < x1; x += 2) {
-                        int px = input.getPixel(x, y);
-                        sumR += android.graphics.Color.red(px);
-                        sumG += android.graphics.Color.green(px);
-                        sumB += android.graphics.Color.blue(px);
-                        count++;
+                        int px = row[x];
+                        sums[base]     += (px >> 16) & 0xff;
+                        sums[base + 1] += (px >> 8) & 0xff;
+                        sums[base + 2] += px & 0xff;
+                        sums[base + 3]++;
                     }
                 }
+            }
+            int idx = gy * gridCols * 3;
+            for (int gx = 0; gx < gridCols; gx++) {
+                int base = gx * 4;
+                long count = sums[base + 3];
                 if (count > 0) {
-                    features[idx++] = sumR / (255f * count);
-                    features[idx++] = sumG / (255f * count);
-                    features[idx++] = sumB / (255f * count);
-                } else {
-                    idx += 3;
+                    features[idx]     = sums[base]     / (255f * count);
+                    features[idx + 1] = sums[base + 1] / (255f * count);
+                    features[idx + 2] = sums[base + 2] / (255f * count);
                 }
+                idx += 3;
             }
         }
         return features;
@@ -638,15 +698,20 @@ public class OptimizedImageProcessor {
         int cols = w / step;
         int rows = h / step;
         float[] map = new float[cols * rows];
+        Scratch s = scratch.get();
+        int[] curRow  = s.pixels(w);
+        int[] prevRow = s.aux(w);
         int idx = 0;
         for (int y = 0; y < rows; y++) {
+            int py = y * step;
+            current.getPixels(curRow, 0, w, 0, py, w, 1);
+            previous.getPixels(prevRow, 0, w, 0, py, w, 1);
             for (int x = 0; x < cols; x++) {
-                int px = x * step, py = y * step;
-                int c  = current.getPixel(px, py);
-                int p  = previous.getPixel(px, py);
-                int diff = Math.abs(android.graphics.Color.red(c)   - android.graphics.Color.red(p))
-                         + Math.abs(android.graphics.Color.green(c) - android.graphics.Color.green(p))
-                         + Math.abs(android.graphics.Color.blue(c)  - android.graphics.Color.blue(p));
+                int c = curRow[x * step];
+                int p = prevRow[x * step];
+                int diff = Math.abs(((c >> 16) & 0xff) - ((p >> 16) & 0xff))
+                         + Math.abs(((c >> 8) & 0xff)  - ((p >> 8) & 0xff))
+                         + Math.abs((c & 0xff)         - (p & 0xff));
                 map[idx++] = diff / (3f * 255f);
             }
         }
@@ -670,12 +735,13 @@ public class OptimizedImageProcessor {
             Bitmap blurred = applyBlur(input, 2.5f);
             int w = input.getWidth();
             int h = input.getHeight();
-            int[] orig = new int[w * h];
-            int[] blur = new int[w * h];
+            Scratch s = scratch.get();
+            int[] orig = s.pixels(w * h);
+            int[] blur = s.aux(w * h);
             input.getPixels(orig, 0, w, 0, 0, w, h);
             blurred.getPixels(blur, 0, w, 0, 0, w, h);
-            int[] out = new int[w * h];
-            for (int i = 0; i < orig.length; i++) {
+            int count = w * h;
+            for (int i = 0; i < count; i++) {
                 int ao = (orig[i] >> 24) & 0xff;
                 int ro = (orig[i] >> 16) & 0xff;
                 int go = (orig[i] >>  8) & 0xff;
@@ -686,11 +752,12 @@ public class OptimizedImageProcessor {
                 int r = clampChannel((int)(ro + amount * (ro - rb)));
                 int g = clampChannel((int)(go + amount * (go - gb)));
                 int b = clampChannel((int)(bo + amount * (bo - bb)));
-                out[i] = (ao << 24) | (r << 16) | (g << 8) | b;
+                orig[i] = (ao << 24) | (r << 16) | (g << 8) | b;
             }
-            Bitmap result = Bitmap.createBitmap(w, h, input.getConfig());
-            result.setPixels(out, 0, w, 0, 0, w, h);
-            if (!blurred.isRecycled()) blurred.recycle();
+            // The blurred bitmap is ours and no longer needed; write the result into it
+            Bitmap result = blurred != input && blurred.isMutable()
+                    ? blurred : Bitmap.createBitmap(w, h, input.getConfig());
+            result.setPixels(orig, 0, w, 0, 0, w, h);
             return result;
         } catch (Exception e) {
             Log.e(TAG, "Error sharpening: " + e.getMessage());
@@ -702,23 +769,43 @@ public class OptimizedImageProcessor {
      * Compute a 256-bin RGB color histogram.
      * Returns int[768]: bins 0–255 = R, 256–511 = G, 512–767 = B.
      * Sampling step controls speed (step=4 → ~6% of pixels sampled).
+     * The returned array is per-thread scratch, overwritten by the next call
+     * on the same thread; use {@link #extractColorHistogram(Bitmap, int, int[])}
+     * to keep the result.
      */
     public int[] extractColorHistogram(Bitmap input, int step) {
-        if (input == null) return new int[768];
+        return extractColorHistogram(input, step, scratch.get().rgbHistogram);
+    }
+
+    /**
+     * Compute a 256-bin RGB color histogram into {@code hist}, which must
+     * hold at least 768 bins. Returns {@code hist}.
+     */
+    public int[] extractColorHistogram(Bitmap input, int step, int[] hist) {
+        Arrays.fill(hist, 0, 768, 0);
+        if (input == null) return hist;
         step = Math.max(1, step);
-        int[] hist = new int[768];
         int w = input.getWidth(), h = input.getHeight();
+        int[] row = scratch.get().pixels(w);
         for (int y = 0; y < h; y += step) {
+            input.getPixels(row, 0, w, 0, y, w, 1);
             for (int x = 0; x < w; x += step) {
-                int px = input.getPixel(x, y);
-                hist[android.graphics.Color.red(px)]           ++;
-                hist[256 + android.graphics.Color.green(px)]   ++;
-                hist[512 + android.graphics.Color.blue(px)]    ++;
+                int px = row[x];
+                hist[(px >> 16) & 0xff]++;
+                hist[256 + ((px >> 8) & 0xff)]++;
+                hist[512 + (px & 0xff)]++;
             }
         }
         return hist;
     }
 
+    /**
+     * Integer BT.601 luma of an ARGB pixel, in [0, 255].
+     */
+    public static int luma(int pixel) {
+        return (77 * ((pixel >> 16) & 0xff) + 150 * ((pixel >> 8) & 0xff) + 29 * (pixel & 0xff)) >> 8;
+    }
+
     private static int clampChannel(int v) {
         return Math.max(0, Math.min(255, v));
     }
@@ -755,7 +842,7 @@ public class OptimizedImageProcessor {
      * Release resources
      */
     public void release() {
-        // Shutdown executor
+        // Shutdown executors
         executorService.shutdown();
         
         // Clean up cached allocations
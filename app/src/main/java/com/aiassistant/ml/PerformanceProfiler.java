@@ -2,39 +2,48 @@ package com.aiassistant.ml;
 
 import android.util.Log;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * PerformanceProfiler — lightweight on-device profiler for measuring execution
  * time, memory pressure, and throughput of critical AI pipeline stages.
  *
  * Features:
- *   - Named timer sections with begin/end API (nestable).
- *   - Rolling statistics (mean, p50, p95, p99, max) over a configurable window.
+ *   - Named timer sections with begin/end API (nestable, per thread) and
+ *     try-with-resources scoped timers via {@link #time(String)}.
+ *   - Nanosecond-resolution latency histograms with log-linear buckets
+ *     (HDR-style, ~3% relative precision from 1 ns to ~36 min). Each thread
+ *     records into its own histogram without locks or allocation; readers
+ *     merge all thread histograms on demand.
+ *   - Statistics per section: mean, p50, p90, p95, p99, p99.9, max.
  *   - Frame-rate estimation per section (calls/second).
  *   - Slow-call detection: logs a warning when a section exceeds its threshold.
+ *   - Periodic snapshot export: interval histograms delivered to a listener.
  *   - Throughput counter: tracks items processed per second.
  *   - Memory snapshot helper: reads runtime free/total heap.
- *   - Thread-safe, minimal overhead.
  *   - getReport() returns a sorted summary map ready for display or logging.
  *
  * Usage:
- *   PerformanceProfiler profiler = new PerformanceProfiler();
+ *   PerformanceProfiler profiler = PerformanceProfiler.getInstance();
  *   profiler.setSlowCallThreshold("perception", 80);
  *
- *   profiler.begin("perception");
- *   ... // do work
- *   profiler.end("perception");
+ *   try (PerformanceProfiler.Scope ignored = profiler.time("perception")) {
+ *       ... // do work
+ *   }
  *
  *   Map<String, Object> report = profiler.getReport();
  */
@@ -42,61 +51,290 @@ public class PerformanceProfiler {
 
     private static final String TAG = "PerformanceProfiler";
 
-    private static final int DEFAULT_WINDOW = 100; // rolling window size
+    // -------------------------------------------------------------------------
+    // Histogram layout
+    // -------------------------------------------------------------------------
+    // Values below SUB_BUCKET_COUNT ns get one bucket each; above that every
+    // power of two is split into SUB_BUCKET_COUNT linear sub-buckets.
+    private static final int  SUB_BUCKET_BITS  = 5;
+    private static final int  SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int  MAX_VALUE_BITS   = 41;
+    private static final long MAX_TRACKABLE_NS = (1L << MAX_VALUE_BITS) - 1;
+    private static final int  BUCKET_COUNT     =
+            SUB_BUCKET_COUNT + (MAX_VALUE_BITS - 1 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+    private static final int  MAX_NESTING      = 16;
+
+    static int bucketIndex(long ns) {
+        if (ns < SUB_BUCKET_COUNT) return ns < 0 ? 0 : (int) ns;
+        if (ns > MAX_TRACKABLE_NS) ns = MAX_TRACKABLE_NS;
+        int msb   = 63 - Long.numberOfLeadingZeros(ns);
+        int shift = msb - SUB_BUCKET_BITS;
+        int sub   = (int) (ns >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + sub;
+    }
+
+    /** Representative (mid-point) value of a bucket in ns. */
+    static long bucketValue(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int sub   = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long low  = (long) (SUB_BUCKET_COUNT + sub) << shift;
+        return low + ((1L << shift) >> 1);
+    }
+
+    // -------------------------------------------------------------------------
+    // Scoped timer
+    // -------------------------------------------------------------------------
+
+    /**
+     * Handle returned by {@link #time(String)}; closing it records the elapsed
+     * time. One instance per (thread, section) is reused, so timing a section
+     * allocates nothing after its first use on a thread.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final Recorder recorder;
+
+        Scope(Recorder recorder) { this.recorder = recorder; }
+
+        @Override
+        public void close() { recorder.stop(); }
+    }
+
+    // -------------------------------------------------------------------------
+    // Per-thread recorder
+    // -------------------------------------------------------------------------
+
+    /**
+     * Single-writer histogram owned by one thread. Counters are published with
+     * {@code lazySet} so readers on other threads see them without the owner
+     * ever taking a lock or issuing a CAS. The owner is held weakly so that a
+     * pooled thread that exits can be retired by its section.
+     */
+    private static final class Recorder {
+        final SectionStats   section;
+        final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+        final AtomicLong     count   = new AtomicLong();
+        final AtomicLong     sumNs   = new AtomicLong();
+        final AtomicLong     maxNs   = new AtomicLong();
+        final long[]         starts  = new long[MAX_NESTING];
+        final Scope          scope   = new Scope(this);
+        int  depth;
+        volatile int epoch;
+
+        Recorder(SectionStats section, int epoch) {
+            this.section = section;
+            this.epoch   = epoch;
+        }
+
+        void start() {
+            if (depth < MAX_NESTING) starts[depth] = System.nanoTime();
+            depth++;
+        }
+
+        long stop() {
+            if (depth == 0) return 0L;
+            depth--;
+            if (depth >= MAX_NESTING) return 0L;
+            long ns = System.nanoTime() - starts[depth];
+            record(ns);
+            return ns;
+        }
+
+        /** True once the owning thread has terminated; its counters are final. */
+        boolean isRetired() {
+            Thread t = owner.get();
+            return t == null || !t.isAlive();
+        }
+
+        void record(long ns) {
+            int current = section.epoch;
+            if (epoch != current) {
+                for (int i = 0; i < BUCKET_COUNT; i++) counts.lazySet(i, 0L);
+                count.lazySet(0L);
+                sumNs.lazySet(0L);
+                maxNs.lazySet(0L);
+                epoch = current;
+            }
+            int idx = bucketIndex(ns);
+            counts.lazySet(idx, counts.get(idx) + 1);
+            sumNs.lazySet(sumNs.get() + ns);
+            if (ns > maxNs.get()) maxNs.lazySet(ns);
+            count.lazySet(count.get() + 1);
+            section.checkSlow(ns);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // Merged histogram (read side)
+    // -------------------------------------------------------------------------
+
+    /** Immutable merged view of a section's latencies over some interval. */
+    public static final class Snapshot {
+        private final String section;
+        private final long[] counts;
+        private final long   count;
+        private final long   sumNs;
+        private final long   maxNs;
+        private final long   startMs;
+        private final long   endMs;
+
+        Snapshot(String section, long[] counts, long count, long sumNs, long maxNs,
+                 long startMs, long endMs) {
+            this.section = section;
+            this.counts  = counts;
+            this.count   = count;
+            this.sumNs   = sumNs;
+            this.maxNs   = maxNs;
+            this.startMs = startMs;
+            this.endMs   = endMs;
+        }
+
+        public String getSection() { return section; }
+        public long   getCount()   { return count; }
+        public long   getMaxNs()   { return maxNs; }
+        public long   getStartMs() { return startMs; }
+        public long   getEndMs()   { return endMs; }
+        public double getMeanNs()  { return count == 0 ? 0.0 : (double) sumNs / count; }
+
+        /** Value at percentile {@code p} (0-100) in ns, within bucket precision. */
+        public long percentileNs(double p) {
+            if (count == 0) return 0L;
+            long rank = Math.max(1L, (long) Math.ceil(p / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(bucketValue(i), maxNs);
+            }
+            return maxNs;
+        }
+
+        /** Histogram difference {@code this - earlier}, for interval export. */
+        Snapshot since(Snapshot earlier) {
+            if (earlier == null) return this;
+            long[] diff = new long[counts.length];
+            for (int i = 0; i < diff.length; i++) diff[i] = Math.max(0L, counts[i] - earlier.counts[i]);
+            long maxInInterval = 0;
+            for (int i = diff.length - 1; i >= 0; i--) {
+                if (diff[i] > 0) { maxInInterval = Math.min(bucketValue(i), maxNs); break; }
+            }
+            return new Snapshot(section, diff,
+                    Math.max(0L, count - earlier.count),
+                    Math.max(0L, sumNs - earlier.sumNs),
+                    maxInInterval, earlier.endMs, endMs);
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("name",    section);
+            m.put("calls",   count);
+            m.put("meanMs",  (float) (getMeanNs() / 1e6));
+            m.put("p50Ms",   percentileNs(50)   / 1e6f);
+            m.put("p90Ms",   percentileNs(90)   / 1e6f);
+            m.put("p99Ms",   percentileNs(99)   / 1e6f);
+            m.put("p999Ms",  percentileNs(99.9) / 1e6f);
+            m.put("maxMs",   maxNs / 1e6f);
+            m.put("startMs", startMs);
+            m.put("endMs",   endMs);
+            return m;
+        }
+    }
+
+    /** Receives interval snapshots from {@link #startSnapshotExport}. */
+    public interface SnapshotListener {
+        void onSnapshots(List<Snapshot> snapshots);
+    }
 
     // -------------------------------------------------------------------------
     // Per-section state
     // -------------------------------------------------------------------------
     private static class SectionStats {
-        final String           name;
-        final Queue<Long>      timings;     // recent ms values
-        final int              windowSize;
-        final AtomicLong       totalMs      = new AtomicLong(0);
-        final AtomicInteger    callCount    = new AtomicInteger(0);
-        final AtomicLong       maxMs        = new AtomicLong(0);
-        final AtomicInteger    slowCalls    = new AtomicInteger(0);
-        volatile long          slowThreshMs = Long.MAX_VALUE;
-        volatile long          startNs      = 0L;   // for nested begin/end
-
-        SectionStats(String name, int windowSize) {
-            this.name       = name;
-            this.windowSize = windowSize;
-            this.timings    = new LinkedList<>();
+        final String                         name;
+        final CopyOnWriteArrayList<Recorder> recorders = new CopyOnWriteArrayList<>();
+        final AtomicInteger                  slowCalls = new AtomicInteger(0);
+        final ThreadLocal<Recorder>          local     = new ThreadLocal<>();
+        volatile long                        slowThreshNs = Long.MAX_VALUE;
+        volatile int                         epoch;
+        volatile long                        epochStartMs = System.currentTimeMillis();
+        Snapshot                             lastExported;
+
+        // Histograms folded in from recorders whose threads have exited;
+        // guarded by this section's monitor.
+        private final long[]                 retiredCounts = new long[BUCKET_COUNT];
+        private long                         retiredCount, retiredSumNs, retiredMaxNs;
+        private int                          retiredEpoch;
+
+        SectionStats(String name) {
+            this.name = name;
         }
 
-        synchronized void record(long durationMs) {
-            callCount.incrementAndGet();
-            totalMs.addAndGet(durationMs);
-            if (durationMs > maxMs.get()) maxMs.set(durationMs);
-            if (durationMs > slowThreshMs) {
-                slowCalls.incrementAndGet();
-                Log.w(TAG, "Slow call in '" + name + "': " + durationMs
-                        + " ms (threshold=" + slowThreshMs + " ms)");
+        Recorder recorder() {
+            Recorder r = local.get();
+            if (r == null) {
+                r = new Recorder(this, epoch);
+                local.set(r);
+                retireDeadRecorders();
+                recorders.add(r);
+            }
+            return r;
+        }
+
+        /**
+         * Folds the histograms of recorders whose threads have exited into the
+         * retired accumulator and drops them, so short-lived pool threads do
+         * not accumulate recorders.
+         */
+        synchronized void retireDeadRecorders() {
+            int current = epoch;
+            if (retiredEpoch != current) clearRetired(current);
+            for (Recorder r : recorders) {
+                if (!r.isRetired()) continue;
+                recorders.remove(r);
+                if (r.epoch != current) continue;
+                for (int i = 0; i < BUCKET_COUNT; i++) retiredCounts[i] += r.counts.get(i);
+                retiredCount += r.count.get();
+                retiredSumNs += r.sumNs.get();
+                retiredMaxNs  = Math.max(retiredMaxNs, r.maxNs.get());
             }
-            timings.offer(durationMs);
-            if (timings.size() > windowSize) timings.poll();
         }
 
-        synchronized float mean() {
-            if (timings.isEmpty()) return 0f;
-            long sum = 0;
-            for (long v : timings) sum += v;
-            return (float) sum / timings.size();
+        private void clearRetired(int current) {
+            Arrays.fill(retiredCounts, 0L);
+            retiredCount = retiredSumNs = retiredMaxNs = 0L;
+            retiredEpoch = current;
+        }
+
+        void checkSlow(long ns) {
+            if (ns > slowThreshNs) {
+                slowCalls.incrementAndGet();
+                Log.w(TAG, "Slow call in '" + name + "': " + (ns / 1_000_000L)
+                        + " ms (threshold=" + (slowThreshNs / 1_000_000L) + " ms)");
+            }
         }
 
-        synchronized long percentile(double p) {
-            if (timings.isEmpty()) return 0L;
-            List<Long> sorted = new ArrayList<>(timings);
-            Collections.sort(sorted);
-            int idx = (int)(p * sorted.size() / 100.0);
-            return sorted.get(Math.min(idx, sorted.size() - 1));
+        /** Merges every thread's histogram for the current epoch. */
+        synchronized Snapshot snapshot() {
+            retireDeadRecorders();
+            int current = epoch;
+            if (retiredEpoch != current) clearRetired(current);
+            long[] merged = retiredCounts.clone();
+            long count = retiredCount, sum = retiredSumNs, max = retiredMaxNs;
+            for (Recorder r : recorders) {
+                if (r.epoch != current) continue;
+                for (int i = 0; i < BUCKET_COUNT; i++) merged[i] += r.counts.get(i);
+                count += r.count.get();
+                sum   += r.sumNs.get();
+                max    = Math.max(max, r.maxNs.get());
+            }
+            return new Snapshot(name, merged, count, sum, max,
+                    epochStartMs, System.currentTimeMillis());
         }
 
-        float callsPerSecond() {
-            int n = callCount.get();
-            if (n == 0) return 0f;
-            long totalS = totalMs.get();
-            return totalS > 0 ? n / (totalS / 1000f) : 0f;
+        void reset() {
+            epochStartMs = System.currentTimeMillis();
+            epoch++;
+            slowCalls.set(0);
+            lastExported = null;
         }
     }
 
@@ -125,61 +363,86 @@ public class PerformanceProfiler {
         }
     }
 
+    // -------------------------------------------------------------------------
+    // Singleton
+    // -------------------------------------------------------------------------
+    private static volatile PerformanceProfiler instance;
+
+    /** Process-wide profiler shared by the perception, decision and RL stages. */
+    public static PerformanceProfiler getInstance() {
+        if (instance == null) {
+            synchronized (PerformanceProfiler.class) {
+                if (instance == null) instance = new PerformanceProfiler();
+            }
+        }
+        return instance;
+    }
+
     // -------------------------------------------------------------------------
     // Fields
     // -------------------------------------------------------------------------
-    private final int windowSize;
     private final ConcurrentHashMap<String, SectionStats>      sections    = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, ThroughputCounter> throughputs = new ConcurrentHashMap<>();
     private final long startMs = System.currentTimeMillis();
+    private ScheduledExecutorService exportScheduler;
 
     // -------------------------------------------------------------------------
     // Construction
     // -------------------------------------------------------------------------
 
-    public PerformanceProfiler(int windowSize) {
-        this.windowSize = windowSize;
-    }
-
-    public PerformanceProfiler() {
-        this(DEFAULT_WINDOW);
-    }
+    public PerformanceProfiler() {}
 
     // -------------------------------------------------------------------------
     // Timer API
     // -------------------------------------------------------------------------
 
     /**
-     * Mark the beginning of a named section.  Stores the current nanosecond timestamp.
+     * Mark the beginning of a named section on the calling thread. Calls may
+     * nest, and concurrent threads time the same section independently.
      */
     public void begin(String section) {
-        getSection(section).startNs = System.nanoTime();
+        getSection(section).recorder().start();
     }
 
     /**
-     * Mark the end of a named section, record the duration.
+     * Mark the end of the innermost open {@link #begin} of this section on the
+     * calling thread and record the duration.
      * @return Duration in ms.
      */
     public long end(String section) {
-        SectionStats s = getSection(section);
-        long durationNs = System.nanoTime() - s.startNs;
-        long durationMs = durationNs / 1_000_000L;
-        s.record(durationMs);
-        return durationMs;
+        return getSection(section).recorder().stop() / 1_000_000L;
+    }
+
+    /**
+     * Starts a scoped timer; use with try-with-resources:
+     * {@code try (Scope s = profiler.time("decide")) { ... }}.
+     */
+    public Scope time(String section) {
+        Recorder r = getSection(section).recorder();
+        r.start();
+        return r.scope;
     }
 
     /**
      * Record a pre-measured duration for a section.
      */
     public void record(String section, long durationMs) {
-        getSection(section).record(durationMs);
+        recordNanos(section, durationMs * 1_000_000L);
+    }
+
+    /**
+     * Record a pre-measured duration for a section in nanoseconds.
+     */
+    public void recordNanos(String section, long durationNs) {
+        getSection(section).recorder().record(durationNs);
     }
 
     /**
      * Set a slow-call warning threshold (ms) for a section.
      */
     public void setSlowCallThreshold(String section, long threshMs) {
-        getSection(section).slowThreshMs = threshMs;
+        getSection(section).slowThreshNs =
+                threshMs >= Long.MAX_VALUE / 1_000_000L ? Long.MAX_VALUE : threshMs * 1_000_000L;
     }
 
     // -------------------------------------------------------------------------
@@ -200,6 +463,46 @@ public class PerformanceProfiler {
         return getThroughput(counter).getRate();
     }
 
+    // -------------------------------------------------------------------------
+    // Snapshot export
+    // -------------------------------------------------------------------------
+
+    /** Merged histogram of one section since the last reset, or null. */
+    public Snapshot getSnapshot(String section) {
+        SectionStats s = sections.get(section);
+        return s == null ? null : s.snapshot();
+    }
+
+    /**
+     * Every {@code intervalMs}, delivers one snapshot per section covering
+     * only the calls recorded since the previous export.
+     */
+    public synchronized void startSnapshotExport(long intervalMs, SnapshotListener listener) {
+        stopSnapshotExport();
+        exportScheduler = Executors.newSingleThreadScheduledExecutor();
+        exportScheduler.scheduleAtFixedRate(() -> {
+            try {
+                List<Snapshot> out = new ArrayList<>();
+                for (SectionStats s : sections.values()) {
+                    Snapshot now = s.snapshot();
+                    Snapshot prev = s.lastExported;
+                    s.lastExported = now;
+                    out.add(now.since(prev));
+                }
+                listener.onSnapshots(out);
+            } catch (Exception e) {
+                Log.e(TAG, "Error exporting snapshots", e);
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopSnapshotExport() {
+        if (exportScheduler != null) {
+            exportScheduler.shutdown();
+            exportScheduler = null;
+        }
+    }
+
     // -------------------------------------------------------------------------
     // Memory snapshot
     // -------------------------------------------------------------------------
@@ -228,22 +531,11 @@ public class PerformanceProfiler {
         Map<String, Object> report = new LinkedHashMap<>();
         report.put("uptimeMs",   System.currentTimeMillis() - startMs);
         report.put("memory",     getMemorySnapshot());
-        report.put("windowSize", windowSize);
 
         // Section stats
         List<Map<String, Object>> sectionList = new ArrayList<>();
         for (SectionStats s : sections.values()) {
-            Map<String, Object> sd = new LinkedHashMap<>();
-            sd.put("name",       s.name);
-            sd.put("calls",      s.callCount.get());
-            sd.put("meanMs",     s.mean());
-            sd.put("p50Ms",      s.percentile(50));
-            sd.put("p95Ms",      s.percentile(95));
-            sd.put("p99Ms",      s.percentile(99));
-            sd.put("maxMs",      s.maxMs.get());
-            sd.put("slowCalls",  s.slowCalls.get());
-            sd.put("callsPerSec", s.callsPerSecond());
-            sectionList.add(sd);
+            sectionList.add(sectionMap(s, s.snapshot()));
         }
         sectionList.sort((a, b) -> Float.compare(
                 ((Number)b.get("meanMs")).floatValue(),
@@ -262,25 +554,12 @@ public class PerformanceProfiler {
     public Map<String, Object> getSectionStats(String section) {
         SectionStats s = sections.get(section);
         if (s == null) return new HashMap<>();
-        Map<String, Object> m = new LinkedHashMap<>();
-        m.put("calls",       s.callCount.get());
-        m.put("meanMs",      s.mean());
-        m.put("p95Ms",       s.percentile(95));
-        m.put("maxMs",       s.maxMs.get());
-        m.put("slowCalls",   s.slowCalls.get());
-        m.put("callsPerSec", s.callsPerSecond());
-        return m;
+        return sectionMap(s, s.snapshot());
     }
 
     /** Reset all section statistics (keep configuration). */
     public void reset() {
-        for (SectionStats s : sections.values()) {
-            synchronized (s) { s.timings.clear(); }
-            s.totalMs.set(0);
-            s.callCount.set(0);
-            s.maxMs.set(0);
-            s.slowCalls.set(0);
-        }
+        for (SectionStats s : sections.values()) s.reset();
         for (ThroughputCounter tc : throughputs.values()) {
             tc.itemCount.set(0);
             tc.windowStart.set(System.currentTimeMillis());
@@ -292,9 +571,10 @@ public class PerformanceProfiler {
     public void logSummary() {
         StringBuilder sb = new StringBuilder("--- Performance Summary ---\n");
         for (SectionStats s : sections.values()) {
-            sb.append(String.format("  %-25s mean=%5.1f ms  p95=%5d ms  calls=%d  slow=%d\n",
-                    s.name, s.mean(), s.percentile(95),
-                    s.callCount.get(), s.slowCalls.get()));
+            Snapshot snap = s.snapshot();
+            sb.append(String.format("  %-25s mean=%7.3f ms  p99=%7.3f ms  p99.9=%7.3f ms  calls=%d  slow=%d\n",
+                    s.name, snap.getMeanNs() / 1e6, snap.percentileNs(99) / 1e6,
+                    snap.percentileNs(99.9) / 1e6, snap.getCount(), s.slowCalls.get()));
         }
         Log.i(TAG, sb.toString());
     }
@@ -303,8 +583,20 @@ public class PerformanceProfiler {
     // Helpers
     // -------------------------------------------------------------------------
 
+    private Map<String, Object> sectionMap(SectionStats s, Snapshot snap) {
+        Map<String, Object> sd = snap.toMap();
+        sd.remove("startMs");
+        sd.remove("endMs");
+        sd.put("p95Ms",       snap.percentileNs(95) / 1e6f);
+        sd.put("slowCalls",   s.slowCalls.get());
+        double meanNs = snap.getMeanNs();
+        sd.put("callsPerSec", meanNs > 0 ? (float) (1e9 / meanNs) : 0f);
+        return sd;
+    }
+
     private SectionStats getSection(String name) {
-        return sections.computeIfAbsent(name, n -> new SectionStats(n, windowSize));
+        SectionStats s = sections.get(name);
+        return s != null ? s : sections.computeIfAbsent(name, SectionStats::new);
     }
 
     private ThroughputCounter getThroughput(String name) {
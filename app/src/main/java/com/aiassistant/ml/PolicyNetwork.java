@@ -20,6 +20,11 @@ import java.util.concurrent.atomic.AtomicInteger;
  *   - Deterministic (greedy) mode for exploitation
  *   - Stochastic mode: sample action from π(a|s) for on-policy learning
  *   - Entropy coefficient scheduling: anneal from entropyStart→entropyEnd
+ *
+ * Inference does not take the training lock: it reads a published copy of
+ * the weights ({@link InferenceWeights}) that is refreshed after every
+ * {@code publishInterval} updates, so action selection latency does not
+ * depend on a concurrent {@link #batchUpdate}.
  */
 public class PolicyNetwork {
 
@@ -41,6 +46,11 @@ public class PolicyNetwork {
     // ── optimiser ─────────────────────────────────────────────────────────────
     private final NeuralNetworkOptimizer optimiser;
 
+    // ── published inference weights ───────────────────────────────────────────
+    private final InferenceWeights inference;
+    private volatile int publishInterval = 1;   // written under this, read by getStats
+    private volatile int pendingUpdates  = 0;
+
     // ── entropy annealing ─────────────────────────────────────────────────────
     private float entropyCoeff;
     private final float entropyMin;
@@ -74,6 +84,9 @@ public class PolicyNetwork {
         W1 = xavierMat(hiddenDim,  stateDim,  s1);  B1 = new float[hiddenDim];
         W2 = xavierMat(hiddenDim,  hiddenDim, s2);  B2 = new float[hiddenDim];
         W3 = xavierMat(actionDim,  hiddenDim, s3);  B3 = new float[actionDim];
+
+        inference = new InferenceWeights(stateDim, hiddenDim, actionDim);
+        inference.publish(W1, B1, W2, B2, W3, B3);
     }
 
     public PolicyNetwork(int stateDim, int actionDim) {
@@ -85,39 +98,50 @@ public class PolicyNetwork {
     // ─────────────────────────────────────────────────────────────────────────
 
     /** Return the full action probability distribution π(a|s). */
-    public synchronized float[] getProbs(float[] state) {
-        float[] h1 = linear(W1, B1, state,  true);
-        float[] h2 = linear(W2, B2, h1,     true);
-        return softmax(linear(W3, B3, h2, false));
+    public float[] getProbs(float[] state) {
+        return probs(state).clone();
     }
 
     /** Sample an action from π(a|s) — stochastic (on-policy). */
-    public synchronized int sampleAction(float[] state) {
-        return categoricalSample(getProbs(state));
+    public int sampleAction(float[] state) {
+        return categoricalSample(probs(state));
     }
 
     /** Return argmax_a π(a|s) — deterministic (exploitation). */
-    public synchronized int greedyAction(float[] state) {
-        float[] p = getProbs(state);
+    public int greedyAction(float[] state) {
+        float[] p = probs(state);
         int best = 0;
         for (int a = 1; a < actionDim; a++) if (p[a] > p[best]) best = a;
         return best;
     }
 
     /** Compute log π(a|s) for a specific action. */
-    public synchronized float logProb(float[] state, int action) {
-        float[] p = getProbs(state);
+    public float logProb(float[] state, int action) {
+        float[] p = probs(state);
         return (float) Math.log(Math.max(p[action], 1e-8f));
     }
 
     /** Entropy H(π(·|s)) = -Σ_a π(a|s) log π(a|s). */
-    public synchronized float entropy(float[] state) {
-        float[] p = getProbs(state);
+    public float entropy(float[] state) {
+        float[] p = probs(state);
         float H = 0f;
         for (float pi : p) if (pi > 1e-10f) H -= pi * (float) Math.log(pi);
         return H;
     }
 
+    /** π(·|s) from the published weights, in this thread's scratch buffer. */
+    private float[] probs(float[] state) {
+        InferenceWeights.Scratch s = inference.scratch();
+        InferenceWeights.Buffer  b = inference.acquire();
+        try {
+            inference.forward(b, state, s);
+        } finally {
+            inference.release(b);
+        }
+        softmaxInPlace(s.out);
+        return s.out;
+    }
+
     // ─────────────────────────────────────────────────────────────────────────
     // Training — Policy Gradient
     // ─────────────────────────────────────────────────────────────────────────
@@ -131,6 +155,12 @@ public class PolicyNetwork {
      * @return Policy gradient loss (negative because we ascend).
      */
     public synchronized float update(float[] state, int action, float advantage) {
+        float pgLoss = step(state, action, advantage);
+        afterUpdates(1);
+        return pgLoss;
+    }
+
+    private float step(float[] state, int action, float advantage) {
         // ── Forward ──────────────────────────────────────────────────────────
         float[] h1   = linear(W1, B1, state, true);
         float[] h2   = linear(W2, B2, h1,    true);
@@ -211,10 +241,35 @@ public class PolicyNetwork {
     public synchronized float batchUpdate(float[][] states, int[] actions, float[] advantages) {
         int n = Math.min(states.length, Math.min(actions.length, advantages.length));
         float totalLoss = 0f;
-        for (int i = 0; i < n; i++) totalLoss += update(states[i], actions[i], advantages[i]);
+        for (int i = 0; i < n; i++) totalLoss += step(states[i], actions[i], advantages[i]);
+        afterUpdates(n);
         return n > 0 ? totalLoss / n : 0f;
     }
 
+    // ─────────────────────────────────────────────────────────────────────────
+    // Weight publication
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /**
+     * Publish the inference weights every {@code k} updates (default 1). A batch
+     * update publishes at most once, at its end.
+     */
+    public synchronized void setPublishInterval(int k) {
+        publishInterval = Math.max(1, k);
+        if (pendingUpdates >= publishInterval) publishWeights();
+    }
+
+    /** Make the current training weights visible to inference now. */
+    public synchronized void publishWeights() {
+        inference.publish(W1, B1, W2, B2, W3, B3);
+        pendingUpdates = 0;
+    }
+
+    private void afterUpdates(int n) {
+        pendingUpdates += n;
+        if (pendingUpdates >= publishInterval) publishWeights();
+    }
+
     // ─────────────────────────────────────────────────────────────────────────
     // Stats
     // ─────────────────────────────────────────────────────────────────────────
@@ -228,6 +283,10 @@ public class PolicyNetwork {
         s.put("stateDim",     stateDim);
         s.put("hiddenDim",    hiddenDim);
         s.put("actionDim",    actionDim);
+        s.put("publishedVersion",  inference.version());
+        s.put("publishInterval",   publishInterval);
+        s.put("pendingUpdates",    pendingUpdates);
+        s.put("publishDrainWaits", inference.drainWaits());
         return s;
     }
 
@@ -246,6 +305,13 @@ public class PolicyNetwork {
         return out;
     }
 
+    private static void softmaxInPlace(float[] v) {
+        float max = v[0]; for (float x : v) if (x > max) max = x;
+        float sum = 0f;
+        for (int i = 0; i < v.length; i++) { v[i] = (float) Math.exp(v[i] - max); sum += v[i]; }
+        for (int i = 0; i < v.length; i++) v[i] /= sum;
+    }
+
     private static float[] softmax(float[] v) {
         float max = v[0]; for (float x : v) if (x > max) max = x;
         float sum = 0f;
@@ -151,6 +151,12 @@ public class PredictiveActionSystem {
     private final Random                              rng         = new Random();
     private final AtomicBoolean                       running     = new AtomicBoolean(false);
     private final AtomicInteger                       selectCount = new AtomicInteger(0);
+    private final ThreadLocal<StringBuilder>          keyBuilder  = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(64);
+        }
+    };
     private ScheduledExecutorService                  scheduler;
 
     // -----------------------------------------------------------------------
@@ -208,7 +214,20 @@ public class PredictiveActionSystem {
     public int selectAction(@NonNull Map<String, Object> stateVector) {
         selectCount.incrementAndGet();
         if (actions.isEmpty()) return 0;
-        String ctx = contextKey(stateVector);
+        return selectForContext(contextKey(stateVector));
+    }
+
+    /**
+     * Record-based variant of {@link #selectAction(Map)}; builds the same
+     * context key straight from the record's slots.
+     */
+    public int selectAction(@NonNull StateRecord state) {
+        selectCount.incrementAndGet();
+        if (actions.isEmpty()) return 0;
+        return selectForContext(contextKey(state));
+    }
+
+    private int selectForContext(String ctx) {
         int    best = 0;
         double bestSample = Double.NEGATIVE_INFINITY;
 
@@ -232,6 +251,7 @@ public class PredictiveActionSystem {
 
     /** Convenience overload accepting any Object. */
     public int selectAction(Object state) {
+        if (state instanceof StateRecord) return selectAction((StateRecord) state);
         if (state instanceof Map)   return selectAction((Map<String, Object>) state);
         if (state instanceof float[]) return selectAction((float[]) state);
         return 0;
@@ -255,6 +275,14 @@ public class PredictiveActionSystem {
         actions.get(actionIndex).recordUse(reward > 0.5f);
     }
 
+    /** Record-based variant of {@link #recordOutcome(Map, int, float)}. */
+    public void recordOutcome(@NonNull StateRecord state, int actionIndex, float reward) {
+        if (actionIndex < 0 || actionIndex >= actions.size()) return;
+        String key = contextKey(state) + ":" + actions.get(actionIndex).id;
+        betaStates.computeIfAbsent(key, k -> new BetaState()).update(reward);
+        actions.get(actionIndex).recordUse(reward > 0.5f);
+    }
+
     // -----------------------------------------------------------------------
     // Ranked suggestions
     // -----------------------------------------------------------------------
@@ -376,6 +404,30 @@ public class PredictiveActionSystem {
         return sb.length() > 0 ? sb.toString() : "ctx";
     }
 
+    /**
+     * Same key as {@link #contextKey(Map)} built from slots in name order, so
+     * map and record callers share posteriors.
+     */
+    private String contextKey(StateRecord state) {
+        FeatureSchema schema = state.getSchema();
+        StringBuilder sb = keyBuilder.get();
+        sb.setLength(0);
+        boolean any = false;
+        for (int slot : schema.sortedSlots()) {
+            float v = state.get(slot);
+            if (v != v) continue;
+            any = true;
+            FeatureSchema.Type type = schema.type(slot);
+            if (type == FeatureSchema.Type.NUMERIC) {
+                sb.append(schema.name(slot).charAt(0)).append((int) (v * 5.0)).append('|');
+            } else if (type == FeatureSchema.Type.BOOLEAN) {
+                sb.append(schema.name(slot).charAt(0)).append(v > 0 ? 1 : 0).append('|');
+            }
+        }
+        if (!any) return "empty";
+        return sb.length() > 0 ? sb.toString() : "ctx";
+    }
+
     /** Background mining: prune stale Beta states, notify listeners. */
     private void mineAndNotify() {
         // Remove states with very low combined evidence (≤ 2 = never updated)
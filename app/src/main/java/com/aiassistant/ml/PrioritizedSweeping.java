@@ -2,10 +2,9 @@ package com.aiassistant.ml;
 
 import android.util.Log;
 
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -26,36 +25,61 @@ import java.util.concurrent.atomic.AtomicInteger;
  *
  * Uses discrete state hashes (configurable granularity).
  *
+ * Model layout: every distinct state hash is interned to a dense state id, and
+ * a (state, action) pair is packed as {@code sid·actionDim + a}. Q-values,
+ * rewards, visit totals and queue positions are flat primitive arrays indexed
+ * by that pair id. Observed transitions are edges (pair → next state) found
+ * through an open-addressing table keyed by the packed (pair, next) long, and
+ * linked into both an outgoing list per pair and an incoming list per state,
+ * so step 2c walks only the predecessors of s. The queue is an indexed binary
+ * heap: re-pushing a queued pair raises its priority in place instead of
+ * adding a duplicate.
+ *
  * Thread-safe.
  */
 public class PrioritizedSweeping {
 
     private static final String TAG = "PrioritizedSweeping";
 
+    private static final long EMPTY_KEY        = -1L;
+    private static final int  INITIAL_STATES   = 64;
+    private static final int  INITIAL_EDGES    = 256;
+
     // ─────────────────────────────────────────────────────────────────────────
-    // Internal types
+    // Model store
     // ─────────────────────────────────────────────────────────────────────────
 
-    private static class StateAction {
-        final long stateKey;
-        final int  action;
-        StateAction(long s, int a) { stateKey = s; action = a; }
-        @Override public boolean equals(Object o) {
-            if (!(o instanceof StateAction)) return false;
-            StateAction other = (StateAction) o;
-            return stateKey == other.stateKey && action == other.action;
-        }
-        @Override public int hashCode() { return Long.hashCode(stateKey) * 31 + action; }
-    }
-
-    // Model: (s,a) → distribution over next states and expected reward
-    private final HashMap<StateAction, HashMap<Long, Float>> transitionCounts = new HashMap<>();
-    private final HashMap<StateAction, Float>                rewardModel      = new HashMap<>();
-    // Q-table: (s,a) → value
-    private final HashMap<StateAction, Float>                qTable           = new HashMap<>();
-
-    private final PriorityQueue<Map.Entry<StateAction, Float>> pQueue;
-    private final HashMap<StateAction, Float>                  pMap = new HashMap<>();
+    // State index: hash → dense id (open addressing, -1 = empty slot)
+    private long[] stateTableKeys;
+    private int[]  stateTableIds;
+    private int    stateCount = 0;
+    private int    stateCapacity;       // allocated ids
+
+    // Per (s,a) pair, indexed by sid·actionDim + a
+    private float[] qTable;
+    private float[] rewardModel;
+    private float[] visitTotal;         // Σ_s' count(s,a,s')
+    private int[]   firstOutEdge;
+    private int     modelPairs = 0;
+
+    // Per state: head of the incoming-edge list
+    private int[] firstInEdge;
+
+    // Edges: (pair → next state) with visit counts
+    private long[]  edgeTableKeys;      // packed (pair << 32 | next), EMPTY_KEY = free
+    private int[]   edgeTableIds;
+    private int[]   edgePair;
+    private int[]   edgeTarget;
+    private float[] edgeCount;
+    private int[]   nextOutEdge;
+    private int[]   nextInEdge;
+    private int     edgeCountTotal = 0;
+
+    // Indexed max-heap of pairs
+    private int[]   heap;
+    private int     heapSize = 0;
+    private int[]   heapPos;            // -1 when not queued
+    private float[] priority;
 
     // Config
     private final int   actionDim;
@@ -69,6 +93,7 @@ public class PrioritizedSweeping {
     private final AtomicInteger realUpdates    = new AtomicInteger(0);
     private final AtomicInteger planningSteps  = new AtomicInteger(0);
     private float avgTdError = 0f;
+    private long  predecessorVisits = 0;
 
     // ─────────────────────────────────────────────────────────────────────────
     // Construction
@@ -83,8 +108,19 @@ public class PrioritizedSweeping {
         this.nPlan           = nPlan;
         this.hashGranularity = hashGranularity;
 
-        pQueue = new PriorityQueue<>(Comparator.<Map.Entry<StateAction,Float>>
-                comparingByValue().reversed());
+        stateTableKeys = new long[INITIAL_STATES * 2];
+        stateTableIds  = new int[INITIAL_STATES * 2];
+        Arrays.fill(stateTableIds, -1);
+        allocateStates(INITIAL_STATES);
+
+        edgeTableKeys = new long[INITIAL_EDGES * 2];
+        edgeTableIds  = new int[INITIAL_EDGES * 2];
+        Arrays.fill(edgeTableKeys, EMPTY_KEY);
+        edgePair    = new int[INITIAL_EDGES];
+        edgeTarget  = new int[INITIAL_EDGES];
+        edgeCount   = new float[INITIAL_EDGES];
+        nextOutEdge = new int[INITIAL_EDGES];
+        nextInEdge  = new int[INITIAL_EDGES];
 
         Log.i(TAG, "PrioritizedSweeping: actions=" + actionDim + " θ=" + theta
                 + " nPlan=" + nPlan);
@@ -100,18 +136,24 @@ public class PrioritizedSweeping {
 
     public synchronized void observe(float[] state, int action, float reward,
                                      float[] nextState, boolean done) {
-        long sKey  = hash(state);
-        long spKey = done ? -1L : hash(nextState);
-        StateAction sa = new StateAction(sKey, action);
+        int s  = internState(hash(state));
+        int sp = internState(done ? -1L : hash(nextState));
+        int sa = s * actionDim + action;
 
         // Update model
-        transitionCounts.computeIfAbsent(sa, k -> new HashMap<>())
-                .merge(spKey, 1f, Float::sum);
-        rewardModel.merge(sa, reward, (old, r) -> 0.9f * old + 0.1f * r);
+        if (visitTotal[sa] == 0f) {
+            rewardModel[sa] = reward;
+            modelPairs++;
+        } else {
+            rewardModel[sa] = 0.9f * rewardModel[sa] + 0.1f * reward;
+        }
+        visitTotal[sa] += 1f;
+        int edge = internEdge(sa, sp);   // may grow edgeCount
+        edgeCount[edge] += 1f;
 
         // Compute TD error and possibly push to queue
-        float qSA    = qTable.getOrDefault(sa, 0f);
-        float maxQ   = done ? 0f : maxQ(spKey);
+        float qSA    = qTable[sa];
+        float maxQ   = done ? 0f : maxQ(sp);
         float target = reward + gamma * maxQ;
         float tdErr  = Math.abs(target - qSA);
         avgTdError   = 0.99f * avgTdError + 0.01f * tdErr;
@@ -128,14 +170,17 @@ public class PrioritizedSweeping {
     // ─────────────────────────────────────────────────────────────────────────
 
     public synchronized float qValue(float[] state, int action) {
-        return qTable.getOrDefault(new StateAction(hash(state), action), 0f);
+        int s = findState(hash(state));
+        return s < 0 ? 0f : qTable[s * actionDim + action];
     }
 
     public synchronized int greedyAction(float[] state) {
-        long key = hash(state);
+        int s = findState(hash(state));
+        if (s < 0) return 0;
+        int base = s * actionDim;
         int best = 0; float bestQ = Float.NEGATIVE_INFINITY;
         for (int a = 0; a < actionDim; a++) {
-            float q = qTable.getOrDefault(new StateAction(key, a), 0f);
+            float q = qTable[base + a];
             if (q > bestQ) { bestQ = q; best = a; }
         }
         return best;
@@ -146,65 +191,236 @@ public class PrioritizedSweeping {
     // ─────────────────────────────────────────────────────────────────────────
 
     private void sweep() {
-        for (int i = 0; i < nPlan && !pQueue.isEmpty(); i++) {
-            Map.Entry<StateAction, Float> entry = pQueue.poll();
-            StateAction sa = entry.getKey();
-            pMap.remove(sa);
+        for (int i = 0; i < nPlan && heapSize > 0; i++) {
+            int sa = pollMax();
 
             // Model-based Q-update
-            float r       = rewardModel.getOrDefault(sa, 0f);
-            float nextVal = expectedNextValue(sa);
-            float target  = r + gamma * nextVal;
-            float qOld    = qTable.getOrDefault(sa, 0f);
-            float qNew    = qOld + alpha * (target - qOld);
-            qTable.put(sa, qNew);
+            float target = rewardModel[sa] + gamma * expectedNextValue(sa);
+            float qOld   = qTable[sa];
+            qTable[sa]   = qOld + alpha * (target - qOld);
             planningSteps.incrementAndGet();
 
-            // Back-propagate: find predecessors
-            backPropagate(sa.stateKey);
+            // Back-propagate to predecessors of s
+            backPropagate(sa / actionDim);
         }
     }
 
-    private float expectedNextValue(StateAction sa) {
-        HashMap<Long, Float> counts = transitionCounts.get(sa);
-        if (counts == null || counts.isEmpty()) return 0f;
-        float total = 0f; for (float c : counts.values()) total += c;
+    private float expectedNextValue(int sa) {
+        float total = visitTotal[sa];
+        if (total == 0f) return 0f;
         float ev = 0f;
-        for (Map.Entry<Long, Float> e : counts.entrySet()) {
-            float prob = e.getValue() / total;
-            ev += prob * maxQ(e.getKey());
+        for (int e = firstOutEdge[sa]; e >= 0; e = nextOutEdge[e]) {
+            ev += edgeCount[e] / total * maxQ(edgeTarget[e]);
         }
         return ev;
     }
 
-    private float maxQ(long stateKey) {
+    private float maxQ(int s) {
+        int base = s * actionDim;
         float max = 0f;
         for (int a = 0; a < actionDim; a++) {
-            float q = qTable.getOrDefault(new StateAction(stateKey, a), 0f);
+            float q = qTable[base + a];
             if (q > max) max = q;
         }
         return max;
     }
 
-    private void backPropagate(long targetStateKey) {
-        // For each (s,a) whose model leads to targetStateKey, recompute priority
-        for (Map.Entry<StateAction, HashMap<Long, Float>> entry : transitionCounts.entrySet()) {
-            if (!entry.getValue().containsKey(targetStateKey)) continue;
-            StateAction predSA = entry.getKey();
-            float r     = rewardModel.getOrDefault(predSA, 0f);
-            float maxNQ = maxQ(targetStateKey);
-            float qOld  = qTable.getOrDefault(predSA, 0f);
-            float td    = Math.abs(r + gamma * maxNQ - qOld);
+    private void backPropagate(int target) {
+        // Every (s̃,ã) whose model leads to target has an edge in target's in-list
+        float maxNQ = maxQ(target);
+        for (int e = firstInEdge[target]; e >= 0; e = nextInEdge[e]) {
+            int predSA = edgePair[e];
+            float td   = Math.abs(rewardModel[predSA] + gamma * maxNQ - qTable[predSA]);
+            predecessorVisits++;
             if (td > theta) push(predSA, td);
         }
     }
 
-    private void push(StateAction sa, float priority) {
-        Float existing = pMap.get(sa);
-        if (existing != null && existing >= priority) return;
-        pMap.put(sa, priority);
-        pQueue.removeIf(e -> e.getKey().equals(sa));
-        pQueue.add(Map.entry(sa, priority));
+    // ─────────────────────────────────────────────────────────────────────────
+    // Indexed priority queue
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /** Queues {@code sa}, or raises its priority in place if already queued. */
+    private void push(int sa, float p) {
+        int pos = heapPos[sa];
+        if (pos >= 0) {
+            if (priority[sa] >= p) return;
+            priority[sa] = p;
+            siftUp(pos);
+            return;
+        }
+        if (heapSize == heap.length) heap = Arrays.copyOf(heap, heap.length * 2);
+        priority[sa] = p;
+        heap[heapSize] = sa;
+        heapPos[sa] = heapSize;
+        siftUp(heapSize++);
+    }
+
+    private int pollMax() {
+        int top = heap[0];
+        heapPos[top] = -1;
+        int last = heap[--heapSize];
+        if (heapSize > 0) {
+            heap[0] = last;
+            heapPos[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int pos) {
+        int sa = heap[pos];
+        float p = priority[sa];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int up = heap[parent];
+            if (priority[up] >= p) break;
+            heap[pos] = up;
+            heapPos[up] = pos;
+            pos = parent;
+        }
+        heap[pos] = sa;
+        heapPos[sa] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int sa = heap[pos];
+        float p = priority[sa];
+        int half = heapSize >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < heapSize && priority[heap[right]] > priority[heap[child]]) child = right;
+            int down = heap[child];
+            if (p >= priority[down]) break;
+            heap[pos] = down;
+            heapPos[down] = pos;
+            pos = child;
+        }
+        heap[pos] = sa;
+        heapPos[sa] = pos;
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // State and edge tables
+    // ─────────────────────────────────────────────────────────────────────────
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int findState(long key) {
+        int mask = stateTableIds.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            int id = stateTableIds[i];
+            if (id < 0) return -1;
+            if (stateTableKeys[i] == key) return id;
+        }
+    }
+
+    private int internState(long key) {
+        int mask = stateTableIds.length - 1;
+        int i = slot(key, mask);
+        for (; stateTableIds[i] >= 0; i = (i + 1) & mask) {
+            if (stateTableKeys[i] == key) return stateTableIds[i];
+        }
+        int id = stateCount++;
+        if (id == stateCapacity) allocateStates(stateCapacity * 2);
+        stateTableKeys[i] = key;
+        stateTableIds[i]  = id;
+        if (stateCount * 2 > stateTableIds.length) rehashStates();
+        return id;
+    }
+
+    private int internEdge(int sa, int next) {
+        long key = ((long) sa << 32) | (next & 0xFFFFFFFFL);
+        int mask = edgeTableKeys.length - 1;
+        int i = slot(key, mask);
+        for (long k; (k = edgeTableKeys[i]) != EMPTY_KEY; i = (i + 1) & mask) {
+            if (k == key) return edgeTableIds[i];
+        }
+        int e = edgeCountTotal++;
+        if (e == edgePair.length) growEdges(e * 2);
+        edgeTableKeys[i] = key;
+        edgeTableIds[i]  = e;
+        edgePair[e]   = sa;
+        edgeTarget[e] = next;
+        edgeCount[e]  = 0f;
+        nextOutEdge[e] = firstOutEdge[sa];
+        firstOutEdge[sa] = e;
+        nextInEdge[e] = firstInEdge[next];
+        firstInEdge[next] = e;
+        if (edgeCountTotal * 2 > edgeTableKeys.length) rehashEdges();
+        return e;
+    }
+
+    /** Grows every per-state and per-pair array to hold {@code capacity} states. */
+    private void allocateStates(int capacity) {
+        int pairs = capacity * actionDim;
+        int old   = stateCapacity * actionDim;
+        if (qTable == null) {
+            qTable       = new float[pairs];
+            rewardModel  = new float[pairs];
+            visitTotal   = new float[pairs];
+            firstOutEdge = new int[pairs];
+            heapPos      = new int[pairs];
+            priority     = new float[pairs];
+            heap         = new int[Math.max(16, pairs / 4)];
+            firstInEdge  = new int[capacity];
+        } else {
+            qTable       = Arrays.copyOf(qTable, pairs);
+            rewardModel  = Arrays.copyOf(rewardModel, pairs);
+            visitTotal   = Arrays.copyOf(visitTotal, pairs);
+            firstOutEdge = Arrays.copyOf(firstOutEdge, pairs);
+            heapPos      = Arrays.copyOf(heapPos, pairs);
+            priority     = Arrays.copyOf(priority, pairs);
+            firstInEdge  = Arrays.copyOf(firstInEdge, capacity);
+        }
+        Arrays.fill(firstOutEdge, old, pairs, -1);
+        Arrays.fill(heapPos, old, pairs, -1);
+        Arrays.fill(firstInEdge, stateCapacity, capacity, -1);
+        stateCapacity = capacity;
+    }
+
+    private void rehashStates() {
+        long[] oldKeys = stateTableKeys;
+        int[]  oldIds  = stateTableIds;
+        stateTableKeys = new long[oldKeys.length * 2];
+        stateTableIds  = new int[oldIds.length * 2];
+        Arrays.fill(stateTableIds, -1);
+        int mask = stateTableIds.length - 1;
+        for (int j = 0; j < oldIds.length; j++) {
+            if (oldIds[j] < 0) continue;
+            int i = slot(oldKeys[j], mask);
+            while (stateTableIds[i] >= 0) i = (i + 1) & mask;
+            stateTableKeys[i] = oldKeys[j];
+            stateTableIds[i]  = oldIds[j];
+        }
+    }
+
+    private void growEdges(int capacity) {
+        edgePair    = Arrays.copyOf(edgePair, capacity);
+        edgeTarget  = Arrays.copyOf(edgeTarget, capacity);
+        edgeCount   = Arrays.copyOf(edgeCount, capacity);
+        nextOutEdge = Arrays.copyOf(nextOutEdge, capacity);
+        nextInEdge  = Arrays.copyOf(nextInEdge, capacity);
+    }
+
+    private void rehashEdges() {
+        long[] oldKeys = edgeTableKeys;
+        int[]  oldIds  = edgeTableIds;
+        edgeTableKeys = new long[oldKeys.length * 2];
+        edgeTableIds  = new int[oldIds.length * 2];
+        Arrays.fill(edgeTableKeys, EMPTY_KEY);
+        int mask = edgeTableKeys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == EMPTY_KEY) continue;
+            int i = slot(oldKeys[j], mask);
+            while (edgeTableKeys[i] != EMPTY_KEY) i = (i + 1) & mask;
+            edgeTableKeys[i] = oldKeys[j];
+            edgeTableIds[i]  = oldIds[j];
+        }
     }
 
     // ─────────────────────────────────────────────────────────────────────────
@@ -226,11 +442,15 @@ public class PrioritizedSweeping {
 
     public synchronized Map<String, Object> getStats() {
         Map<String, Object> s = new HashMap<>();
+        int steps = planningSteps.get();
         s.put("realUpdates",   realUpdates.get());
-        s.put("planningSteps", planningSteps.get());
-        s.put("qTableSize",    qTable.size());
-        s.put("modelSize",     transitionCounts.size());
-        s.put("queueSize",     pQueue.size());
+        s.put("planningSteps", steps);
+        s.put("states",        stateCount);
+        s.put("qTableSize",    stateCount * actionDim);
+        s.put("modelSize",     modelPairs);
+        s.put("modelEdges",    edgeCountTotal);
+        s.put("queueSize",     heapSize);
+        s.put("avgPredecessors", steps > 0 ? (float) predecessorVisits / steps : 0f);
         s.put("avgTdError",    avgTdError);
         s.put("theta",         theta);
         s.put("nPlan",         nPlan);
@@ -214,6 +214,87 @@ public class QTableManager {
     /** Reset eligibility traces (on episode start). */
     public synchronized void clearTraces() { traces.clear(); }
 
+    // ─────────────────────────────────────────────────────────────────────────
+    // Shadow rows for background planning
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /**
+     * Private working copy of a few Q-rows. A planner fills it with
+     * {@link #fillShadow}, applies Q-learning updates to it with
+     * {@link #updateShadow} without holding the table lock, and publishes the
+     * result with {@link #mergeShadow}. Not thread-safe; owned by one planner.
+     */
+    static final class Shadow {
+        final Map<String, float[]> rows   = new HashMap<>();
+        final Map<String, float[]> base   = new HashMap<>();
+        final Map<String, int[]>   visits = new HashMap<>();
+        final Map<String, int[]>   added  = new HashMap<>();
+        int updates;
+
+        void reset() {
+            rows.clear(); base.clear(); visits.clear(); added.clear();
+            updates = 0;
+        }
+    }
+
+    /** State key as used by the table; pure, needs no lock. */
+    String stateKey(float[] state) { return discretize(state); }
+
+    /** Copies the live rows and visit counts of {@code keys} not yet in the shadow. */
+    synchronized void fillShadow(Shadow sh, List<String> keys) {
+        for (int i = 0; i < keys.size(); i++) {
+            String k = keys.get(i);
+            if (sh.rows.containsKey(k)) continue;
+            float[] row = table.get(k);
+            if (row == null) {
+                row = new float[actionDim];
+                Arrays.fill(row, OPTIMISTIC_Q);
+            }
+            sh.rows.put(k, row.clone());
+            sh.base.put(k, row.clone());
+            int[] v = visitCounts.get(k);
+            sh.visits.put(k, v != null ? v.clone() : new int[actionDim]);
+        }
+    }
+
+    /** Q-learning update on shadow rows; both keys must have been filled. */
+    float updateShadow(Shadow sh, String sk, int action, float reward,
+                       String nsk, boolean done) {
+        float[] qs = sh.rows.get(sk);
+        int[]   v  = sh.visits.get(sk);
+        float maxNext = done ? 0f : max(sh.rows.get(nsk));
+        float delta   = reward + discountFactor * maxNext - qs[action];
+        qs[action] += alphaBase / (1f + v[action] * alphaAdaptBeta) * delta;
+        v[action]++;
+        int[] a = sh.added.get(sk);
+        if (a == null) sh.added.put(sk, a = new int[actionDim]);
+        a[action]++;
+        sh.updates++;
+        return delta;
+    }
+
+    /**
+     * Publishes a shadow in one step: each live row gains the shadow's change
+     * since it was copied, so real updates made meanwhile are kept.
+     *
+     * @return number of rows touched.
+     */
+    synchronized int mergeShadow(Shadow sh) {
+        for (Map.Entry<String, float[]> e : sh.rows.entrySet()) {
+            float[] src  = e.getValue();
+            float[] from = sh.base.get(e.getKey());
+            float[] dst  = getRow(e.getKey());
+            for (int a = 0; a < actionDim; a++) dst[a] += src[a] - from[a];
+        }
+        for (Map.Entry<String, int[]> e : sh.added.entrySet()) {
+            int[] v   = visitCounts.computeIfAbsent(e.getKey(), k -> new int[actionDim]);
+            int[] add = e.getValue();
+            for (int a = 0; a < actionDim; a++) v[a] += add[a];
+        }
+        totalUpdates.addAndGet(sh.updates);
+        return sh.rows.size();
+    }
+
     // ─────────────────────────────────────────────────────────────────────────
     // Stats
     // ─────────────────────────────────────────────────────────────────────────
@@ -17,11 +17,16 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
@@ -29,21 +34,29 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Rule Extraction System — replaces the near-empty original with a real
  * IF-THEN rule learner driven by observation history.
  *
  * Core features:
- *  1. Observation ingestion — {@link #observe(Map, String, float)} stores
- *     (state, action, reward) tuples in a rolling buffer.
- *  2. Rule induction — background thread mines frequent (condition → action)
- *     pairs from the buffer using a simplified APRIORI-style count.
+ *  1. Observation ingestion — {@link #observe(Map, String, float)} appends
+ *     (state, reward) rows to a per-action columnar ring of primitive floats,
+ *     updating windowed counters and per-feature median sketches as it goes.
+ *  2. Rule induction — background thread turns the per-action aggregates
+ *     into (condition → action) rules every few seconds; only actions that
+ *     received new observations are revisited, so each pass costs
+ *     O(features) per changed action rather than a full history re-scan.
  *  3. Rule scoring — each rule tracks support (observation frequency),
  *     confidence (action success rate), and a combined score.
  *  4. JSON persistence — rules survive app restarts; loaded on init.
  *  5. Rule query — {@link #findRelevantRules(Map, Object)} returns all rules
  *     whose conditions match the current state, sorted by score descending.
+ *     Rules are compiled into per-feature indexes (sorted thresholds for
+ *     numeric conditions, value buckets for boolean/string ones) and each
+ *     calling thread keeps an incremental match session, so a query only
+ *     touches rules whose features changed since that thread's last query.
  *  6. Rule pruning — rules below MIN_CONFIDENCE or MAX_AGE_DAYS are removed.
  *  7. Adaptive context keys — only numeric and boolean state values are used
  *     as rule conditions to avoid high-cardinality string pollution.
@@ -54,11 +67,12 @@ public class RuleExtractionSystem {
     // -----------------------------------------------------------------------
     // Constants
     // -----------------------------------------------------------------------
-    private static final int    MAX_OBSERVATIONS  = 2_000;
+    private static final int    MAX_OBSERVATIONS_PER_ACTION = 500;
     private static final int    MAX_RULES         = 500;
     private static final float  MIN_CONFIDENCE    = 0.40f;
     private static final float  MIN_SUPPORT       = 3;       // minimum hits to form a rule
-    private static final int    MINE_INTERVAL_SEC = 60;      // mine every 60 s
+    private static final int    MINE_INTERVAL_SEC = 5;       // mine every 5 s
+    private static final long   SAVE_INTERVAL_MS  = 60_000;  // persist updated rules at most every 60 s
     private static final int    MAX_AGE_DAYS      = 30;
     private static final String RULES_FILE        = "rules.json";
     private static final String PREFS_NAME        = "rule_extraction";
@@ -81,18 +95,209 @@ public class RuleExtractionSystem {
     // Models
     // -----------------------------------------------------------------------
 
-    /** A single observation: state features + chosen action + reward signal. */
-    private static class Observation {
-        final Map<String, Object> state;
-        final String              action;
-        final float               reward;
-        final long                timestamp;
+    /**
+     * P² streaming quantile estimator (Jain &amp; Chlamtac): five markers,
+     * O(1) update, no stored samples.
+     */
+    private static final class QuantileSketch {
+        private final double   p;
+        private final double[] q  = new double[5];  // marker heights
+        private final int[]    n  = new int[5];     // marker positions
+        private final double[] np = new double[5];  // desired positions
+        private final double[] dn;
+        private int count;
+
+        QuantileSketch(double p) {
+            this.p  = p;
+            this.dn = new double[]{0, p / 2, p, (1 + p) / 2, 1};
+        }
+
+        void add(double x) {
+            if (count < 5) {
+                q[count++] = x;
+                if (count == 5) {
+                    Arrays.sort(q);
+                    for (int i = 0; i < 5; i++) n[i] = i;
+                    np[0] = 0; np[1] = 2 * p; np[2] = 4 * p; np[3] = 2 + 2 * p; np[4] = 4;
+                }
+                return;
+            }
+            count++;
+            int k;
+            if (x < q[0])       { q[0] = x; k = 0; }
+            else if (x >= q[4]) { q[4] = x; k = 3; }
+            else { k = 0; while (x >= q[k + 1]) k++; }
+            for (int i = k + 1; i < 5; i++) n[i]++;
+            for (int i = 0; i < 5; i++) np[i] += dn[i];
+            for (int i = 1; i < 4; i++) {
+                double d = np[i] - n[i];
+                if ((d >= 1 && n[i + 1] - n[i] > 1) || (d <= -1 && n[i - 1] - n[i] < -1)) {
+                    int s = d >= 1 ? 1 : -1;
+                    double qp = parabolic(i, s);
+                    q[i] = (q[i - 1] < qp && qp < q[i + 1]) ? qp : linear(i, s);
+                    n[i] += s;
+                }
+            }
+        }
+
+        private double parabolic(int i, int s) {
+            return q[i] + (double) s / (n[i + 1] - n[i - 1])
+                    * ((n[i] - n[i - 1] + s) * (q[i + 1] - q[i]) / (n[i + 1] - n[i])
+                     + (n[i + 1] - n[i] - s) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+        }
+
+        private double linear(int i, int s) {
+            return q[i] + s * (q[i + s] - q[i]) / (n[i + s] - n[i]);
+        }
+
+        int count() { return count; }
+
+        double quantile() {
+            if (count >= 5) return q[2];
+            if (count == 0) return Double.NaN;
+            double[] sorted = Arrays.copyOf(q, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) (p * count))];
+        }
+    }
+
+    /**
+     * One feature column of an {@link ActionColumns} ring. Absent values are
+     * stored as NaN; booleans as 0/1. Numeric medians come from two staggered
+     * sketches: queries read the older one while the younger warms up, and
+     * the younger replaces it every half window, so the estimate always
+     * covers the last ½–1 window of observations.
+     */
+    private static final class FeatureColumn {
+        final String  name;
+        final boolean bool;
+        final float[] values;
+        int present;
+        int trueCount;
+        QuantileSketch active  = new QuantileSketch(0.5);
+        QuantileSketch warming = new QuantileSketch(0.5);
+
+        FeatureColumn(String name, boolean bool, int capacity) {
+            this.name   = name;
+            this.bool   = bool;
+            this.values = new float[capacity];
+            Arrays.fill(values, Float.NaN);
+        }
 
-        Observation(Map<String, Object> state, String action, float reward) {
-            this.state     = new HashMap<>(state);
-            this.action    = action;
-            this.reward    = reward;
-            this.timestamp = System.currentTimeMillis();
+        void addNumeric(float v, int window) {
+            active.add(v);
+            warming.add(v);
+            if (warming.count() >= window / 2) {
+                active  = warming;
+                warming = new QuantileSketch(0.5);
+            }
+        }
+    }
+
+    /**
+     * Rolling columnar observation store for one action: a ring of rows
+     * (reward + one float per feature) with counters kept exact for the
+     * window by subtracting rows as they are evicted.
+     */
+    private static final class ActionColumns {
+        final String               action;
+        final float[]              rewards  = new float[MAX_OBSERVATIONS_PER_ACTION];
+        final Map<String, Integer> featureIndex = new HashMap<>();
+        FeatureColumn[]            columns  = new FeatureColumn[8];
+        FeatureColumn[]            columnBySlot = new FeatureColumn[0];
+        FeatureSchema              slotSchema;
+        int  columnCount;
+        int  head;            // next row to write
+        int  size;
+        int  positiveCount;
+        long appended;
+        long minedAt;
+
+        ActionColumns(String action) { this.action = action; }
+
+        void append(Map<String, Object> state, float reward) {
+            int row = beginRow(reward);
+            for (Map.Entry<String, Object> e : state.entrySet()) {
+                Object v = e.getValue();
+                boolean isBool = v instanceof Boolean;
+                if (!isBool && !(v instanceof Number)) continue;
+                FeatureColumn col = column(e.getKey(), isBool);
+                if (col.bool != isBool) continue;
+                store(col, row, isBool ? ((Boolean) v ? 1f : 0f) : ((Number) v).floatValue());
+            }
+            endRow(row);
+        }
+
+        void append(StateRecord record, float reward) {
+            int row = beginRow(reward);
+            FeatureSchema schema = record.getSchema();
+            if (schema != slotSchema) {
+                slotSchema   = schema;
+                columnBySlot = new FeatureColumn[0];
+            }
+            int n = record.length();
+            if (columnBySlot.length < n) columnBySlot = Arrays.copyOf(columnBySlot, n);
+            for (int slot = 0; slot < n; slot++) {
+                float v = record.get(slot);
+                if (v != v) continue;
+                FeatureSchema.Type type = schema.type(slot);
+                if (type == FeatureSchema.Type.CATEGORICAL) continue;
+                boolean isBool = type == FeatureSchema.Type.BOOLEAN;
+                FeatureColumn col = columnBySlot[slot];
+                if (col == null) {
+                    col = column(schema.name(slot), isBool);
+                    columnBySlot[slot] = col;
+                }
+                if (col.bool != isBool) continue;
+                store(col, row, v);
+            }
+            endRow(row);
+        }
+
+        /** Evicts the oldest row if full and returns the row index to fill. */
+        private int beginRow(float reward) {
+            int row = head;
+            if (size == rewards.length) {
+                if (rewards[row] > 0) positiveCount--;
+                for (int c = 0; c < columnCount; c++) {
+                    FeatureColumn col = columns[c];
+                    float old = col.values[row];
+                    if (old != old) continue;  // NaN: absent
+                    col.present--;
+                    if (col.bool && old > 0) col.trueCount--;
+                }
+            } else {
+                size++;
+            }
+            rewards[row] = reward;
+            if (reward > 0) positiveCount++;
+            for (int c = 0; c < columnCount; c++) columns[c].values[row] = Float.NaN;
+            return row;
+        }
+
+        private void store(FeatureColumn col, int row, float v) {
+            col.present++;
+            col.values[row] = v;
+            if (col.bool) {
+                if (v > 0) col.trueCount++;
+            } else {
+                col.addNumeric(v, rewards.length);
+            }
+        }
+
+        private void endRow(int row) {
+            head = (row + 1) % rewards.length;
+            appended++;
+        }
+
+        private FeatureColumn column(String name, boolean bool) {
+            Integer idx = featureIndex.get(name);
+            if (idx != null) return columns[idx];
+            if (columnCount == columns.length) columns = Arrays.copyOf(columns, columnCount * 2);
+            FeatureColumn col = new FeatureColumn(name, bool, rewards.length);
+            columns[columnCount] = col;
+            featureIndex.put(name, columnCount++);
+            return col;
         }
     }
 
@@ -109,7 +314,6 @@ public class RuleExtractionSystem {
         float   importance;
         int     support;
         long    createdAt;
-        long    lastMatchedAt;
         String  description;
 
         GameRule(RuleType type, GameType gameType, Map<String, Object> conditions,
@@ -117,13 +321,26 @@ public class RuleExtractionSystem {
             this.id           = UUID.randomUUID().toString();
             this.type         = type;
             this.gameType     = gameType;
-            this.conditions   = new HashMap<>(conditions);
+            this.conditions   = Collections.unmodifiableMap(new HashMap<>(conditions));
             this.action       = action;
             this.confidence   = confidence;
             this.importance   = importance;
             this.support      = 1;
             this.createdAt    = System.currentTimeMillis();
-            this.lastMatchedAt = this.createdAt;
+            this.description  = buildDescription();
+        }
+
+        /** Copy of {@code prev} (same id) with new conditions, support and confidence. */
+        GameRule(GameRule prev, Map<String, Object> conditions, int support, float confidence) {
+            this.id           = prev.id;
+            this.type         = prev.type;
+            this.gameType     = prev.gameType;
+            this.conditions   = Collections.unmodifiableMap(new HashMap<>(conditions));
+            this.action       = prev.action;
+            this.confidence   = confidence;
+            this.importance   = prev.importance;
+            this.support      = support;
+            this.createdAt    = prev.createdAt;
             this.description  = buildDescription();
         }
 
@@ -142,7 +359,6 @@ public class RuleExtractionSystem {
                     if (!cond.toString().equals(sv.toString())) return false;
                 }
             }
-            lastMatchedAt = System.currentTimeMillis();
             return true;
         }
 
@@ -173,6 +389,363 @@ public class RuleExtractionSystem {
         public Map<String, Object> getParameters() { return conditions; }
     }
 
+    // -----------------------------------------------------------------------
+    // Compiled rule index
+    // -----------------------------------------------------------------------
+
+    /**
+     * Immutable discrimination index over a snapshot of the rule set.
+     * Every rule owns a stable slot; {@code rankedSlots} lists the slots by
+     * score descending. Numeric conditions (state ≥ threshold) live in
+     * per-feature ascending threshold arrays: the satisfied conditions for a
+     * value are exactly a prefix, found by binary search. Boolean/string
+     * conditions are bucketed by value token.
+     *
+     * An index is derived from its predecessor by re-slotting only the rules
+     * that were added, replaced or removed and rebuilding only the features
+     * those rules condition on; every other feature's arrays are shared.
+     * {@link #touchedFeatures} and {@link #touchedSlots} record that delta so
+     * match sessions can migrate instead of re-evaluating from scratch.
+     */
+    private static final class CompiledRuleIndex {
+        static final CompiledRuleIndex EMPTY = new CompiledRuleIndex();
+
+        final GameRule[]               rules;           // by slot, null = free
+        final Map<String, Integer>     slotOfRule;      // rule id → slot
+        final int[]                    conditionCount;  // by slot, -1 = free
+        final int[]                    rankedSlots;     // slots by score descending
+        final int[]                    rankOfSlot;
+        final AtomicLongArray          matchedAt;       // by slot, last match time (ms)
+        final BitSet                   unconditional = new BitSet();
+        final String[]                 features;        // append-only
+        final Map<String, Integer>     featureIds;
+        final int[][]                  featureSlots;    // per feature, slots conditioning on it
+        final double[][]               thresholds;      // per feature, ascending
+        final int[][]                  thresholdSlots;  // rule slot per threshold
+        final List<Map<String, int[]>> equalitySlots;   // per feature, token → slots
+
+        // Delta against the index this one was derived from
+        volatile CompiledRuleIndex     previous;
+        final int[]                    touchedFeatures;
+        final int[]                    touchedSlots;
+
+        private CompiledRuleIndex() {
+            rules = new GameRule[0];
+            slotOfRule = Collections.emptyMap();
+            conditionCount = rankedSlots = rankOfSlot = new int[0];
+            matchedAt = new AtomicLongArray(0);
+            features = new String[0];
+            featureIds = Collections.emptyMap();
+            featureSlots = thresholdSlots = new int[0][];
+            thresholds = new double[0][];
+            equalitySlots = Collections.emptyList();
+            touchedFeatures = touchedSlots = new int[0];
+        }
+
+        /**
+         * Derives an index from {@code base}: {@code upserts} are added or
+         * replace the rule with the same id, {@code removedIds} are dropped.
+         */
+        CompiledRuleIndex(CompiledRuleIndex base, Collection<GameRule> upserts,
+                          Collection<String> removedIds) {
+            slotOfRule = new HashMap<>(base.slotOfRule);
+            featureIds = new HashMap<>(base.featureIds);
+            List<GameRule> slots    = new ArrayList<>(Arrays.asList(base.rules));
+            List<String>   featList = new ArrayList<>(Arrays.asList(base.features));
+            BitSet touchedS = new BitSet();
+            BitSet touchedF = new BitSet();
+
+            for (String id : removedIds) {
+                Integer slot = slotOfRule.remove(id);
+                if (slot == null) continue;
+                touch(slots.get(slot), featList, touchedF);
+                slots.set(slot, null);
+                touchedS.set(slot);
+            }
+            Set<String> removed = new HashSet<>(removedIds);
+            int free = 0;
+            for (GameRule rule : upserts) {
+                if (removed.contains(rule.id)) continue;   // refreshed, then pruned
+                Integer slot = slotOfRule.get(rule.id);
+                if (slot != null) {
+                    touch(slots.get(slot), featList, touchedF);
+                } else {
+                    while (free < slots.size() && slots.get(free) != null) free++;
+                    slot = free;
+                    if (slot == slots.size()) slots.add(null);
+                    slotOfRule.put(rule.id, slot);
+                }
+                slots.set(slot, rule);
+                touch(rule, featList, touchedF);
+                touchedS.set(slot);
+            }
+
+            int n = slots.size();
+            rules          = slots.toArray(new GameRule[n]);
+            matchedAt      = new AtomicLongArray(n);
+            for (int s = 0; s < n; s++) {
+                if (rules[s] == null) continue;
+                boolean kept = s < base.rules.length && base.rules[s] != null
+                        && base.rules[s].id.equals(rules[s].id);
+                matchedAt.set(s, kept ? base.matchedAt.get(s) : rules[s].createdAt);
+            }
+            conditionCount = new int[n];
+            for (int s = 0; s < n; s++) {
+                conditionCount[s] = rules[s] != null ? rules[s].conditions.size() : -1;
+                if (conditionCount[s] == 0) unconditional.set(s);
+            }
+            Integer[] order = new Integer[slotOfRule.size()];
+            int k = 0;
+            for (int s = 0; s < n; s++) if (rules[s] != null) order[k++] = s;
+            final float[] score = new float[n];
+            for (int s = 0; s < n; s++) if (rules[s] != null) score[s] = rules[s].score();
+            Arrays.sort(order, (a, b) -> Float.compare(score[b], score[a]));
+            rankedSlots = new int[order.length];
+            rankOfSlot  = new int[n];
+            for (int r = 0; r < order.length; r++) {
+                rankedSlots[r] = order[r];
+                rankOfSlot[order[r]] = r;
+            }
+
+            int nf = featList.size();
+            features       = featList.toArray(new String[nf]);
+            featureSlots   = Arrays.copyOf(base.featureSlots,   nf);
+            thresholds     = Arrays.copyOf(base.thresholds,     nf);
+            thresholdSlots = Arrays.copyOf(base.thresholdSlots, nf);
+            equalitySlots  = new ArrayList<>(base.equalitySlots);
+            while (equalitySlots.size() < nf) equalitySlots.add(null);
+            for (int f = touchedF.nextSetBit(0); f >= 0; f = touchedF.nextSetBit(f + 1)) {
+                rebuildFeature(f, f < base.features.length ? base.featureSlots[f] : new int[0],
+                        touchedS);
+            }
+
+            touchedFeatures = toArray(touchedF);
+            touchedSlots    = toArray(touchedS);
+            previous        = base;
+            base.previous   = null;   // keep only one step of history
+        }
+
+        /** Registers {@code rule}'s features and marks them touched. */
+        private void touch(GameRule rule, List<String> featList, BitSet touchedF) {
+            if (rule == null) return;
+            for (String name : rule.conditions.keySet()) {
+                Integer f = featureIds.get(name);
+                if (f == null) {
+                    f = featList.size();
+                    featList.add(name);
+                    featureIds.put(name, f);
+                }
+                touchedF.set(f);
+            }
+        }
+
+        /** Recomputes feature {@code f}'s slot list, thresholds and buckets. */
+        private void rebuildFeature(int f, int[] oldSlots, BitSet touchedS) {
+            String name = features[f];
+            List<Integer> members = new ArrayList<>(oldSlots.length);
+            for (int s : oldSlots) if (!touchedS.get(s)) members.add(s);
+            for (int s = touchedS.nextSetBit(0); s >= 0; s = touchedS.nextSetBit(s + 1)) {
+                if (rules[s] != null && rules[s].conditions.containsKey(name)) members.add(s);
+            }
+
+            List<double[]> numeric = new ArrayList<>();  // {threshold, slot}
+            Map<String, List<Integer>> equality = new HashMap<>();
+            int[] slotArr = new int[members.size()];
+            for (int i = 0; i < slotArr.length; i++) {
+                int slot = members.get(i);
+                slotArr[i] = slot;
+                Object cond = rules[slot].conditions.get(name);
+                if (cond instanceof Number) {
+                    numeric.add(new double[]{((Number) cond).doubleValue(), slot});
+                } else {
+                    equality.computeIfAbsent(cond.toString(), t -> new ArrayList<>()).add(slot);
+                }
+            }
+            Collections.sort(numeric, (a, b) -> Double.compare(a[0], b[0]));
+            double[] th = new double[numeric.size()];
+            int[]    ts = new int[numeric.size()];
+            for (int i = 0; i < th.length; i++) {
+                th[i] = numeric.get(i)[0];
+                ts[i] = (int) numeric.get(i)[1];
+            }
+            Map<String, int[]> buckets = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> be : equality.entrySet()) {
+                int[] bs = new int[be.getValue().size()];
+                for (int i = 0; i < bs.length; i++) bs[i] = be.getValue().get(i);
+                buckets.put(be.getKey(), bs);
+            }
+            featureSlots[f]   = slotArr;
+            thresholds[f]     = th;
+            thresholdSlots[f] = ts;
+            equalitySlots.set(f, buckets);
+        }
+
+        private static int[] toArray(BitSet bits) {
+            int[] out = new int[bits.cardinality()];
+            int i = 0;
+            for (int b = bits.nextSetBit(0); b >= 0; b = bits.nextSetBit(b + 1)) out[i++] = b;
+            return out;
+        }
+
+        /** Number of thresholds ≤ value, i.e. the satisfied prefix length. */
+        static int satisfiedPrefix(double[] sorted, double value) {
+            int lo = 0, hi = sorted.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid] <= value) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * Per-thread incremental match state against one {@link CompiledRuleIndex}.
+     * Remembers, per feature, how many numeric thresholds and which equality
+     * token were satisfied by the previous state, and only adjusts the
+     * satisfied-condition counters of rules whose conditions moved.
+     */
+    private static final class MatchSession {
+        CompiledRuleIndex index;
+        int[]    satisfied;
+        BitSet   matched;
+        int[]    prefix;
+        double[] lastValue;
+        String[] lastToken;
+        int[]    slots;          // feature → StateRecord slot, per bound schema
+        FeatureSchema boundSchema;
+        int      boundVersion;
+
+        void bind(CompiledRuleIndex idx) {
+            index     = idx;
+            satisfied = new int[idx.rules.length];
+            matched   = (BitSet) idx.unconditional.clone();
+            prefix    = new int[idx.features.length];
+            lastValue = new double[idx.features.length];
+            lastToken = new String[idx.features.length];
+            slots     = new int[idx.features.length];
+            boundSchema = null;
+            Arrays.fill(lastValue, Double.NaN);
+        }
+
+        /**
+         * Moves from {@code index} to {@code next}, which was derived from it:
+         * touched features are retracted under the old index (leaving every
+         * touched slot with no satisfied conditions) and re-evaluated against
+         * {@code next} by the update that follows.
+         */
+        void migrate(CompiledRuleIndex next) {
+            int oldFeatures = index.features.length;
+            for (int f : next.touchedFeatures) {
+                if (f < oldFeatures) apply(f, Double.NaN, null);
+            }
+            index = next;
+            if (satisfied.length < next.rules.length) {
+                satisfied = Arrays.copyOf(satisfied, next.rules.length);
+            }
+            for (int slot : next.touchedSlots) matched.set(slot, next.conditionCount[slot] == 0);
+            int nf = next.features.length;
+            if (nf > oldFeatures) {
+                prefix    = Arrays.copyOf(prefix, nf);
+                lastValue = Arrays.copyOf(lastValue, nf);
+                lastToken = Arrays.copyOf(lastToken, nf);
+                slots     = Arrays.copyOf(slots, nf);
+                Arrays.fill(lastValue, oldFeatures, nf, Double.NaN);
+                boundSchema = null;
+            }
+        }
+
+        MatchSession updated(Map<String, Object> state) { update(state); return this; }
+
+        MatchSession updated(StateRecord record)       { update(record); return this; }
+
+        void update(Map<String, Object> state) {
+            CompiledRuleIndex idx = index;
+            for (int f = 0; f < idx.features.length; f++) {
+                Object v = state.get(idx.features[f]);
+                double d = v instanceof Number ? ((Number) v).doubleValue() : Double.NaN;
+                String token = v != null && !idx.equalitySlots.get(f).isEmpty() ? v.toString() : null;
+                apply(f, d, token);
+            }
+        }
+
+        void update(StateRecord record) {
+            CompiledRuleIndex idx = index;
+            FeatureSchema schema = record.getSchema();
+            if (schema != boundSchema || schema.getVersion() != boundVersion) {
+                boundSchema  = schema;
+                boundVersion = schema.getVersion();
+                for (int f = 0; f < idx.features.length; f++) slots[f] = schema.slotOf(idx.features[f]);
+            }
+            for (int f = 0; f < idx.features.length; f++) {
+                int slot = slots[f];
+                float v = record.get(slot);
+                if (slot < 0 || v != v) { apply(f, Double.NaN, null); continue; }
+                double d = schema.type(slot) == FeatureSchema.Type.NUMERIC ? v : Double.NaN;
+                apply(f, d, schema.token(slot, v));
+            }
+        }
+
+        /** Moves feature {@code f} to a new value (NaN = non-numeric/absent) and token. */
+        private void apply(int f, double d, String token) {
+            CompiledRuleIndex idx = index;
+            double[] th = idx.thresholds[f];
+            if (th.length > 0) {
+                int p;
+                if (d != d) {
+                    p = 0;
+                    lastValue[f] = Double.NaN;
+                } else if (d == lastValue[f]) {
+                    p = prefix[f];
+                } else {
+                    p = CompiledRuleIndex.satisfiedPrefix(th, d);
+                    lastValue[f] = d;
+                }
+                int[] ts = idx.thresholdSlots[f];
+                for (int i = prefix[f]; i < p; i++) increment(ts[i]);
+                for (int i = p; i < prefix[f]; i++) decrement(ts[i]);
+                prefix[f] = p;
+            }
+
+            Map<String, int[]> buckets = idx.equalitySlots.get(f);
+            if (!buckets.isEmpty()) {
+                String prev = lastToken[f];
+                if (token == null ? prev != null : !token.equals(prev)) {
+                    int[] out = prev  != null ? buckets.get(prev)  : null;
+                    int[] in  = token != null ? buckets.get(token) : null;
+                    if (out != null) for (int r : out) decrement(r);
+                    if (in  != null) for (int r : in)  increment(r);
+                    lastToken[f] = token;
+                }
+            }
+        }
+
+        private void increment(int slot) {
+            if (++satisfied[slot] == index.conditionCount[slot]) matched.set(slot);
+        }
+
+        private void decrement(int slot) {
+            if (satisfied[slot]-- == index.conditionCount[slot]) matched.clear(slot);
+        }
+    }
+
+    /**
+     * Order-independent identity of a rule: its action, the features it
+     * conditions on and any boolean/string values. Numeric thresholds are
+     * left out so the miner refreshes a rule's thresholds in place instead
+     * of minting a new rule whenever a median drifts.
+     */
+    private static String ruleSignature(String action, Map<String, Object> conditions) {
+        String[] keys = conditions.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        StringBuilder sb = new StringBuilder(action);
+        for (String k : keys) {
+            sb.append('\u0001').append(k);
+            Object v = conditions.get(k);
+            if (!(v instanceof Number)) sb.append('=').append(v);
+        }
+        return sb.toString();
+    }
+
     // -----------------------------------------------------------------------
     // Fields
     // -----------------------------------------------------------------------
@@ -181,7 +754,16 @@ public class RuleExtractionSystem {
     private final AtomicInteger                totalRulesExtracted = new AtomicInteger(0);
     private final AtomicInteger                patternMatches      = new AtomicInteger(0);
     private final Map<String, GameRule>        rules               = new ConcurrentHashMap<>();
-    private final List<Observation>            observations        = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, String>          ruleIdsBySignature  = new ConcurrentHashMap<>();
+    private volatile CompiledRuleIndex         compiledIndex       = CompiledRuleIndex.EMPTY;
+    private final ThreadLocal<MatchSession>    matchSessions       = new ThreadLocal<MatchSession>() {
+        @Override
+        protected MatchSession initialValue() {
+            return new MatchSession();
+        }
+    };
+    private final Map<String, ActionColumns>   observationsByAction = new ConcurrentHashMap<>();
+    private long                               lastSaveMs;
     private ScheduledExecutorService           scheduler;
     private String                             gameType            = "unknown";
     private GameType                           currentGameType     = GameType.OTHER;
@@ -227,10 +809,30 @@ public class RuleExtractionSystem {
     public void observe(@NonNull Map<String, Object> state,
                         @NonNull String action,
                         float reward) {
-        synchronized (observations) {
-            if (observations.size() >= MAX_OBSERVATIONS) observations.remove(0);
-            observations.add(new Observation(state, action, reward));
+        ActionColumns cols = columnsFor(action);
+        synchronized (cols) {
+            cols.append(state, reward);
+        }
+    }
+
+    /** Record-based variant of {@link #observe(Map, String, float)}; reads slots directly. */
+    public void observe(@NonNull StateRecord state,
+                        @NonNull String action,
+                        float reward) {
+        ActionColumns cols = columnsFor(action);
+        synchronized (cols) {
+            cols.append(state, reward);
+        }
+    }
+
+    private ActionColumns columnsFor(String action) {
+        ActionColumns cols = observationsByAction.get(action);
+        if (cols == null) {
+            cols = new ActionColumns(action);
+            ActionColumns prev = observationsByAction.putIfAbsent(action, cols);
+            if (prev != null) cols = prev;
         }
+        return cols;
     }
 
     // -----------------------------------------------------------------------
@@ -244,22 +846,100 @@ public class RuleExtractionSystem {
      */
     public List<GameRule> findRelevantRules(@NonNull Map<String, Object> state,
                                             @Nullable Object filter) {
-        List<GameRule> matched = new ArrayList<>();
-        for (GameRule rule : rules.values()) {
-            if (rule.matches(state)) {
-                matched.add(rule);
-                patternMatches.incrementAndGet();
-            }
-        }
-        Collections.sort(matched, (a, b) -> Float.compare(b.score(), a.score()));
-        return matched;
+        return collectMatches(session().updated(state));
+    }
+
+    /** Record-based variant of {@link #findRelevantRules(Map, Object)}. */
+    public List<GameRule> findRelevantRules(@NonNull StateRecord state) {
+        return collectMatches(session().updated(state));
     }
 
     /** Returns the single best rule for the state, or null if none match. */
     @Nullable
     public GameRule getBestRule(Map<String, Object> state) {
-        List<GameRule> matched = findRelevantRules(state, null);
-        return matched.isEmpty() ? null : matched.get(0);
+        return bestMatch(session().updated(state));
+    }
+
+    /** Record-based variant of {@link #getBestRule(Map)}. */
+    @Nullable
+    public GameRule getBestRule(StateRecord state) {
+        return bestMatch(session().updated(state));
+    }
+
+    private List<GameRule> collectMatches(MatchSession session) {
+        CompiledRuleIndex idx = session.index;
+        int[] ranks = new int[session.matched.cardinality()];
+        int   n     = 0;
+        for (int s = session.matched.nextSetBit(0); s >= 0; s = session.matched.nextSetBit(s + 1)) {
+            ranks[n++] = idx.rankOfSlot[s];
+        }
+        Arrays.sort(ranks);
+        List<GameRule> matched = new ArrayList<>(n);
+        long now = System.currentTimeMillis();
+        for (int r : ranks) {
+            int slot = idx.rankedSlots[r];
+            idx.matchedAt.lazySet(slot, now);
+            matched.add(idx.rules[slot]);
+        }
+        patternMatches.addAndGet(matched.size());
+        return matched;
+    }
+
+    @Nullable
+    private GameRule bestMatch(MatchSession session) {
+        CompiledRuleIndex idx = session.index;
+        int best = -1;
+        for (int s = session.matched.nextSetBit(0); s >= 0; s = session.matched.nextSetBit(s + 1)) {
+            if (best < 0 || idx.rankOfSlot[s] < idx.rankOfSlot[best]) best = s;
+        }
+        if (best < 0) return null;
+        idx.matchedAt.lazySet(best, System.currentTimeMillis());
+        patternMatches.incrementAndGet();
+        return idx.rules[best];
+    }
+
+    /**
+     * Last time (ms) the rule was returned by a match, or its creation time if
+     * never; 0 if the rule is not indexed. Match times live in the index, not
+     * on the shared rule objects.
+     */
+    public long getLastMatchedAt(String ruleId) {
+        CompiledRuleIndex idx = compiledIndex;
+        Integer slot = idx.slotOfRule.get(ruleId);
+        return slot != null ? idx.matchedAt.get(slot) : 0L;
+    }
+
+    /** The calling thread's match session, bound to the current index. */
+    private MatchSession session() {
+        MatchSession session = matchSessions.get();
+        CompiledRuleIndex idx = compiledIndex;
+        if (session.index != idx) {
+            if (session.index != null && idx.previous == session.index) session.migrate(idx);
+            else session.bind(idx);
+        }
+        return session;
+    }
+
+    /**
+     * Recompiles the match index and signature table from the whole rule
+     * set (used after loading); sessions rebind on their next query.
+     */
+    private void rebuildIndex() {
+        ruleIdsBySignature.clear();
+        for (GameRule r : rules.values()) {
+            ruleIdsBySignature.put(ruleSignature(r.action, r.conditions), r.id);
+        }
+        compiledIndex = new CompiledRuleIndex(CompiledRuleIndex.EMPTY, rules.values(),
+                Collections.<String>emptyList());
+    }
+
+    /**
+     * Publishes an index derived from the current one with only
+     * {@code upserts} and {@code removedIds} re-indexed; sessions migrate on
+     * their next query. Only the mining thread mutates the rule set.
+     */
+    private void updateIndex(Collection<GameRule> upserts, Collection<String> removedIds) {
+        compiledIndex = new CompiledRuleIndex(compiledIndex, upserts, removedIds);
     }
 
     // -----------------------------------------------------------------------
@@ -267,104 +947,99 @@ public class RuleExtractionSystem {
     // -----------------------------------------------------------------------
 
     /**
-     * Simple rule miner: groups observations by action, then for each action
-     * finds feature thresholds that predict positive reward.
+     * Incremental rule miner: for each action with new observations since
+     * the last pass, derives a rule from its windowed aggregates — positive
+     * reward rate as confidence, streaming median as the threshold of each
+     * numeric feature, and booleans that are true in more than 60% of rows.
+     * A rule is identified by its action, feature set and boolean values, so
+     * an existing rule has its thresholds refreshed in place.
      */
     private void mineRules() {
-        List<Observation> snap;
-        synchronized (observations) { snap = new ArrayList<>(observations); }
-        if (snap.size() < MIN_SUPPORT * 2) return;
-
-        // Group by action
-        Map<String, List<Observation>> byAction = new HashMap<>();
-        for (Observation o : snap) {
-            byAction.computeIfAbsent(o.action, k -> new ArrayList<>()).add(o);
-        }
-
-        for (Map.Entry<String, List<Observation>> entry : byAction.entrySet()) {
-            String         action = entry.getKey();
-            List<Observation> obs = entry.getValue();
-            if (obs.size() < MIN_SUPPORT) continue;
-
-            // Collect numeric/boolean features
-            Map<String, List<Double>> numeric  = new HashMap<>();
-            Map<String, Integer>      boolTrue = new HashMap<>();
-            Map<String, Integer>      boolCnt  = new HashMap<>();
-            int positiveCount = 0;
-
-            for (Observation o : obs) {
-                if (o.reward > 0) positiveCount++;
-                for (Map.Entry<String, Object> fe : o.state.entrySet()) {
-                    Object v = fe.getValue();
-                    if (v instanceof Number) {
-                        numeric.computeIfAbsent(fe.getKey(), k -> new ArrayList<>())
-                               .add(((Number) v).doubleValue());
-                    } else if (v instanceof Boolean) {
-                        boolCnt.merge(fe.getKey(),  1, Integer::sum);
-                        if ((Boolean) v) boolTrue.merge(fe.getKey(), 1, Integer::sum);
-                    }
-                }
-            }
-
-            float baseConf = (float) positiveCount / obs.size();
-            if (baseConf < MIN_CONFIDENCE) continue;
-
-            // Build conditions: use median value of positive-reward obs as threshold
+        List<GameRule> upserts = new ArrayList<>();
+        boolean changed = false;
+        boolean added   = false;
+        for (ActionColumns cols : observationsByAction.values()) {
+            String action = cols.action;
             Map<String, Object> conditions = new HashMap<>();
-            for (Map.Entry<String, List<Double>> ne : numeric.entrySet()) {
-                List<Double> vals = ne.getValue();
-                Collections.sort(vals);
-                double median = vals.get(vals.size() / 2);
-                conditions.put(ne.getKey(), median);
-            }
-            for (Map.Entry<String, Integer> be : boolCnt.entrySet()) {
-                int trueN = boolTrue.getOrDefault(be.getKey(), 0);
-                if ((float) trueN / be.getValue() > 0.6f) {
-                    conditions.put(be.getKey(), true);
+            int   total;
+            long  fresh;
+            float baseConf;
+            synchronized (cols) {
+                fresh = cols.appended - cols.minedAt;
+                if (fresh == 0) continue;
+                cols.minedAt = cols.appended;
+                total = cols.size;
+                if (total < MIN_SUPPORT) continue;
+                baseConf = (float) cols.positiveCount / total;
+                if (baseConf < MIN_CONFIDENCE) continue;
+
+                for (int c = 0; c < cols.columnCount; c++) {
+                    FeatureColumn col = cols.columns[c];
+                    if (col.present == 0) continue;
+                    if (col.bool) {
+                        if ((float) col.trueCount / col.present > 0.6f) conditions.put(col.name, true);
+                    } else {
+                        double median = col.active.quantile();
+                        if (!Double.isNaN(median)) conditions.put(col.name, median);
+                    }
                 }
             }
             if (conditions.isEmpty()) continue;
 
-            // Check if a matching rule already exists; update it, else create
-            boolean found = false;
-            for (GameRule r : rules.values()) {
-                if (r.action.equals(action) && r.conditions.equals(conditions)) {
-                    r.support++;
-                    r.confidence = Math.max(r.confidence, baseConf);
-                    found = true;
-                    break;
-                }
-            }
-            if (!found && rules.size() < MAX_RULES) {
+            String   signature  = ruleSignature(action, conditions);
+            String   existingId = ruleIdsBySignature.get(signature);
+            GameRule existing   = existingId != null ? rules.get(existingId) : null;
+            if (existing != null) {
+                // Published rules are read by matcher threads; swap in a copy
+                GameRule refreshed = new GameRule(existing, conditions,
+                        existing.support + (int) fresh,
+                        Math.max(existing.confidence, baseConf));
+                rules.put(refreshed.id, refreshed);
+                upserts.add(refreshed);
+                changed = true;
+            } else if (rules.size() < MAX_RULES) {
                 GameRule rule = new GameRule(
                         GameRule.RuleType.CAUSAL,
                         currentGameType,
                         conditions, action,
                         baseConf,
-                        Math.min(1f, obs.size() / 20f));
-                rule.support = obs.size();
+                        Math.min(1f, total / 20f));
+                rule.support = total;
                 rules.put(rule.id, rule);
+                ruleIdsBySignature.put(signature, rule.id);
+                upserts.add(rule);
                 totalRulesExtracted.incrementAndGet();
                 Log.d(TAG, "New rule: " + rule.description);
+                changed = added = true;
             }
         }
 
-        pruneRules();
-        saveRules();
+        List<String> removed = pruneRules();
+        if (!removed.isEmpty()) changed = added = true;
+        if (!changed) return;
+        updateIndex(upserts, removed);
+        long now = System.currentTimeMillis();
+        if (added || now - lastSaveMs >= SAVE_INTERVAL_MS) {
+            saveRules();
+            lastSaveMs = now;
+        }
     }
 
-    /** Remove expired or low-quality rules. */
-    private void pruneRules() {
+    /** Remove expired or low-quality rules; returns the removed ids. */
+    private List<String> pruneRules() {
         long now     = System.currentTimeMillis();
         long maxAge  = MAX_AGE_DAYS * 86_400_000L;
         List<String> toRemove = new ArrayList<>();
         for (Map.Entry<String, GameRule> e : rules.entrySet()) {
             GameRule r = e.getValue();
-            if (r.confidence < MIN_CONFIDENCE) toRemove.add(e.getKey());
-            if (now - r.createdAt > maxAge)    toRemove.add(e.getKey());
+            if (r.confidence < MIN_CONFIDENCE || now - r.createdAt > maxAge) toRemove.add(e.getKey());
+        }
+        for (String k : toRemove) {
+            GameRule r = rules.remove(k);
+            if (r != null) ruleIdsBySignature.remove(ruleSignature(r.action, r.conditions), k);
         }
-        for (String k : toRemove) rules.remove(k);
         if (!toRemove.isEmpty()) Log.d(TAG, "Pruned " + toRemove.size() + " rules");
+        return toRemove;
     }
 
     // -----------------------------------------------------------------------
@@ -437,6 +1112,7 @@ public class RuleExtractionSystem {
                 rule.createdAt = obj.optLong("createdAt", System.currentTimeMillis());
                 rules.put(rule.id, rule);
             }
+            rebuildIndex();
             Log.d(TAG, "Loaded " + rules.size() + " rules from disk");
         } catch (Exception e) {
             Log.e(TAG, "Error loading rules", e);
@@ -458,7 +1134,11 @@ public class RuleExtractionSystem {
         stats.put("rulesExtracted",      totalRulesExtracted.get());
         stats.put("activeRules",         rules.size());
         stats.put("patternMatches",      patternMatches.get());
-        stats.put("observations",        observations.size());
+        int observed = 0;
+        for (ActionColumns cols : observationsByAction.values()) {
+            synchronized (cols) { observed += cols.size; }
+        }
+        stats.put("observations",        observed);
         stats.put("isRunning",           running.get());
         stats.put("gameType",            gameType);
         return stats;
@@ -0,0 +1,146 @@
+package com.aiassistant.ml;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StateRecord — reusable flat game-state snapshot laid out by a
+ * {@link FeatureSchema}. One float per slot; NaN marks an absent feature.
+ *
+ * Producers fill a record once per frame with {@link #set(int, float)} (or
+ * {@link #readFrom(Map)} when they still hold a map) and hand it to
+ * DecisionEngine, FeatureExtractor, GameStateEncoder, AnomalyDetector,
+ * RuleExtractionSystem and PredictiveActionSystem, which read slots directly.
+ * A record is not thread-safe; give each producer thread its own.
+ */
+public final class StateRecord {
+
+    private final FeatureSchema schema;
+    private float[]             values;
+
+    public StateRecord(FeatureSchema schema) {
+        this.schema = schema;
+        this.values = new float[Math.max(8, schema.size())];
+        Arrays.fill(values, Float.NaN);
+    }
+
+    public FeatureSchema getSchema() { return schema; }
+
+    /** Marks every slot absent. */
+    public StateRecord clear() {
+        Arrays.fill(values, Float.NaN);
+        return this;
+    }
+
+    // -------------------------------------------------------------------------
+    // Typed accessors
+    // -------------------------------------------------------------------------
+
+    public boolean has(int slot) {
+        return slot >= 0 && slot < values.length && values[slot] == values[slot];
+    }
+
+    /** Raw slot value; NaN if absent. */
+    public float get(int slot) {
+        return slot >= 0 && slot < values.length ? values[slot] : Float.NaN;
+    }
+
+    public float get(int slot, float defaultValue) {
+        float v = get(slot);
+        return v == v ? v : defaultValue;
+    }
+
+    public boolean getBoolean(int slot) {
+        return get(slot) > 0;
+    }
+
+    public String getCategory(int slot) {
+        return slot >= 0 ? schema.category(slot, get(slot)) : null;
+    }
+
+    public StateRecord set(int slot, float value) {
+        if (slot >= values.length) grow(slot + 1);
+        values[slot] = value;
+        return this;
+    }
+
+    public StateRecord setBoolean(int slot, boolean value) {
+        return set(slot, value ? 1f : 0f);
+    }
+
+    public StateRecord setCategory(int slot, String value) {
+        int idx = schema.categoryIndex(slot, value, true);
+        return set(slot, idx >= 0 ? idx : Float.NaN);
+    }
+
+    public StateRecord remove(int slot) {
+        if (slot >= 0 && slot < values.length) values[slot] = Float.NaN;
+        return this;
+    }
+
+    /** Number of slots that may hold values (the schema size when last grown). */
+    public int length() {
+        return Math.min(values.length, schema.size());
+    }
+
+    public void copyFrom(StateRecord other) {
+        if (other.values.length > values.length) grow(other.values.length);
+        System.arraycopy(other.values, 0, values, 0, other.values.length);
+        if (values.length > other.values.length) {
+            Arrays.fill(values, other.values.length, values.length, Float.NaN);
+        }
+    }
+
+    private void grow(int minLength) {
+        int old = values.length;
+        values = Arrays.copyOf(values, Math.max(minLength, old * 2));
+        Arrays.fill(values, old, values.length, Float.NaN);
+    }
+
+    // -------------------------------------------------------------------------
+    // Map adapters
+    // -------------------------------------------------------------------------
+
+    /**
+     * Replaces this record's contents with a state map, registering unseen
+     * keys: Boolean → BOOLEAN, Number → NUMERIC, anything else → CATEGORICAL.
+     * Categorical values are bounded per feature by
+     * {@link FeatureSchema#MAX_CATEGORIES}; the rest share the overflow bucket.
+     */
+    public StateRecord readFrom(Map<String, Object> state) {
+        clear();
+        if (state == null) return this;
+        for (Map.Entry<String, Object> e : state.entrySet()) {
+            Object v = e.getValue();
+            if (v == null) continue;
+            if (v instanceof Boolean) {
+                int slot = schema.register(e.getKey(), FeatureSchema.Type.BOOLEAN);
+                if (schema.type(slot) == FeatureSchema.Type.BOOLEAN) setBoolean(slot, (Boolean) v);
+            } else if (v instanceof Number) {
+                int slot = schema.register(e.getKey(), FeatureSchema.Type.NUMERIC);
+                if (schema.type(slot) == FeatureSchema.Type.NUMERIC) set(slot, ((Number) v).floatValue());
+            } else {
+                int slot = schema.register(e.getKey(), FeatureSchema.Type.CATEGORICAL);
+                if (schema.type(slot) == FeatureSchema.Type.CATEGORICAL) setCategory(slot, v.toString());
+            }
+        }
+        return this;
+    }
+
+    /** Boxed map view for consumers that have not moved to records yet. */
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = new HashMap<>();
+        int n = length();
+        for (int s = 0; s < n; s++) {
+            float v = values[s];
+            if (v != v) continue;
+            switch (schema.type(s)) {
+                case BOOLEAN:     m.put(schema.name(s), v > 0); break;
+                case CATEGORICAL: m.put(schema.name(s), schema.category(s, v)); break;
+                default:          m.put(schema.name(s), v);
+            }
+        }
+        return m;
+    }
+}
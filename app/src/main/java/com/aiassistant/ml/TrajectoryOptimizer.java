@@ -7,6 +7,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -33,6 +35,14 @@ import java.util.concurrent.atomic.AtomicInteger;
  *     Importance-weighted Monte Carlo: sample trajectories, weight by
  *     exp(λ⁻¹ · return), update nominal sequence as weighted mean.
  *
+ * Rollouts are batched: every sample advances one step at a time through a
+ * single forward pass over a snapshot of the world model, and the sample set
+ * is split across the common fork-join pool. Scratch buffers are reused across
+ * plans, and each plan warm-starts from the previous one shifted by a step.
+ * With an uncertainty penalty set, rollouts follow the world model's ensemble
+ * mean instead and each step's return is reduced by the penalty times the
+ * mean epistemic variance of its prediction.
+ *
  * Thread-safe.
  */
 public class TrajectoryOptimizer {
@@ -59,6 +69,29 @@ public class TrajectoryOptimizer {
     // World model reference
     private TransitionModel worldModel;   // optional; enables model-based scoring
 
+    // Rollout buffers, reused across plans
+    private final float[]   samples;   // [N][H] continuous actions
+    private final int[]     actions;   // [N][H] rounded actions
+    private final float[]   returns;   // [N]
+    private final float[]   weights;   // [N] MPPI importance weights
+    private final int[]     order;     // [N] CEM elite selection
+    private final int[]     bestSeq;   // [H] best sequence of the last plan
+    private final float[][] initRows;  // [N] references to the start state
+    private float[][]       stateA, stateB; // [N][stateDim] model-predicted states
+    private float[][]       stateVar;       // [N][stateDim] ensemble variance
+    private volatile float  uncertaintyPenalty = 0f;
+    private boolean         hasPlan;
+
+    // Rollout parallelism
+    private static final int ROLLOUT_GRAIN = 16;
+    private volatile boolean parallel = true;
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override protected Scratch initialValue() { return new Scratch(); }
+    };
+
+    // σ floor applied on warm start
+    private final float minSigma;
+
     private final AtomicInteger optimizeCount = new AtomicInteger(0);
     private float avgBestReturn = 0f;
     private float avgPlanTime   = 0f;
@@ -84,6 +117,15 @@ public class TrajectoryOptimizer {
         sigma = new float[horizon];
         java.util.Arrays.fill(mu,    actionDim / 2f);
         java.util.Arrays.fill(sigma, actionDim / 2f);
+        minSigma = Math.min(0.5f, actionDim / 2f);
+
+        samples  = new float[numSamples * horizon];
+        actions  = new int[numSamples * horizon];
+        returns  = new float[numSamples];
+        weights  = new float[numSamples];
+        order    = new int[numSamples];
+        bestSeq  = new int[horizon];
+        initRows = new float[numSamples][];
 
         Log.i(TAG, "TrajectoryOptimizer: H=" + horizon + " N=" + numSamples
                 + " backend=" + backend);
@@ -101,6 +143,23 @@ public class TrajectoryOptimizer {
         this.worldModel = model;
     }
 
+    /**
+     * Split rollouts across the common fork-join pool (default on). The reward
+     * function is then called from several threads at once.
+     */
+    public void setParallelRollouts(boolean enabled) {
+        this.parallel = enabled;
+    }
+
+    /**
+     * Penalty per unit of mean ensemble variance subtracted from each rollout
+     * step (default 0: plain main-network rollouts). Has no effect when the
+     * world model has no ensemble.
+     */
+    public void setUncertaintyPenalty(float penalty) {
+        this.uncertaintyPenalty = Math.max(0f, penalty);
+    }
+
     // ─────────────────────────────────────────────────────────────────────────
     // Planning
     // ─────────────────────────────────────────────────────────────────────────
@@ -128,7 +187,11 @@ public class TrajectoryOptimizer {
         return best;
     }
 
-    /** Functional interface for scoring (state, action) → reward. */
+    /**
+     * Functional interface for scoring (state, action) → reward. Must be
+     * thread-safe while parallel rollouts are on, and must not keep or modify
+     * {@code state}, which is a reused buffer.
+     */
     public interface RewardFunction {
         float reward(float[] state, int action);
     }
@@ -138,83 +201,70 @@ public class TrajectoryOptimizer {
     // ─────────────────────────────────────────────────────────────────────────
 
     private int[] cem(float[] initState, RewardFunction rewardFn) {
-        float[] bestSeqF = mu.clone();
-        float   bestReturn = Float.NEGATIVE_INFINITY;
+        float bestReturn = Float.NEGATIVE_INFINITY;
+        warmStart();
 
         for (int iter = 0; iter < numIter; iter++) {
-            // Sample population
-            float[][] samples  = new float[numSamples][horizon];
-            float[]   returns  = new float[numSamples];
-
-            for (int i = 0; i < numSamples; i++) {
-                for (int h = 0; h < horizon; h++) {
-                    samples[i][h] = mu[h] + sigma[h] * (float) rng.nextGaussian();
-                    samples[i][h] = Math.max(0, Math.min(actionDim - 1, samples[i][h]));
-                }
-                returns[i] = rollout(initState, toIntSeq(samples[i]), rewardFn);
-            }
+            // Sample population around the (warm-started) distribution
+            sampleAroundMu();
+            rolloutBatch(initState, rewardFn);
 
             // Elite set: top-K by return
-            int[] eliteIdx = topKIndices(returns, numElites);
-            float[] newMu  = new float[horizon];
-            float[] newSig = new float[horizon];
-
-            for (int idx : eliteIdx) {
-                for (int h = 0; h < horizon; h++) newMu[h] += samples[idx][h];
-            }
-            for (int h = 0; h < horizon; h++) newMu[h] /= numElites;
-            for (int idx : eliteIdx) {
-                for (int h = 0; h < horizon; h++) {
-                    float d = samples[idx][h] - newMu[h]; newSig[h] += d * d;
+            int k = Math.min(numElites, numSamples);
+            topKIndices(returns, k, order);
+            for (int h = 0; h < horizon; h++) {
+                float m = 0f;
+                for (int e = 0; e < k; e++) m += samples[order[e] * horizon + h];
+                m /= k;
+                float v = 0f;
+                for (int e = 0; e < k; e++) {
+                    float d = samples[order[e] * horizon + h] - m; v += d * d;
                 }
+                mu[h]    = m;
+                sigma[h] = (float) Math.sqrt(v / k + 1e-6f);
             }
-            for (int h = 0; h < horizon; h++)
-                newSig[h] = (float) Math.sqrt(newSig[h] / numElites + 1e-6f);
-
-            System.arraycopy(newMu,  0, mu,    0, horizon);
-            System.arraycopy(newSig, 0, sigma, 0, horizon);
 
             // Track best
             for (int i = 0; i < numSamples; i++) {
-                if (returns[i] > bestReturn) { bestReturn = returns[i]; bestSeqF = samples[i].clone(); }
+                if (returns[i] > bestReturn) {
+                    bestReturn = returns[i];
+                    System.arraycopy(actions, i * horizon, bestSeq, 0, horizon);
+                }
             }
         }
 
         avgBestReturn = 0.99f * avgBestReturn + 0.01f * bestReturn;
-        // Shift mu for receding horizon (MPC)
-        System.arraycopy(mu, 1, mu, 0, horizon - 1);
-        mu[horizon - 1] = actionDim / 2f;
-        return toIntSeq(bestSeqF);
+        shiftDistribution();
+        return bestSeq.clone();
     }
 
     private int[] randomShooting(float[] initState, RewardFunction rewardFn) {
-        float bestReturn = Float.NEGATIVE_INFINITY;
-        int[] bestSeq    = new int[horizon];
-
         for (int i = 0; i < numSamples; i++) {
-            int[] seq = randomSeq();
-            float ret = rollout(initState, seq, rewardFn);
-            if (ret > bestReturn) { bestReturn = ret; bestSeq = seq; }
+            for (int h = 0; h < horizon; h++) actions[i * horizon + h] = rng.nextInt(actionDim);
         }
-        avgBestReturn = 0.99f * avgBestReturn + 0.01f * bestReturn;
-        return bestSeq;
+        // Warm start: sample 0 replays the previous best, shifted one step
+        if (hasPlan) {
+            System.arraycopy(bestSeq, 1, actions, 0, horizon - 1);
+            actions[horizon - 1] = rng.nextInt(actionDim);
+        }
+        rolloutBatch(initState, rewardFn);
+
+        int best = 0;
+        for (int i = 1; i < numSamples; i++) if (returns[i] > returns[best]) best = i;
+        System.arraycopy(actions, best * horizon, bestSeq, 0, horizon);
+        hasPlan = true;
+
+        avgBestReturn = 0.99f * avgBestReturn + 0.01f * returns[best];
+        return bestSeq.clone();
     }
 
     private int[] mppi(float[] initState, RewardFunction rewardFn) {
-        float[][] seqs    = new float[numSamples][horizon];
-        float[]   returns = new float[numSamples];
-
-        for (int i = 0; i < numSamples; i++) {
-            for (int h = 0; h < horizon; h++) {
-                seqs[i][h] = mu[h] + sigma[h] * (float) rng.nextGaussian();
-                seqs[i][h] = Math.max(0, Math.min(actionDim - 1, seqs[i][h]));
-            }
-            returns[i] = rollout(initState, toIntSeq(seqs[i]), rewardFn);
-        }
+        warmStart();
+        sampleAroundMu();
+        rolloutBatch(initState, rewardFn);
 
         // Importance weights: w_i = exp((G_i - G_max) / λ)
-        float gMax = returns[0]; for (float g : returns) if (g > gMax) gMax = g;
-        float[] weights = new float[numSamples];
+        float gMax = returns[0]; for (int i = 1; i < numSamples; i++) if (returns[i] > gMax) gMax = returns[i];
         float wSum = 0;
         for (int i = 0; i < numSamples; i++) {
             weights[i] = (float) Math.exp((returns[i] - gMax) / mppiLambda);
@@ -222,65 +272,191 @@ public class TrajectoryOptimizer {
         }
 
         // Weighted mean update of mu
-        float[] newMu = new float[horizon];
-        for (int i = 0; i < numSamples; i++) {
-            float w = weights[i] / wSum;
-            for (int h = 0; h < horizon; h++) newMu[h] += w * seqs[i][h];
+        for (int h = 0; h < horizon; h++) {
+            float m = 0f;
+            for (int i = 0; i < numSamples; i++) m += weights[i] * samples[i * horizon + h];
+            mu[h] = m / wSum;
         }
-        System.arraycopy(newMu, 0, mu, 0, horizon);
 
         float bestReturn = gMax;
         avgBestReturn = 0.99f * avgBestReturn + 0.01f * bestReturn;
-        return toIntSeq(mu);
+        int[] plan = toIntSeq(mu);
+        shiftDistribution();
+        return plan;
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // Warm start
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /** Keep σ from collapsing so a warm-started μ can still move. */
+    private void warmStart() {
+        for (int h = 0; h < horizon; h++) sigma[h] = Math.max(sigma[h], minSigma);
+    }
+
+    /**
+     * Receding horizon: shift μ and σ one step so the next plan starts from
+     * this one's tail, with a fresh default for the new last step.
+     */
+    private void shiftDistribution() {
+        System.arraycopy(mu,    1, mu,    0, horizon - 1);
+        System.arraycopy(sigma, 1, sigma, 0, horizon - 1);
+        mu[horizon - 1]    = actionDim / 2f;
+        sigma[horizon - 1] = actionDim / 2f;
+        hasPlan = true;
+    }
+
+    private void sampleAroundMu() {
+        for (int i = 0; i < numSamples; i++) {
+            int row = i * horizon;
+            for (int h = 0; h < horizon; h++) {
+                float v = mu[h] + sigma[h] * (float) rng.nextGaussian();
+                v = Math.max(0, Math.min(actionDim - 1, v));
+                samples[row + h] = v;
+                actions[row + h] = Math.round(v);
+            }
+        }
     }
 
     // ─────────────────────────────────────────────────────────────────────────
     // Rollout simulation
     // ─────────────────────────────────────────────────────────────────────────
 
-    private float rollout(float[] initState, int[] actions, RewardFunction rewardFn) {
-        float[] state = initState.clone();
-        float G = 0, disc = 1f;
-        for (int h = 0; h < horizon && h < actions.length; h++) {
-            G    += disc * rewardFn.reward(state, actions[h]);
+    /**
+     * Scores every sample in {@link #actions} into {@link #returns}. All samples
+     * of a block advance one step together through one batched world-model
+     * pass; blocks run on the common fork-join pool when parallel.
+     */
+    private void rolloutBatch(float[] initState, RewardFunction rewardFn) {
+        TransitionModel.Forward model = worldModel != null ? worldModel.snapshot() : null;
+        float penalty = model != null && model.getEnsembleSize() > 0 ? uncertaintyPenalty : 0f;
+        ensureStateBuffers(model, penalty > 0f);
+        java.util.Arrays.fill(initRows, initState);
+
+        if (parallel && numSamples >= 2 * ROLLOUT_GRAIN) {
+            ForkJoinPool.commonPool().invoke(new RolloutTask(model, rewardFn, penalty, 0, numSamples));
+        } else {
+            rolloutRange(model, rewardFn, penalty, 0, numSamples);
+        }
+        java.util.Arrays.fill(initRows, null);
+    }
+
+    private void rolloutRange(TransitionModel.Forward model, RewardFunction rewardFn,
+                              float penalty, int from, int to) {
+        int[]   stepActions = scratch.get().actions(numSamples);
+        float[] hidden      = model != null ? scratch.get().hidden(model.getScratchSize()) : null;
+
+        float[][] cur = initRows;
+        float disc = 1f;
+        for (int i = from; i < to; i++) returns[i] = 0f;
+
+        for (int h = 0; h < horizon; h++) {
+            for (int i = from; i < to; i++) {
+                int a = actions[i * horizon + h];
+                stepActions[i] = a;
+                returns[i] += disc * rewardFn.reward(cur[i], a);
+            }
+            float stepDisc = disc;
             disc *= 0.99f;
-            if (worldModel != null) {
-                float[] pred = worldModel.predictNextState(state, actions[h]);
-                state = pred;
+
+            // Without a model the state stays put (greedy approximation)
+            if (model != null && h < horizon - 1) {
+                float[][] next = cur == stateA ? stateB : stateA;
+                if (penalty > 0f) {
+                    model.predictEnsemble(cur, stepActions, from, to, next, stateVar, hidden);
+                    penalizeUncertainty(next, penalty * stepDisc, from, to);
+                } else {
+                    model.predict(cur, stepActions, from, to, next, hidden);
+                }
+                cur = next;
             }
         }
-        return G;
+    }
+
+    /** Clips ensemble means to the state range and charges their variance to the returns. */
+    private void penalizeUncertainty(float[][] next, float weight, int from, int to) {
+        for (int i = from; i < to; i++) {
+            float[] s = next[i];
+            float[] v = stateVar[i];
+            float varSum = 0f;
+            for (int k = 0; k < s.length; k++) {
+                s[k] = Math.max(0f, Math.min(1f, s[k]));
+                varSum += v[k];
+            }
+            returns[i] -= weight * varSum / s.length;
+        }
+    }
+
+    private final class RolloutTask extends RecursiveAction {
+        private final TransitionModel.Forward model;
+        private final RewardFunction          rewardFn;
+        private final float                   penalty;
+        private final int                     from, to;
+
+        RolloutTask(TransitionModel.Forward model, RewardFunction rewardFn, float penalty,
+                    int from, int to) {
+            this.model = model; this.rewardFn = rewardFn; this.penalty = penalty;
+            this.from = from; this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= ROLLOUT_GRAIN) {
+                rolloutRange(model, rewardFn, penalty, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RolloutTask(model, rewardFn, penalty, from, mid),
+                      new RolloutTask(model, rewardFn, penalty, mid, to));
+        }
+    }
+
+    private void ensureStateBuffers(TransitionModel.Forward model, boolean withVariance) {
+        if (model == null) return;
+        int dim = model.getStateDim();
+        if (stateA == null || stateA[0].length != dim) {
+            stateA   = new float[numSamples][dim];
+            stateB   = new float[numSamples][dim];
+            stateVar = null;
+        }
+        if (withVariance && stateVar == null) stateVar = new float[numSamples][dim];
+    }
+
+    /** Per-thread rollout scratch, grown on demand. */
+    private static final class Scratch {
+        private int[]   actions = new int[0];
+        private float[] hidden  = new float[0];
+
+        int[] actions(int n) {
+            if (actions.length < n) actions = new int[n];
+            return actions;
+        }
+
+        float[] hidden(int n) {
+            if (hidden.length < n) hidden = new float[n];
+            return hidden;
+        }
     }
 
     // ─────────────────────────────────────────────────────────────────────────
     // Helpers
     // ─────────────────────────────────────────────────────────────────────────
 
-    private int[] randomSeq() {
-        int[] s = new int[horizon];
-        for (int h = 0; h < horizon; h++) s[h] = rng.nextInt(actionDim);
-        return s;
-    }
-
     private static int[] toIntSeq(float[] f) {
         int[] out = new int[f.length];
         for (int i = 0; i < f.length; i++) out[i] = Math.max(0, Math.min(Integer.MAX_VALUE, Math.round(f[i])));
         return out;
     }
 
-    private static int[] topKIndices(float[] vals, int k) {
-        int[] idx = new int[vals.length];
+    /** Partial selection sort: the first k entries of idx become the top-k by value. */
+    private static void topKIndices(float[] vals, int k, int[] idx) {
         for (int i = 0; i < idx.length; i++) idx[i] = i;
-        // partial selection sort
         for (int i = 0; i < k; i++) {
             int best = i;
             for (int j = i + 1; j < idx.length; j++)
                 if (vals[idx[j]] > vals[idx[best]]) best = j;
             int tmp = idx[i]; idx[i] = idx[best]; idx[best] = tmp;
         }
-        int[] top = new int[k];
-        System.arraycopy(idx, 0, top, 0, k);
-        return top;
     }
 
     // ─────────────────────────────────────────────────────────────────────────
@@ -292,6 +468,8 @@ public class TrajectoryOptimizer {
         s.put("backend",       backend.name());
         s.put("horizon",       horizon);
         s.put("numSamples",    numSamples);
+        s.put("parallel",      parallel);
+        s.put("uncertaintyPenalty", uncertaintyPenalty);
         s.put("optimizeCount", optimizeCount.get());
         s.put("avgBestReturn", avgBestReturn);
         s.put("avgPlanTimeMs", avgPlanTime);
@@ -3,6 +3,7 @@ package com.aiassistant.ml;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,12 @@ import java.util.concurrent.atomic.AtomicInteger;
  *   - Optional uncertainty quantification: ensemble of K=5 models,
  *     epistemic uncertainty = variance of ensemble predictions
  *
+ * Ensemble members are stacked: member k owns rows [k·hiddenDim, (k+1)·hiddenDim)
+ * of the stacked W1 and rows [k·stateDim, (k+1)·stateDim) of the stacked W2, so
+ * all members train with one optimizer step per layer. {@link #snapshot()}
+ * flattens and transposes them, and {@link Forward#predictEnsemble} evaluates
+ * members × batch in one pass, returning mean and variance together.
+ *
  * Thread-safe.
  */
 public class TransitionModel implements ActionSequenceOptimizer.QOracle {
@@ -50,11 +57,11 @@ public class TransitionModel implements ActionSequenceOptimizer.QOracle {
     private final float[][] W2; // [stateDim][hiddenDim]
     private final float[]   B2; // [stateDim]
 
-    // Optional ensemble for uncertainty
-    private final List<float[][]> ensembleW1;
-    private final List<float[]>   ensembleB1;
-    private final List<float[][]> ensembleW2;
-    private final List<float[]>   ensembleB2;
+    // Optional ensemble for uncertainty, stacked by member
+    private final float[][] ensW1; // [ensembleSize·hiddenDim][inputDim]
+    private final float[]   ensB1; // [ensembleSize·hiddenDim]
+    private final float[][] ensW2; // [ensembleSize·stateDim][hiddenDim]
+    private final float[]   ensB2; // [ensembleSize·stateDim]
     private final int ensembleSize;
 
     // Optimizer
@@ -66,6 +73,9 @@ public class TransitionModel implements ActionSequenceOptimizer.QOracle {
 
     private final Random rng = new Random(23L);
 
+    // Cached weight snapshot for batched prediction; rebuilt after updates
+    private Forward forward;
+
     // -------------------------------------------------------------------------
     // Construction
     // -------------------------------------------------------------------------
@@ -87,18 +97,14 @@ public class TransitionModel implements ActionSequenceOptimizer.QOracle {
         W2 = xavierMat(stateDim,  hiddenDim, s2);
         B2 = new float[stateDim];
 
-        ensembleW1 = new ArrayList<>();
-        ensembleB1 = new ArrayList<>();
-        ensembleW2 = new ArrayList<>();
-        ensembleB2 = new ArrayList<>();
-
-        if (ensembleSize > 1) {
-            for (int k = 0; k < ensembleSize; k++) {
-                ensembleW1.add(xavierMat(hiddenDim, inputDim,  s1 * (1f + 0.1f * k)));
-                ensembleB1.add(new float[hiddenDim]);
-                ensembleW2.add(xavierMat(stateDim,  hiddenDim, s2 * (1f + 0.1f * k)));
-                ensembleB2.add(new float[stateDim]);
-            }
+        int members = ensembleSize > 1 ? ensembleSize : 0;
+        ensW1 = new float[members * hiddenDim][inputDim];
+        ensB1 = new float[members * hiddenDim];
+        ensW2 = new float[members * stateDim][hiddenDim];
+        ensB2 = new float[members * stateDim];
+        for (int k = 0; k < members; k++) {
+            xavierFill(ensW1, k * hiddenDim, hiddenDim, s1 * (1f + 0.1f * k));
+            xavierFill(ensW2, k * stateDim,  stateDim,  s2 * (1f + 0.1f * k));
         }
     }
 
@@ -126,33 +132,26 @@ public class TransitionModel implements ActionSequenceOptimizer.QOracle {
      * Predict next states from all ensemble members and compute mean + variance.
      * Returns float[2][stateDim]: [0] = mean prediction, [1] = per-feature variance.
      */
-    public synchronized float[][] predictWithUncertainty(float[] state, int action) {
+    public float[][] predictWithUncertainty(float[] state, int action) {
         if (ensembleSize <= 1) {
             float[] pred = predictNextState(state, action);
             return new float[][]{pred, new float[stateDim]};
         }
+        float[][] mean = new float[1][stateDim];
+        float[][] var  = new float[1][stateDim];
+        predictWithUncertainty(new float[][]{state}, new int[]{action}, 0, 1, mean, var);
+        return new float[][]{mean[0], var[0]};
+    }
 
-        float[] inp = buildInput(state, action);
-        float[][] preds = new float[ensembleSize][];
-
-        for (int k = 0; k < ensembleSize; k++) {
-            float[] h = linear(ensembleW1.get(k), ensembleB1.get(k), inp, true);
-            preds[k]  = linear(ensembleW2.get(k), ensembleB2.get(k), h,   false);
-        }
-
-        float[] mean = new float[stateDim];
-        float[] var  = new float[stateDim];
-
-        for (float[] p : preds) for (int i = 0; i < stateDim; i++) mean[i] += p[i];
-        for (int i = 0; i < stateDim; i++) mean[i] /= ensembleSize;
-
-        for (float[] p : preds) for (int i = 0; i < stateDim; i++) {
-            float d = p[i] - mean[i];
-            var[i] += d * d;
-        }
-        for (int i = 0; i < stateDim; i++) var[i] /= ensembleSize;
-
-        return new float[][]{mean, var};
+    /**
+     * Batched {@link #predictWithUncertainty(float[], int)}: fills {@code mean[i]}
+     * and {@code var[i]} (length stateDim) for rows {@code from..to-1} from one
+     * members × batch pass over the current {@link #snapshot()}.
+     */
+    public void predictWithUncertainty(float[][] states, int[] actions, int from, int to,
+                                       float[][] mean, float[][] var) {
+        Forward f = snapshot();
+        f.predictEnsemble(states, actions, from, to, mean, var, new float[f.getScratchSize()]);
     }
 
     /**
@@ -169,6 +168,251 @@ public class TransitionModel implements ActionSequenceOptimizer.QOracle {
         return trajectory;
     }
 
+    // -------------------------------------------------------------------------
+    // Batched prediction
+    // -------------------------------------------------------------------------
+
+    /**
+     * Immutable copy of the main network's weights for batched prediction
+     * without the model lock; safe to share across threads. Weights are stored
+     * transposed so both layers run as contiguous multiply-add sweeps, and
+     * inactive ReLU units are skipped.
+     */
+    public static final class Forward {
+        private final int     stateDim, actionDim, hiddenDim;
+        private final int     version;
+        private final float[] w1t; // [inputDim][hiddenDim]
+        private final float[] b1;  // [hiddenDim]
+        private final float[] w2t; // [hiddenDim][stateDim]
+        private final float[] b2;  // [stateDim]
+
+        // Ensemble, member-major: member k's block starts at k·(block size)
+        private final int     members;
+        private final float[] ew1t; // [members][inputDim][hiddenDim]
+        private final float[] eb1;  // [members][hiddenDim]
+        private final float[] ew2t; // [members][hiddenDim][stateDim]
+        private final float[] eb2;  // [members][stateDim]
+
+        Forward(TransitionModel m, int version) {
+            stateDim  = m.stateDim;
+            actionDim = m.actionDim;
+            hiddenDim = m.hiddenDim;
+            this.version = version;
+            w1t = transpose(m.W1, m.inputDim);
+            b1  = m.B1.clone();
+            w2t = transpose(m.W2, hiddenDim);
+            b2  = m.B2.clone();
+
+            members = m.ensembleSize > 1 ? m.ensembleSize : 0;
+            int inputDim = m.inputDim;
+            ew1t = new float[members * inputDim * hiddenDim];
+            ew2t = new float[members * hiddenDim * stateDim];
+            for (int k = 0; k < members; k++) {
+                transposeInto(m.ensW1, k * hiddenDim, hiddenDim, inputDim,
+                        ew1t, k * inputDim * hiddenDim);
+                transposeInto(m.ensW2, k * stateDim, stateDim, hiddenDim,
+                        ew2t, k * hiddenDim * stateDim);
+            }
+            eb1 = m.ensB1.clone();
+            eb2 = m.ensB2.clone();
+        }
+
+        public int getStateDim()     { return stateDim; }
+        public int getHiddenDim()    { return hiddenDim; }
+        public int getEnsembleSize() { return members; }
+
+        /** Floats of scratch needed by {@link #predictEnsemble} and {@link #qBatch}. */
+        public int getScratchSize()  { return 2 * hiddenDim + stateDim; }
+
+        /**
+         * Predicts {@code out[i]} (length stateDim, clipped to [0, 1]) from
+         * (states[i], actions[i]) for rows {@code from..to-1}. {@code hidden}
+         * needs hiddenDim floats. {@code out} may alias {@code states}.
+         */
+        public void predict(float[][] states, int[] actions, int from, int to,
+                            float[][] out, float[] hidden) {
+            for (int i = from; i < to; i++) {
+                float[] s = states[i];
+                int sdim = Math.min(s.length, stateDim);
+
+                System.arraycopy(b1, 0, hidden, 0, hiddenDim);
+                for (int d = 0; d < sdim; d++) {
+                    float v = s[d];
+                    if (v == 0f) continue;
+                    int off = d * hiddenDim;
+                    for (int j = 0; j < hiddenDim; j++) hidden[j] += w1t[off + j] * v;
+                }
+                int a = actions[i];
+                if (a >= 0 && a < actionDim) {
+                    int off = (stateDim + a) * hiddenDim;
+                    for (int j = 0; j < hiddenDim; j++) hidden[j] += w1t[off + j];
+                }
+
+                float[] o = out[i];
+                System.arraycopy(b2, 0, o, 0, stateDim);
+                for (int j = 0; j < hiddenDim; j++) {
+                    float h = hidden[j];
+                    if (h <= 0f) continue; // ReLU
+                    int off = j * stateDim;
+                    for (int k = 0; k < stateDim; k++) o[k] += w2t[off + k] * h;
+                }
+                for (int k = 0; k < stateDim; k++) o[k] = Math.max(0f, Math.min(1f, o[k]));
+            }
+        }
+
+        /**
+         * Ensemble mean and epistemic variance of the next state for rows
+         * {@code from..to-1}. Members run in the outer loop so each member's
+         * weights stay hot across the batch, and per-feature mean and variance
+         * are accumulated with Welford's update. Without an ensemble,
+         * {@code mean} is the main network's clipped prediction and {@code var}
+         * is zero. {@code scratch} needs {@link #getScratchSize()} floats;
+         * {@code mean} and {@code var} must not alias {@code states}.
+         */
+        public void predictEnsemble(float[][] states, int[] actions, int from, int to,
+                                    float[][] mean, float[][] var, float[] scratch) {
+            if (members == 0) {
+                predict(states, actions, from, to, mean, scratch);
+                for (int i = from; i < to; i++) Arrays.fill(var[i], 0, stateDim, 0f);
+                return;
+            }
+            int out = hiddenDim;
+            for (int k = 0; k < members; k++) {
+                float inv = 1f / (k + 1);
+                for (int i = from; i < to; i++) {
+                    memberForward(k, states[i], actions[i], scratch, out);
+                    float[] mu = mean[i];
+                    float[] m2 = var[i];
+                    if (k == 0) {
+                        System.arraycopy(scratch, out, mu, 0, stateDim);
+                        Arrays.fill(m2, 0, stateDim, 0f);
+                        continue;
+                    }
+                    for (int o = 0; o < stateDim; o++) {
+                        float x = scratch[out + o];
+                        float d = x - mu[o];
+                        mu[o] += d * inv;
+                        m2[o] += d * (x - mu[o]);
+                    }
+                }
+            }
+            float invK = 1f / members;
+            for (int i = from; i < to; i++) {
+                float[] m2 = var[i];
+                for (int o = 0; o < stateDim; o++) m2[o] *= invK;
+            }
+        }
+
+        /**
+         * Ensemble Q-proxy for every action of rows {@code from..to-1}:
+         * {@code out[i·actionCount + a] = −Σ var}. A one-hot action only adds
+         * one row of W1ᵀ, so each member's state projection is computed once
+         * per state and reused for every action. Zero without an ensemble.
+         */
+        public void qBatch(float[][] states, int from, int to, int actionCount,
+                           float[] out, float[] scratch) {
+            if (members == 0) {
+                Arrays.fill(out, from * actionCount, to * actionCount, 0f);
+                return;
+            }
+            int inputDim = stateDim + actionDim;
+            int proj = 0, hid = hiddenDim, o2 = 2 * hiddenDim;
+            float[] mu = new float[actionCount * stateDim];
+            float[] m2 = new float[actionCount * stateDim];
+            for (int i = from; i < to; i++) {
+                float[] s = states[i];
+                int sdim = Math.min(s.length, stateDim);
+                for (int k = 0; k < members; k++) {
+                    int w1 = k * inputDim * hiddenDim;
+                    System.arraycopy(eb1, k * hiddenDim, scratch, proj, hiddenDim);
+                    for (int d = 0; d < sdim; d++) {
+                        float v = s[d];
+                        if (v == 0f) continue;
+                        int off = w1 + d * hiddenDim;
+                        for (int j = 0; j < hiddenDim; j++) scratch[proj + j] += ew1t[off + j] * v;
+                    }
+                    float inv = 1f / (k + 1);
+                    for (int a = 0; a < actionCount; a++) {
+                        int col = a < actionDim ? w1 + (stateDim + a) * hiddenDim : -1;
+                        for (int j = 0; j < hiddenDim; j++) {
+                            scratch[hid + j] = col >= 0 ? scratch[proj + j] + ew1t[col + j]
+                                                        : scratch[proj + j];
+                        }
+                        outputLayer(k, scratch, hid, o2);
+                        int base = a * stateDim;
+                        for (int o = 0; o < stateDim; o++) {
+                            float x = scratch[o2 + o];
+                            if (k == 0) { mu[base + o] = x; m2[base + o] = 0f; continue; }
+                            float d = x - mu[base + o];
+                            mu[base + o] += d * inv;
+                            m2[base + o] += d * (x - mu[base + o]);
+                        }
+                    }
+                }
+                for (int a = 0; a < actionCount; a++) {
+                    float varSum = 0f;
+                    int base = a * stateDim;
+                    for (int o = 0; o < stateDim; o++) varSum += m2[base + o];
+                    out[i * actionCount + a] = -varSum / members;
+                }
+            }
+        }
+
+        /** Member k's unclipped prediction into scratch[out..out+stateDim); uses scratch[0..hiddenDim). */
+        private void memberForward(int k, float[] s, int action, float[] scratch, int out) {
+            int inputDim = stateDim + actionDim;
+            int w1 = k * inputDim * hiddenDim;
+            int sdim = Math.min(s.length, stateDim);
+            System.arraycopy(eb1, k * hiddenDim, scratch, 0, hiddenDim);
+            for (int d = 0; d < sdim; d++) {
+                float v = s[d];
+                if (v == 0f) continue;
+                int off = w1 + d * hiddenDim;
+                for (int j = 0; j < hiddenDim; j++) scratch[j] += ew1t[off + j] * v;
+            }
+            if (action >= 0 && action < actionDim) {
+                int off = w1 + (stateDim + action) * hiddenDim;
+                for (int j = 0; j < hiddenDim; j++) scratch[j] += ew1t[off + j];
+            }
+            outputLayer(k, scratch, 0, out);
+        }
+
+        /** ReLU of scratch[hid..] through member k's second layer into scratch[out..]. */
+        private void outputLayer(int k, float[] scratch, int hid, int out) {
+            int w2 = k * hiddenDim * stateDim;
+            System.arraycopy(eb2, k * stateDim, scratch, out, stateDim);
+            for (int j = 0; j < hiddenDim; j++) {
+                float h = scratch[hid + j];
+                if (h <= 0f) continue; // ReLU
+                int off = w2 + j * stateDim;
+                for (int o = 0; o < stateDim; o++) scratch[out + o] += ew2t[off + o] * h;
+            }
+        }
+
+        private static void transposeInto(float[][] m, int rowFrom, int rows, int cols,
+                                          float[] dst, int off) {
+            for (int r = 0; r < rows; r++) {
+                float[] row = m[rowFrom + r];
+                for (int c = 0; c < cols; c++) dst[off + c * rows + r] = row[c];
+            }
+        }
+
+        private static float[] transpose(float[][] m, int cols) {
+            float[] t = new float[cols * m.length];
+            for (int r = 0; r < m.length; r++) {
+                for (int c = 0; c < cols; c++) t[c * m.length + r] = m[r][c];
+            }
+            return t;
+        }
+    }
+
+    /** Current weights as a {@link Forward}; reused until the next update. */
+    public synchronized Forward snapshot() {
+        int version = updateCount.get();
+        if (forward == null || forward.version != version) forward = new Forward(this, version);
+        return forward;
+    }
+
     // -------------------------------------------------------------------------
     // Training
     // -------------------------------------------------------------------------
@@ -221,29 +465,47 @@ public class TransitionModel implements ActionSequenceOptimizer.QOracle {
         optimizer.step("tm_W2", W2, dW2);
         optimizer.step("tm_W1", W1, dW1);
 
-        // Train ensemble members on the same example (slightly different update)
+        // Train ensemble members on the same example: one stacked step per layer
+        if (ensembleSize > 1) updateEnsemble(inp, nextState, dim);
+
+        avgMse = 0.95f * avgMse + 0.05f * mse;
+        updateCount.incrementAndGet();
+        return mse;
+    }
+
+    private void updateEnsemble(float[] inp, float[] nextState, int dim) {
+        float[][] edW2 = new float[ensembleSize * stateDim][hiddenDim];
+        float[][] edW1 = new float[ensembleSize * hiddenDim][inputDim];
+        float[] eh  = new float[hiddenDim];
+        float[] edO = new float[stateDim];
         for (int e = 0; e < ensembleSize; e++) {
-            float[] eh  = linear(ensembleW1.get(e), ensembleB1.get(e), inp, true);
-            float[] ep  = linear(ensembleW2.get(e), ensembleB2.get(e), eh,  false);
-            float[] edO = new float[stateDim];
-            for (int i = 0; i < dim; i++) edO[i] = 2f * (ep[i] - (i < nextState.length ? nextState[i] : 0f));
-            float[][] edW2 = new float[stateDim][hiddenDim];
-            float[]   edB2 = new float[stateDim];
-            for (int i = 0; i < stateDim; i++) { edB2[i] = edO[i]; for (int j = 0; j < hiddenDim; j++) edW2[i][j] = edO[i] * eh[j]; }
-            float[][] edW1 = new float[hiddenDim][inputDim];
-            float[]   edB1 = new float[hiddenDim];
+            int hRow = e * hiddenDim, oRow = e * stateDim;
+            for (int j = 0; j < hiddenDim; j++) {
+                float sum = ensB1[hRow + j];
+                float[] row = ensW1[hRow + j];
+                for (int k = 0; k < inputDim; k++) sum += row[k] * inp[k];
+                eh[j] = Math.max(0f, sum);
+            }
+            Arrays.fill(edO, 0f);
+            for (int i = 0; i < stateDim; i++) {
+                float p = ensB2[oRow + i];
+                float[] row = ensW2[oRow + i];
+                for (int j = 0; j < hiddenDim; j++) p += row[j] * eh[j];
+                if (i < dim) edO[i] = 2f * (p - (i < nextState.length ? nextState[i] : 0f));
+            }
+            for (int i = 0; i < stateDim; i++) {
+                float[] g = edW2[oRow + i];
+                for (int j = 0; j < hiddenDim; j++) g[j] = edO[i] * eh[j];
+            }
             for (int j = 0; j < hiddenDim; j++) {
                 if (eh[j] <= 0) continue;
-                float deh = 0; for (int i = 0; i < stateDim; i++) deh += edO[i] * ensembleW2.get(e)[i][j];
-                edB1[j] = deh; for (int k = 0; k < inputDim; k++) edW1[j][k] = deh * inp[k];
+                float deh = 0; for (int i = 0; i < stateDim; i++) deh += edO[i] * ensW2[oRow + i][j];
+                float[] g = edW1[hRow + j];
+                for (int k = 0; k < inputDim; k++) g[k] = deh * inp[k];
             }
-            optimizer.step("tm_e" + e + "_W2", ensembleW2.get(e), edW2);
-            optimizer.step("tm_e" + e + "_W1", ensembleW1.get(e), edW1);
         }
-
-        avgMse = 0.95f * avgMse + 0.05f * mse;
-        updateCount.incrementAndGet();
-        return mse;
+        optimizer.step("tm_ens_W2", ensW2, edW2);
+        optimizer.step("tm_ens_W1", ensW1, edW1);
     }
 
     // -------------------------------------------------------------------------
@@ -260,6 +522,20 @@ public class TransitionModel implements ActionSequenceOptimizer.QOracle {
         return -varSum; // higher Q = lower uncertainty
     }
 
+    /**
+     * Batched {@link #q} over every action, evaluated on the current
+     * {@link #snapshot()} (see {@link Forward#qBatch}).
+     */
+    @Override
+    public void qBatch(float[][] states, int from, int to, int actionDim, float[] out) {
+        Forward f = snapshot();
+        f.qBatch(states, from, to, actionDim, out, new float[f.getScratchSize()]);
+    }
+
+    /** Changes with every {@link #update}, so planners drop Q-rows cached before it. */
+    @Override
+    public long modelVersion() { return updateCount.get(); }
+
     // -------------------------------------------------------------------------
     // Monitoring
     // -------------------------------------------------------------------------
@@ -302,7 +578,11 @@ public class TransitionModel implements ActionSequenceOptimizer.QOracle {
 
     private float[][] xavierMat(int rows, int cols, float s) {
         float[][] m = new float[rows][cols];
-        for (int i = 0; i < rows; i++) for (int j = 0; j < cols; j++) m[i][j] = (rng.nextFloat() * 2f - 1f) * s;
+        xavierFill(m, 0, rows, s);
         return m;
     }
+
+    private void xavierFill(float[][] m, int rowFrom, int rows, float s) {
+        for (int i = rowFrom; i < rowFrom + rows; i++) for (int j = 0; j < m[i].length; j++) m[i][j] = (rng.nextFloat() * 2f - 1f) * s;
+    }
 }
@@ -19,6 +19,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  *   - Batch update with gradient averaging
  *   - Running normalisation of targets to reduce training instability
  *   - Returns explained variance: 1 − Var(target−V) / Var(target)
+ *   - Lock-free V(s) reads from published weights ({@link InferenceWeights}),
+ *     refreshed every {@code publishInterval} updates
  */
 public class ValueNetwork {
 
@@ -35,6 +37,11 @@ public class ValueNetwork {
     // ── optimiser ─────────────────────────────────────────────────────────────
     private final NeuralNetworkOptimizer optimiser;
 
+    // ── published inference weights ───────────────────────────────────────────
+    private final InferenceWeights inference;
+    private volatile int publishInterval = 1;   // written under this, read by getStats
+    private volatile int pendingUpdates  = 0;
+
     // ── target normalisation (Welford) ────────────────────────────────────────
     private double normMean = 0.0, normM2 = 0.0;
     private long   normCount = 0L;
@@ -70,6 +77,9 @@ public class ValueNetwork {
         W1 = xavier(hiddenDim, stateDim,  s1); B1 = new float[hiddenDim];
         W2 = xavier(hiddenDim, hiddenDim, s2); B2 = new float[hiddenDim];
         W3 = xavier(1,         hiddenDim, s3); B3 = new float[1];
+
+        inference = new InferenceWeights(stateDim, hiddenDim, 1);
+        inference.publish(W1, B1, W2, B2, W3, B3);
     }
 
     public ValueNetwork(int stateDim) {
@@ -81,16 +91,30 @@ public class ValueNetwork {
     // ─────────────────────────────────────────────────────────────────────────
 
     /** Return V(s). */
-    public synchronized float getValue(float[] state) {
-        float[] h1 = lin(W1, B1, state, true);
-        float[] h2 = lin(W2, B2, h1,    true);
-        return     lin(W3, B3, h2,   false)[0];
+    public float getValue(float[] state) {
+        InferenceWeights.Scratch s = inference.scratch();
+        InferenceWeights.Buffer  b = inference.acquire();
+        try {
+            inference.forward(b, state, s);
+            return s.out[0];
+        } finally {
+            inference.release(b);
+        }
     }
 
-    /** Batch V(s) for an array of states. */
-    public synchronized float[] getValues(float[][] states) {
+    /** Batch V(s) for an array of states, all from the same published weights. */
+    public float[] getValues(float[][] states) {
         float[] out = new float[states.length];
-        for (int i = 0; i < states.length; i++) out[i] = getValue(states[i]);
+        InferenceWeights.Scratch s = inference.scratch();
+        InferenceWeights.Buffer  b = inference.acquire();
+        try {
+            for (int i = 0; i < states.length; i++) {
+                inference.forward(b, states[i], s);
+                out[i] = s.out[0];
+            }
+        } finally {
+            inference.release(b);
+        }
         return out;
     }
 
@@ -107,6 +131,12 @@ public class ValueNetwork {
      * @return Scalar MSE loss.
      */
     public synchronized float update(float[] state, float target, float valuePrev) {
+        float loss = step(state, target, valuePrev);
+        afterUpdates(1);
+        return loss;
+    }
+
+    private float step(float[] state, float target, float valuePrev) {
         float normTarget = normaliseTargets ? normalise(target) : target;
 
         // Forward
@@ -184,8 +214,9 @@ public class ValueNetwork {
         float total = 0f;
         for (int i = 0; i < n; i++) {
             float pv = (prevValues != null && i < prevValues.length) ? prevValues[i] : Float.NaN;
-            total += update(states[i], targets[i], pv);
+            total += step(states[i], targets[i], pv);
         }
+        afterUpdates(n);
         return n > 0 ? total / n : 0f;
     }
 
@@ -195,6 +226,27 @@ public class ValueNetwork {
         return (float)(1.0 - residualSumSq / targetSumSq);
     }
 
+    // ─────────────────────────────────────────────────────────────────────────
+    // Weight publication
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /** Publish the inference weights every {@code k} updates (default 1); batches publish once. */
+    public synchronized void setPublishInterval(int k) {
+        publishInterval = Math.max(1, k);
+        if (pendingUpdates >= publishInterval) publishWeights();
+    }
+
+    /** Make the current training weights visible to {@link #getValue} now. */
+    public synchronized void publishWeights() {
+        inference.publish(W1, B1, W2, B2, W3, B3);
+        pendingUpdates = 0;
+    }
+
+    private void afterUpdates(int n) {
+        pendingUpdates += n;
+        if (pendingUpdates >= publishInterval) publishWeights();
+    }
+
     // ─────────────────────────────────────────────────────────────────────────
     // Stats
     // ─────────────────────────────────────────────────────────────────────────
@@ -208,6 +260,10 @@ public class ValueNetwork {
         s.put("hiddenDim",        hiddenDim);
         s.put("clipEpsilon",      clipEpsilon);
         s.put("normaliseTargets", normaliseTargets);
+        s.put("publishedVersion", inference.version());
+        s.put("publishInterval",  publishInterval);
+        s.put("pendingUpdates",   pendingUpdates);
+        s.put("publishDrainWaits", inference.drainWaits());
         return s;
     }
 
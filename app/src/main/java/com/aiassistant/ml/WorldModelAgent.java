@@ -2,9 +2,7 @@ package com.aiassistant.ml;
 
 import android.util.Log;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -21,11 +19,19 @@ import java.util.concurrent.atomic.AtomicInteger;
  *     - CONTINUE MODEL:       predict done_t from z_t
  *
  *   Actor-Critic trained entirely in imagination:
- *     1. Start from real state z_0.
+ *     1. Start from a batch of real latents z_0 (replayed start states).
  *     2. Rollout H steps using transition model (no real env interaction).
  *     3. Compute λ-returns from imagined rewards.
  *     4. Train actor to maximise λ-return, critic to predict it.
  *
+ *   Imagination engine: the whole batch advances in lockstep through the
+ *   transition, reward and continue heads into preallocated flat
+ *   [H+1][batch][latent] buffers, and λ-returns are computed per timestep
+ *   across the batch. Rollouts read a copy of the world model taken at the
+ *   start of each batch, so only the H actor-critic steps hold the agent
+ *   lock. {@link #startImagination(int)} runs batches on a background thread,
+ *   paced by the arrival of new real transitions.
+ *
  *   World model trained on real transitions to minimise:
  *     L = L_rec (reconstruction) + L_reward + L_continue + L_KL (latent regularisation)
  *
@@ -38,6 +44,7 @@ public class WorldModelAgent {
     private static final String TAG = "WorldModelAgent";
 
     private static final int H = 15;    // imagination horizon
+    private static final int REPLAY_CAPACITY = 1024;  // real start states kept for imagination
 
     // ─────────────────────────────────────────────────────────────────────────
     // Dimensions
@@ -88,6 +95,27 @@ public class WorldModelAgent {
 
     private final Random rng = new Random(311L);
 
+    // ─────────────────────────────────────────────────────────────────────────
+    // Imagination state
+    // ─────────────────────────────────────────────────────────────────────────
+    // Real start states (guarded by replay)
+    private final float[][] replay;
+    private int             replaySize = 0, replayNext = 0;
+    private long            replayVersion = 0;
+
+    // Serialises imagination batches; actor-critic weights are written only
+    // while holding it (and the agent lock)
+    private final Object    imagineLock = new Object();
+    private Imagination     imagination;            // guarded by imagineLock
+    private final Random    imagineRng = new Random(313L);
+
+    private volatile Thread imaginationThread;
+    private volatile int    imaginationBatch = 32;
+
+    private final AtomicInteger imagineBatches = new AtomicInteger(0);
+    private volatile float  avgBatchMs = 0f;
+    private volatile float  imaginedPerSec = 0f;
+
     // ─────────────────────────────────────────────────────────────────────────
     // Construction
     // ─────────────────────────────────────────────────────────────────────────
@@ -121,6 +149,8 @@ public class WorldModelAgent {
         criW1 = xav(hidDim, latDim, s);        criB1 = new float[hidDim];
         criW2 = xav(1, hidDim, s * 0.01f);     criB2 = new float[1];
 
+        replay = new float[REPLAY_CAPACITY][stateDim];
+
         Log.i(TAG, "WorldModelAgent: s=" + stateDim + " a=" + actionDim
                 + " z=" + latDim);
     }
@@ -181,59 +211,321 @@ public class WorldModelAgent {
 
         avgWmLoss = 0.99f * avgWmLoss + 0.01f * totalLoss;
         wmUpdates.incrementAndGet();
+        remember(s);
         return totalLoss;
     }
 
+    private void remember(float[] s) {
+        synchronized (replay) {
+            System.arraycopy(s, 0, replay[replayNext], 0, stateDim);
+            replayNext = (replayNext + 1) % REPLAY_CAPACITY;
+            if (replaySize < REPLAY_CAPACITY) replaySize++;
+            replayVersion++;
+            replay.notifyAll();
+        }
+    }
+
     // ─────────────────────────────────────────────────────────────────────────
     // Actor-Critic training in imagination
     // ─────────────────────────────────────────────────────────────────────────
 
-    public synchronized void trainActorCritic(float[] startState) {
-        // Rollout H steps in imagination
-        float[] z = encode(pad(startState, stateDim));
-        float[] imagRewards = new float[H];
-        float[] imagValues  = new float[H + 1];
-        int[]   imagActions  = new int[H];
-        float[] imagCont    = new float[H];
-        float[][] imagZ     = new float[H][latDim];
+    /** One imagination batch from a single start state. */
+    public void trainActorCritic(float[] startState) {
+        trainActorCritic(new float[][]{ pad(startState, stateDim) }, 1);
+    }
 
-        imagValues[H] = predictValue(z);
-        for (int t = 0; t < H; t++) {
-            imagZ[t] = z.clone();
-            int a = sampleCat(softmax(actorLogits(z)));
-            imagActions[t] = a;
-            imagRewards[t] = predictReward(z);
-            imagCont[t]    = predictContinue(z);
-            imagValues[t]  = predictValue(z);
-            z = transition(z, a);
-            imagineSteps.incrementAndGet();
+    /**
+     * Imagines H steps from {@code startStates[0..count-1]} in lockstep, then
+     * takes H actor-critic steps, each on the batch-mean gradient of one
+     * timestep.
+     */
+    public void trainActorCritic(float[][] startStates, int count) {
+        if (count <= 0) return;
+        synchronized (imagineLock) {
+            long t0 = System.nanoTime();
+            Imagination im = imagination(count);
+            for (int b = 0; b < count; b++) {
+                System.arraycopy(pad(startStates[b], stateDim), 0, im.start, b * stateDim, stateDim);
+            }
+            runImagination(im, count);
+            recordBatch(count, t0);
         }
+    }
 
-        // λ-returns
-        float[] lambdaRet = new float[H];
-        float nextRet = imagValues[H];
-        for (int t = H-1; t >= 0; t--) {
-            float td = imagRewards[t] + gamma * imagCont[t] * imagValues[t+1];
-            nextRet = td + gamma * lambdaGAE * imagCont[t] * (nextRet - imagValues[t+1]);
-            lambdaRet[t] = nextRet;
+    /** Imagination batch over {@code count} start states sampled from replay. */
+    private boolean trainFromReplay(int count) {
+        synchronized (imagineLock) {
+            long t0 = System.nanoTime();
+            Imagination im = imagination(count);
+            synchronized (replay) {
+                if (replaySize == 0) return false;
+                for (int b = 0; b < count; b++) {
+                    float[] row = replay[imagineRng.nextInt(replaySize)];
+                    System.arraycopy(row, 0, im.start, b * stateDim, stateDim);
+                }
+            }
+            runImagination(im, count);
+            recordBatch(count, t0);
+            return true;
         }
+    }
 
-        // Update actor and critic
+    private void recordBatch(int count, long startNs) {
+        float ms = (System.nanoTime() - startNs) / 1e6f;
+        avgBatchMs     = 0.9f * avgBatchMs + 0.1f * ms;
+        imaginedPerSec = 0.9f * imaginedPerSec + 0.1f * (count * H * 1000f / Math.max(ms, 1e-3f));
+        imagineBatches.incrementAndGet();
+        acUpdates.incrementAndGet();
+    }
+
+    private Imagination imagination(int batch) {
+        if (imagination == null || imagination.batch < batch) {
+            imagination = new Imagination(Math.max(batch, imaginationBatch));
+        }
+        return imagination;
+    }
+
+    /** Rollout, λ-returns and actor-critic update; caller holds imagineLock. */
+    private void runImagination(Imagination im, int B) {
+        synchronized (this) { im.copyWorldModel(); }
+
+        // Encode start states
+        for (int b = 0; b < B; b++) {
+            linInto(im.encW1, im.encB1, im.start, b * stateDim, stateDim, im.h, 0, true);
+            linInto(im.encW2, im.encB2, im.h, 0, hidDim, im.z, b * latDim, false);
+        }
+
+        // Rollout H steps in imagination, all rows in lockstep
         for (int t = 0; t < H; t++) {
-            float adv  = lambdaRet[t] - imagValues[t];
-            // Actor gradient
-            float[] probs  = softmax(actorLogits(imagZ[t]));
-            float[] dLogits= probs.clone();
-            dLogits[imagActions[t]] -= 1f;
-            for (int i=0;i<actionDim;i++) dLogits[i] = -adv * dLogits[i] - entropy * (-probs[i]*(float)Math.log(probs[i]+1e-8f));
-            backpropActor(imagZ[t], dLogits);
-            // Critic gradient
-            float vErr = imagValues[t] - lambdaRet[t];
-            backpropCritic(imagZ[t], 2f * vErr);
-            avgActLoss = 0.99f * avgActLoss + 0.01f * adv * adv;
-            avgValLoss = 0.99f * avgValLoss + 0.01f * vErr * vErr;
+            for (int b = 0; b < B; b++) {
+                int i  = t * B + b;
+                int zo = i * latDim;
+                linInto(actW1, actB1, im.z, zo, latDim, im.h, 0, true);
+                linInto(actW2, actB2, im.h, 0, hidDim, im.logits, 0, false);
+                int a = sampleCat(softmaxInto(im.logits, im.probs), imagineRng);
+                im.act[i]  = a;
+                im.rew[i]  = dot(im.rwW[0], im.z, zo) + im.rwB[0];
+                im.cont[i] = sigmoid(dot(im.coW[0], im.z, zo) + im.coB[0]);
+                im.val[i]  = value(im.z, zo, im.h);
+                im.transition(a, zo, zo + B * latDim);
+            }
+            imagineSteps.addAndGet(B);
+        }
+        for (int b = 0; b < B; b++) {
+            int i = H * B + b;
+            im.val[i] = value(im.z, i * latDim, im.h);
+        }
+
+        // λ-returns, one timestep across the whole batch at a time
+        for (int t = H - 1; t >= 0; t--) {
+            int row = t * B, next = row + B;
+            float[] tail = t == H - 1 ? im.val : im.ret;
+            for (int b = 0; b < B; b++) {
+                int i = row + b;
+                float vNext = im.val[next + b];
+                float td = im.rew[i] + gamma * im.cont[i] * vNext;
+                im.ret[i] = td + gamma * lambdaGAE * im.cont[i] * (tail[next + b] - vNext);
+            }
+        }
+
+        // Update actor and critic: one step per timestep on the batch mean
+        synchronized (this) {
+            float invB = 1f / B;
+            for (int t = 0; t < H; t++) {
+                im.zeroGrads();
+                for (int b = 0; b < B; b++) {
+                    int i  = t * B + b;
+                    int zo = i * latDim;
+                    float adv = im.ret[i] - im.val[i];
+                    // Actor gradient
+                    linInto(actW1, actB1, im.z, zo, latDim, im.h, 0, true);
+                    linInto(actW2, actB2, im.h, 0, hidDim, im.logits, 0, false);
+                    float[] probs = softmaxInto(im.logits, im.probs);
+                    for (int k = 0; k < actionDim; k++) {
+                        float g = probs[k] - (k == im.act[i] ? 1f : 0f);
+                        im.logits[k] = (-adv * g - entropy * (-probs[k] * (float) Math.log(probs[k] + 1e-8f))) * invB;
+                    }
+                    accumulate(im.gActW2, im.gActW1, actW2, im.logits, actionDim, im.h, im.dh, im.z, zo);
+                    // Critic gradient
+                    float vErr = im.val[i] - im.ret[i];
+                    linInto(criW1, criB1, im.z, zo, latDim, im.h, 0, true);
+                    im.dv[0] = 2f * vErr * invB;
+                    accumulate(im.gCriW2, im.gCriW1, criW2, im.dv, 1, im.h, im.dh, im.z, zo);
+                    avgActLoss = 0.99f * avgActLoss + 0.01f * adv * adv;
+                    avgValLoss = 0.99f * avgValLoss + 0.01f * vErr * vErr;
+                }
+                acOpt.step("wm_actW2", actW2, im.gActW2);
+                acOpt.step("wm_actW1", actW1, im.gActW1);
+                acOpt.step("wm_criW2", criW2, im.gCriW2);
+                acOpt.step("wm_criW1", criW1, im.gCriW1);
+            }
+        }
+    }
+
+    /** Adds a two-layer backward pass for output gradient {@code dOut} into gW2/gW1. */
+    private void accumulate(float[][] gW2, float[][] gW1, float[][] W2, float[] dOut, int outDim,
+                            float[] h, float[] dh, float[] z, int zo) {
+        for (int k = 0; k < outDim; k++) {
+            float d = dOut[k];
+            float[] g = gW2[k];
+            for (int j = 0; j < hidDim; j++) g[j] += d * h[j];
+        }
+        for (int j = 0; j < hidDim; j++) {
+            float acc = 0f;
+            if (h[j] > 0) for (int k = 0; k < outDim; k++) acc += dOut[k] * W2[k][j];
+            dh[j] = acc;
+        }
+        for (int j = 0; j < hidDim; j++) {
+            float d = dh[j];
+            if (d == 0f) continue;
+            float[] g = gW1[j];
+            for (int k = 0; k < latDim; k++) g[k] += d * z[zo + k];
+        }
+    }
+
+    private float value(float[] z, int zo, float[] h) {
+        linInto(criW1, criB1, z, zo, latDim, h, 0, true);
+        float v = criB2[0];
+        float[] w = criW2[0];
+        for (int j = 0; j < hidDim; j++) v += w[j] * h[j];
+        return v;
+    }
+
+    // ─────────────────────────────────────────────────────────────────────────
+    // Background imagination
+    // ─────────────────────────────────────────────────────────────────────────
+
+    /**
+     * Runs imagination batches of {@code batchSize} replayed start states on a
+     * low-priority thread: at most one batch per {@code batchSize} new real
+     * transitions recorded by {@link #trainWorldModel}, fewer if a batch takes
+     * longer than that many transitions take to arrive.
+     */
+    public void startImagination(int batchSize) {
+        imaginationBatch = Math.max(1, batchSize);
+        synchronized (replay) {
+            if (imaginationThread != null) return;
+            Thread t = new Thread(this::imaginationLoop, "WorldModelImagination");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            imaginationThread = t;
+            t.start();
+        }
+    }
+
+    public void stopImagination() {
+        Thread t;
+        synchronized (replay) {
+            t = imaginationThread;
+            imaginationThread = null;
+            replay.notifyAll();
+        }
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void imaginationLoop() {
+        Thread self = Thread.currentThread();
+        long seen = 0;
+        while (imaginationThread == self) {
+            synchronized (replay) {
+                while (imaginationThread == self && replayVersion - seen < imaginationBatch) {
+                    try {
+                        replay.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                seen = replayVersion;
+            }
+            if (imaginationThread != self) return;
+            try {
+                trainFromReplay(imaginationBatch);
+            } catch (Exception e) {
+                Log.e(TAG, "Imagination batch failed", e);
+            }
+        }
+    }
+
+    /**
+     * Preallocated imagination buffers for up to {@code batch} rows, plus a
+     * private copy of the world-model weights refreshed once per batch.
+     */
+    private final class Imagination {
+        final int batch;
+        final float[] start;              // [batch][stateDim]
+        final float[] z;                  // [H+1][batch][latDim]
+        final int[]   act;                // [H][batch]
+        final float[] rew, cont, ret;     // [H][batch]
+        final float[] val;                // [H+1][batch]
+        final float[] h, dh, inpH;        // [hidDim]
+        final float[] logits, probs;      // [actionDim]
+        final float[] dv = new float[1];
+
+        final float[][] encW1, encW2, trW1, trW2, rwW, coW;
+        final float[]   encB1, encB2, trB1, trB2, rwB, coB;
+
+        final float[][] gActW2, gActW1, gCriW2, gCriW1;
+
+        Imagination(int batch) {
+            this.batch = batch;
+            start = new float[batch * stateDim];
+            z     = new float[(H + 1) * batch * latDim];
+            act   = new int[H * batch];
+            rew   = new float[H * batch];
+            cont  = new float[H * batch];
+            ret   = new float[H * batch];
+            val   = new float[(H + 1) * batch];
+            h     = new float[hidDim];
+            dh    = new float[hidDim];
+            inpH  = new float[hidDim];
+            logits = new float[actionDim];
+            probs  = new float[actionDim];
+
+            encW1 = shape(WorldModelAgent.this.encW1); encB1 = new float[hidDim];
+            encW2 = shape(WorldModelAgent.this.encW2); encB2 = new float[latDim];
+            trW1  = shape(WorldModelAgent.this.trW1);  trB1  = new float[hidDim];
+            trW2  = shape(WorldModelAgent.this.trW2);  trB2  = new float[latDim];
+            rwW   = shape(WorldModelAgent.this.rwW);   rwB   = new float[1];
+            coW   = shape(WorldModelAgent.this.coW);   coB   = new float[1];
+
+            gActW2 = shape(actW2); gActW1 = shape(actW1);
+            gCriW2 = shape(criW2); gCriW1 = shape(criW1);
+        }
+
+        /** Copies the live world model; caller holds the agent lock. */
+        void copyWorldModel() {
+            copy(WorldModelAgent.this.encW1, encW1); System.arraycopy(WorldModelAgent.this.encB1, 0, encB1, 0, hidDim);
+            copy(WorldModelAgent.this.encW2, encW2); System.arraycopy(WorldModelAgent.this.encB2, 0, encB2, 0, latDim);
+            copy(WorldModelAgent.this.trW1,  trW1);  System.arraycopy(WorldModelAgent.this.trB1,  0, trB1,  0, hidDim);
+            copy(WorldModelAgent.this.trW2,  trW2);  System.arraycopy(WorldModelAgent.this.trB2,  0, trB2,  0, latDim);
+            copy(WorldModelAgent.this.rwW,   rwW);   rwB[0] = WorldModelAgent.this.rwB[0];
+            copy(WorldModelAgent.this.coW,   coW);   coB[0] = WorldModelAgent.this.coB[0];
+        }
+
+        /** z[dst..] = transition(z[src..], a) on the copied weights. */
+        void transition(int a, int src, int dst) {
+            for (int j = 0; j < hidDim; j++) {
+                float[] row = trW1[j];
+                float acc = trB1[j];
+                for (int k = 0; k < latDim; k++) acc += row[k] * z[src + k];
+                if (a >= 0 && a < actionDim) acc += row[latDim + a];
+                inpH[j] = acc > 0f ? acc : 0f;
+            }
+            linInto(trW2, trB2, inpH, 0, hidDim, z, dst, false);
+        }
+
+        void zeroGrads() {
+            for (float[] r : gActW2) java.util.Arrays.fill(r, 0f);
+            for (float[] r : gActW1) java.util.Arrays.fill(r, 0f);
+            for (float[] r : gCriW2) java.util.Arrays.fill(r, 0f);
+            for (float[] r : gCriW1) java.util.Arrays.fill(r, 0f);
         }
-        acUpdates.incrementAndGet();
     }
 
     // ─────────────────────────────────────────────────────────────────────────
@@ -276,23 +568,6 @@ public class WorldModelAgent {
         wmOpt.step(key + "_W", W, outer(dOut, z));
     }
 
-    private void backpropActor(float[] z, float[] dLogits) {
-        float[] h1 = lin(actW1, actB1, z, true);
-        acOpt.step("wm_actW2", actW2, outer(dLogits, h1));
-        float[] dH1 = new float[hidDim];
-        for(int j=0;j<hidDim;j++){if(h1[j]<=0)continue;for(int i=0;i<actionDim;i++)dH1[j]+=dLogits[i]*actW2[i][j];}
-        acOpt.step("wm_actW1", actW1, outer(dH1, z));
-    }
-
-    private void backpropCritic(float[] z, float dV) {
-        float[] h1 = lin(criW1, criB1, z, true);
-        float[][] dW2 = new float[1][hidDim]; for(int j=0;j<hidDim;j++) dW2[0][j]=dV*h1[j];
-        acOpt.step("wm_criW2", criW2, dW2);
-        float[] dH1 = new float[hidDim];
-        for(int j=0;j<hidDim;j++){if(h1[j]<=0)continue; dH1[j]=dV*criW2[0][j];}
-        acOpt.step("wm_criW1", criW1, outer(dH1, z));
-    }
-
     // ─────────────────────────────────────────────────────────────────────────
     // Helpers
     // ─────────────────────────────────────────────────────────────────────────
@@ -303,6 +578,39 @@ public class WorldModelAgent {
         return o;
     }
 
+    /** out[oOff..oOff+W.length) = W·x[xOff..xOff+n) + b, optionally ReLU'd. */
+    private static void linInto(float[][] W, float[] b, float[] x, int xOff, int n,
+                                float[] out, int oOff, boolean relu) {
+        for (int i = 0; i < W.length; i++) {
+            float[] row = W[i];
+            float s = b[i];
+            int dim = Math.min(n, row.length);
+            for (int j = 0; j < dim; j++) s += row[j] * x[xOff + j];
+            out[oOff + i] = relu ? Math.max(0f, s) : s;
+        }
+    }
+
+    private static float dot(float[] w, float[] x, int xOff) {
+        float s = 0f;
+        for (int j = 0; j < w.length; j++) s += w[j] * x[xOff + j];
+        return s;
+    }
+
+    private static float[] softmaxInto(float[] v, float[] o) {
+        float mx = v[0];
+        for (float x : v) if (x > mx) mx = x;
+        float sum = 0;
+        for (int i = 0; i < v.length; i++) { o[i] = (float) Math.exp(v[i] - mx); sum += o[i]; }
+        for (int i = 0; i < v.length; i++) o[i] /= sum;
+        return o;
+    }
+
+    private static float[][] shape(float[][] m) { return new float[m.length][m[0].length]; }
+
+    private static void copy(float[][] src, float[][] dst) {
+        for (int i = 0; i < src.length; i++) System.arraycopy(src[i], 0, dst[i], 0, src[i].length);
+    }
+
     private static float[][] outer(float[] a, float[] b) {
         float[][] g=new float[a.length][b.length];
         for(int i=0;i<a.length;i++) for(int j=0;j<b.length;j++) g[i][j]=a[i]*b[j];
@@ -311,7 +619,8 @@ public class WorldModelAgent {
 
     private static float[] softmax(float[] v){float mx=v[0];for(float x:v)if(x>mx)mx=x;float sum=0;float[] o=new float[v.length];for(int i=0;i<v.length;i++){o[i]=(float)Math.exp(v[i]-mx);sum+=o[i];}for(int i=0;i<v.length;i++)o[i]/=sum;return o;}
     private static float sigmoid(float x){return 1f/(1f+(float)Math.exp(-x));}
-    private int sampleCat(float[] p){float r=rng.nextFloat(),c=0;for(int a=0;a<p.length-1;a++){c+=p[a];if(r<c)return a;}return p.length-1;}
+    private int sampleCat(float[] p){return sampleCat(p,rng);}
+    private static int sampleCat(float[] p,Random rng){float r=rng.nextFloat(),c=0;for(int a=0;a<p.length-1;a++){c+=p[a];if(r<c)return a;}return p.length-1;}
     private static float[] pad(float[] x,int dim){if(x.length==dim)return x;float[] p=new float[dim];System.arraycopy(x,0,p,0,Math.min(x.length,dim));return p;}
     private float[][] xav(int r,int c,float s){float[][] m=new float[r][c];for(int i=0;i<r;i++) for(int j=0;j<c;j++) m[i][j]=(rng.nextFloat()*2f-1f)*s;return m;}
 
@@ -330,6 +639,12 @@ public class WorldModelAgent {
         s.put("avgValLoss",  avgValLoss);
         s.put("latDim",      latDim);
         s.put("horizon",     H);
+        s.put("imagineBatches",  imagineBatches.get());
+        s.put("imaginationBatch", imaginationBatch);
+        s.put("imaginationRunning", imaginationThread != null);
+        s.put("avgImagineBatchMs", avgBatchMs);
+        s.put("imaginedStepsPerSec", imaginedPerSec);
+        synchronized (replay) { s.put("replaySize", replaySize); }
         return s;
     }
 }
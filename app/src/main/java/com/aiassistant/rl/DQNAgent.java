@@ -2,6 +2,8 @@ package com.aiassistant.rl;
 
 import android.util.Log;
 
+import com.aiassistant.ml.PerformanceProfiler;
+
 import org.tensorflow.lite.Interpreter;
 
 import java.io.File;
@@ -137,35 +139,39 @@ public class DQNAgent extends RLAgent {
 
     @Override
     public int selectAction(float[] state) {
-        totalSteps++;
-        updateEpsilon();
-        if (random.nextFloat() < explorationRate) {
-            return random.nextInt(actionSize);
+        try (PerformanceProfiler.Scope ignored = profiler.time("rl.dqn.act")) {
+            totalSteps++;
+            updateEpsilon();
+            if (random.nextFloat() < explorationRate) {
+                return random.nextInt(actionSize);
+            }
+            return argmax(predict(state, onlineWeights));
         }
-        return argmax(predict(state, onlineWeights));
     }
 
     @Override
     public void update(float[] state, int action, float reward,
                        float[] nextState, boolean done) {
-        // Accumulate into n-step buffer
-        nStepStates.add(state.clone());
-        nStepActions.add(action);
-        nStepRewards.add(reward);
-        nStepNextState = nextState.clone();
-        nStepDone      = done;
-
-        if (nStepStates.size() >= N_STEP || done) {
-            flushNStepBuffer();
-        }
+        try (PerformanceProfiler.Scope ignored = profiler.time("rl.dqn.update")) {
+            // Accumulate into n-step buffer
+            nStepStates.add(state.clone());
+            nStepActions.add(action);
+            nStepRewards.add(reward);
+            nStepNextState = nextState.clone();
+            nStepDone      = done;
+
+            if (nStepStates.size() >= N_STEP || done) {
+                flushNStepBuffer();
+            }
 
-        if (replayBuffer.size() >= batchSize) {
-            trainBatch();
-        }
+            if (replayBuffer.size() >= batchSize) {
+                trainBatch();
+            }
 
-        trainingSteps++;
-        if (trainingSteps % targetUpdateFreq == 0) {
-            updateTargetNetwork();
+            trainingSteps++;
+            if (trainingSteps % targetUpdateFreq == 0) {
+                updateTargetNetwork();
+            }
         }
     }
 
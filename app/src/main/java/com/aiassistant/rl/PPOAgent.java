@@ -2,15 +2,17 @@ package com.aiassistant.rl;
 
 import android.util.Log;
 
+import com.aiassistant.ml.PerformanceProfiler;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Proximal Policy Optimization (PPO) agent — improved implementation:
@@ -23,6 +25,16 @@ import java.util.Random;
  *  5. Gradient clipping simulated via weight update norm capping.
  *  6. Proper KL-divergence early-stopping per epoch.
  *  7. Model save / load persists full weight matrices.
+ *
+ * Rollouts are stored column-wise in preallocated arrays (states, actions,
+ * rewards, old log-probs, values, returns, advantages, done flags). GAE runs
+ * as one backward pass that also accumulates the advantage moments, epochs
+ * shuffle an index permutation instead of the rollout, and mini-batch
+ * gradients go into reusable buffers. Each mini-batch is split into up to
+ * MAX_GRAD_CHUNKS equal chunks of at least MIN_GRAD_ROWS rows (4 chunks of 8
+ * for the default batch of 32) whose partial gradients are computed on the
+ * common fork-join pool and summed in chunk order. The split depends only on
+ * the mini-batch size, so results do not depend on the number of threads.
  */
 public class PPOAgent extends RLAgent {
     private static final String TAG = "PPOAgent";
@@ -48,32 +60,30 @@ public class PPOAgent extends RLAgent {
     private float[]   valueWeights;  // [stateSize]
 
     // -----------------------------------------------------------------------
-    // Experience buffer
+    // Rollout columns, indexed by step; capacity grows with maxExperiences
     // -----------------------------------------------------------------------
-    private static class Experience {
-        float[] state;
-        int     action;
-        float   reward;
-        float[] logProbs;   // log π_old(a|s) for each action
-        float   value;      // V(s) at collection time
-        float   returnValue;
-        float   advantage;
-        boolean done;
-
-        Experience(float[] state, int action, float reward,
-                   float[] logProbs, float value, boolean done) {
-            this.state    = state.clone();
-            this.action   = action;
-            this.reward   = reward;
-            this.logProbs = logProbs.clone();
-            this.value    = value;
-            this.done     = done;
-        }
-    }
-
-    private final List<Experience> experiences;
+    private float[]   rolloutStates;      // [capacity][stateSize]
+    private int[]     rolloutActions;
+    private float[]   rolloutRewards;
+    private float[]   rolloutLogProbs;    // [capacity][actionSize] log π_old(·|s)
+    private float[]   rolloutValues;      // V(s) at collection time
+    private float[]   rolloutReturns;
+    private float[]   rolloutAdvantages;
+    private boolean[] rolloutDones;
+    private int[]     permutation;
+    private int       rolloutSize = 0;
     private int maxExperiences = 512;
 
+    // -----------------------------------------------------------------------
+    // Mini-batch gradient buffers
+    // -----------------------------------------------------------------------
+    private static final int MAX_GRAD_CHUNKS = 8;   // chunks per mini-batch
+    private static final int MIN_GRAD_ROWS   = 8;   // rows per gradient chunk, at least
+    private GradChunk[] chunks = new GradChunk[0];
+    private float[]     policyGrad;             // [stateSize][actionSize]
+    private float[]     valueGrad;              // [stateSize]
+    private boolean     parallelGradients = true;
+
     // -----------------------------------------------------------------------
     // Training state
     // -----------------------------------------------------------------------
@@ -87,7 +97,9 @@ public class PPOAgent extends RLAgent {
     public PPOAgent(int stateSize, int actionSize) {
         super(stateSize, actionSize);
         this.random      = new Random(42);
-        this.experiences = new ArrayList<>();
+        ensureRolloutCapacity(maxExperiences);
+        policyGrad = new float[stateSize * actionSize];
+        valueGrad  = new float[stateSize];
 
         this.explorationRate = 0.0f;  // PPO is on-policy; no ε-greedy
         this.learningRate    = 3e-4f;
@@ -120,24 +132,36 @@ public class PPOAgent extends RLAgent {
 
     @Override
     public int selectAction(float[] state) {
-        float[] dist = policyDistribution(state);
-        return sampleCategorical(dist);
+        try (PerformanceProfiler.Scope ignored = profiler.time("rl.ppo.act")) {
+            float[] dist = policyDistribution(state);
+            return sampleCategorical(dist);
+        }
     }
 
     @Override
     public void update(float[] state, int action, float reward,
                        float[] nextState, boolean done) {
-        float[] dist     = policyDistribution(state);
-        float[] logProbs = new float[actionSize];
-        for (int i = 0; i < actionSize; i++) {
-            logProbs[i] = (float) Math.log(Math.max(dist[i], 1e-8f));
-        }
-        float value = predictValue(state);
-        experiences.add(new Experience(state, action, reward, logProbs, value, done));
-
-        if (done || experiences.size() >= maxExperiences) {
-            float bootstrapValue = done ? 0f : predictValue(nextState);
-            train(bootstrapValue);
+        try (PerformanceProfiler.Scope ignored = profiler.time("rl.ppo.update")) {
+            if (rolloutSize == rolloutActions.length) ensureRolloutCapacity(rolloutSize + 1);
+            int t = rolloutSize++;
+            int sOff = t * stateSize, lOff = t * actionSize;
+            int sdim = Math.min(state.length, stateSize);
+            System.arraycopy(state, 0, rolloutStates, sOff, sdim);
+            Arrays.fill(rolloutStates, sOff + sdim, sOff + stateSize, 0f);
+
+            float[] dist = policyDistribution(state);
+            for (int i = 0; i < actionSize; i++) {
+                rolloutLogProbs[lOff + i] = (float) Math.log(Math.max(dist[i], 1e-8f));
+            }
+            rolloutActions[t] = action;
+            rolloutRewards[t] = reward;
+            rolloutValues[t]  = predictValue(state);
+            rolloutDones[t]   = done;
+
+            if (done || rolloutSize >= maxExperiences) {
+                float bootstrapValue = done ? 0f : predictValue(nextState);
+                train(bootstrapValue);
+            }
         }
     }
 
@@ -213,30 +237,40 @@ public class PPOAgent extends RLAgent {
 
     /** Returns a valid probability distribution over actions via softmax. */
     private float[] policyDistribution(float[] state) {
-        float[] logits = new float[actionSize];
-        float   maxL   = Float.NEGATIVE_INFINITY;
+        float[] dist = new float[actionSize];
+        policyDistribution(state, 0, Math.min(state.length, stateSize), dist);
+        return dist;
+    }
+
+    /** Softmax policy for {@code state[off..off+dim)} written into {@code dist}. */
+    private void policyDistribution(float[] state, int off, int dim, float[] dist) {
+        float maxL = Float.NEGATIVE_INFINITY;
         for (int j = 0; j < actionSize; j++) {
-            for (int i = 0; i < Math.min(state.length, stateSize); i++) {
-                logits[j] += state[i] * policyWeights[i][j];
+            float logit = 0f;
+            for (int i = 0; i < dim; i++) {
+                logit += state[off + i] * policyWeights[i][j];
             }
-            if (logits[j] > maxL) maxL = logits[j];
+            dist[j] = logit;
+            if (logit > maxL) maxL = logit;
         }
         // Numerically stable softmax
         float sum = 0f;
-        float[] dist = new float[actionSize];
         for (int j = 0; j < actionSize; j++) {
-            dist[j] = (float) Math.exp(logits[j] - maxL);
+            dist[j] = (float) Math.exp(dist[j] - maxL);
             sum += dist[j];
         }
         if (sum > 0) for (int j = 0; j < actionSize; j++) dist[j] /= sum;
         else         Arrays.fill(dist, 1f / actionSize);
-        return dist;
     }
 
     private float predictValue(float[] state) {
+        return predictValue(state, 0, Math.min(state.length, stateSize));
+    }
+
+    private float predictValue(float[] state, int off, int dim) {
         float v = 0f;
-        for (int i = 0; i < Math.min(state.length, stateSize); i++) {
-            v += state[i] * valueWeights[i];
+        for (int i = 0; i < dim; i++) {
+            v += state[off + i] * valueWeights[i];
         }
         return v;
     }
@@ -246,27 +280,24 @@ public class PPOAgent extends RLAgent {
     // -----------------------------------------------------------------------
 
     private void train(float bootstrapValue) {
-        if (experiences.isEmpty()) return;
+        int size = rolloutSize;
+        if (size == 0) return;
 
         computeGAE(bootstrapValue);
-
-        // Store old log-probs for ratio computation
-        List<float[]> oldLogProbsList = new ArrayList<>(experiences.size());
-        for (Experience exp : experiences) oldLogProbsList.add(exp.logProbs.clone());
+        for (int i = 0; i < size; i++) permutation[i] = i;
 
         for (int epoch = 0; epoch < epochs; epoch++) {
-            shuffleExperiences();
+            shufflePermutation(size);
 
             float epochKL = 0f;
             int   epochN  = 0;
 
-            for (int start = 0; start < experiences.size(); start += batchSize) {
-                int end = Math.min(start + batchSize, experiences.size());
-                List<Experience> batch = experiences.subList(start, end);
+            for (int start = 0; start < size; start += batchSize) {
+                int end = Math.min(start + batchSize, size);
 
-                float batchKL = trainBatch(batch);
-                epochKL += batchKL * batch.size();
-                epochN  += batch.size();
+                float batchKL = trainBatch(start, end);
+                epochKL += batchKL * (end - start);
+                epochN  += end - start;
             }
 
             // KL early stopping
@@ -277,113 +308,83 @@ public class PPOAgent extends RLAgent {
             }
         }
 
-        experiences.clear();
+        rolloutSize = 0;
         trainSteps++;
         Log.d(TAG, "PPO train step " + trainSteps + " complete");
     }
 
     /**
      * Generalized Advantage Estimation (GAE-λ).
-     * Fills exp.advantage and exp.returnValue for each experience in the buffer.
+     * Fills the advantage and return columns in one backward pass that also
+     * accumulates the advantage moments, then normalises in a second pass.
      */
     private void computeGAE(float bootstrapValue) {
+        int   size      = rolloutSize;
         float nextValue = bootstrapValue;
         float gaeAdv    = 0f;
+        double sum = 0.0, sumSq = 0.0;
 
-        for (int i = experiences.size() - 1; i >= 0; i--) {
-            Experience exp = experiences.get(i);
+        for (int i = size - 1; i >= 0; i--) {
+            boolean done  = rolloutDones[i];
+            float   value = rolloutValues[i];
 
-            float delta = exp.reward
-                    + (exp.done ? 0f : discountFactor * nextValue)
-                    - exp.value;
+            float delta = rolloutRewards[i]
+                    + (done ? 0f : discountFactor * nextValue)
+                    - value;
 
-            gaeAdv = delta + (exp.done ? 0f : discountFactor * gaeLambda * gaeAdv);
-            exp.advantage   = gaeAdv;
-            exp.returnValue = exp.advantage + exp.value;
+            gaeAdv = delta + (done ? 0f : discountFactor * gaeLambda * gaeAdv);
+            rolloutAdvantages[i] = gaeAdv;
+            rolloutReturns[i]    = gaeAdv + value;
+            sum   += gaeAdv;
+            sumSq += (double) gaeAdv * gaeAdv;
 
-            nextValue = exp.value;
+            nextValue = value;
         }
 
         // Normalise advantages
-        float mean = 0f, std;
-        for (Experience e : experiences) mean += e.advantage;
-        mean /= experiences.size();
-        float sumSq = 0f;
-        for (Experience e : experiences) { float d = e.advantage - mean; sumSq += d * d; }
-        std = (float) Math.sqrt(sumSq / experiences.size() + 1e-8f);
-        for (Experience e : experiences) e.advantage = (e.advantage - mean) / std;
+        double mean = sum / size;
+        float  m    = (float) mean;
+        float  std  = (float) Math.sqrt(Math.max(0.0, sumSq / size - mean * mean) + 1e-8f);
+        for (int i = 0; i < size; i++) rolloutAdvantages[i] = (rolloutAdvantages[i] - m) / std;
     }
 
     /**
-     * Train one mini-batch.  Returns mean KL divergence (for early stopping).
+     * Train one mini-batch: rollout rows permutation[from..to).
+     * Returns mean KL divergence (for early stopping).
      */
-    private float trainBatch(List<Experience> batch) {
-        float policyGradNorm = 0f;
-        float valueGradNorm  = 0f;
-        float totalKL        = 0f;
-
-        // Accumulate gradients
-        float[][] policyGrad = new float[stateSize][actionSize];
-        float[]   valueGrad  = new float[stateSize];
-
-        for (Experience exp : batch) {
-            float[] newDist     = policyDistribution(exp.state);
-            float[] newLogProbs = new float[actionSize];
-            for (int j = 0; j < actionSize; j++) {
-                newLogProbs[j] = (float) Math.log(Math.max(newDist[j], 1e-8f));
-            }
-
-            // Ratio π_new(a|s) / π_old(a|s) in log space
-            float logRatio = newLogProbs[exp.action] - exp.logProbs[exp.action];
-            float ratio    = (float) Math.exp(logRatio);
-
-            // Clipped surrogate objective
-            float surr1 = ratio * exp.advantage;
-            float surr2 = Math.max(Math.min(ratio, 1f + clipEpsilon),
-                    1f - clipEpsilon) * exp.advantage;
-            float policyLoss = -Math.min(surr1, surr2);
-
-            // KL divergence (approximate)
-            for (int j = 0; j < actionSize; j++) {
-                float kl = (float) Math.exp(exp.logProbs[j]) * (exp.logProbs[j] - newLogProbs[j]);
-                totalKL += Math.max(0f, kl);
-            }
-
-            // Value loss (clipped)
-            float newValue   = predictValue(exp.state);
-            float vClipped   = exp.value + Math.max(Math.min(newValue - exp.value,
-                    clipEpsilon), -clipEpsilon);
-            float valueLoss  = Math.max((float) Math.pow(newValue - exp.returnValue, 2),
-                    (float) Math.pow(vClipped - exp.returnValue, 2));
-
-            // Entropy bonus
-            float entropy = 0f;
-            for (int j = 0; j < actionSize; j++) {
-                entropy -= newDist[j] * newLogProbs[j];
-            }
+    private float trainBatch(int from, int to) {
+        int n       = to - from;
+        int nChunks = Math.min(MAX_GRAD_CHUNKS, (n + MIN_GRAD_ROWS - 1) / MIN_GRAD_ROWS);
+        int grain   = (n + nChunks - 1) / nChunks;
+        nChunks     = (n + grain - 1) / grain;
+        ensureChunks(nChunks);
+
+        if (parallelGradients && nChunks > 1) {
+            ForkJoinPool.commonPool().invoke(new GradTask(from, to, grain, 0, nChunks));
+        } else {
+            for (int c = 0; c < nChunks; c++) chunkGradients(c, from, to, grain);
+        }
 
-            float totalLoss = policyLoss + valueCoeff * valueLoss - entropyCoeff * entropy;
-
-            // Policy gradient for action dimension
-            for (int i = 0; i < Math.min(exp.state.length, stateSize); i++) {
-                for (int j = 0; j < actionSize; j++) {
-                    float dLdLogit = (j == exp.action)
-                            ? -Math.min(ratio, Math.max(1f - clipEpsilon,
-                                          Math.min(ratio, 1f + clipEpsilon))) * exp.advantage
-                            : 0f;
-                    policyGrad[i][j] += dLdLogit * exp.state[i];
-                }
-                // Value gradient
-                valueGrad[i] += (newValue - exp.returnValue) * exp.state[i];
-            }
+        // Deterministic reduction: sum partials in chunk order
+        float totalKL = 0f;
+        System.arraycopy(chunks[0].policyGrad, 0, policyGrad, 0, policyGrad.length);
+        System.arraycopy(chunks[0].valueGrad,  0, valueGrad,  0, valueGrad.length);
+        totalKL += chunks[0].kl;
+        for (int c = 1; c < nChunks; c++) {
+            GradChunk g = chunks[c];
+            for (int k = 0; k < policyGrad.length; k++) policyGrad[k] += g.policyGrad[k];
+            for (int k = 0; k < valueGrad.length;  k++) valueGrad[k]  += g.valueGrad[k];
+            totalKL += g.kl;
         }
 
         // Average and clip gradients
-        int n = batch.size();
+        float policyGradNorm = 0f;
+        float valueGradNorm  = 0f;
         for (int i = 0; i < stateSize; i++) {
+            int row = i * actionSize;
             for (int j = 0; j < actionSize; j++) {
-                policyGrad[i][j] /= n;
-                policyGradNorm   += policyGrad[i][j] * policyGrad[i][j];
+                policyGrad[row + j] /= n;
+                policyGradNorm      += policyGrad[row + j] * policyGrad[row + j];
             }
             valueGrad[i] /= n;
             valueGradNorm += valueGrad[i] * valueGrad[i];
@@ -398,8 +399,9 @@ public class PPOAgent extends RLAgent {
 
         // Apply gradients
         for (int i = 0; i < stateSize; i++) {
+            int row = i * actionSize;
             for (int j = 0; j < actionSize; j++) {
-                policyWeights[i][j] -= learningRate * policyScale * policyGrad[i][j];
+                policyWeights[i][j] -= learningRate * policyScale * policyGrad[row + j];
             }
             valueWeights[i] -= learningRate * valueScale * valueGrad[i];
         }
@@ -407,6 +409,119 @@ public class PPOAgent extends RLAgent {
         return totalKL / (n * actionSize);
     }
 
+    /**
+     * Partial gradients of chunk {@code c} ({@code grain} rows) of the
+     * mini-batch permutation[from..to) into its own buffers. Reads weights
+     * only, so chunks can run concurrently.
+     */
+    private void chunkGradients(int c, int from, int to, int grain) {
+        GradChunk g = chunks[c];
+        Arrays.fill(g.policyGrad, 0f);
+        Arrays.fill(g.valueGrad, 0f);
+        float kl = 0f;
+        float[] newDist = g.dist;
+        int end = Math.min(to, from + (c + 1) * grain);
+
+        for (int r = from + c * grain; r < end; r++) {
+            int t    = permutation[r];
+            int sOff = t * stateSize;
+            int lOff = t * actionSize;
+            int a    = rolloutActions[t];
+            float adv = rolloutAdvantages[t];
+
+            policyDistribution(rolloutStates, sOff, stateSize, newDist);
+
+            // Ratio π_new(a|s) / π_old(a|s) in log space
+            float newLogProbA = (float) Math.log(Math.max(newDist[a], 1e-8f));
+            float ratio       = (float) Math.exp(newLogProbA - rolloutLogProbs[lOff + a]);
+
+            // KL divergence (approximate)
+            for (int j = 0; j < actionSize; j++) {
+                float oldLp = rolloutLogProbs[lOff + j];
+                float newLp = (float) Math.log(Math.max(newDist[j], 1e-8f));
+                kl += Math.max(0f, (float) Math.exp(oldLp) * (oldLp - newLp));
+            }
+
+            // Clipped-surrogate gradient w.r.t. the taken action's logit
+            float dLdLogit = -Math.min(ratio, Math.max(1f - clipEpsilon,
+                    Math.min(ratio, 1f + clipEpsilon))) * adv;
+            float vErr = predictValue(rolloutStates, sOff, stateSize) - rolloutReturns[t];
+
+            for (int i = 0; i < stateSize; i++) {
+                float x = rolloutStates[sOff + i];
+                g.policyGrad[i * actionSize + a] += dLdLogit * x;
+                g.valueGrad[i] += vErr * x;
+            }
+        }
+        g.kl = kl;
+    }
+
+    private final class GradTask extends RecursiveAction {
+        private final int from, to, grain, c0, c1;
+
+        GradTask(int from, int to, int grain, int c0, int c1) {
+            this.from = from; this.to = to; this.grain = grain; this.c0 = c0; this.c1 = c1;
+        }
+
+        @Override
+        protected void compute() {
+            if (c1 - c0 == 1) {
+                chunkGradients(c0, from, to, grain);
+                return;
+            }
+            int mid = (c0 + c1) >>> 1;
+            invokeAll(new GradTask(from, to, grain, c0, mid),
+                      new GradTask(from, to, grain, mid, c1));
+        }
+    }
+
+    /** Per-chunk partial gradient buffers, reused across mini-batches. */
+    private static final class GradChunk {
+        final float[] policyGrad;
+        final float[] valueGrad;
+        final float[] dist;
+        float kl;
+
+        GradChunk(int stateSize, int actionSize) {
+            policyGrad = new float[stateSize * actionSize];
+            valueGrad  = new float[stateSize];
+            dist       = new float[actionSize];
+        }
+    }
+
+    private void ensureChunks(int n) {
+        if (chunks.length >= n) return;
+        GradChunk[] grown = Arrays.copyOf(chunks, n);
+        for (int c = chunks.length; c < n; c++) grown[c] = new GradChunk(stateSize, actionSize);
+        chunks = grown;
+    }
+
+    private void ensureRolloutCapacity(int capacity) {
+        if (rolloutActions != null && rolloutActions.length >= capacity) return;
+        int cap = rolloutActions == null ? capacity : Math.max(capacity, rolloutActions.length * 2);
+        if (rolloutActions == null) {
+            rolloutStates     = new float[cap * stateSize];
+            rolloutActions    = new int[cap];
+            rolloutRewards    = new float[cap];
+            rolloutLogProbs   = new float[cap * actionSize];
+            rolloutValues     = new float[cap];
+            rolloutReturns    = new float[cap];
+            rolloutAdvantages = new float[cap];
+            rolloutDones      = new boolean[cap];
+            permutation       = new int[cap];
+        } else {
+            rolloutStates     = Arrays.copyOf(rolloutStates,   cap * stateSize);
+            rolloutActions    = Arrays.copyOf(rolloutActions,  cap);
+            rolloutRewards    = Arrays.copyOf(rolloutRewards,  cap);
+            rolloutLogProbs   = Arrays.copyOf(rolloutLogProbs, cap * actionSize);
+            rolloutValues     = Arrays.copyOf(rolloutValues,   cap);
+            rolloutReturns    = new float[cap];
+            rolloutAdvantages = new float[cap];
+            rolloutDones      = Arrays.copyOf(rolloutDones,    cap);
+            permutation       = new int[cap];
+        }
+    }
+
     // -----------------------------------------------------------------------
     // Helpers
     // -----------------------------------------------------------------------
@@ -420,12 +535,12 @@ public class PPOAgent extends RLAgent {
         return dist.length - 1;
     }
 
-    private void shuffleExperiences() {
-        for (int i = experiences.size() - 1; i > 0; i--) {
+    private void shufflePermutation(int size) {
+        for (int i = size - 1; i > 0; i--) {
             int j = random.nextInt(i + 1);
-            Experience tmp = experiences.get(i);
-            experiences.set(i, experiences.get(j));
-            experiences.set(j, tmp);
+            int tmp = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = tmp;
         }
     }
 
@@ -443,8 +558,15 @@ public class PPOAgent extends RLAgent {
 
     public void setGaeLambda(float lambda)    { this.gaeLambda    = Math.max(0f, Math.min(1f, lambda)); }
     public void setBatchSize(int size)         { this.batchSize    = Math.max(1, Math.min(maxExperiences, size)); }
-    public void setMaxExperiences(int size)    { this.maxExperiences = Math.max(batchSize, size); }
     public void setTargetKL(float kl)         { this.targetKL     = Math.max(0.001f, kl); }
     public void setMaxGradNorm(float norm)     { this.maxGradNorm  = Math.max(0.1f, norm); }
     public int  getTrainSteps()               { return trainSteps; }
+
+    public void setMaxExperiences(int size) {
+        this.maxExperiences = Math.max(batchSize, size);
+        ensureRolloutCapacity(maxExperiences);
+    }
+
+    /** Compute mini-batch gradient chunks on the common fork-join pool (default on). */
+    public void setParallelGradients(boolean enabled) { this.parallelGradients = enabled; }
 }
@@ -2,6 +2,8 @@ package com.aiassistant.rl;
 
 import android.util.Log;
 
+import com.aiassistant.ml.PerformanceProfiler;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -110,55 +112,59 @@ public class QLearningAgent extends RLAgent {
 
     @Override
     public int selectAction(float[] state) {
-        totalSteps++;
-        decayEpsilon();
-        if (rng.nextFloat() < explorationRate) return rng.nextInt(actionSize);
-        return greedyAction(key(state));
+        try (PerformanceProfiler.Scope ignored = profiler.time("rl.qlearning.act")) {
+            totalSteps++;
+            decayEpsilon();
+            if (rng.nextFloat() < explorationRate) return rng.nextInt(actionSize);
+            return greedyAction(key(state));
+        }
     }
 
     @Override
     public void update(float[] state, int action, float reward, float[] nextState, boolean done) {
-        // --- Store in replay buffer (non-recursive) ---
-        if (memory.size() >= MAX_MEMORY) memory.remove(0);
-        memory.add(new Exp(state, action, reward, nextState, done));
-
-        // --- Online Q(λ) update ---
-        String sk  = key(state);
-        String nsk = key(nextState);
-        float[] qS = qGet(sk);
-        float[] qN = qGet(nsk);
-
-        float maxN    = done ? 0f : max(qN);
-        float tdError = reward + discountFactor * maxN - qS[action];
-        float alpha   = adaptiveAlpha(sk, action);
-
-        // Replacing traces: set current (s,a) to 1, zero all others in s
-        float[] e = traceGet(sk);
-        Arrays.fill(e, 0f);
-        e[action] = 1f;
-
-        // Update all active traces
-        List<String> toRemove = new ArrayList<>();
-        for (Map.Entry<String, float[]> entry : traces.entrySet()) {
-            float[] qt = qGet(entry.getKey());
-            float[] et = entry.getValue();
-            boolean tiny = true;
-            for (int a = 0; a < actionSize; a++) {
-                qt[a] += alpha * tdError * et[a];
-                et[a] *= discountFactor * LAMBDA;
-                if (Math.abs(et[a]) >= TRACE_MIN) tiny = false;
+        try (PerformanceProfiler.Scope ignored = profiler.time("rl.qlearning.update")) {
+            // --- Store in replay buffer (non-recursive) ---
+            if (memory.size() >= MAX_MEMORY) memory.remove(0);
+            memory.add(new Exp(state, action, reward, nextState, done));
+
+            // --- Online Q(λ) update ---
+            String sk  = key(state);
+            String nsk = key(nextState);
+            float[] qS = qGet(sk);
+            float[] qN = qGet(nsk);
+
+            float maxN    = done ? 0f : max(qN);
+            float tdError = reward + discountFactor * maxN - qS[action];
+            float alpha   = adaptiveAlpha(sk, action);
+
+            // Replacing traces: set current (s,a) to 1, zero all others in s
+            float[] e = traceGet(sk);
+            Arrays.fill(e, 0f);
+            e[action] = 1f;
+
+            // Update all active traces
+            List<String> toRemove = new ArrayList<>();
+            for (Map.Entry<String, float[]> entry : traces.entrySet()) {
+                float[] qt = qGet(entry.getKey());
+                float[] et = entry.getValue();
+                boolean tiny = true;
+                for (int a = 0; a < actionSize; a++) {
+                    qt[a] += alpha * tdError * et[a];
+                    et[a] *= discountFactor * LAMBDA;
+                    if (Math.abs(et[a]) >= TRACE_MIN) tiny = false;
+                }
+                if (tiny) toRemove.add(entry.getKey());
             }
-            if (tiny) toRemove.add(entry.getKey());
-        }
-        for (String k : toRemove) traces.remove(k);
+            for (String k : toRemove) traces.remove(k);
 
-        // Increment visit counter
-        visits.computeIfAbsent(sk, x -> new int[actionSize])[action]++;
+            // Increment visit counter
+            visits.computeIfAbsent(sk, x -> new int[actionSize])[action]++;
 
-        if (done) traces.clear();
+            if (done) traces.clear();
 
-        // --- Mini-batch replay every 8 steps (no recursion) ---
-        if (totalSteps % 8 == 0 && memory.size() >= BATCH_SIZE) replayBatch();
+            // --- Mini-batch replay every 8 steps (no recursion) ---
+            if (totalSteps % 8 == 0 && memory.size() >= BATCH_SIZE) replayBatch();
+        }
     }
 
     @Override
@@ -1,8 +1,12 @@
 package com.aiassistant.rl;
 
+import com.aiassistant.ml.PerformanceProfiler;
+
 /**
  * Base class for reinforcement learning agents
  * Provides common interface for all RL algorithms
+ * Subclasses time selectAction and update into the shared profiler under
+ * {@code "rl.<agent>.act"} and {@code "rl.<agent>.update"}.
  */
 public abstract class RLAgent {
     protected int stateSize;
@@ -11,6 +15,8 @@ public abstract class RLAgent {
     protected float learningRate;
     protected float discountFactor;
     
+    protected final PerformanceProfiler profiler = PerformanceProfiler.getInstance();
+    
     /**
      * Initialize agent
      */
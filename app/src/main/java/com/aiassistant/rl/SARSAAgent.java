@@ -2,6 +2,8 @@ package com.aiassistant.rl;
 
 import android.util.Log;
 
+import com.aiassistant.ml.PerformanceProfiler;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -95,10 +97,12 @@ public class SARSAAgent extends RLAgent {
 
     @Override
     public int selectAction(float[] state) {
-        totalSteps++;
-        decayEpsilon();
-        if (rng.nextFloat() < explorationRate) return rng.nextInt(actionSize);
-        return greedyAction(key(state));
+        try (PerformanceProfiler.Scope ignored = profiler.time("rl.sarsa.act")) {
+            totalSteps++;
+            decayEpsilon();
+            if (rng.nextFloat() < explorationRate) return rng.nextInt(actionSize);
+            return greedyAction(key(state));
+        }
     }
 
     /**
@@ -107,55 +111,57 @@ public class SARSAAgent extends RLAgent {
      */
     @Override
     public void update(float[] state, int action, float reward, float[] nextState, boolean done) {
-        String sk  = key(state);
-        String nsk = key(nextState);
-
-        // First call in episode — no previous (s,a) yet
-        if (!hasEpisodeStep) {
-            prevKey        = sk;
-            prevAction     = action;
-            hasEpisodeStep = true;
-            // Update trace for first step
+        try (PerformanceProfiler.Scope ignored = profiler.time("rl.sarsa.update")) {
+            String sk  = key(state);
+            String nsk = key(nextState);
+
+            // First call in episode — no previous (s,a) yet
+            if (!hasEpisodeStep) {
+                prevKey        = sk;
+                prevAction     = action;
+                hasEpisodeStep = true;
+                // Update trace for first step
+                applyReplacingTrace(sk, action);
+                return;
+            }
+
+            // Select on-policy next action a' (not used if done)
+            int nextAction = done ? -1 : selectAction(nextState);
+
+            // TD error: Q(s,a) - [r + γ·Q(s',a')]
+            float[] qS   = qGet(sk);
+            float   nextQ = (!done && nextAction >= 0) ? qGet(nsk)[nextAction] : 0f;
+            float   tdErr = reward + discountFactor * nextQ - qS[action];
+            float   alpha = adaptiveAlpha(sk, action);
+
+            // Set replacing trace for current (s,a)
             applyReplacingTrace(sk, action);
-            return;
-        }
+            visits.computeIfAbsent(sk, x -> new int[actionSize])[action]++;
 
-        // Select on-policy next action a' (not used if done)
-        int nextAction = done ? -1 : selectAction(nextState);
-
-        // TD error: Q(s,a) - [r + γ·Q(s',a')]
-        float[] qS   = qGet(sk);
-        float   nextQ = (!done && nextAction >= 0) ? qGet(nsk)[nextAction] : 0f;
-        float   tdErr = reward + discountFactor * nextQ - qS[action];
-        float   alpha = adaptiveAlpha(sk, action);
-
-        // Set replacing trace for current (s,a)
-        applyReplacingTrace(sk, action);
-        visits.computeIfAbsent(sk, x -> new int[actionSize])[action]++;
-
-        // Update all active traces
-        List<String> toRemove = new ArrayList<>();
-        for (Map.Entry<String, float[]> entry : traces.entrySet()) {
-            float[] qt  = qGet(entry.getKey());
-            float[] et  = entry.getValue();
-            boolean tiny = true;
-            for (int a = 0; a < actionSize; a++) {
-                qt[a] += alpha * tdErr * et[a];
-                et[a] *= discountFactor * lambda;
-                if (Math.abs(et[a]) >= TRACE_MIN) tiny = false;
+            // Update all active traces
+            List<String> toRemove = new ArrayList<>();
+            for (Map.Entry<String, float[]> entry : traces.entrySet()) {
+                float[] qt  = qGet(entry.getKey());
+                float[] et  = entry.getValue();
+                boolean tiny = true;
+                for (int a = 0; a < actionSize; a++) {
+                    qt[a] += alpha * tdErr * et[a];
+                    et[a] *= discountFactor * lambda;
+                    if (Math.abs(et[a]) >= TRACE_MIN) tiny = false;
+                }
+                if (tiny) toRemove.add(entry.getKey());
             }
-            if (tiny) toRemove.add(entry.getKey());
-        }
-        for (String k : toRemove) traces.remove(k);
+            for (String k : toRemove) traces.remove(k);
 
-        prevKey    = nsk;
-        prevAction = nextAction;
+            prevKey    = nsk;
+            prevAction = nextAction;
 
-        if (done) {
-            traces.clear();
-            hasEpisodeStep = false;
-            prevKey        = null;
-            prevAction     = -1;
+            if (done) {
+                traces.clear();
+                hasEpisodeStep = false;
+                prevKey        = null;
+                prevAction     = -1;
+            }
         }
     }
 
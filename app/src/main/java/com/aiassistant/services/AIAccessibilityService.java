@@ -7,7 +7,6 @@ import android.content.ComponentName;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
-import android.graphics.Path;
 import android.graphics.Rect;
 import android.os.Build;
 import android.os.Bundle;
@@ -19,9 +18,11 @@ import androidx.preference.PreferenceManager;
 
 import com.aiassistant.core.AIController;
 import com.aiassistant.learning.LearningEngine;
+import com.aiassistant.ml.AdvancedActionSequencer;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -39,7 +40,9 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *
  * Improvements over the original:
  *  - Static instance reference so AIController can dispatch gestures directly.
- *  - Real GestureDescription-based gesture execution (click, long-press, swipe).
+ *  - Real GestureDescription-based gesture execution (click, long-press, swipe),
+ *    routed through a GestureCompiler so queued combo actions go out as
+ *    multi-stroke gestures instead of one blocking dispatch each.
  *  - LearningEngine integration: every observed interaction is recorded.
  *  - Handles TYPE_VIEW_LONG_CLICKED and TYPE_VIEW_SCROLLED in addition to the
  *    four original event types.
@@ -75,8 +78,10 @@ public class AIAccessibilityService extends AccessibilityService {
     private String lastActivityName  = "";
     private long   lastInteractionTime = 0;
 
-    // Gesture result latch & flag
-    private final AtomicBoolean gestureResult = new AtomicBoolean(false);
+    // Gesture batching; sequencer actions due within the window share a gesture
+    private static final long GESTURE_BATCH_WINDOW_MS = 1000;
+    private static final long GESTURE_TIMEOUT_MS      = 2000;
+    private volatile GestureCompiler gestureCompiler;
 
     // Sensitive app set for fast lookup
     private static final Set<String> SENSITIVE_APPS = new HashSet<>();
@@ -144,6 +149,12 @@ public class AIAccessibilityService extends AccessibilityService {
         info.notificationTimeout = 100;
 
         setServiceInfo(info);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && gestureCompiler == null) {
+            gestureCompiler = new GestureCompiler(this);
+            AdvancedActionSequencer.getInstance(this)
+                    .setGestureSink(gestureCompiler, GESTURE_BATCH_WINDOW_MS);
+        }
         Log.i(TAG, "AIAccessibilityService connected");
     }
 
@@ -156,6 +167,12 @@ public class AIAccessibilityService extends AccessibilityService {
     public void onDestroy() {
         instance = null;
         if (executor != null) executor.shutdown();
+        GestureCompiler compiler = gestureCompiler;
+        if (compiler != null) {
+            AdvancedActionSequencer.getInstance(this).setGestureSink(null, 0);
+            compiler.release();
+            gestureCompiler = null;
+        }
         super.onDestroy();
         Log.i(TAG, "AIAccessibilityService destroyed");
     }
@@ -341,52 +358,67 @@ public class AIAccessibilityService extends AccessibilityService {
     // Gesture execution
     // -------------------------------------------------------------------------
 
-    /** Performs a tap at (x, y). Returns true if the gesture was dispatched. */
+    /** Performs a tap at (x, y). Returns true if the gesture completed. */
     public boolean performClick(int x, int y) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return false;
-        Path path = new Path();
-        path.moveTo(x, y);
-        GestureDescription.StrokeDescription stroke =
-                new GestureDescription.StrokeDescription(path, 0, 50);
-        return dispatchGestureSync(new GestureDescription.Builder().addStroke(stroke).build());
+        return performStrokeSync(GestureCompiler.Stroke.tap(x, y, 0,
+                GestureCompiler.TAP_DURATION_MS));
     }
 
-    /** Performs a long-press at (x, y). Returns true if dispatched. */
+    /** Performs a long-press at (x, y). Returns true if it completed. */
     public boolean performLongPress(int x, int y) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return false;
-        Path path = new Path();
-        path.moveTo(x, y);
-        GestureDescription.StrokeDescription stroke =
-                new GestureDescription.StrokeDescription(path, 0, 800);
-        return dispatchGestureSync(new GestureDescription.Builder().addStroke(stroke).build());
+        return performStrokeSync(GestureCompiler.Stroke.longPress(x, y, 0,
+                GestureCompiler.LONG_PRESS_DURATION_MS));
     }
 
     /** Performs a swipe from (sx,sy) to (ex,ey) over the given duration. */
     public boolean performSwipe(int sx, int sy, int ex, int ey, long durationMs) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return false;
-        Path path = new Path();
-        path.moveTo(sx, sy);
-        path.lineTo(ex, ey);
-        GestureDescription.StrokeDescription stroke =
-                new GestureDescription.StrokeDescription(path, 0, Math.max(durationMs, 1));
-        return dispatchGestureSync(new GestureDescription.Builder().addStroke(stroke).build());
+        return performStrokeSync(GestureCompiler.Stroke.swipe(sx, sy, ex, ey, 0, durationMs));
     }
 
-    private boolean dispatchGestureSync(GestureDescription gesture) {
+    /**
+     * Queues strokes (with start offsets) as multi-stroke gestures without
+     * blocking. Returns null if gestures are unavailable.
+     */
+    public GestureCompiler.Batch performGestures(List<GestureCompiler.Stroke> strokes,
+                                                 GestureCompiler.BatchListener listener) {
+        GestureCompiler compiler = gestureCompiler;
+        if (compiler == null || strokes == null || strokes.isEmpty()) return null;
+        return compiler.dispatch(strokes, listener);
+    }
+
+    /** The service's gesture pipeline, or null before connection / below API 24. */
+    public GestureCompiler getGestureCompiler() { return gestureCompiler; }
+
+    /**
+     * Runs one stroke through the gesture pipeline, or dispatches it directly
+     * when the pipeline is not up yet (before {@link #onServiceConnected}).
+     */
+    private boolean performStrokeSync(GestureCompiler.Stroke stroke) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return false;
-        final CountDownLatch latch = new CountDownLatch(1);
-        gestureResult.set(false);
+        List<GestureCompiler.Stroke> strokes = Collections.singletonList(stroke);
+        GestureCompiler.Batch batch = performGestures(strokes, null);
+        if (batch != null) return batch.await(GESTURE_TIMEOUT_MS + batch.getDurationMs());
+
+        List<GestureCompiler.Chunk> chunks = GestureCompiler.compile(strokes,
+                GestureDescription.getMaxStrokeCount(), GestureDescription.getMaxGestureDuration());
+        return !chunks.isEmpty() && dispatchGestureSync(chunks.get(0).gesture,
+                GESTURE_TIMEOUT_MS + chunks.get(0).durationMs);
+    }
+
+    private boolean dispatchGestureSync(GestureDescription gesture, long timeoutMs) {
+        final CountDownLatch latch  = new CountDownLatch(1);
+        final AtomicBoolean  result = new AtomicBoolean(false);
         boolean accepted = dispatchGesture(gesture, new GestureResultCallback() {
             @Override public void onCompleted(GestureDescription g) {
-                gestureResult.set(true); latch.countDown();
+                result.set(true); latch.countDown();
             }
             @Override public void onCancelled(GestureDescription g) {
-                gestureResult.set(false); latch.countDown();
+                result.set(false); latch.countDown();
             }
         }, null);
         if (!accepted) return false;
-        try { latch.await(2, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
-        return gestureResult.get();
+        try { latch.await(timeoutMs, TimeUnit.MILLISECONDS); } catch (InterruptedException ignored) {}
+        return result.get();
     }
 
     /** Performs a global action (e.g. GLOBAL_ACTION_BACK) on the UI thread. */
@@ -22,6 +22,7 @@ import com.aiassistant.MainActivity;
 import com.aiassistant.R;
 import com.aiassistant.core.AIController;
 import com.aiassistant.learning.LearningEngine;
+import com.aiassistant.ml.GamePatternRecognizer;
 import com.aiassistant.monitoring.PerformanceMonitor;
 import com.aiassistant.monitoring.NetworkStateMonitor;
 import com.aiassistant.monitoring.SmartBatteryOptimizer;
@@ -250,6 +251,8 @@ public class AIBackgroundService extends Service {
             // 2. Battery optimizer
             batteryOptimizer = new SmartBatteryOptimizer(getApplicationContext());
             batteryOptimizer.setLowPowerOverride(lowPowerMode);
+            GamePatternRecognizer.getInstance(getApplicationContext())
+                    .setBatteryOptimizer(batteryOptimizer);
 
             // 3. Network monitor
             networkMonitor = new NetworkStateMonitor(getApplicationContext());
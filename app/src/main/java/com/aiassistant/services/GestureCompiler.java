@@ -0,0 +1,504 @@
+package com.aiassistant.services;
+
+import android.accessibilityservice.AccessibilityService;
+import android.accessibilityservice.GestureDescription;
+import android.graphics.Path;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import com.aiassistant.ml.AdvancedActionSequencer;
+import com.aiassistant.ml.PredictiveActionSystem;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GestureCompiler — merges taps, long-presses and swipes into multi-stroke
+ * {@link GestureDescription}s and dispatches them asynchronously.
+ *
+ * A batch is a list of strokes, each with a start offset from the batch start.
+ * It is compiled into as few gestures as the platform allows (at most
+ * {@link GestureDescription#getMaxStrokeCount()} strokes and
+ * {@link GestureDescription#getMaxGestureDuration()} ms each). Each following
+ * gesture is dispatched from the completion callback of the previous one,
+ * after any idle gap between them. A combo therefore costs one IPC per chunk
+ * instead of one blocking round trip per action.
+ *
+ * Dispatching a gesture cancels the one in progress, so batches are queued and
+ * run one after another. Callbacks arrive on a private handler thread, so
+ * {@link Batch#await(long)} is safe to call from any thread.
+ */
+public class GestureCompiler implements AdvancedActionSequencer.GestureSink {
+    private static final String TAG = "GestureCompiler";
+
+    public static final int TYPE_TAP        = 0;
+    public static final int TYPE_LONG_PRESS = 1;
+    public static final int TYPE_SWIPE      = 2;
+
+    public static final long TAP_DURATION_MS        = 50;
+    public static final long LONG_PRESS_DURATION_MS = 800;
+    public static final long SWIPE_DURATION_MS      = 100;
+
+    // Extra time allowed for a chunk's callback before the batch is failed
+    private static final long CALLBACK_GRACE_MS = 1000;
+
+    // -------------------------------------------------------------------------
+    // Stroke
+    // -------------------------------------------------------------------------
+
+    /** One touch stroke in screen pixels, offset from its batch's start. */
+    public static final class Stroke {
+        public final int   type;
+        public final float x, y, endX, endY;
+        public final long  startMs;
+        public final long  durationMs;
+
+        public Stroke(int type, float x, float y, float endX, float endY,
+                      long startMs, long durationMs) {
+            this.type       = type;
+            this.x          = x;
+            this.y          = y;
+            this.endX       = endX;
+            this.endY       = endY;
+            this.startMs    = Math.max(0L, startMs);
+            this.durationMs = Math.max(1L, durationMs);
+        }
+
+        public static Stroke tap(float x, float y, long startMs, long durationMs) {
+            return new Stroke(TYPE_TAP, x, y, x, y, startMs, durationMs);
+        }
+
+        public static Stroke longPress(float x, float y, long startMs, long durationMs) {
+            return new Stroke(TYPE_LONG_PRESS, x, y, x, y, startMs, durationMs);
+        }
+
+        public static Stroke swipe(float sx, float sy, float ex, float ey,
+                                   long startMs, long durationMs) {
+            return new Stroke(TYPE_SWIPE, sx, sy, ex, ey, startMs, durationMs);
+        }
+
+        public long endMs() { return startMs + durationMs; }
+
+        GestureDescription.StrokeDescription toDescription(long offsetMs, long durationMs) {
+            Path path = new Path();
+            path.moveTo(x, y);
+            if (type == TYPE_SWIPE) path.lineTo(endX, endY);
+            return new GestureDescription.StrokeDescription(path, offsetMs, durationMs);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // Compilation
+    // -------------------------------------------------------------------------
+
+    /** One dispatchable gesture: strokes sent in a single IPC. */
+    public static final class Chunk {
+        public final GestureDescription gesture;
+        public final int                strokes;
+        public final long               delayMs;    // idle gap after the previous chunk
+        public final long               durationMs; // span of this chunk
+
+        Chunk(GestureDescription gesture, int strokes, long delayMs, long durationMs) {
+            this.gesture    = gesture;
+            this.strokes    = strokes;
+            this.delayMs    = delayMs;
+            this.durationMs = durationMs;
+        }
+    }
+
+    /**
+     * Splits {@code strokes} into gestures of at most {@code maxStrokes} strokes
+     * spanning at most {@code maxDurationMs}. Each chunk starts where the
+     * previous one ended. A stroke that could not fit before that point starts
+     * with the next chunk, so it runs late rather than being dropped.
+     */
+    public static List<Chunk> compile(List<Stroke> strokes, int maxStrokes, long maxDurationMs) {
+        List<Stroke> sorted = new ArrayList<>(strokes);
+        Collections.sort(sorted, (a, b) -> Long.compare(a.startMs, b.startMs));
+
+        List<Chunk> chunks = new ArrayList<>();
+        long prevEnd = 0;
+        int i = 0;
+        while (i < sorted.size()) {
+            long base = Math.max(prevEnd, sorted.get(i).startMs);
+            GestureDescription.Builder builder = new GestureDescription.Builder();
+            int count = 0;
+            long span = 0;
+            while (i < sorted.size() && count < maxStrokes) {
+                Stroke s = sorted.get(i);
+                long offset = Math.max(0L, s.startMs - base);
+                long duration = Math.min(s.durationMs, maxDurationMs);
+                if (count > 0 && offset + duration > maxDurationMs) break;
+                offset = Math.min(offset, maxDurationMs - duration);
+                builder.addStroke(s.toDescription(offset, duration));
+                span = Math.max(span, offset + duration);
+                count++;
+                i++;
+            }
+            chunks.add(new Chunk(builder.build(), count, base - prevEnd, span));
+            prevEnd = base + span;
+        }
+        return chunks;
+    }
+
+    // -------------------------------------------------------------------------
+    // Batch
+    // -------------------------------------------------------------------------
+
+    /** Receives a batch once it has completed, been cancelled or failed. */
+    public interface BatchListener {
+        void onBatchFinished(Batch batch);
+    }
+
+    /** Completion handle for one dispatched batch. */
+    public static final class Batch implements AdvancedActionSequencer.GestureHandle {
+        static final int PENDING   = 0;
+        static final int RUNNING   = 1;
+        static final int COMPLETED = 2;
+        static final int CANCELLED = 3;
+        static final int FAILED    = 4;
+
+        private final List<Chunk>    chunks;
+        private final int            strokeCount;
+        private final long           durationMs;
+        private final BatchListener  listener;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        // Touched only on the callback thread, except where noted
+        private int           nextChunk;
+        private int           completedStrokes;
+        private int           dispatchSeq;
+        private volatile int  state = PENDING;
+        private volatile boolean cancelRequested;
+        private final AtomicBoolean notified = new AtomicBoolean();
+
+        Batch(List<Chunk> chunks, int strokeCount, BatchListener listener) {
+            this.chunks      = chunks;
+            this.strokeCount = strokeCount;
+            this.listener    = listener;
+            long total = 0;
+            for (Chunk c : chunks) total += c.delayMs + c.durationMs;
+            this.durationMs = total;
+        }
+
+        /**
+         * Waits up to {@code timeoutMs} for the batch to finish. Returns true
+         * only if every stroke completed.
+         */
+        public boolean await(long timeoutMs) {
+            try {
+                done.await(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return state == COMPLETED;
+        }
+
+        /**
+         * Stops the batch before its next chunk; the chunk in flight still runs.
+         * A batch still queued behind another one never dispatches.
+         */
+        @Override
+        public void cancel() { cancelRequested = true; }
+
+        @Override
+        public int getActionCount()      { return strokeCount; }
+
+        public boolean isDone()          { return done.getCount() == 0; }
+        public boolean isSuccessful()    { return state == COMPLETED; }
+        public boolean isCancelled()     { return state == CANCELLED; }
+        public int getStrokeCount()      { return strokeCount; }
+        public int getGestureCount()     { return chunks.size(); }
+        public int getCompletedStrokes() { return completedStrokes; }
+
+        /** Expected wall time from first dispatch to last stroke end. */
+        public long getDurationMs()      { return durationMs; }
+    }
+
+    // -------------------------------------------------------------------------
+    // Fields
+    // -------------------------------------------------------------------------
+    private final AccessibilityService service;
+    private final HandlerThread        callbackThread;
+    private final Handler              handler;
+    private final int                  maxStrokes;
+    private final long                 maxDurationMs;
+
+    private final Object           lock    = new Object();
+    private final ArrayDeque<Batch> pending = new ArrayDeque<>();
+    private Batch                  current;
+    private boolean                released;
+
+    private final AtomicLong batchCount     = new AtomicLong();
+    private final AtomicLong gestureCount   = new AtomicLong();
+    private final AtomicLong strokeCount    = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong failedCount    = new AtomicLong();
+
+    public GestureCompiler(AccessibilityService service) {
+        this.service       = service;
+        this.maxStrokes    = GestureDescription.getMaxStrokeCount();
+        this.maxDurationMs = GestureDescription.getMaxGestureDuration();
+        callbackThread = new HandlerThread("GestureCallbacks");
+        callbackThread.start();
+        handler = new Handler(callbackThread.getLooper());
+    }
+
+    // -------------------------------------------------------------------------
+    // Dispatch
+    // -------------------------------------------------------------------------
+
+    /**
+     * Compiles {@code strokes} and queues them behind any batch in flight.
+     * Returns immediately; use the returned handle or {@code listener}
+     * (called on the callback thread) to track completion.
+     */
+    public Batch dispatch(List<Stroke> strokes, BatchListener listener) {
+        Batch batch = new Batch(compile(strokes, maxStrokes, maxDurationMs),
+                strokes.size(), listener);
+        batchCount.incrementAndGet();
+        gestureCount.addAndGet(batch.chunks.size());
+        strokeCount.addAndGet(strokes.size());
+
+        boolean start;
+        synchronized (lock) {
+            if (released) {
+                start = false;
+                batch.cancelRequested = true;
+                batch.state = Batch.CANCELLED;
+            } else if (current == null) {
+                current = batch;
+                start = true;
+            } else {
+                pending.add(batch);
+                start = false;
+            }
+        }
+        if (batch.state == Batch.CANCELLED) {
+            batch.done.countDown();
+            notifyListener(batch);
+        } else if (start) {
+            handler.post(() -> dispatchNext(batch));
+        }
+        return batch;
+    }
+
+    /** Convenience for a single stroke. */
+    public Batch dispatch(Stroke stroke) {
+        return dispatch(Collections.singletonList(stroke), null);
+    }
+
+    private void dispatchNext(Batch batch) {
+        if (batch.cancelRequested) {
+            finish(batch, Batch.CANCELLED);
+            return;
+        }
+        if (batch.nextChunk >= batch.chunks.size()) {
+            finish(batch, Batch.COMPLETED);
+            return;
+        }
+        batch.state = Batch.RUNNING;
+        Chunk chunk = batch.chunks.get(batch.nextChunk);
+        if (chunk.delayMs > 0) {
+            handler.postDelayed(() -> sendChunk(batch, chunk), chunk.delayMs);
+        } else {
+            sendChunk(batch, chunk);
+        }
+    }
+
+    private void sendChunk(Batch batch, Chunk chunk) {
+        if (batch.cancelRequested) {
+            finish(batch, Batch.CANCELLED);
+            return;
+        }
+        final int seq = ++batch.dispatchSeq;
+        boolean accepted;
+        try {
+            accepted = service.dispatchGesture(chunk.gesture,
+                    new AccessibilityService.GestureResultCallback() {
+                @Override
+                public void onCompleted(GestureDescription gesture) {
+                    if (batch.dispatchSeq != seq || batch.isDone()) return;
+                    batch.dispatchSeq++; // Disarm this chunk's watchdog
+                    batch.completedStrokes += chunk.strokes;
+                    batch.nextChunk++;
+                    dispatchNext(batch);
+                }
+
+                @Override
+                public void onCancelled(GestureDescription gesture) {
+                    if (batch.dispatchSeq != seq || batch.isDone()) return;
+                    finish(batch, Batch.CANCELLED);
+                }
+            }, handler);
+        } catch (Exception e) {
+            Log.e(TAG, "Gesture dispatch error", e);
+            accepted = false;
+        }
+        if (!accepted) {
+            finish(batch, Batch.FAILED);
+            return;
+        }
+
+        // Fail the batch if the callback never arrives (e.g. service torn down)
+        handler.postDelayed(() -> {
+            if (batch.dispatchSeq == seq && !batch.isDone()) {
+                Log.w(TAG, "Gesture callback timed out");
+                finish(batch, Batch.FAILED);
+            }
+        }, chunk.durationMs + CALLBACK_GRACE_MS);
+    }
+
+    private void finish(Batch batch, int state) {
+        if (batch.isDone()) return;
+        batch.state = state;
+        batch.dispatchSeq++;
+        if (state == Batch.CANCELLED) cancelledCount.incrementAndGet();
+        if (state == Batch.FAILED)    failedCount.incrementAndGet();
+        batch.done.countDown();
+        notifyListener(batch);
+
+        Batch next;
+        synchronized (lock) {
+            next = pending.poll();
+            current = next;
+        }
+        if (next != null) dispatchNext(next);
+    }
+
+    private static void notifyListener(Batch batch) {
+        if (batch.listener == null || !batch.notified.compareAndSet(false, true)) return;
+        try {
+            batch.listener.onBatchFinished(batch);
+        } catch (Exception e) {
+            Log.e(TAG, "Error in batch listener", e);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // Sequencer integration
+    // -------------------------------------------------------------------------
+
+    /** Parameter marking an action's coordinates as screen fractions. */
+    public static final String PARAM_NORMALIZED = "normalized";
+
+    /**
+     * Dispatches the leading run of touch actions as one batch; the listener
+     * runs on the callback thread once its strokes finish.
+     */
+    @Override
+    public Batch dispatchActions(List<PredictiveActionSystem.GameAction> actions, long[] offsetsMs,
+                                 final AdvancedActionSequencer.GestureListener listener) {
+        DisplayMetrics dm = service.getResources().getDisplayMetrics();
+        List<Stroke> strokes = new ArrayList<>(actions.size());
+        for (int i = 0; i < actions.size(); i++) {
+            Stroke s = toStroke(actions.get(i), offsetsMs[i], dm.widthPixels, dm.heightPixels);
+            if (s == null) break;
+            strokes.add(s);
+        }
+        if (strokes.isEmpty()) return null;
+        // Offsets are non-decreasing, so completed strokes are a prefix of the actions
+        return dispatch(strokes, batch -> listener.onGesturesFinished(
+                batch, batch.getCompletedStrokes(), batch.cancelRequested));
+    }
+
+    /**
+     * Maps a TAP / LONG_PRESS / SWIPE action to a stroke. Coordinates are
+     * pixels, or screen fractions when the action sets
+     * {@link #PARAM_NORMALIZED} to true. Returns null for actions that are
+     * not touch gestures.
+     */
+    static Stroke toStroke(PredictiveActionSystem.GameAction action, long startMs,
+                           int width, int height) {
+        if (action == null || action.getActionType() == null) return null;
+        Map<String, Object> p = action.getParameters();
+        boolean fractions = Boolean.TRUE.equals(p.get(PARAM_NORMALIZED));
+        int w = fractions ? width : 0;
+        int h = fractions ? height : 0;
+        try {
+            switch (action.getActionType().toUpperCase()) {
+                case "TAP":
+                case "CLICK":
+                    return Stroke.tap(coord(p.get("x"), w), coord(p.get("y"), h),
+                            startMs, duration(p, TAP_DURATION_MS));
+                case "LONG_PRESS":
+                    return Stroke.longPress(coord(p.get("x"), w), coord(p.get("y"), h),
+                            startMs, duration(p, LONG_PRESS_DURATION_MS));
+                case "SWIPE":
+                    return Stroke.swipe(
+                            coord(p.get("startX"), w), coord(p.get("startY"), h),
+                            coord(p.get("endX"), w),   coord(p.get("endY"), h),
+                            startMs, duration(p, SWIPE_DURATION_MS));
+                default:
+                    return null;
+            }
+        } catch (RuntimeException e) {
+            // Missing or non-numeric coordinates
+            return null;
+        }
+    }
+
+    /** Pixel coordinate; {@code extent} is the screen size for fractions, 0 for pixels. */
+    private static float coord(Object value, int extent) {
+        float v = ((Number) value).floatValue();
+        return extent > 0 ? v * extent : v;
+    }
+
+    private static long duration(Map<String, Object> p, long defaultMs) {
+        Object d = p.get("duration");
+        return d instanceof Number ? ((Number) d).longValue() : defaultMs;
+    }
+
+    // -------------------------------------------------------------------------
+    // Stats / lifecycle
+    // -------------------------------------------------------------------------
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> s = new HashMap<>();
+        long batches = batchCount.get();
+        s.put("batches",       batches);
+        s.put("gestures",      gestureCount.get());
+        s.put("strokes",       strokeCount.get());
+        s.put("cancelled",     cancelledCount.get());
+        s.put("failed",        failedCount.get());
+        s.put("strokesPerIpc", gestureCount.get() > 0
+                ? (double) strokeCount.get() / gestureCount.get() : 0.0);
+        synchronized (lock) {
+            s.put("queuedBatches", pending.size());
+        }
+        return s;
+    }
+
+    /** Cancels queued batches and stops the callback thread. */
+    public void release() {
+        List<Batch> dropped;
+        synchronized (lock) {
+            released = true;
+            dropped = new ArrayList<>(pending);
+            if (current != null) dropped.add(current);
+            pending.clear();
+            current = null;
+        }
+        // The callback thread is going away, so release waiters directly
+        for (Batch b : dropped) {
+            b.cancel();
+            if (!b.isDone()) {
+                b.state = Batch.CANCELLED;
+                b.done.countDown();
+                notifyListener(b);
+            }
+        }
+        callbackThread.quitSafely();
+    }
+}
@@ -358,38 +358,10 @@ public class AccessibilityUtils {
     @RequiresApi(api = Build.VERSION_CODES.N)
     public static boolean performTap(
             @NonNull AccessibilityService service, float x, float y, long timeout) {
-        GestureDescription.Builder builder = new GestureDescription.Builder();
         Path path = new Path();
         path.moveTo(x, y);
         
-        builder.addStroke(new GestureDescription.StrokeDescription(path, 0, 10));
-        GestureDescription gesture = builder.build();
-        
-        final CountDownLatch latch = new CountDownLatch(1);
-        final AtomicBoolean result = new AtomicBoolean(false);
-        
-        service.dispatchGesture(gesture, new AccessibilityService.GestureResultCallback() {
-            @Override
-            public void onCompleted(GestureDescription gestureDescription) {
-                result.set(true);
-                latch.countDown();
-            }
-            
-            @Override
-            public void onCancelled(GestureDescription gestureDescription) {
-                result.set(false);
-                latch.countDown();
-            }
-        }, null);
-        
-        try {
-            latch.await(timeout, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return false;
-        }
-        
-        return result.get();
+        return performStroke(service, new GestureDescription.StrokeDescription(path, 0, 10), timeout);
     }
     
     /**
@@ -398,41 +370,14 @@ public class AccessibilityUtils {
     @RequiresApi(api = Build.VERSION_CODES.N)
     public static boolean performLongPress(
             @NonNull AccessibilityService service, float x, float y, long timeout) {
-        GestureDescription.Builder builder = new GestureDescription.Builder();
-        Path path = new Path();
-        path.moveTo(x, y);
-        
         // Long press duration (ms)
         long pressDuration = 1000;
         
-        builder.addStroke(new GestureDescription.StrokeDescription(path, 0, pressDuration));
-        GestureDescription gesture = builder.build();
-        
-        final CountDownLatch latch = new CountDownLatch(1);
-        final AtomicBoolean result = new AtomicBoolean(false);
-        
-        service.dispatchGesture(gesture, new AccessibilityService.GestureResultCallback() {
-            @Override
-            public void onCompleted(GestureDescription gestureDescription) {
-                result.set(true);
-                latch.countDown();
-            }
-            
-            @Override
-            public void onCancelled(GestureDescription gestureDescription) {
-                result.set(false);
-                latch.countDown();
-            }
-        }, null);
-        
-        try {
-            latch.await(timeout, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return false;
-        }
+        Path path = new Path();
+        path.moveTo(x, y);
         
-        return result.get();
+        return performStroke(service,
+                new GestureDescription.StrokeDescription(path, 0, pressDuration), timeout);
     }
     
     /**
@@ -443,18 +388,35 @@ public class AccessibilityUtils {
             @NonNull AccessibilityService service,
             float startX, float startY, float endX, float endY,
             long duration, long timeout) {
-        GestureDescription.Builder builder = new GestureDescription.Builder();
         Path path = new Path();
         path.moveTo(startX, startY);
         path.lineTo(endX, endY);
         
-        builder.addStroke(new GestureDescription.StrokeDescription(path, 0, duration));
-        GestureDescription gesture = builder.build();
-        
+        return performStroke(service,
+                new GestureDescription.StrokeDescription(path, 0, duration), timeout);
+    }
+    
+    /**
+     * Dispatch a single-stroke gesture and wait for it to finish
+     */
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    private static boolean performStroke(
+            @NonNull AccessibilityService service,
+            GestureDescription.StrokeDescription stroke, long timeout) {
+        GestureDescription gesture = new GestureDescription.Builder().addStroke(stroke).build();
+        return dispatchAndWait(service, gesture, timeout);
+    }
+    
+    /**
+     * Dispatch one gesture and block until its callback or the timeout
+     */
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    private static boolean dispatchAndWait(
+            @NonNull AccessibilityService service, GestureDescription gesture, long timeout) {
         final CountDownLatch latch = new CountDownLatch(1);
         final AtomicBoolean result = new AtomicBoolean(false);
         
-        service.dispatchGesture(gesture, new AccessibilityService.GestureResultCallback() {
+        boolean accepted = service.dispatchGesture(gesture, new AccessibilityService.GestureResultCallback() {
             @Override
             public void onCompleted(GestureDescription gestureDescription) {
                 result.set(true);
@@ -467,6 +429,9 @@ public class AccessibilityUtils {
                 latch.countDown();
             }
         }, null);
+        if (!accepted) {
+            return false;
+        }
         
         try {
             latch.await(timeout, TimeUnit.MILLISECONDS);